@@ -19,10 +19,15 @@ import static com.google.common.util.concurrent.MoreExecutors.listeningDecorator
 import static google.registry.backup.ExportCommitLogDiffAction.LOWER_CHECKPOINT_TIME_PARAM;
 import static google.registry.backup.ExportCommitLogDiffAction.UPPER_CHECKPOINT_TIME_PARAM;
 import static google.registry.backup.RestoreCommitLogsAction.FROM_TIME_PARAM;
+import static google.registry.backup.RestoreEntitiesAction.KEY_PARAM;
+import static google.registry.backup.RestoreEntitiesAction.ROOT_KEY_PARAM;
+import static google.registry.backup.RestoreEntitiesAction.TARGET_TIME_PARAM;
 import static google.registry.request.RequestParameters.extractRequiredDatetimeParameter;
 import static google.registry.request.RequestParameters.extractRequiredParameter;
+import static google.registry.request.RequestParameters.extractSetOfParameters;
 import static java.util.concurrent.Executors.newFixedThreadPool;
 
+import com.google.common.collect.ImmutableSet;
 import com.google.common.primitives.Ints;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import dagger.Module;
@@ -80,6 +85,24 @@ public final class BackupModule {
     return extractRequiredDatetimeParameter(req, FROM_TIME_PARAM);
   }
 
+  @Provides
+  @Parameter(TARGET_TIME_PARAM)
+  static DateTime provideTargetTime(HttpServletRequest req) {
+    return extractRequiredDatetimeParameter(req, TARGET_TIME_PARAM);
+  }
+
+  @Provides
+  @Parameter(KEY_PARAM)
+  static ImmutableSet<String> provideKeys(HttpServletRequest req) {
+    return extractSetOfParameters(req, KEY_PARAM);
+  }
+
+  @Provides
+  @Parameter(ROOT_KEY_PARAM)
+  static ImmutableSet<String> provideRootKeys(HttpServletRequest req) {
+    return extractSetOfParameters(req, ROOT_KEY_PARAM);
+  }
+
   @Provides
   @Backups
   static ListeningExecutorService provideListeningExecutorService() {
@@ -19,12 +19,14 @@ import static google.registry.model.ofy.ObjectifyService.ofy;
 import com.google.appengine.api.datastore.EntityTranslator;
 import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
 import com.google.storage.onestore.v3.OnestoreEntity.EntityProto;
 import google.registry.model.ImmutableObject;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PushbackInputStream;
 import java.util.Iterator;
 
 /** Utilities for working with backups. */
@@ -52,11 +54,30 @@ public class BackupUtils {
    * Return an iterator of {@link ImmutableObject} instances deserialized from the given stream.
    *
    * <p>This parses out delimited protocol buffers for raw datastore entities and then Ofy-loads
-   * those as {@link ImmutableObject}.
+   * those as {@link ImmutableObject}. Streams in the {@link BlockCompressedDiffFile} format are
+   * recognized by their leading magic bytes and decompressed block by block.
    *
    * <p>The iterator reads from the stream on demand, and as such will fail if the stream is closed.
    */
-  public static Iterator<ImmutableObject> createDeserializingIterator(final InputStream input) {
+  public static Iterator<ImmutableObject> createDeserializingIterator(InputStream input) {
+    PushbackInputStream pushbackInput =
+        new PushbackInputStream(input, BlockCompressedDiffFile.MAGIC.length);
+    try {
+      byte[] start = new byte[BlockCompressedDiffFile.MAGIC.length];
+      int length = ByteStreams.read(pushbackInput, start, 0, start.length);
+      if (length == start.length && BlockCompressedDiffFile.hasMagic(start)) {
+        BlockCompressedDiffFile.getVersion(start);  // Rejects versions that can't be read.
+        return BlockCompressedDiffFile.createDeserializingIterator(pushbackInput);
+      }
+      pushbackInput.unread(start, 0, length);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return createDelimitedIterator(pushbackInput);
+  }
+
+  /** Returns an iterator over a plain sequence of delimited entity protos. */
+  static Iterator<ImmutableObject> createDelimitedIterator(final InputStream input) {
     return new AbstractIterator<ImmutableObject>() {
       @Override
       protected ImmutableObject computeNext() {
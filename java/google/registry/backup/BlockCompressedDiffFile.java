@@ -0,0 +1,440 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package google.registry.backup;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static google.registry.backup.BackupUtils.createDelimitedIterator;
+import static google.registry.backup.BackupUtils.serializeEntity;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.SetMultimap;
+import com.google.common.io.CountingOutputStream;
+import com.google.common.primitives.Ints;
+import com.googlecode.objectify.Key;
+import google.registry.model.ImmutableObject;
+import google.registry.model.ofy.CommitLogManifest;
+import google.registry.model.ofy.CommitLogMutation;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import javax.annotation.WillNotClose;
+
+/**
+ * Block-compressed format for commit log diff files.
+ *
+ * <p>The original format is a plain sequence of delimited entity protos, which is bulky and can
+ * only be read from start to finish. In this format, the same sequence of entities is split into
+ * blocks of roughly equal uncompressed size, each of which is deflated on its own. A block never
+ * splits the entities of a transaction. The file is laid out as follows, with all integers in big
+ * endian order:
+ *
+ * <pre>   {@code
+ *   magic                    5 bytes, see MAGIC, the last of which is the format version
+ *   block*                   int compressedLength > 0, int uncompressedLength, int entityCount,
+ *                            then compressedLength bytes of deflated delimited entity protos
+ *   end of blocks            int 0
+ *   index                    int blockCount, then for each block: long offset of the block,
+ *                            int compressedLength, int uncompressedLength, int entityCount
+ *   entity group index       version 3 only: int groupCount, then for each entity group:
+ *                            UTF web-safe root key, int count, then count ints numbering the
+ *                            blocks that touch it
+ *   footer                   long offset of the index
+ *   }</pre>
+ *
+ * <p>Sequential readers can stream the blocks without looking at the index. The index at the end
+ * lets readers find and decompress any block without reading the ones before it, and the entity
+ * group index tells them which blocks hold the transactions that saved or deleted anything in a
+ * given entity group. A reader interested in a few entity groups can therefore read the footer,
+ * the index and just those blocks with ranged reads, rather than the whole file.
+ *
+ * <p>A delimited entity proto can't start with a zero byte, since that would be an empty entity,
+ * so the first byte of {@link #MAGIC} tells the two formats apart.
+ *
+ * <p>Version 2 files have no entity group index. They are still read, as if every block touched
+ * every entity group. Files of any other version are rejected, rather than misread.
+ *
+ * @see BackupUtils#createDeserializingIterator
+ */
+final class BlockCompressedDiffFile {
+
+  /** Bytes at the start of every file written in this format. The last byte is the version. */
+  static final byte[] MAGIC = {0, 'C', 'L', 'D', 3};
+
+  /** Version written by {@link Writer}. */
+  static final int CURRENT_VERSION = MAGIC[MAGIC.length - 1];
+
+  /** Version of files written before the entity group index was added. */
+  static final int VERSION_WITHOUT_ENTITY_GROUP_INDEX = 2;
+
+  /** Location and size of a block, as recorded in the index. */
+  @AutoValue
+  abstract static class BlockInfo {
+    abstract long offset();
+    abstract int compressedLength();
+    abstract int uncompressedLength();
+    abstract int entityCount();
+
+    static BlockInfo create(
+        long offset, int compressedLength, int uncompressedLength, int entityCount) {
+      return new AutoValue_BlockCompressedDiffFile_BlockInfo(
+          offset, compressedLength, uncompressedLength, entityCount);
+    }
+  }
+
+  /** Block index and entity group index of a file in this format. */
+  @AutoValue
+  abstract static class Index {
+    abstract ImmutableList<BlockInfo> blocks();
+
+    /** False for version 2 files, which don't record the entity groups of their blocks. */
+    abstract boolean hasEntityGroupIndex();
+
+    /** Numbers of the blocks that touch each entity group, keyed by web-safe root key. */
+    abstract ImmutableSetMultimap<String, Integer> blocksByEntityGroup();
+
+    static Index create(
+        ImmutableList<BlockInfo> blocks,
+        ImmutableSetMultimap<String, Integer> blocksByEntityGroup) {
+      return new AutoValue_BlockCompressedDiffFile_Index(blocks, true, blocksByEntityGroup);
+    }
+
+    static Index createWithoutEntityGroupIndex(ImmutableList<BlockInfo> blocks) {
+      return new AutoValue_BlockCompressedDiffFile_Index(
+          blocks, false, ImmutableSetMultimap.<String, Integer>of());
+    }
+
+    /**
+     * Returns the blocks that touch any of the given entity groups, in file order, or all of them
+     * if there is no entity group index.
+     */
+    ImmutableList<BlockInfo> getBlocksForEntityGroups(Iterable<String> rootKeys) {
+      if (!hasEntityGroupIndex()) {
+        return blocks();
+      }
+      SortedSet<Integer> blockNumbers = new TreeSet<>();
+      for (String rootKey : rootKeys) {
+        blockNumbers.addAll(blocksByEntityGroup().get(rootKey));
+      }
+      ImmutableList.Builder<BlockInfo> result = new ImmutableList.Builder<>();
+      for (int blockNumber : blockNumbers) {
+        result.add(blocks().get(blockNumber));
+      }
+      return result.build();
+    }
+  }
+
+  /** Source of byte ranges of a file in this format, such as ranged reads of a GCS object. */
+  interface ByteRangeReader {
+    byte[] read(long offset, int length) throws IOException;
+  }
+
+  /** Writes entities to a file in this format, grouping them into blocks. */
+  static final class Writer implements AutoCloseable {
+
+    private final CountingOutputStream output;
+    private final DataOutputStream dataOutput;
+    private final int blockSize;
+    private final ByteArrayOutputStream block = new ByteArrayOutputStream();
+    private final List<BlockInfo> index = new ArrayList<>();
+    private final SetMultimap<String, Integer> blocksByEntityGroup = LinkedHashMultimap.create();
+    private final Set<String> blockEntityGroups = new HashSet<>();
+    private int entityCount;
+    private boolean isClosed;
+
+    /**
+     * @param output stream to write to, which is not closed by this object
+     * @param blockSize uncompressed size above which a block is ended
+     */
+    Writer(@WillNotClose OutputStream output, int blockSize) throws IOException {
+      checkArgument(blockSize > 0, "blockSize must be positive");
+      this.output = new CountingOutputStream(output);
+      this.dataOutput = new DataOutputStream(this.output);
+      this.blockSize = blockSize;
+      this.dataOutput.write(MAGIC);
+    }
+
+    /**
+     * Writes a group of entities that must be read back together, such as a commit log manifest
+     * and its mutations, to the current block.
+     */
+    void write(Iterable<? extends ImmutableObject> entities) throws IOException {
+      checkState(!isClosed, "Writer closed");
+      for (ImmutableObject entity : entities) {
+        serializeEntity(entity, block);
+        blockEntityGroups.addAll(getEntityGroups(entity));
+        entityCount++;
+      }
+      if (block.size() >= blockSize) {
+        endBlock();
+      }
+    }
+
+    /** Ends the last block and writes the index. */
+    @Override
+    public void close() throws IOException {
+      if (isClosed) {
+        return;
+      }
+      endBlock();
+      dataOutput.writeInt(0);
+      long indexOffset = output.getCount();
+      dataOutput.writeInt(index.size());
+      for (BlockInfo info : index) {
+        dataOutput.writeLong(info.offset());
+        dataOutput.writeInt(info.compressedLength());
+        dataOutput.writeInt(info.uncompressedLength());
+        dataOutput.writeInt(info.entityCount());
+      }
+      dataOutput.writeInt(blocksByEntityGroup.keySet().size());
+      for (String rootKey : blocksByEntityGroup.keySet()) {
+        Set<Integer> blockNumbers = blocksByEntityGroup.get(rootKey);
+        dataOutput.writeUTF(rootKey);
+        dataOutput.writeInt(blockNumbers.size());
+        for (int blockNumber : blockNumbers) {
+          dataOutput.writeInt(blockNumber);
+        }
+      }
+      dataOutput.writeLong(indexOffset);
+      dataOutput.flush();
+      isClosed = true;
+    }
+
+    private void endBlock() throws IOException {
+      if (block.size() == 0) {
+        return;
+      }
+      byte[] compressed = deflate(block.toByteArray());
+      BlockInfo info =
+          BlockInfo.create(output.getCount(), compressed.length, block.size(), entityCount);
+      dataOutput.writeInt(info.compressedLength());
+      dataOutput.writeInt(info.uncompressedLength());
+      dataOutput.writeInt(info.entityCount());
+      dataOutput.write(compressed);
+      for (String rootKey : blockEntityGroups) {
+        blocksByEntityGroup.put(rootKey, index.size());
+      }
+      blockEntityGroups.clear();
+      index.add(info);
+      block.reset();
+      entityCount = 0;
+    }
+  }
+
+  /**
+   * Returns the web-safe root keys of the entity groups that a commit log entity saves or deletes
+   * entities in, which is none for anything but manifests and mutations.
+   */
+  static ImmutableSet<String> getEntityGroups(ImmutableObject entity) {
+    if (entity instanceof CommitLogManifest) {
+      ImmutableSet.Builder<String> rootKeys = new ImmutableSet.Builder<>();
+      for (Key<?> key : ((CommitLogManifest) entity).getDeletions()) {
+        rootKeys.add(key.getRoot().getString());
+      }
+      return rootKeys.build();
+    }
+    if (entity instanceof CommitLogMutation) {
+      // The name of a mutation's key is the web-safe key of the entity that it saves.
+      Key<?> entityKey = Key.create(Key.create(entity).getName());
+      return ImmutableSet.of(entityKey.getRoot().getString());
+    }
+    return ImmutableSet.of();
+  }
+
+  /**
+   * Returns true if the bytes start with {@link #MAGIC}, apart from the version byte, which
+   * {@link #getVersion} checks.
+   */
+  static boolean hasMagic(byte[] start) {
+    if (start.length < MAGIC.length) {
+      return false;
+    }
+    for (int i = 0; i < MAGIC.length - 1; i++) {
+      if (start[i] != MAGIC[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the version of a file in this format, given its first {@code MAGIC.length} bytes.
+   *
+   * @throws IllegalArgumentException if the bytes aren't the magic of a version that can be read
+   */
+  static int getVersion(byte[] start) {
+    checkArgument(hasMagic(start), "Not a block-compressed diff file");
+    int version = start[MAGIC.length - 1];
+    checkArgument(
+        version == CURRENT_VERSION || version == VERSION_WITHOUT_ENTITY_GROUP_INDEX,
+        "Unsupported block-compressed diff file version %s",
+        version);
+    return version;
+  }
+
+  /**
+   * Returns an iterator over the entities in a file in this format, reading blocks on demand. The
+   * blocks are laid out the same way in every version.
+   *
+   * @param input stream positioned just after the {@link #MAGIC}
+   */
+  static Iterator<ImmutableObject> createDeserializingIterator(InputStream input) {
+    final DataInputStream dataInput = new DataInputStream(input);
+    return new AbstractIterator<ImmutableObject>() {
+      private Iterator<ImmutableObject> blockEntities =
+          ImmutableList.<ImmutableObject>of().iterator();
+
+      @Override
+      protected ImmutableObject computeNext() {
+        try {
+          while (!blockEntities.hasNext()) {
+            int compressedLength = dataInput.readInt();
+            if (compressedLength == 0) {
+              return endOfData();
+            }
+            int uncompressedLength = dataInput.readInt();
+            dataInput.readInt();  // The entity count is only needed by the index.
+            byte[] compressed = new byte[compressedLength];
+            dataInput.readFully(compressed);
+            blockEntities = createDelimitedIterator(
+                new ByteArrayInputStream(inflate(compressed, uncompressedLength)));
+          }
+          return blockEntities.next();
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }};
+  }
+
+  /** Reads the index of a whole file in this format. */
+  static Index readIndex(final byte[] file) throws IOException {
+    return readIndex(byteArrayReader(file), file.length, getVersion(file));
+  }
+
+  /**
+   * Reads the index of a file in this format with two ranged reads.
+   *
+   * @param version the version returned by {@link #getVersion} for the start of the file
+   */
+  static Index readIndex(ByteRangeReader reader, long fileLength, int version) throws IOException {
+    long indexOffset = new DataInputStream(
+        new ByteArrayInputStream(reader.read(fileLength - 8, 8))).readLong();
+    DataInputStream dataInput = new DataInputStream(new ByteArrayInputStream(
+        reader.read(indexOffset, Ints.checkedCast(fileLength - 8 - indexOffset))));
+    int blockCount = dataInput.readInt();
+    ImmutableList.Builder<BlockInfo> blocks = new ImmutableList.Builder<>();
+    for (int i = 0; i < blockCount; i++) {
+      blocks.add(BlockInfo.create(
+          dataInput.readLong(), dataInput.readInt(), dataInput.readInt(), dataInput.readInt()));
+    }
+    if (version == VERSION_WITHOUT_ENTITY_GROUP_INDEX) {
+      return Index.createWithoutEntityGroupIndex(blocks.build());
+    }
+    int groupCount = dataInput.readInt();
+    ImmutableSetMultimap.Builder<String, Integer> blocksByEntityGroup =
+        new ImmutableSetMultimap.Builder<>();
+    for (int i = 0; i < groupCount; i++) {
+      String rootKey = dataInput.readUTF();
+      int count = dataInput.readInt();
+      for (int j = 0; j < count; j++) {
+        blocksByEntityGroup.put(rootKey, dataInput.readInt());
+      }
+    }
+    return Index.create(blocks.build(), blocksByEntityGroup.build());
+  }
+
+  /** Returns the entities of a single block of a whole file in this format. */
+  static ImmutableList<ImmutableObject> readBlock(byte[] file, BlockInfo info) throws IOException {
+    return readBlock(byteArrayReader(file), info);
+  }
+
+  /** Returns the entities of a single block of a file in this format, with one ranged read. */
+  static ImmutableList<ImmutableObject> readBlock(ByteRangeReader reader, BlockInfo info)
+      throws IOException {
+    // Skip the three ints before the compressed data.
+    byte[] compressed = reader.read(info.offset() + 12, info.compressedLength());
+    return ImmutableList.copyOf(createDelimitedIterator(
+        new ByteArrayInputStream(inflate(compressed, info.uncompressedLength()))));
+  }
+
+  private static ByteRangeReader byteArrayReader(final byte[] file) {
+    return new ByteRangeReader() {
+      @Override
+      public byte[] read(long offset, int length) {
+        int start = Ints.checkedCast(offset);
+        return Arrays.copyOfRange(file, start, start + length);
+      }};
+  }
+
+  private static byte[] deflate(byte[] data) throws IOException {
+    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    try {
+      deflater.setInput(data);
+      deflater.finish();
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 4 + 64);
+      byte[] buffer = new byte[8192];
+      while (!deflater.finished()) {
+        compressed.write(buffer, 0, deflater.deflate(buffer));
+      }
+      return compressed.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private static byte[] inflate(byte[] compressed, int uncompressedLength) {
+    Inflater inflater = new Inflater(true);
+    try {
+      inflater.setInput(compressed);
+      byte[] data = new byte[uncompressedLength];
+      int length = 0;
+      while (length < uncompressedLength) {
+        int n = inflater.inflate(data, length, uncompressedLength - length);
+        if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+          break;
+        }
+        length += n;
+      }
+      checkState(length == uncompressedLength,
+          "Block inflated to %s bytes instead of %s", length, uncompressedLength);
+      return data;
+    } catch (DataFormatException e) {
+      throw new IllegalStateException("Corrupt block", e);
+    } finally {
+      inflater.end();
+    }
+  }
+
+  private BlockCompressedDiffFile() {}
+}
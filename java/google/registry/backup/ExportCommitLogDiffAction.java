@@ -58,7 +58,13 @@ import javax.annotation.Nullable;
 import javax.inject.Inject;
 import org.joda.time.DateTime;
 
-/** Action that exports the diff between two commit log checkpoints to GCS. */
+/**
+ * Action that exports the diff between two commit log checkpoints to GCS.
+ *
+ * <p>When {@code commitLogDiffExportBlockSize} is positive, the diff is written in the {@link
+ * BlockCompressedDiffFile} format, with each transaction kept within a single block. Otherwise it
+ * is written as a plain sequence of delimited entity protos. Restores can read either format.
+ */
 @Action(
     path = ExportCommitLogDiffAction.PATH,
     method = Action.Method.POST,
@@ -76,6 +82,7 @@ public final class ExportCommitLogDiffAction implements Runnable {
   @Inject GcsService gcsService;
   @Inject @Config("commitLogGcsBucket") String gcsBucket;
   @Inject @Config("commitLogDiffExportBatchSize") int batchSize;
+  @Inject @Config("commitLogDiffExportBlockSize") int blockSize;
   @Inject @Parameter(LOWER_CHECKPOINT_TIME_PARAM) DateTime lowerCheckpointTime;
   @Inject @Parameter(UPPER_CHECKPOINT_TIME_PARAM) DateTime upperCheckpointTime;
   @Inject ExportCommitLogDiffAction() {}
@@ -102,9 +109,10 @@ public final class ExportCommitLogDiffAction implements Runnable {
             .addUserMetadata(LOWER_BOUND_CHECKPOINT, lowerCheckpointTime.toString())
             .addUserMetadata(UPPER_BOUND_CHECKPOINT, upperCheckpointTime.toString())
             .addUserMetadata(NUM_TRANSACTIONS, Integer.toString(sortedKeys.size()))
-            .build()))) {
+            .build()));
+        DiffWriter writer = createDiffWriter(gcsStream)) {
       // Export the upper checkpoint itself.
-      serializeEntity(upperCheckpoint, gcsStream);
+      writer.write(asList(upperCheckpoint));
       // If there are no manifests to export, stop early, now that we've written out the file with
       // the checkpoint itself (which is needed for restores, even if it's empty).
       if (sortedKeys.isEmpty()) {
@@ -127,7 +135,7 @@ public final class ExportCommitLogDiffAction implements Runnable {
         if (i + 1 < keyChunks.size()) {
           nextChunkToExport = ofy().load().keys(keyChunks.get(i + 1));
         }
-        exportChunk(gcsStream, chunkValues);
+        exportChunk(writer, chunkValues);
         logger.infofmt("Exported %d manifests", chunkValues.size());
       }
     } catch (IOException e) {
@@ -199,17 +207,53 @@ public final class ExportCommitLogDiffAction implements Runnable {
   }
 
   /** Writes a chunks-worth of manifests and associated mutations to GCS. */
-  private void exportChunk(OutputStream gcsStream, Collection<CommitLogManifest> chunk)
+  private void exportChunk(DiffWriter writer, Collection<CommitLogManifest> chunk)
       throws IOException {
     // Kickoff async loads for all the manifests in the chunk.
-    ImmutableList.Builder<Iterable<? extends ImmutableObject>> entities =
+    ImmutableList.Builder<Iterable<? extends ImmutableObject>> transactions =
         new ImmutableList.Builder<>();
     for (CommitLogManifest manifest : chunk) {
-      entities.add(asList(manifest));
-      entities.add(ofy().load().type(CommitLogMutation.class).ancestor(manifest));
+      transactions.add(concat(
+          asList(manifest), ofy().load().type(CommitLogMutation.class).ancestor(manifest)));
     }
-    for (ImmutableObject entity : concat(entities.build())) {
-      serializeEntity(entity, gcsStream);
+    for (Iterable<? extends ImmutableObject> transaction : transactions.build()) {
+      writer.write(transaction);
     }
   }
+
+  /** Returns a writer for the configured diff file format. */
+  private DiffWriter createDiffWriter(final OutputStream gcsStream) throws IOException {
+    if (blockSize > 0) {
+      final BlockCompressedDiffFile.Writer blockWriter =
+          new BlockCompressedDiffFile.Writer(gcsStream, blockSize);
+      return new DiffWriter() {
+        @Override
+        public void write(Iterable<? extends ImmutableObject> transaction) throws IOException {
+          blockWriter.write(transaction);
+        }
+
+        @Override
+        public void close() throws IOException {
+          blockWriter.close();
+        }};
+    }
+    return new DiffWriter() {
+      @Override
+      public void write(Iterable<? extends ImmutableObject> transaction) throws IOException {
+        for (ImmutableObject entity : transaction) {
+          serializeEntity(entity, gcsStream);
+        }
+      }
+
+      @Override
+      public void close() {}};
+  }
+
+  /** Writes the entities of a diff file, one transaction at a time. */
+  private interface DiffWriter extends AutoCloseable {
+    void write(Iterable<? extends ImmutableObject> transaction) throws IOException;
+
+    @Override
+    void close() throws IOException;
+  }
 }
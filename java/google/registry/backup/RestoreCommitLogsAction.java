@@ -14,6 +14,7 @@
 
 package google.registry.backup;
 
+import static com.google.appengine.api.datastore.EntityTranslator.convertToPb;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.collect.Iterators.peekingIterator;
 import static google.registry.backup.BackupUtils.createDeserializingIterator;
@@ -27,11 +28,12 @@ import com.google.appengine.tools.cloudstorage.GcsFileMetadata;
 import com.google.appengine.tools.cloudstorage.GcsService;
 import com.google.common.base.Function;
 import com.google.common.collect.FluentIterable;
-import com.google.common.collect.Lists;
 import com.google.common.collect.PeekingIterator;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import com.googlecode.objectify.Key;
-import com.googlecode.objectify.Result;
-import com.googlecode.objectify.util.ResultNow;
+import google.registry.backup.BackupModule.Backups;
 import google.registry.config.RegistryEnvironment;
 import google.registry.model.ImmutableObject;
 import google.registry.model.ofy.CommitLogBucket;
@@ -46,7 +48,9 @@ import google.registry.util.Retrier;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.channels.Channels;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -55,7 +59,17 @@ import java.util.concurrent.Callable;
 import javax.inject.Inject;
 import org.joda.time.DateTime;
 
-/** Restore Registry 2 commit logs from GCS to datastore. */
+/**
+ * Restore Registry 2 commit logs from GCS to datastore.
+ *
+ * <p>Restoring one transaction at a time costs a serial datastore round trip per transaction, so
+ * transactions are instead read in batches of {@link #TRANSACTIONS_PER_BATCH}, which may span diff
+ * files. Each transaction in a batch is assigned to a wave, which is one more than the last wave
+ * that touched any of its entity groups. The transactions in a wave therefore touch disjoint
+ * entity groups and can be written in any order, so each wave's saves and deletes are split into
+ * datastore-sized chunks and written in parallel. Waves are applied one after another, which
+ * preserves the commit order of the transactions within every entity group.
+ */
 @Action(
     path = RestoreCommitLogsAction.PATH,
     method = Action.Method.POST,
@@ -66,6 +80,15 @@ public class RestoreCommitLogsAction implements Runnable {
 
   static final int BLOCK_SIZE = 1024 * 1024;  // Buffer 1mb at a time, for no particular reason.
 
+  /** Number of transactions to read before applying them in parallel waves. */
+  static final int TRANSACTIONS_PER_BATCH = 1000;
+
+  /** Maximum number of entities or keys in a single datastore put or delete. */
+  static final int MAX_ENTITIES_PER_CALL = 500;
+
+  /** Maximum estimated size of a single put, well below datastore's limit on request size. */
+  static final int MAX_BYTES_PER_PUT = 5 * 1024 * 1024;
+
   static final String PATH = "/_dr/task/restoreCommitLogs";
   static final String DRY_RUN_PARAM = "dryRun";
   static final String FROM_TIME_PARAM = "fromTime";
@@ -76,6 +99,7 @@ public class RestoreCommitLogsAction implements Runnable {
   @Inject DatastoreService datastoreService;
   @Inject GcsDiffFileLister diffLister;
   @Inject Retrier retrier;
+  @Inject @Backups ListeningExecutorService executor;
   @Inject RestoreCommitLogsAction() {}
 
   @Override
@@ -94,6 +118,7 @@ public class RestoreCommitLogsAction implements Runnable {
     }
     Map<Integer, DateTime> bucketTimestamps = new HashMap<>();
     CommitLogCheckpoint lastCheckpoint = null;
+    List<Transaction> batch = new ArrayList<>();
     for (GcsFileMetadata metadata : diffFiles) {
       logger.info("Restoring: " + metadata.getFilename().getObjectName());
       try (InputStream input = Channels.newInputStream(
@@ -103,13 +128,20 @@ public class RestoreCommitLogsAction implements Runnable {
         lastCheckpoint = (CommitLogCheckpoint) commitLogs.next();
         saveOfy(asList(lastCheckpoint));  // Save the checkpoint itself.
         while (commitLogs.hasNext()) {
-          CommitLogManifest manifest = restoreOneTransaction(commitLogs);
-          bucketTimestamps.put(manifest.getBucketId(), manifest.getCommitTime());
+          Transaction transaction = readOneTransaction(commitLogs);
+          bucketTimestamps.put(
+              transaction.manifest.getBucketId(), transaction.manifest.getCommitTime());
+          batch.add(transaction);
+          if (batch.size() >= TRANSACTIONS_PER_BATCH) {
+            restoreBatch(batch);
+            batch.clear();
+          }
         }
       } catch (IOException e) {
         throw new RuntimeException(e);
       }
     }
+    restoreBatch(batch);
     // Restore the CommitLogCheckpointRoot and CommitLogBuckets.
     saveOfy(FluentIterable.from(bucketTimestamps.entrySet())
         .transform(new Function<Entry<Integer, DateTime>, ImmutableObject> () {
@@ -124,47 +156,128 @@ public class RestoreCommitLogsAction implements Runnable {
   }
 
   /**
-   * Restore the contents of one transaction to datastore.
+   * Reads the contents of one transaction.
    *
    * <p>The objects to delete are listed in the {@link CommitLogManifest}, which will be the first
    * object in the iterable. The objects to save follow, each as a {@link CommitLogMutation}. We
    * restore by deleting the deletes and recreating the saves from their proto form. We also save
    * the commit logs themselves back to datastore, so that the commit log system itself is
    * transparently restored alongside the data.
-   *
-   * @return the manifest, for use in restoring the {@link CommitLogBucket}.
    */
-  private CommitLogManifest restoreOneTransaction(PeekingIterator<ImmutableObject> commitLogs) {
-    final CommitLogManifest manifest = (CommitLogManifest) commitLogs.next();
-    Result<?> deleteResult = deleteAsync(manifest.getDeletions());
-    List<Entity> entitiesToSave = Lists.newArrayList(ofy().save().toEntity(manifest));
+  private static Transaction readOneTransaction(PeekingIterator<ImmutableObject> commitLogs) {
+    Transaction transaction = new Transaction((CommitLogManifest) commitLogs.next());
+    for (Key<?> key : transaction.manifest.getDeletions()) {
+      transaction.keysToDelete.add(key.getRaw());
+      transaction.entityGroups.add(key.getRoot().getRaw());
+    }
+    Entity manifestEntity = ofy().save().toEntity(transaction.manifest);
+    transaction.addSave(manifestEntity, convertToPb(manifestEntity).toByteArray().length);
     while (commitLogs.hasNext() && commitLogs.peek() instanceof CommitLogMutation) {
       CommitLogMutation mutation = (CommitLogMutation) commitLogs.next();
-      entitiesToSave.add(ofy().save().toEntity(mutation));
-      entitiesToSave.add(EntityTranslator.createFromPbBytes(mutation.getEntityProtoBytes()));
-    }
-    saveRaw(entitiesToSave);
-    try {
-      deleteResult.now();
-    } catch (Exception e) {
-      retry(new Runnable() {
-        @Override
-        public void run() {
-          deleteAsync(manifest.getDeletions()).now();
-        }});
-    }
-    return manifest;
+      byte[] entityProtoBytes = mutation.getEntityProtoBytes();
+      Entity entity = EntityTranslator.createFromPbBytes(entityProtoBytes);
+      // The mutation is dominated by its copy of the entity, so the sizes are about the same.
+      transaction.addSave(ofy().save().toEntity(mutation), entityProtoBytes.length);
+      transaction.addSave(entity, entityProtoBytes.length);
+      transaction.entityGroups.add(getRoot(entity.getKey()));
+    }
+    return transaction;
+  }
+
+  /** Restores a batch of transactions in waves of transactions with disjoint entity groups. */
+  private void restoreBatch(List<Transaction> batch) {
+    if (batch.isEmpty()) {
+      return;
+    }
+    Map<com.google.appengine.api.datastore.Key, Integer> lastWaves = new HashMap<>();
+    List<List<Transaction>> waves = new ArrayList<>();
+    for (Transaction transaction : batch) {
+      int wave = 0;
+      for (com.google.appengine.api.datastore.Key group : transaction.entityGroups) {
+        Integer lastWave = lastWaves.get(group);
+        if (lastWave != null) {
+          wave = Math.max(wave, lastWave + 1);
+        }
+      }
+      for (com.google.appengine.api.datastore.Key group : transaction.entityGroups) {
+        lastWaves.put(group, wave);
+      }
+      if (wave == waves.size()) {
+        waves.add(new ArrayList<Transaction>());
+      }
+      waves.get(wave).add(transaction);
+    }
+    logger.infofmt("Restoring %d transactions in %d waves", batch.size(), waves.size());
+    for (List<Transaction> wave : waves) {
+      restoreWave(wave);
+    }
   }
 
-  private void saveRaw(final List<Entity> entitiesToSave) {
+  /** Writes all the saves and deletes of a wave in parallel chunks, and waits for them all. */
+  private void restoreWave(List<Transaction> wave) {
+    List<ListenableFuture<?>> futures = new ArrayList<>();
+    List<Entity> putChunk = new ArrayList<>();
+    int putChunkBytes = 0;
+    List<com.google.appengine.api.datastore.Key> deleteChunk = new ArrayList<>();
+    for (Transaction transaction : wave) {
+      for (int i = 0; i < transaction.entitiesToSave.size(); i++) {
+        int size = transaction.entitySizes.get(i);
+        if (putChunk.size() >= MAX_ENTITIES_PER_CALL
+            || (!putChunk.isEmpty() && putChunkBytes + size > MAX_BYTES_PER_PUT)) {
+          futures.add(saveRawAsync(putChunk));
+          putChunk = new ArrayList<>();
+          putChunkBytes = 0;
+        }
+        putChunk.add(transaction.entitiesToSave.get(i));
+        putChunkBytes += size;
+      }
+      for (com.google.appengine.api.datastore.Key key : transaction.keysToDelete) {
+        if (deleteChunk.size() >= MAX_ENTITIES_PER_CALL) {
+          futures.add(deleteRawAsync(deleteChunk));
+          deleteChunk = new ArrayList<>();
+        }
+        deleteChunk.add(key);
+      }
+    }
+    if (!putChunk.isEmpty()) {
+      futures.add(saveRawAsync(putChunk));
+    }
+    if (!deleteChunk.isEmpty()) {
+      futures.add(deleteRawAsync(deleteChunk));
+    }
+    Futures.getUnchecked(Futures.allAsList(futures));
+  }
+
+  private ListenableFuture<?> saveRawAsync(final List<Entity> entitiesToSave) {
     if (dryRun) {
       logger.info("Would have saved " + entitiesToSave);
-      return;
+      return Futures.immediateFuture(null);
     }
-    retry(new Runnable() {
+    return executor.submit(new Runnable() {
       @Override
       public void run() {
-        datastoreService.put(entitiesToSave);
+        retry(new Runnable() {
+          @Override
+          public void run() {
+            datastoreService.put(entitiesToSave);
+          }});
+      }});
+  }
+
+  private ListenableFuture<?> deleteRawAsync(
+      final List<com.google.appengine.api.datastore.Key> keysToDelete) {
+    if (dryRun) {
+      logger.info("Would have deleted " + keysToDelete);
+      return Futures.immediateFuture(null);
+    }
+    return executor.submit(new Runnable() {
+      @Override
+      public void run() {
+        retry(new Runnable() {
+          @Override
+          public void run() {
+            datastoreService.delete(keysToDelete);
+          }});
       }});
   }
 
@@ -180,15 +293,6 @@ public class RestoreCommitLogsAction implements Runnable {
       }});
   }
 
-  private Result<?> deleteAsync(Set<Key<?>> keysToDelete) {
-    if (dryRun) {
-      logger.info("Would have deleted " + keysToDelete);
-    }
-    return dryRun || keysToDelete.isEmpty()
-        ? new ResultNow<Void>(null)
-        : ofy().deleteWithoutBackup().entities(keysToDelete);
-   }
-
   /** Retrier for saves and deletes, since we can't proceed with any failures. */
   private void retry(final Runnable runnable) {
     retrier.callWithRetry(
@@ -200,4 +304,35 @@ public class RestoreCommitLogsAction implements Runnable {
           }},
         RuntimeException.class);
   }
+
+  private static com.google.appengine.api.datastore.Key getRoot(
+      com.google.appengine.api.datastore.Key key) {
+    while (key.getParent() != null) {
+      key = key.getParent();
+    }
+    return key;
+  }
+
+  /** The raw saves and deletes of one transaction, and the entity groups that they touch. */
+  private static final class Transaction {
+    final CommitLogManifest manifest;
+    final List<Entity> entitiesToSave = new ArrayList<>();
+    final List<Integer> entitySizes = new ArrayList<>();
+    final List<com.google.appengine.api.datastore.Key> keysToDelete = new ArrayList<>();
+
+    /**
+     * Root keys of the restored entity groups. The commit log entities are left out, since every
+     * transaction writes its own manifest and mutations and they never conflict.
+     */
+    final Set<com.google.appengine.api.datastore.Key> entityGroups = new HashSet<>();
+
+    Transaction(CommitLogManifest manifest) {
+      this.manifest = manifest;
+    }
+
+    void addSave(Entity entity, int size) {
+      entitiesToSave.add(entity);
+      entitySizes.add(size);
+    }
+  }
 }
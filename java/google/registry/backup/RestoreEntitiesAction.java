@@ -0,0 +1,258 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package google.registry.backup;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static google.registry.backup.BackupUtils.createDeserializingIterator;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.tools.cloudstorage.GcsFileMetadata;
+import com.google.appengine.tools.cloudstorage.GcsFilename;
+import com.google.appengine.tools.cloudstorage.GcsService;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.VoidWork;
+import google.registry.backup.BlockCompressedDiffFile.BlockInfo;
+import google.registry.backup.BlockCompressedDiffFile.ByteRangeReader;
+import google.registry.model.ImmutableObject;
+import google.registry.model.ofy.CommitLogManifest;
+import google.registry.model.ofy.CommitLogMutation;
+import google.registry.request.Action;
+import google.registry.request.Parameter;
+import google.registry.util.FormattingLogger;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import javax.inject.Inject;
+import org.joda.time.DateTime;
+
+/**
+ * Restores individual entities or whole entity groups to their state at a given time, from the
+ * commit log diff files in GCS.
+ *
+ * <p>Unlike {@link RestoreCommitLogsAction}, which replays every diff file into an empty datastore,
+ * this writes back only the requested entities, through normal commit-logged transactions, so that
+ * it can be used to undo bad updates on a live system. The entities to restore are given as
+ * web-safe keys in {@code key} parameters, and whole entity groups as web-safe root keys in
+ * {@code rootKey} parameters. Each one is set to the last revision saved at or before {@code
+ * targetTime} by the transactions in the diff files after {@code fromTime}, or deleted if that
+ * revision was a deletion. Requested entities that weren't saved or deleted since {@code fromTime}
+ * are left alone. If a requested entity was changed after {@code targetTime} but has no revision in
+ * that window, it was either created after {@code targetTime} or last saved before {@code
+ * fromTime}. There's no telling which, so the action fails before writing anything, and reports the
+ * keys of those entities.
+ *
+ * <p>For diff files in the {@link BlockCompressedDiffFile} format, the entity group index is read
+ * first and only the blocks touching the requested entity groups are fetched, with ranged reads.
+ * Version 2 files of that format have no entity group index, so all their blocks are fetched.
+ * Files in the older format are read in full.
+ */
+@Action(
+    path = RestoreEntitiesAction.PATH,
+    method = Action.Method.POST,
+    automaticallyPrintOk = true)
+public class RestoreEntitiesAction implements Runnable {
+
+  private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
+
+  static final String PATH = "/_dr/task/restoreEntities";
+  static final String KEY_PARAM = "key";
+  static final String ROOT_KEY_PARAM = "rootKey";
+  static final String TARGET_TIME_PARAM = "targetTime";
+
+  @Inject GcsService gcsService;
+  @Inject GcsDiffFileLister diffLister;
+  @Inject @Parameter(RestoreCommitLogsAction.DRY_RUN_PARAM) boolean dryRun;
+  @Inject @Parameter(RestoreCommitLogsAction.FROM_TIME_PARAM) DateTime fromTime;
+  @Inject @Parameter(TARGET_TIME_PARAM) DateTime targetTime;
+  @Inject @Parameter(KEY_PARAM) ImmutableSet<String> keys;
+  @Inject @Parameter(ROOT_KEY_PARAM) ImmutableSet<String> rootKeys;
+  @Inject RestoreEntitiesAction() {}
+
+  /** Normalized web-safe keys and root keys to restore. */
+  private final Set<String> requestedKeys = new HashSet<>();
+  private final Set<String> requestedRootKeys = new HashSet<>();
+
+  /** Root keys of all the entity groups that the requested keys and root keys are in. */
+  private final Set<String> entityGroupsToRead = new HashSet<>();
+
+  /** Revision at the target time of each restored entity, or absent if it was deleted. */
+  private final Map<String, Optional<Entity>> revisions = new LinkedHashMap<>();
+
+  /** Requested entities that were saved or deleted after the target time. */
+  private final Set<String> keysChangedAfterTarget = new TreeSet<>();
+
+  @Override
+  public void run() {
+    checkArgument(!keys.isEmpty() || !rootKeys.isEmpty(), "No keys or root keys to restore");
+    checkArgument(fromTime.isBefore(targetTime), "fromTime must be before targetTime");
+    for (String key : keys) {
+      requestedKeys.add(Key.create(key).getString());
+      entityGroupsToRead.add(Key.create(key).getRoot().getString());
+    }
+    for (String rootKey : rootKeys) {
+      requestedRootKeys.add(Key.create(rootKey).getString());
+      entityGroupsToRead.add(Key.create(rootKey).getString());
+    }
+    // Files after the target time are read too, to find the entities changed since then.
+    for (GcsFileMetadata metadata : diffLister.listDiffFiles(fromTime)) {
+      try {
+        readDiffFile(metadata);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    Set<String> unrestorableKeys = Sets.difference(keysChangedAfterTarget, revisions.keySet());
+    checkState(
+        unrestorableKeys.isEmpty(),
+        "Entities changed after %s have no revision since %s, so they were either created after "
+            + "the target time or fromTime is too late: %s",
+        targetTime,
+        fromTime,
+        unrestorableKeys);
+    for (String key : requestedKeys) {
+      if (!revisions.containsKey(key)) {
+        logger.warningfmt("No revision of %s found since %s", key, fromTime);
+      }
+    }
+    restoreRevisions();
+  }
+
+  /** Reads the transactions in a diff file that touch the requested entity groups. */
+  private void readDiffFile(GcsFileMetadata metadata) throws IOException {
+    final GcsFilename filename = metadata.getFilename();
+    ByteRangeReader reader = new ByteRangeReader() {
+      @Override
+      public byte[] read(long offset, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        try (InputStream input =
+            Channels.newInputStream(gcsService.openReadChannel(filename, offset))) {
+          ByteStreams.readFully(input, bytes);
+        }
+        return bytes;
+      }};
+    long length = metadata.getLength();
+    byte[] start = length >= BlockCompressedDiffFile.MAGIC.length
+        ? reader.read(0, BlockCompressedDiffFile.MAGIC.length)
+        : new byte[0];
+    if (BlockCompressedDiffFile.hasMagic(start)) {
+      ImmutableList<BlockInfo> blocks = BlockCompressedDiffFile
+          .readIndex(reader, length, BlockCompressedDiffFile.getVersion(start))
+          .getBlocksForEntityGroups(entityGroupsToRead);
+      logger.infofmt("Reading %d blocks of %s", blocks.size(), filename.getObjectName());
+      for (BlockInfo block : blocks) {
+        readTransactions(BlockCompressedDiffFile.readBlock(reader, block).iterator());
+      }
+    } else {
+      logger.infofmt("Reading all of %s", filename.getObjectName());
+      try (InputStream input = Channels.newInputStream(
+          gcsService.openPrefetchingReadChannel(filename, 0, RestoreCommitLogsAction.BLOCK_SIZE))) {
+        readTransactions(createDeserializingIterator(input));
+      }
+    }
+  }
+
+  /**
+   * Records the requested entities saved or deleted by transactions committed at or before the
+   * target time, and the keys of those changed by later transactions. Transactions are read in
+   * commit order, so later revisions replace earlier ones.
+   */
+  private void readTransactions(Iterator<ImmutableObject> commitLogs) {
+    boolean isBeforeTarget = false;
+    while (commitLogs.hasNext()) {
+      ImmutableObject commitLog = commitLogs.next();
+      if (commitLog instanceof CommitLogManifest) {
+        CommitLogManifest manifest = (CommitLogManifest) commitLog;
+        isBeforeTarget = !manifest.getCommitTime().isAfter(targetTime);
+        for (Key<?> key : manifest.getDeletions()) {
+          if (!isRequested(key)) {
+            continue;
+          }
+          if (isBeforeTarget) {
+            revisions.put(key.getString(), Optional.<Entity>absent());
+          } else {
+            keysChangedAfterTarget.add(key.getString());
+          }
+        }
+      } else if (commitLog instanceof CommitLogMutation) {
+        // The name of a mutation's key is the web-safe key of the entity that it saves.
+        Key<?> key = Key.create(Key.create(commitLog).getName());
+        if (!isRequested(key)) {
+          continue;
+        }
+        if (isBeforeTarget) {
+          revisions.put(key.getString(), Optional.of(((CommitLogMutation) commitLog).getEntity()));
+        } else {
+          keysChangedAfterTarget.add(key.getString());
+        }
+      }
+    }
+  }
+
+  private boolean isRequested(Key<?> key) {
+    return requestedKeys.contains(key.getString())
+        || requestedRootKeys.contains(key.getRoot().getString());
+  }
+
+  /** Writes back the revisions, with a transaction per entity group. */
+  private void restoreRevisions() {
+    SetMultimap<String, String> keysByRootKey = LinkedHashMultimap.create();
+    for (String key : revisions.keySet()) {
+      keysByRootKey.put(Key.create(key).getRoot().getString(), key);
+    }
+    for (String rootKey : keysByRootKey.keySet()) {
+      final List<Object> entitiesToSave = new ArrayList<>();
+      final List<Key<?>> keysToDelete = new ArrayList<>();
+      for (String key : keysByRootKey.get(rootKey)) {
+        Optional<Entity> revision = revisions.get(key);
+        if (revision.isPresent()) {
+          entitiesToSave.add(ofy().load().fromEntity(revision.get()));
+        } else {
+          keysToDelete.add(Key.create(key));
+        }
+      }
+      logger.infofmt("%s %d entities and %s %d entities in entity group %s",
+          dryRun ? "Would have saved" : "Saving",
+          entitiesToSave.size(),
+          dryRun ? "deleted" : "deleting",
+          keysToDelete.size(),
+          rootKey);
+      if (dryRun) {
+        continue;
+      }
+      ofy().transactNew(new VoidWork() {
+        @Override
+        public void vrun() {
+          ofy().save().entities(entitiesToSave);
+          ofy().delete().keys(keysToDelete);
+        }});
+    }
+  }
+}
@@ -201,6 +201,18 @@ public final class ConfigModule {
     return 100;
   }
 
+  /**
+   * Uncompressed size in bytes of each block of a commit log diff file, or zero to write diff
+   * files as plain uncompressed entity protos.
+   *
+   * @see google.registry.backup.BlockCompressedDiffFile
+   */
+  @Provides
+  @Config("commitLogDiffExportBlockSize")
+  public static int provideCommitLogDiffExportBlockSize() {
+    return 1024 * 1024;
+  }
+
   /**
    * Returns the Google Cloud Storage bucket for staging BRDA escrow deposits.
    *
@@ -441,6 +453,44 @@ public final class ConfigModule {
     return 64 * 1024;
   }
 
+  /**
+   * Returns true if RDE deposits should be incremental on the days between weekly full deposits.
+   *
+   * <p>Incremental deposits find the resources that changed without a save, such as domains whose
+   * pending delete took effect, by querying indexes that only exist for resources saved since they
+   * were added. Only turn this on once every resource has been re-saved with
+   * {@code /_dr/task/resaveAllEppResources}.
+   *
+   * @see google.registry.rde.PendingDepositChecker
+   */
+  @Provides
+  @Config("rdeIncrementalDeposits")
+  public static boolean provideRdeIncrementalDeposits() {
+    return false;
+  }
+
+  /**
+   * Day of week on which full RDE deposits are made, when deposits are otherwise incremental.
+   *
+   * @see google.registry.rde.PendingDepositChecker
+   */
+  @Provides
+  @Config("rdeFullDepositDayOfWeek")
+  public static int provideRdeFullDepositDayOfWeek() {
+    return DateTimeConstants.SUNDAY;
+  }
+
+  /**
+   * Number of parts into which a full escrow deposit is split, each written by its own reducer.
+   *
+   * @see google.registry.rde.RdeStagingAction
+   */
+  @Provides
+  @Config("rdeStagingPartsPerDeposit")
+  public static int provideRdeStagingPartsPerDeposit() {
+    return 4;
+  }
+
   /** Maximum amount of time generating an escrow deposit for a TLD could take, before killing. */
   @Provides
   @Config("rdeStagingLockTimeout")
@@ -466,6 +516,44 @@ public final class ConfigModule {
     return Duration.standardHours(2);
   }
 
+  /**
+   * Number of buffers that can wait between each stage of an RDE upload, or zero to run every
+   * layer of the RyDE pipeline on a single thread.
+   *
+   * <p>Each buffer is {@code rdeRydeBufferSize} bytes.
+   *
+   * @see google.registry.rde.RdeUploadAction
+   * @see google.registry.util.PipelinedOutputStream
+   */
+  @Provides
+  @Config("rdeUploadPipelineDepth")
+  public static int provideRdeUploadPipelineDepth() {
+    return 8;
+  }
+
+  /**
+   * Number of uncompressed bytes in each independently compressed block of an RDE upload, or zero
+   * to compress the whole deposit as a single stream.
+   *
+   * @see google.registry.rde.RydePgpCompressionOutputStream
+   */
+  @Provides
+  @Config("rdeUploadCompressionBlockSize")
+  public static int provideRdeUploadCompressionBlockSize() {
+    return 1024 * 1024;
+  }
+
+  /**
+   * Number of threads that compress blocks at once during an RDE upload.
+   *
+   * @see google.registry.rde.RydePgpCompressionOutputStream
+   */
+  @Provides
+  @Config("rdeUploadCompressionThreads")
+  public static int provideRdeUploadCompressionThreads() {
+    return 4;
+  }
+
   /**
    * Returns the identity (an email address) used for the SSH keys used in RDE SFTP uploads.
    *
@@ -731,6 +819,42 @@ public final class ConfigModule {
     return Duration.standardSeconds(60);
   }
 
+  /**
+   * Number of BigQuery metric rows that an instance buffers before exporting them with a single
+   * task. The rows of a batch are sent as one task payload, so keep this small enough for the
+   * payload to stay well under the task queue's 100KB limit.
+   *
+   * @see google.registry.monitoring.whitebox.BigQueryMetricsBuffer
+   */
+  @Provides
+  @Config("bigQueryMetricsBatchSize")
+  public static int provideBigQueryMetricsBatchSize() {
+    return 100;
+  }
+
+  /**
+   * Maximum time that a BigQuery metric row is buffered before its batch is exported, even if the
+   * batch isn't full.
+   *
+   * @see google.registry.monitoring.whitebox.BigQueryMetricsBuffer
+   */
+  @Provides
+  @Config("bigQueryMetricsMaxBatchAge")
+  public static Duration provideBigQueryMetricsMaxBatchAge() {
+    return Duration.standardSeconds(10);
+  }
+
+  /**
+   * Maximum number of BigQuery metric rows that an instance buffers. Rows beyond this are dropped.
+   *
+   * @see google.registry.monitoring.whitebox.BigQueryMetricsBuffer
+   */
+  @Provides
+  @Config("bigQueryMetricsMaxBufferedRows")
+  public static int provideBigQueryMetricsMaxBufferedRows() {
+    return 5000;
+  }
+
   @Provides
   @Config("contactAutomaticTransferLength")
   public static Duration provideContactAutomaticTransferLength(RegistryConfig config) {
@@ -766,4 +890,20 @@ public final class ConfigModule {
   public static Duration getAsyncDeleteFlowMapreduceDelay() {
     return Duration.standardSeconds(90);
   }
+
+  /**
+   * Returns whether async contact/host deletions and DNS refreshes on host rename find the domains
+   * that reference a resource using {@link google.registry.model.index.DomainReferenceIndex}.
+   *
+   * <p>If false, they map over all domains instead, and log any references that the index is
+   * missing. Only turn this on once the index has been backfilled for all existing domains and
+   * those mapreduces have stopped finding missing references.
+   *
+   * @see google.registry.tools.server.BackfillDomainReferenceIndexAction
+   */
+  @Provides
+  @Config("asyncFlowsUseDomainReferenceIndex")
+  public static boolean provideAsyncFlowsUseDomainReferenceIndex() {
+    return false;
+  }
 }
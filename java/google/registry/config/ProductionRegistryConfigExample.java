@@ -22,6 +22,7 @@ import com.google.appengine.api.utils.SystemProperty;
 import com.google.common.base.Ascii;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.net.HostAndPort;
 import java.net.URL;
 import javax.annotation.concurrent.Immutable;
@@ -199,6 +200,13 @@ public final class ProductionRegistryConfigExample implements RegistryConfig {
     return 997;
   }
 
+  @Override
+  public ImmutableMap<String, Integer> getActionConcurrencyLimits() {
+    return ImmutableMap.of(
+        "/rdap/", 20,
+        "/whois/", 20);
+  }
+
   @Override
   public Duration getBaseOfyRetryDuration() {
     return Duration.millis(100);
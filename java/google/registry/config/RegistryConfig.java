@@ -16,6 +16,7 @@ package google.registry.config;
 
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.net.HostAndPort;
 import java.net.URL;
 import org.joda.time.Duration;
@@ -195,6 +196,19 @@ public interface RegistryConfig {
    */
   public int getEppResourceIndexBucketCount();
 
+  /**
+   * Returns the maximum number of requests that may run at once on an instance, keyed by the path
+   * prefix of the actions they apply to.
+   *
+   * <p>Each action is limited by the longest prefix of its path in this map, if any, and shares
+   * the limit with every other action under that prefix. Requests over the limit are rejected with
+   * a 503 straight away. This keeps expensive, bursty actions like RDAP and WHOIS searches from
+   * starving EPP of threads.
+   *
+   * @see google.registry.request.RequestHandler
+   */
+  public ImmutableMap<String, Integer> getActionConcurrencyLimits();
+
   /**
    * Returns the base duration that gets doubled on each retry within {@code Ofy}.
    */
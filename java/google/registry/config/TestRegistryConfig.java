@@ -19,6 +19,7 @@ import static org.joda.time.Duration.standardDays;
 
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.net.HostAndPort;
 import java.net.URL;
 import org.joda.time.Duration;
@@ -147,6 +148,11 @@ public class TestRegistryConfig implements RegistryConfig {
     return 2;
   }
 
+  @Override
+  public ImmutableMap<String, Integer> getActionConcurrencyLimits() {
+    return ImmutableMap.of();
+  }
+
   @Override
   public Duration getBaseOfyRetryDuration() {
     return Duration.ZERO;
@@ -15,10 +15,12 @@
 package google.registry.dns;
 
 import com.google.common.collect.ImmutableSet;
+import google.registry.monitoring.metrics.EventMetric;
 import google.registry.monitoring.metrics.IncrementableMetric;
 import google.registry.monitoring.metrics.LabelDescriptor;
 import google.registry.monitoring.metrics.MetricRegistryImpl;
 import javax.inject.Inject;
+import org.joda.time.Duration;
 
 /** DNS instrumentation. */
 public class DnsMetrics {
@@ -48,6 +50,28 @@ public class DnsMetrics {
               "count",
               LABEL_DESCRIPTORS);
 
+  private static final ImmutableSet<LabelDescriptor> LOCK_LABEL_DESCRIPTORS =
+      ImmutableSet.of(
+          LabelDescriptor.create("tld", "TLD"),
+          LabelDescriptor.create("shard", "The publish shard of the TLD."));
+
+  private static final EventMetric publishLockWaitTime =
+      MetricRegistryImpl.getDefault()
+          .newEventMetric(
+              "/dns/publish_lock_wait_time",
+              "time taken to acquire a DNS publish lock",
+              "milliseconds",
+              LOCK_LABEL_DESCRIPTORS,
+              EventMetric.DEFAULT_FITTER);
+
+  private static final IncrementableMetric publishLockFailures =
+      MetricRegistryImpl.getDefault()
+          .newIncrementableMetric(
+              "/dns/publish_lock_failures",
+              "count of DNS publish tasks that failed to acquire their lock",
+              "count",
+              LOCK_LABEL_DESCRIPTORS);
+
   @Inject
   DnsMetrics() {}
 
@@ -66,4 +90,17 @@ public class DnsMetrics {
   public void incrementPublishHostRequests(String tld, Status status) {
     publishHostRequests.increment(tld, status.name());
   }
+
+  /** Record how long a publish task took to acquire the lock of its TLD's publish shard. */
+  public void recordPublishLockWaitTime(String tld, int lockIndex, Duration waitTime) {
+    publishLockWaitTime.record(waitTime.getMillis(), tld, String.valueOf(lockIndex));
+  }
+
+  /**
+   * Increment a monotonic counter that tracks publish tasks that couldn't acquire the lock of
+   * their TLD's publish shard, and so will be retried.
+   */
+  public void incrementPublishLockFailures(String tld, int lockIndex) {
+    publishLockFailures.increment(tld, String.valueOf(lockIndex));
+  }
 }
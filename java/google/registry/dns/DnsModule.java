@@ -18,9 +18,12 @@ import static google.registry.dns.DnsConstants.DNS_PUBLISH_PUSH_QUEUE_NAME;
 import static google.registry.dns.DnsConstants.DNS_PULL_QUEUE_NAME;
 import static google.registry.dns.PublishDnsUpdatesAction.DOMAINS_PARAM;
 import static google.registry.dns.PublishDnsUpdatesAction.HOSTS_PARAM;
+import static google.registry.dns.PublishDnsUpdatesAction.LOCK_INDEX_PARAM;
+import static google.registry.dns.PublishDnsUpdatesAction.NUM_PUBLISH_LOCKS_PARAM;
 import static google.registry.dns.ReadDnsQueueAction.KEEP_TASKS_PARAM;
 import static google.registry.request.RequestParameters.extractBooleanParameter;
 import static google.registry.request.RequestParameters.extractEnumParameter;
+import static google.registry.request.RequestParameters.extractOptionalIntParameter;
 import static google.registry.request.RequestParameters.extractRequiredParameter;
 import static google.registry.request.RequestParameters.extractSetOfParameters;
 
@@ -69,6 +72,18 @@ public abstract class DnsModule {
     return extractSetOfParameters(req, HOSTS_PARAM);
   }
 
+  @Provides
+  @Parameter(LOCK_INDEX_PARAM)
+  static int provideLockIndex(HttpServletRequest req) {
+    return extractOptionalIntParameter(req, LOCK_INDEX_PARAM).or(0);
+  }
+
+  @Provides
+  @Parameter(NUM_PUBLISH_LOCKS_PARAM)
+  static int provideNumPublishLocks(HttpServletRequest req) {
+    return extractOptionalIntParameter(req, NUM_PUBLISH_LOCKS_PARAM).or(1);
+  }
+
   @Provides
   @Parameter(KEEP_TASKS_PARAM)
   static boolean provideKeepTasks(HttpServletRequest req) {
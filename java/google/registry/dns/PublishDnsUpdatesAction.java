@@ -17,31 +17,51 @@ package google.registry.dns;
 import static google.registry.model.server.Lock.executeWithLocks;
 import static google.registry.request.Action.Method.POST;
 import static google.registry.util.CollectionUtils.nullToEmpty;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.google.common.base.Joiner;
+import com.google.common.hash.Hashing;
 import com.google.common.net.InternetDomainName;
 import google.registry.config.ConfigModule.Config;
+import google.registry.dns.DnsConstants.TargetType;
 import google.registry.dns.DnsMetrics.Status;
 import google.registry.dns.writer.DnsWriter;
 import google.registry.request.Action;
+import google.registry.request.HttpException.BadRequestException;
 import google.registry.request.HttpException.ServiceUnavailableException;
 import google.registry.request.Parameter;
 import google.registry.request.RequestParameters;
+import google.registry.util.Clock;
 import google.registry.util.DomainNameUtils;
 import google.registry.util.FormattingLogger;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import javax.inject.Inject;
+import org.joda.time.DateTime;
 import org.joda.time.Duration;
 
-/** Task that sends domain and host updates to the DNS server. */
+/**
+ * Task that sends domain and host updates to the DNS server.
+ *
+ * <p>Publishing for a TLD is serialized by a lock, so that updates to a name can't be published
+ * out of order. A TLD can split its names into several publish shards, each with its own lock, by
+ * setting {@link google.registry.model.registry.Registry#getNumDnsPublishLocks}; then
+ * {@link ReadDnsQueueAction} sends each shard's names in separate tasks, and the shards publish in
+ * parallel. A name always hashes to the same shard, as long as the number of shards is unchanged.
+ */
 @Action(path = PublishDnsUpdatesAction.PATH, method = POST, automaticallyPrintOk = true)
 public final class PublishDnsUpdatesAction implements Runnable, Callable<Void> {
 
   public static final String PATH = "/_dr/task/publishDnsUpdates";
   public static final String DOMAINS_PARAM = "domains";
   public static final String HOSTS_PARAM = "hosts";
+  public static final String LOCK_INDEX_PARAM = "lockIndex";
+  public static final String NUM_PUBLISH_LOCKS_PARAM = "numPublishLocks";
 
   private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
+  private static final Joiner DOT_JOINER = Joiner.on('.');
 
   @Inject DnsQueue dnsQueue;
   @Inject DnsWriterProxy dnsWriterProxy;
@@ -50,17 +70,29 @@ public final class PublishDnsUpdatesAction implements Runnable, Callable<Void> {
   @Inject @Parameter(RequestParameters.PARAM_TLD) String tld;
   @Inject @Parameter(DOMAINS_PARAM) Set<String> domains;
   @Inject @Parameter(HOSTS_PARAM) Set<String> hosts;
+  @Inject @Parameter(LOCK_INDEX_PARAM) int lockIndex;
+  @Inject @Parameter(NUM_PUBLISH_LOCKS_PARAM) int numPublishLocks;
+  @Inject Clock clock;
   @Inject PublishDnsUpdatesAction() {}
 
+  /** When the task started trying to acquire its lock, for measuring how long that took. */
+  private DateTime lockRequestTime;
+
   /** Runs the task. */
   @Override
   public void run() {
-    String lockName = String.format("DNS zone %s", tld);
+    if (lockIndex < 0 || lockIndex >= numPublishLocks) {
+      throw new BadRequestException(
+          String.format("Invalid lock index %d of %d", lockIndex, numPublishLocks));
+    }
+    lockRequestTime = clock.nowUtc();
     // If executeWithLocks fails to get the lock, it does not throw an exception, simply returns
     // false. We need to make sure to take note of this error; otherwise, a failed lock might result
     // in the update task being dequeued and dropped. A message will already have been logged
     // to indicate the problem.
-    if (!executeWithLocks(this, getClass(), tld, timeout, lockName)) {
+    if (!executeWithLocks(
+        this, getClass(), tld, timeout, getLockName(tld, lockIndex, numPublishLocks))) {
+      dnsMetrics.incrementPublishLockFailures(tld, lockIndex);
       throw new ServiceUnavailableException("Lock failure");
     }
   }
@@ -68,32 +100,77 @@ public final class PublishDnsUpdatesAction implements Runnable, Callable<Void> {
   /** Runs the task, with the lock. */
   @Override
   public Void call() {
+    dnsMetrics.recordPublishLockWaitTime(
+        tld, lockIndex, new Duration(lockRequestTime, clock.nowUtc()));
     processBatch();
     return null;
   }
 
+  /**
+   * Returns the name of the lock for a publish shard of a TLD.
+   *
+   * <p>A TLD with a single shard keeps the name of the original per-TLD lock.
+   */
+  static String getLockName(String tld, int lockIndex, int numPublishLocks) {
+    return (numPublishLocks == 1)
+        ? String.format("DNS zone %s", tld)
+        : String.format("DNS zone %s shard %d of %d", tld, lockIndex, numPublishLocks);
+  }
+
+  /**
+   * Returns the publish shard of a domain or host name.
+   *
+   * <p>Hosts are sharded by their superordinate domain, since the DNS writers publish a host's glue
+   * records as part of that domain, and the two must not be published concurrently. A host that
+   * isn't under the TLD is sharded by its own name; it's rejected when it's published anyway.
+   */
+  static int getLockIndex(String tld, int numPublishLocks, TargetType type, String name) {
+    String shardingName = name;
+    if (type == TargetType.HOST) {
+      List<String> hostParts = InternetDomainName.from(name).parts();
+      int domainSize = InternetDomainName.from(tld).parts().size() + 1;
+      if (hostParts.size() > domainSize) {
+        shardingName =
+            DOT_JOINER.join(hostParts.subList(hostParts.size() - domainSize, hostParts.size()));
+      }
+    }
+    return Hashing.consistentHash(
+        Hashing.murmur3_32().hashString(shardingName, UTF_8), numPublishLocks);
+  }
+
   /** Steps through the domain and host refreshes contained in the parameters and processes them. */
   private void processBatch() {
+    Set<String> acceptedDomains = new LinkedHashSet<>();
+    for (String domain : nullToEmpty(domains)) {
+      if (!DomainNameUtils.isUnder(
+          InternetDomainName.from(domain), InternetDomainName.from(tld))) {
+        dnsMetrics.incrementPublishDomainRequests(tld, Status.REJECTED);
+        logger.severefmt("%s: skipping domain %s not under tld", tld, domain);
+      } else {
+        dnsMetrics.incrementPublishDomainRequests(tld, Status.ACCEPTED);
+        acceptedDomains.add(domain);
+      }
+    }
+    Set<String> acceptedHosts = new LinkedHashSet<>();
+    for (String host : nullToEmpty(hosts)) {
+      if (!DomainNameUtils.isUnder(
+          InternetDomainName.from(host), InternetDomainName.from(tld))) {
+        dnsMetrics.incrementPublishHostRequests(tld, Status.REJECTED);
+        logger.severefmt("%s: skipping host %s not under tld", tld, host);
+      } else {
+        dnsMetrics.incrementPublishHostRequests(tld, Status.ACCEPTED);
+        acceptedHosts.add(host);
+      }
+    }
     try (DnsWriter writer = dnsWriterProxy.getForTld(tld)) {
-      for (String domain : nullToEmpty(domains)) {
-        if (!DomainNameUtils.isUnder(
-            InternetDomainName.from(domain), InternetDomainName.from(tld))) {
-          dnsMetrics.incrementPublishDomainRequests(tld, Status.REJECTED);
-          logger.severefmt("%s: skipping domain %s not under tld", tld, domain);
-        } else {
-          dnsMetrics.incrementPublishDomainRequests(tld, Status.ACCEPTED);
-          writer.publishDomain(domain);
-        }
+      if (!acceptedDomains.isEmpty() || !acceptedHosts.isEmpty()) {
+        writer.prefetch(acceptedDomains, acceptedHosts);
+      }
+      for (String domain : acceptedDomains) {
+        writer.publishDomain(domain);
       }
-      for (String host : nullToEmpty(hosts)) {
-        if (!DomainNameUtils.isUnder(
-            InternetDomainName.from(host), InternetDomainName.from(tld))) {
-          dnsMetrics.incrementPublishHostRequests(tld, Status.REJECTED);
-          logger.severefmt("%s: skipping host %s not under tld", tld, host);
-        } else {
-          dnsMetrics.incrementPublishHostRequests(tld, Status.ACCEPTED);
-          writer.publishHost(host);
-        }
+      for (String host : acceptedHosts) {
+        writer.publishHost(host);
       }
     }
   }
@@ -155,24 +155,48 @@ public final class ReadDnsQueueAction implements Runnable {
     if (!pausedTlds.isEmpty()) {
       logger.infofmt("the dns-pull queue is paused for tlds: %s", pausedTlds);
     }
-    // Loop through the multimap by TLD and generate refresh tasks for the hosts and domains.
+    // Loop through the multimap by TLD and generate refresh tasks for the hosts and domains, with
+    // separate tasks for each of the TLD's publish shards, so that the shards can publish in
+    // parallel under their own locks.
     for (Map.Entry<String, Collection<RefreshItem>> tldRefreshItemsEntry
         : refreshItemMultimap.asMap().entrySet()) {
-      for (List<RefreshItem> chunk : Iterables.partition(
-          tldRefreshItemsEntry.getValue(), tldUpdateBatchSize)) {
-        TaskOptions options = withUrl(PublishDnsUpdatesAction.PATH)
-            .countdownMillis(jitterSeconds.isPresent()
-                ? random.nextInt((int) SECONDS.toMillis(jitterSeconds.get()))
-                : 0)
-            .param(RequestParameters.PARAM_TLD, tldRefreshItemsEntry.getKey());
-        for (RefreshItem refreshItem : chunk) {
-          options.param(
-              (refreshItem.type() == TargetType.HOST)
-                  ? PublishDnsUpdatesAction.HOSTS_PARAM
-                  : PublishDnsUpdatesAction.DOMAINS_PARAM,
-              refreshItem.name());
+      String tld = tldRefreshItemsEntry.getKey();
+      int numPublishLocks = Registry.get(tld).getNumDnsPublishLocks();
+      TreeMultimap<Integer, RefreshItem> shardRefreshItemMultimap = TreeMultimap.create();
+      for (RefreshItem refreshItem : tldRefreshItemsEntry.getValue()) {
+        shardRefreshItemMultimap.put(
+            PublishDnsUpdatesAction.getLockIndex(
+                tld, numPublishLocks, refreshItem.type(), refreshItem.name()),
+            refreshItem);
+      }
+      for (Map.Entry<Integer, Collection<RefreshItem>> shardRefreshItemsEntry
+          : shardRefreshItemMultimap.asMap().entrySet()) {
+        for (List<RefreshItem> chunk : Iterables.partition(
+            shardRefreshItemsEntry.getValue(), tldUpdateBatchSize)) {
+          TaskOptions options = withUrl(PublishDnsUpdatesAction.PATH)
+              .countdownMillis(jitterSeconds.isPresent()
+                  ? random.nextInt((int) SECONDS.toMillis(jitterSeconds.get()))
+                  : 0)
+              .param(RequestParameters.PARAM_TLD, tld);
+          // Only sharded TLDs need the shard parameters; their defaults name the TLD's one lock.
+          if (numPublishLocks > 1) {
+            options
+                .param(
+                    PublishDnsUpdatesAction.LOCK_INDEX_PARAM,
+                    shardRefreshItemsEntry.getKey().toString())
+                .param(
+                    PublishDnsUpdatesAction.NUM_PUBLISH_LOCKS_PARAM,
+                    Integer.toString(numPublishLocks));
+          }
+          for (RefreshItem refreshItem : chunk) {
+            options.param(
+                (refreshItem.type() == TargetType.HOST)
+                    ? PublishDnsUpdatesAction.HOSTS_PARAM
+                    : PublishDnsUpdatesAction.DOMAINS_PARAM,
+                refreshItem.name());
+          }
+          taskEnqueuer.enqueue(dnsPublishPushQueue, options);
         }
-        taskEnqueuer.enqueue(dnsPublishPushQueue, options);
       }
     }
     Set<TaskHandle> tasksToDelete = difference(ImmutableSet.copyOf(tasks), tasksToKeep);
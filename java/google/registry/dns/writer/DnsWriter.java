@@ -14,6 +14,8 @@
 
 package google.registry.dns.writer;
 
+import java.util.Set;
+
 /**
  * Transaction object for sending an atomic batch of updates for a single zone to the DNS server.
  *
@@ -21,6 +23,7 @@ package google.registry.dns.writer;
  * <pre>
  * &#064;Inject Provider&lt;DnsWriter&gt; dnsWriter;
  * try (DnsWriter writer = dnsWriter.get()) {
+ *   writer.prefetch(ImmutableSet.of(domainName), ImmutableSet.of(hostName));
  *   writer.publishDomain(domainName);
  *   writer.publishHost(hostName);
  * }
@@ -28,6 +31,18 @@ package google.registry.dns.writer;
  */
 public interface DnsWriter extends AutoCloseable {
 
+  /**
+   * Tells the writer about every domain and host that is about to be published in this batch, so
+   * that it can load what it needs from datastore in bulk rather than one name at a time.
+   *
+   * <p>This is called at most once, before any publish calls. It is only an optimization; writers
+   * must still publish names correctly if it isn't called, or if a name wasn't included.
+   *
+   * @param domainNames the fully qualified domain names, with no trailing dots
+   * @param hostNames the fully qualified host names, with no trailing dots
+   */
+  void prefetch(Set<String> domainNames, Set<String> hostNames);
+
   /**
    * Loads {@code domainName} from datastore and publishes its NS/DS records to the DNS server.
    * Replaces existing records for the exact name supplied with an NS record for each name server
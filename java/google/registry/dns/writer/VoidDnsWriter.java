@@ -40,6 +40,9 @@ public final class VoidDnsWriter implements DnsWriter {
   @Inject
   public VoidDnsWriter() {}
 
+  @Override
+  public void prefetch(Set<String> domainNames, Set<String> hostNames) {}
+
   @Override
   public void publishDomain(String domainName) {
     names.add(domainName);
@@ -15,7 +15,6 @@
 package google.registry.dns.writer.clouddns;
 
 import static com.google.common.base.Preconditions.checkArgument;
-import static google.registry.model.EppResourceUtils.loadByForeignKey;
 
 import com.google.api.client.googleapis.json.GoogleJsonError.ErrorInfo;
 import com.google.api.client.googleapis.json.GoogleJsonResponseException;
@@ -23,21 +22,19 @@ import com.google.api.services.dns.Dns;
 import com.google.api.services.dns.model.Change;
 import com.google.api.services.dns.model.ResourceRecordSet;
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSet.Builder;
-import com.google.common.net.InternetDomainName;
 import com.google.common.util.concurrent.RateLimiter;
 import google.registry.config.ConfigModule.Config;
 import google.registry.dns.writer.DnsWriter;
 import google.registry.dns.writer.DnsWriterZone;
+import google.registry.dns.writer.PrefetchedDnsResources;
 import google.registry.model.domain.DomainResource;
 import google.registry.model.domain.secdns.DelegationSignerData;
 import google.registry.model.host.HostResource;
-import google.registry.model.registry.Registries;
 import google.registry.util.Clock;
 import google.registry.util.FormattingLogger;
 import google.registry.util.Retrier;
@@ -82,6 +79,9 @@ class CloudDnsWriter implements DnsWriter {
   private final ImmutableMap.Builder<String, ImmutableSet<ResourceRecordSet>>
       desiredRecordsBuilder = new ImmutableMap.Builder<>();
 
+  /** Domains and nameservers loaded by {@link #prefetch}, if it was called. */
+  private PrefetchedDnsResources resources;
+
   @Inject
   CloudDnsWriter(
       Dns dnsConnection,
@@ -100,6 +100,18 @@ class CloudDnsWriter implements DnsWriter {
     this.retrier = retrier;
   }
 
+  @Override
+  public void prefetch(Set<String> domainNames, Set<String> hostNames) {
+    resources = PrefetchedDnsResources.load(domainNames, hostNames, clock.nowUtc());
+  }
+
+  private PrefetchedDnsResources getResources() {
+    if (resources == null) {
+      resources = PrefetchedDnsResources.none(clock.nowUtc());
+    }
+    return resources;
+  }
+
   /** Publish the domain and all subordinate hosts. */
   @Override
   public void publishDomain(String domainName) {
@@ -108,7 +120,7 @@ class CloudDnsWriter implements DnsWriter {
 
     // Load the target domain. Note that it can be null if this domain was just deleted.
     Optional<DomainResource> domainResource =
-        Optional.fromNullable(loadByForeignKey(DomainResource.class, domainName, clock.nowUtc()));
+        Optional.fromNullable(getResources().getDomain(domainName));
 
     // Return early if no DNS records should be published.
     // desiredRecordsBuilder is populated with an empty set to indicate that all existing records
@@ -141,7 +153,7 @@ class CloudDnsWriter implements DnsWriter {
 
 
     // Construct NS records (if any).
-    Set<String> nameserverData = domainResource.get().loadNameserverFullyQualifiedHostNames();
+    Set<String> nameserverData = getResources().getNameserverHostNames(domainResource.get());
     if (!nameserverData.isEmpty()) {
       HashSet<String> nsRrData = new HashSet<>();
       for (String hostName : nameserverData) {
@@ -178,7 +190,7 @@ class CloudDnsWriter implements DnsWriter {
     // desiredRecords is populated with an empty set to indicate that all existing records
     // should be deleted.
     Optional<HostResource> host =
-        Optional.fromNullable(loadByForeignKey(HostResource.class, hostName, clock.nowUtc()));
+        Optional.fromNullable(getResources().getHost(hostName));
 
     // Return early if the host is deleted.
     if (!host.isPresent()) {
@@ -232,26 +244,17 @@ class CloudDnsWriter implements DnsWriter {
   @Override
   public void publishHost(String hostName) {
     // Get the superordinate domain name of the host.
-    InternetDomainName host = InternetDomainName.from(hostName);
-    Optional<InternetDomainName> tld = Registries.findTldForName(host);
+    Optional<String> domain = PrefetchedDnsResources.getSuperordinateDomainName(hostName);
 
     // Host not managed by our registry, no need to update DNS.
-    if (!tld.isPresent()) {
+    if (!domain.isPresent()) {
       logger.severefmt("publishHost called for invalid host %s", hostName);
       return;
     }
 
-    // Extract the superordinate domain name. The TLD and host may have several dots so this
-    // must calculate a sublist.
-    ImmutableList<String> hostParts = host.parts();
-    ImmutableList<String> tldParts = tld.get().parts();
-    ImmutableList<String> domainParts =
-        hostParts.subList(hostParts.size() - tldParts.size() - 1, hostParts.size());
-    String domain = Joiner.on(".").join(domainParts);
-
     // Refresh the superordinate domain, since we shouldn't be publishing glue records if we are not
     // authoritative for the superordinate domain.
-    publishDomain(domain);
+    publishDomain(domain.get());
   }
 
   /**
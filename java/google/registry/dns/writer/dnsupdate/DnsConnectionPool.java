@@ -0,0 +1,218 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.dns.writer.dnsupdate;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.annotations.VisibleForTesting;
+import google.registry.util.Clock;
+import google.registry.util.FormattingLogger;
+import google.registry.util.SystemClock;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.net.SocketFactory;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+
+/**
+ * A pool of persistent TCP connections to DNS update hosts.
+ *
+ * <p>Opening a connection per UPDATE message costs a TCP handshake per published name. This pool
+ * instead keeps a few idle connections per host and hands them out to {@link DnsMessageTransport}
+ * for reuse. A connection is only reused if it is still open and has been idle for less than
+ * {@link #DEFAULT_MAX_IDLE_TIME}, which is kept below the idle timeout of common DNS servers (BIND
+ * closes idle TCP connections after 30 seconds) so that we rarely write to a connection the server
+ * has already given up on. The transport retries once on a fresh connection if it does.
+ */
+@ThreadSafe
+public class DnsConnectionPool {
+
+  private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
+
+  /** Maximum number of idle connections kept per update host. */
+  static final int DEFAULT_MAX_IDLE_PER_HOST = 4;
+
+  /** Connections idle for longer than this are closed rather than reused. */
+  static final Duration DEFAULT_MAX_IDLE_TIME = Duration.standardSeconds(20);
+
+  private final SocketFactory factory;
+  private final int port;
+  private final int maxIdlePerHost;
+  private final Duration maxIdleTime;
+  private final Clock clock;
+
+  private final ConcurrentMap<String, BlockingDeque<Connection>> idleConnections =
+      new ConcurrentHashMap<>();
+
+  private final AtomicLong opened = new AtomicLong();
+  private final AtomicLong reused = new AtomicLong();
+
+  @VisibleForTesting
+  DnsConnectionPool(
+      SocketFactory factory, int port, int maxIdlePerHost, Duration maxIdleTime, Clock clock) {
+    checkArgument(maxIdlePerHost >= 0, "maxIdlePerHost must not be negative");
+    this.factory = checkNotNull(factory, "factory");
+    this.port = port;
+    this.maxIdlePerHost = maxIdlePerHost;
+    this.maxIdleTime = checkNotNull(maxIdleTime, "maxIdleTime");
+    this.clock = checkNotNull(clock, "clock");
+  }
+
+  /** Creates a pool that connects to the standard DNS port using the given socket factory. */
+  public static DnsConnectionPool create(SocketFactory factory) {
+    return new DnsConnectionPool(
+        factory,
+        DnsMessageTransport.DNS_PORT,
+        DEFAULT_MAX_IDLE_PER_HOST,
+        DEFAULT_MAX_IDLE_TIME,
+        new SystemClock());
+  }
+
+  /**
+   * Returns a healthy idle connection to {@code host}, or opens a new one if there is none.
+   *
+   * <p>The caller must hand the connection back with either {@link #release} or {@link #discard}.
+   */
+  Connection acquire(String host, int timeoutMillis) throws IOException {
+    BlockingDeque<Connection> idle = getIdleConnections(host);
+    Connection connection;
+    // Most recently used connections are at the head, so they are the least likely to be stale.
+    while ((connection = idle.pollFirst()) != null) {
+      if (isReusable(connection)) {
+        reused.incrementAndGet();
+        connection.reused = true;
+        connection.socket.setSoTimeout(timeoutMillis);
+        return connection;
+      }
+      connection.close();
+    }
+    Socket socket = factory.createSocket(InetAddress.getByName(host), port);
+    opened.incrementAndGet();
+    try {
+      socket.setSoTimeout(timeoutMillis);
+      return new Connection(host, socket);
+    } catch (IOException | RuntimeException e) {
+      socket.close();
+      throw e;
+    }
+  }
+
+  /** Returns a connection to the pool after a fully successful exchange. */
+  void release(Connection connection) {
+    connection.lastUsed = clock.nowUtc();
+    if (maxIdlePerHost == 0
+        || !isOpen(connection.socket)
+        || !getIdleConnections(connection.host).offerFirst(connection)) {
+      connection.close();
+    }
+  }
+
+  /** Closes a connection that may be out of sync with the server, for example after an error. */
+  void discard(Connection connection) {
+    connection.close();
+  }
+
+  /** Closes all idle connections. Connections currently in use are unaffected. */
+  public void closeIdleConnections() {
+    for (BlockingDeque<Connection> idle : idleConnections.values()) {
+      Connection connection;
+      while ((connection = idle.pollFirst()) != null) {
+        connection.close();
+      }
+    }
+  }
+
+  /** Returns the number of connections this pool has opened. */
+  public long getOpenedCount() {
+    return opened.get();
+  }
+
+  /** Returns the number of times an idle connection was handed out again. */
+  public long getReusedCount() {
+    return reused.get();
+  }
+
+  private BlockingDeque<Connection> getIdleConnections(String host) {
+    BlockingDeque<Connection> idle = idleConnections.get(host);
+    if (idle == null) {
+      BlockingDeque<Connection> newIdle = new LinkedBlockingDeque<>(Math.max(maxIdlePerHost, 1));
+      idle = idleConnections.putIfAbsent(host, newIdle);
+      if (idle == null) {
+        idle = newIdle;
+      }
+    }
+    return idle;
+  }
+
+  private boolean isReusable(Connection connection) {
+    if (!isOpen(connection.socket)
+        || !clock.nowUtc().isBefore(connection.lastUsed.plus(maxIdleTime))) {
+      return false;
+    }
+    try {
+      // An idle connection should have nothing to read. Anything there is either a response we
+      // never consumed or unsolicited data, and either way the stream is out of sync.
+      return connection.input.available() == 0;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private static boolean isOpen(Socket socket) {
+    return socket.isConnected()
+        && !socket.isClosed()
+        && !socket.isInputShutdown()
+        && !socket.isOutputShutdown();
+  }
+
+  /** A TCP connection to a DNS update host, along with its buffered streams. */
+  static final class Connection {
+    final String host;
+    final Socket socket;
+    final DataInputStream input;
+    final OutputStream output;
+
+    /** Whether this connection was taken from the pool rather than freshly opened. */
+    boolean reused;
+
+    DateTime lastUsed;
+
+    Connection(String host, Socket socket) throws IOException {
+      this.host = host;
+      this.socket = socket;
+      this.input = new DataInputStream(socket.getInputStream());
+      this.output = new BufferedOutputStream(socket.getOutputStream());
+    }
+
+    void close() {
+      try {
+        socket.close();
+      } catch (IOException e) {
+        logger.warningfmt(e, "Error closing DNS connection to %s", host);
+      }
+    }
+  }
+}
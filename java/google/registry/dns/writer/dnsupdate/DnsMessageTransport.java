@@ -18,15 +18,23 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Verify.verify;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
 import com.google.common.primitives.Ints;
 import google.registry.config.ConfigModule.Config;
+import google.registry.dns.writer.dnsupdate.DnsConnectionPool.Connection;
+import google.registry.util.FormattingLogger;
 import java.io.DataInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.InetAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import javax.inject.Inject;
 import javax.net.SocketFactory;
 import org.joda.time.Duration;
@@ -38,16 +46,22 @@ import org.xbill.DNS.Opcode;
  * s and the message framing defined in <a href="https://tools.ietf.org/html/rfc1035">RFC 1035</a>.
  * We would like use the dnsjava library's {@link org.xbill.DNS.SimpleResolver} class for this, but
  * it requires {@link java.nio.channels.SocketChannel} which is not supported on AppEngine.
+ *
+ * <p>Connections are taken from a {@link DnsConnectionPool} and reused across messages. Batches of
+ * messages sent with {@link #sendAll} are pipelined on a single connection, as permitted by <a
+ * href="https://tools.ietf.org/html/rfc7766">RFC 7766</a>.
  */
 public class DnsMessageTransport {
 
+  private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
+
   /**
    * Size of message length field for DNS TCP transport.
    *
    * @see <a href="https://tools.ietf.org/html/rfc1035">RFC 1035</a>
    */
   static final int MESSAGE_LENGTH_FIELD_BYTES = 2;
-  private static final int MESSAGE_MAXIMUM_LENGTH = (1 << (MESSAGE_LENGTH_FIELD_BYTES * 8)) - 1;
+  static final int MESSAGE_MAXIMUM_LENGTH = (1 << (MESSAGE_LENGTH_FIELD_BYTES * 8)) - 1;
 
   /**
    * The standard DNS port number.
@@ -56,23 +70,37 @@ public class DnsMessageTransport {
    */
   @VisibleForTesting static final int DNS_PORT = 53;
 
-  private final SocketFactory factory;
+  /** Maximum number of messages written to a connection before their responses are read. */
+  @VisibleForTesting static final int MAX_PIPELINE_DEPTH = 16;
+
+  private final DnsConnectionPool connectionPool;
   private final String updateHost;
   private final int updateTimeout;
 
   /**
-   * Class constructor.
+   * Class constructor for a transport that doesn't share its connections with other transports.
    *
    * @param factory a factory for TCP sockets
    * @param updateHost host name of the DNS server
    * @param updateTimeout update I/O timeout
    */
+  public DnsMessageTransport(SocketFactory factory, String updateHost, Duration updateTimeout) {
+    this(DnsConnectionPool.create(factory), updateHost, updateTimeout);
+  }
+
+  /**
+   * Class constructor.
+   *
+   * @param connectionPool the pool of connections to the DNS server
+   * @param updateHost host name of the DNS server
+   * @param updateTimeout update I/O timeout
+   */
   @Inject
   public DnsMessageTransport(
-      SocketFactory factory,
+      DnsConnectionPool connectionPool,
       @Config("dnsUpdateHost") String updateHost,
       @Config("dnsUpdateTimeout") Duration updateTimeout) {
-    this.factory = factory;
+    this.connectionPool = connectionPool;
     this.updateHost = updateHost;
     this.updateTimeout = Ints.checkedCast(updateTimeout.getMillis());
   }
@@ -87,13 +115,117 @@ public class DnsMessageTransport {
    * @throws IllegalArgumentException if the query is too large to be sent (> 65535 bytes)
    */
   public Message send(Message query) throws IOException {
-    try (Socket socket = factory.createSocket(InetAddress.getByName(updateHost), DNS_PORT)) {
-      socket.setSoTimeout(updateTimeout);
-      writeMessage(socket.getOutputStream(), query);
-      Message response = readMessage(socket.getInputStream());
+    return sendAll(ImmutableList.of(query)).get(0);
+  }
+
+  /**
+   * Sends several DNS "query" messages on one connection and returns their responses, in the same
+   * order as the queries.
+   *
+   * <p>Up to {@link #MAX_PIPELINE_DEPTH} queries are written before their responses are read, and
+   * responses are matched to queries by message ID, so the server may answer them in any order.
+   * Queries that share an ID are never in flight at the same time.
+   *
+   * <p>If a pooled connection fails before any response has been read on it, the server has most
+   * likely closed it while it was idle, and the queries are resent once on a new connection. This
+   * means a server could see a query twice, which is harmless for the delete-then-add UPDATE
+   * messages that {@link DnsUpdateWriter} sends. Once a response has been read, even one from the
+   * middle of a pipeline window, the connection was live, and a later failure is thrown.
+   *
+   * @param queries messages to send
+   * @return the responses received from the server
+   * @throws IOException if the Socket input/output streams throws one
+   * @throws IllegalArgumentException if any query is too large to be sent (> 65535 bytes)
+   */
+  public ImmutableList<Message> sendAll(List<Message> queries) throws IOException {
+    List<byte[]> framedQueries = new ArrayList<>(queries.size());
+    for (Message query : queries) {
+      framedQueries.add(frameMessage(query));
+    }
+    if (queries.isEmpty()) {
+      return ImmutableList.of();
+    }
+    ImmutableList.Builder<Message> responses = new ImmutableList.Builder<>();
+    Connection connection = connectionPool.acquire(updateHost, updateTimeout);
+    int start = 0;
+    while (start < queries.size()) {
+      int end = findPipelineEnd(queries, start);
+      Map<Integer, Message> responsesById = new HashMap<>();
+      try {
+        responses.addAll(exchange(
+            connection,
+            queries.subList(start, end),
+            framedQueries.subList(start, end),
+            responsesById));
+      } catch (IOException e) {
+        connectionPool.discard(connection);
+        // Earlier windows, and any responses read in this one, were all read on this connection.
+        boolean responseRead = start > 0 || !responsesById.isEmpty();
+        if (!connection.reused || responseRead || e instanceof SocketTimeoutException) {
+          throw e;
+        }
+        logger.infofmt(e, "Pooled connection to %s failed; retrying on a new one", updateHost);
+        connection = connectionPool.acquire(updateHost, updateTimeout);
+        continue;
+      } catch (RuntimeException e) {
+        connectionPool.discard(connection);
+        throw e;
+      }
+      start = end;
+    }
+    connectionPool.release(connection);
+    return responses.build();
+  }
+
+  /** Returns the end of the pipeline window that starts at {@code start}. */
+  private static int findPipelineEnd(List<Message> queries, int start) {
+    Set<Integer> ids = new HashSet<>();
+    int end = start;
+    while (end < queries.size()
+        && end - start < MAX_PIPELINE_DEPTH
+        && ids.add(queries.get(end).getHeader().getID())) {
+      end++;
+    }
+    return end;
+  }
+
+  /**
+   * Writes all of the queries, then reads and returns their responses in query order.
+   *
+   * @param responsesById empty map that responses are added to as they are read, so that the
+   *     caller can tell whether any were read if this throws
+   */
+  private ImmutableList<Message> exchange(
+      Connection connection,
+      List<Message> queries,
+      List<byte[]> framedQueries,
+      Map<Integer, Message> responsesById)
+      throws IOException {
+    for (byte[] framedQuery : framedQueries) {
+      connection.output.write(framedQuery);
+    }
+    connection.output.flush();
+    Map<Integer, Message> pending = new HashMap<>();
+    for (Message query : queries) {
+      pending.put(query.getHeader().getID(), query);
+    }
+    for (int i = 0; i < queries.size(); i++) {
+      Message response = readMessage(connection.input);
+      int id = response.getHeader().getID();
+      Message query = pending.remove(id);
+      verify(
+          query != null,
+          "response ID %s does not match query ID %s",
+          id,
+          Joiner.on(", ").join(pending.keySet()));
       checkValidResponse(query, response);
-      return response;
+      responsesById.put(id, response);
+    }
+    ImmutableList.Builder<Message> responses = new ImmutableList.Builder<>();
+    for (Message query : queries) {
+      responses.add(responsesById.get(query.getHeader().getID()));
     }
+    return responses.build();
   }
 
   private void checkValidResponse(Message query, Message response) {
@@ -109,7 +241,7 @@ public class DnsMessageTransport {
         Opcode.string(query.getHeader().getOpcode()));
   }
 
-  private void writeMessage(OutputStream outputStream, Message message) throws IOException {
+  private byte[] frameMessage(Message message) {
     byte[] messageData = message.toWire();
     checkArgument(
         messageData.length <= MESSAGE_MAXIMUM_LENGTH,
@@ -119,11 +251,10 @@ public class DnsMessageTransport {
     ByteBuffer buffer = ByteBuffer.allocate(messageData.length + MESSAGE_LENGTH_FIELD_BYTES);
     buffer.putShort((short) messageData.length);
     buffer.put(messageData);
-    outputStream.write(buffer.array());
+    return buffer.array();
   }
 
-  private Message readMessage(InputStream inputStream) throws IOException {
-    DataInputStream stream = new DataInputStream(inputStream);
+  private Message readMessage(DataInputStream stream) throws IOException {
     int length = stream.readUnsignedShort();
     byte[] messageData = new byte[length];
     stream.readFully(messageData);
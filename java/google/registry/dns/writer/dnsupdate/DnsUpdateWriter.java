@@ -17,8 +17,8 @@ package google.registry.dns.writer.dnsupdate;
 import static com.google.common.base.Verify.verify;
 import static com.google.common.collect.Sets.intersection;
 import static com.google.common.collect.Sets.union;
-import static google.registry.model.EppResourceUtils.loadByForeignKey;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
@@ -26,6 +26,7 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.net.InternetDomainName;
 import google.registry.config.ConfigModule.Config;
 import google.registry.dns.writer.DnsWriter;
+import google.registry.dns.writer.PrefetchedDnsResources;
 import google.registry.model.domain.DomainResource;
 import google.registry.model.domain.secdns.DelegationSignerData;
 import google.registry.model.host.HostResource;
@@ -35,6 +36,13 @@ import java.io.IOException;
 import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import org.joda.time.Duration;
 import org.xbill.DNS.AAAARecord;
@@ -46,6 +54,8 @@ import org.xbill.DNS.NSRecord;
 import org.xbill.DNS.Name;
 import org.xbill.DNS.RRset;
 import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Section;
 import org.xbill.DNS.TextParseException;
 import org.xbill.DNS.Type;
 import org.xbill.DNS.Update;
@@ -54,9 +64,11 @@ import org.xbill.DNS.Update;
  * A DnsWriter that implements the DNS UPDATE protocol as specified in
  * <a href="https://tools.ietf.org/html/rfc2136">RFC 2136</a>. Publishes changes in the
  * domain-registry to a (capable) external DNS server, sometimes called a "hidden master". DNS
- * UPDATE messages are sent via a supplied "transport" class. For each publish call, a single
- * UPDATE message is created containing the records required to "synchronize" the DNS with the
- * current (at the time of processing) state of the registry, for the supplied domain/host.
+ * UPDATE messages are sent via a supplied "transport" class. Publish calls only note which domains
+ * need to be refreshed; when the writer is closed, the records required to "synchronize" the DNS
+ * with the current state of the registry are created for each domain, and packed into as few UPDATE
+ * messages as fit within the DNS message size limit. A domain is refreshed at most once per batch,
+ * however many of its hosts were published, and its records are never split across messages.
  *
  * <p>The general strategy of the publish methods is to delete <em>all</em> resource records of any
  * <em>type</em> that match the exact domain/host name supplied. And then for create/update cases,
@@ -67,11 +79,11 @@ import org.xbill.DNS.Update;
  * <p>Only NS, DS, A, and AAAA records are published, and in particular no DNSSEC signing is done
  * assuming that this will be done by a third party DNS provider.
  *
- * <p>Each publish call is treated as an atomic update to the DNS. If an update fails an exception
- * is thrown, expecting the caller to retry the update later. The SOA record serial number is
- * implicitly incremented by the server on each UPDATE message, as required by RFC 2136. Care must
- * be taken to make sure the SOA serial number does not go backwards if the entire TLD (zone) is
- * "reset" to empty and republished.
+ * <p>Each UPDATE message is treated as an atomic update to the DNS. If an update fails an exception
+ * is thrown from {@link #close}, expecting the caller to retry the whole batch later. The SOA
+ * record serial number is implicitly incremented by the server on each UPDATE message, as required
+ * by RFC 2136. Care must be taken to make sure the SOA serial number does not go backwards if the
+ * entire TLD (zone) is "reset" to empty and republished.
  */
 public class DnsUpdateWriter implements DnsWriter {
 
@@ -85,6 +97,20 @@ public class DnsUpdateWriter implements DnsWriter {
   private final DnsMessageTransport transport;
   private final Clock clock;
 
+  /** Largest UPDATE message, in bytes, that domains will be packed into. */
+  @VisibleForTesting
+  int maxMessageSize = DnsMessageTransport.MESSAGE_MAXIMUM_LENGTH;
+
+  /**
+   * Domains to refresh when the batch is closed, each with the names of any published hosts that
+   * triggered the refresh, in the order they were first published.
+   */
+  private final Map<String, Set<String>> pendingDomains = new LinkedHashMap<>();
+
+  /** Domains and nameservers loaded by {@link #prefetch}, or when the batch is closed. */
+  @Nullable
+  private PrefetchedDnsResources resources;
+
   /**
    * Class constructor.
    *
@@ -103,70 +129,140 @@ public class DnsUpdateWriter implements DnsWriter {
   }
 
   /**
-   * Publish the domain, while keeping tracking of which host refresh quest triggered this domain
-   * refresh. Delete the requesting host in addition to all subordinate hosts.
+   * Notes that the domain needs to be published, while keeping track of which host refresh
+   * requests triggered this domain refresh, so that the requesting hosts are deleted in addition to
+   * all subordinate hosts.
    *
    * @param domainName the fully qualified domain name, with no trailing dot
    * @param requestingHostName the fully qualified host name, with no trailing dot, that triggers
    *     this domain refresh request
    */
-  private void publishDomain(String domainName, String requestingHostName) {
-    DomainResource domain = loadByForeignKey(DomainResource.class, domainName, clock.nowUtc());
-    try {
-      Update update = new Update(toAbsoluteName(findTldFromName(domainName)));
-      update.delete(toAbsoluteName(domainName), Type.ANY);
-      if (domain != null) {
-        // As long as the domain exists, orphan glues should be cleaned.
-        deleteSubordinateHostAddressSet(domain, requestingHostName, update);
-        if (domain.shouldPublishToDns()) {
-          addInBailiwickNameServerSet(domain, update);
-          update.add(makeNameServerSet(domain));
-          update.add(makeDelegationSignerSet(domain));
-        }
-      }
-      Message response = transport.send(update);
-      verify(
-          response.getRcode() == Rcode.NOERROR,
-          "DNS server failed domain update for '%s' rcode: %s",
-          domainName,
-          Rcode.string(response.getRcode()));
-    } catch (IOException e) {
-      throw new RuntimeException("publishDomain failed: " + domainName, e);
+  private void addPendingDomain(String domainName, @Nullable String requestingHostName) {
+    Set<String> requestingHostNames = pendingDomains.get(domainName);
+    if (requestingHostNames == null) {
+      requestingHostNames = new LinkedHashSet<>();
+      pendingDomains.put(domainName, requestingHostNames);
+    }
+    if (requestingHostName != null) {
+      requestingHostNames.add(requestingHostName);
     }
   }
 
+  @Override
+  public void prefetch(Set<String> domainNames, Set<String> hostNames) {
+    resources = PrefetchedDnsResources.load(domainNames, hostNames, clock.nowUtc());
+  }
+
   @Override
   public void publishDomain(String domainName) {
-    publishDomain(domainName, null);
+    addPendingDomain(domainName, null);
   }
 
   @Override
   public void publishHost(String hostName) {
     // Get the superordinate domain name of the host.
-    InternetDomainName host = InternetDomainName.from(hostName);
-    ImmutableList<String> hostParts = host.parts();
-    Optional<InternetDomainName> tld = Registries.findTldForName(host);
+    Optional<String> domain = PrefetchedDnsResources.getSuperordinateDomainName(hostName);
 
     // host not managed by our registry, no need to update DNS.
-    if (!tld.isPresent()) {
+    if (!domain.isPresent()) {
       return;
     }
 
-    ImmutableList<String> tldParts = tld.get().parts();
-    ImmutableList<String> domainParts =
-        hostParts.subList(hostParts.size() - tldParts.size() - 1, hostParts.size());
-    String domain = Joiner.on(".").join(domainParts);
-
     // Refresh the superordinate domain, always delete the host first to ensure idempotency,
     // and only publish the host if it is a glue record.
-    publishDomain(domain, hostName);
+    addPendingDomain(domain.get(), hostName);
   }
 
   /**
-   * Does nothing. Publish calls are synchronous and atomic.
+   * Sends the UPDATE messages for all domains published in this batch, and checks that the DNS
+   * server accepted every one of them.
    */
   @Override
-  public void close() {}
+  public void close() {
+    if (pendingDomains.isEmpty()) {
+      return;
+    }
+    if (resources == null) {
+      // Nothing was prefetched, but every domain in the batch is known by now.
+      resources = PrefetchedDnsResources.load(
+          pendingDomains.keySet(), ImmutableSet.<String>of(), clock.nowUtc());
+    }
+    List<Update> updates = new ArrayList<>();
+    List<List<String>> domainNamesByUpdate = new ArrayList<>();
+    try {
+      packUpdates(updates, domainNamesByUpdate);
+      ImmutableList<Message> responses = transport.sendAll(updates);
+      for (int i = 0; i < responses.size(); i++) {
+        Message response = responses.get(i);
+        verify(
+            response.getRcode() == Rcode.NOERROR,
+            "DNS server failed domain update for '%s' rcode: %s",
+            Joiner.on("', '").join(domainNamesByUpdate.get(i)),
+            Rcode.string(response.getRcode()));
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(
+          "publishDomain failed: " + Joiner.on(", ").join(pendingDomains.keySet()), e);
+    } finally {
+      pendingDomains.clear();
+    }
+  }
+
+  /**
+   * Packs the updates for all pending domains into as few UPDATE messages per zone as fit within
+   * {@link #maxMessageSize}.
+   *
+   * <p>The size of each domain's records is measured by encoding them in an UPDATE message of
+   * their own. Name compression can only shrink records further once they share a message, so the
+   * sum of these sizes is an upper bound on the size of the packed message.
+   */
+  private void packUpdates(List<Update> updates, List<List<String>> domainNamesByUpdate)
+      throws TextParseException {
+    // The update currently being filled for each zone, as an index into updates, and its size.
+    Map<String, Integer> openUpdates = new LinkedHashMap<>();
+    Map<String, Integer> openUpdateSizes = new LinkedHashMap<>();
+    for (Map.Entry<String, Set<String>> entry : pendingDomains.entrySet()) {
+      String domainName = entry.getKey();
+      String zone = findTldFromName(domainName);
+      Update domainUpdate = makeDomainUpdate(zone, domainName, entry.getValue());
+      int emptySize = new Update(toAbsoluteName(zone)).toWire().length;
+      int recordsSize = domainUpdate.toWire().length - emptySize;
+      if (!openUpdates.containsKey(zone)
+          || openUpdateSizes.get(zone) + recordsSize > maxMessageSize) {
+        openUpdates.put(zone, updates.size());
+        openUpdateSizes.put(zone, emptySize);
+        updates.add(new Update(toAbsoluteName(zone)));
+        domainNamesByUpdate.add(new ArrayList<String>());
+      }
+      int index = openUpdates.get(zone);
+      for (Record record : domainUpdate.getSectionArray(Section.UPDATE)) {
+        updates.get(index).addRecord(record, Section.UPDATE);
+      }
+      openUpdateSizes.put(zone, openUpdateSizes.get(zone) + recordsSize);
+      domainNamesByUpdate.get(index).add(domainName);
+    }
+  }
+
+  /**
+   * Creates an UPDATE message with the records that synchronize the DNS with the current state of
+   * the domain, deleting the requesting hosts in addition to all subordinate hosts.
+   */
+  private Update makeDomainUpdate(
+      String zone, String domainName, Set<String> requestingHostNames) throws TextParseException {
+    DomainResource domain = resources.getDomain(domainName);
+    Update update = new Update(toAbsoluteName(zone));
+    update.delete(toAbsoluteName(domainName), Type.ANY);
+    if (domain != null) {
+      // As long as the domain exists, orphan glues should be cleaned.
+      deleteSubordinateHostAddressSet(domain, requestingHostNames, update);
+      if (domain.shouldPublishToDns()) {
+        addInBailiwickNameServerSet(domain, update);
+        update.add(makeNameServerSet(domain));
+        update.add(makeDelegationSignerSet(domain));
+      }
+    }
+    return update;
+  }
 
   private RRset makeDelegationSignerSet(DomainResource domain) throws TextParseException {
     RRset signerSet = new RRset();
@@ -186,13 +282,9 @@ public class DnsUpdateWriter implements DnsWriter {
   }
 
   private void deleteSubordinateHostAddressSet(
-      DomainResource domain, String additionalHost, Update update) throws TextParseException {
-    for (String hostName :
-        union(
-            domain.getSubordinateHosts(),
-            (additionalHost == null
-                ? ImmutableSet.<String>of()
-                : ImmutableSet.of(additionalHost)))) {
+      DomainResource domain, Set<String> additionalHosts, Update update)
+      throws TextParseException {
+    for (String hostName : union(domain.getSubordinateHosts(), additionalHosts)) {
       update.delete(toAbsoluteName(hostName), Type.ANY);
     }
   }
@@ -200,9 +292,8 @@ public class DnsUpdateWriter implements DnsWriter {
   private void addInBailiwickNameServerSet(DomainResource domain, Update update)
       throws TextParseException {
     for (String hostName :
-        intersection(
-            domain.loadNameserverFullyQualifiedHostNames(), domain.getSubordinateHosts())) {
-      HostResource host = loadByForeignKey(HostResource.class, hostName, clock.nowUtc());
+        intersection(resources.getNameserverHostNames(domain), domain.getSubordinateHosts())) {
+      HostResource host = resources.getHost(hostName);
       update.add(makeAddressSet(host));
       update.add(makeV6AddressSet(host));
     }
@@ -210,7 +301,7 @@ public class DnsUpdateWriter implements DnsWriter {
 
   private RRset makeNameServerSet(DomainResource domain) throws TextParseException {
     RRset nameServerSet = new RRset();
-    for (String hostName : domain.loadNameserverFullyQualifiedHostNames()) {
+    for (String hostName : resources.getNameserverHostNames(domain)) {
       NSRecord record =
           new NSRecord(
               toAbsoluteName(domain.getFullyQualifiedDomainName()),
@@ -27,11 +27,23 @@ import javax.net.SocketFactory;
 @Module
 public abstract class DnsUpdateWriterModule {
 
+  /**
+   * Connections to the update host outlive the request that opened them, so that each publish
+   * batch doesn't have to reconnect.
+   */
+  private static final DnsConnectionPool connectionPool =
+      DnsConnectionPool.create(provideSocketFactory());
+
   @Provides
   static SocketFactory provideSocketFactory() {
     return SocketFactory.getDefault();
   }
 
+  @Provides
+  static DnsConnectionPool provideConnectionPool() {
+    return connectionPool;
+  }
+
   @Provides
   @IntoMap
   @StringKey(DnsUpdateWriter.NAME)
@@ -0,0 +1,162 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.flows;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.common.annotations.VisibleForTesting;
+import google.registry.util.FormattingLogger;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.joda.time.Duration;
+
+/**
+ * Bounded background writer for the pretty printed command log records emitted by {@link
+ * FlowRunner}.
+ *
+ * <p>Pretty printing re-parses the whole input XML, which is expensive relative to most flows.
+ * Once {@link #start} has been called, records are handed to a single background thread so that the
+ * EPP request thread doesn't pay for it. If the writer isn't running, or its queue is full, the
+ * record is written synchronously by the caller instead, so records are never dropped. Log lines
+ * that must stay in the request's own logs, such as the ICANN reporting lines, shouldn't be written
+ * through here.
+ *
+ * <p>There is one writer per component, which the frontend starts when its servlet is initialized
+ * and stops, writing whatever is still queued, when the instance shuts down.
+ */
+@ThreadSafe
+@Singleton
+public final class EppCommandLogWriter {
+
+  private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
+
+  /** Maximum number of records waiting to be written before callers write them themselves. */
+  private static final int QUEUE_CAPACITY = 2000;
+
+  /** How often the writer thread checks whether it has been asked to stop. */
+  private static final long POLL_INTERVAL_MILLIS = 100;
+
+  private final BlockingQueue<Runnable> queue;
+  private final AtomicLong asyncWrites = new AtomicLong();
+  private final AtomicLong inlineWrites = new AtomicLong();
+
+  @GuardedBy("this")
+  @Nullable
+  private Thread writerThread;
+
+  private volatile boolean running;
+
+  @Inject
+  EppCommandLogWriter() {
+    this(QUEUE_CAPACITY);
+  }
+
+  @VisibleForTesting
+  EppCommandLogWriter(int queueCapacity) {
+    checkArgument(queueCapacity > 0, "Queue capacity must be positive");
+    this.queue = new ArrayBlockingQueue<>(queueCapacity);
+  }
+
+  /** Starts the background thread, which must be allowed to outlive the current request. */
+  public synchronized void start(ThreadFactory threadFactory) {
+    checkState(writerThread == null, "EppCommandLogWriter already started");
+    running = true;
+    writerThread = threadFactory.newThread(new Runnable() {
+      @Override
+      public void run() {
+        drainUntilStopped();
+      }});
+    writerThread.start();
+  }
+
+  /**
+   * Stops the background thread, waiting up to {@code timeout} for it to finish its current record,
+   * and then writes any records still queued on the calling thread.
+   */
+  public synchronized void stop(Duration timeout) throws InterruptedException {
+    if (writerThread == null) {
+      return;
+    }
+    running = false;
+    writerThread.join(timeout.getMillis());
+    writerThread = null;
+    flush();
+  }
+
+  /** Writes {@code record} on the background thread if possible, or synchronously otherwise. */
+  public void write(Runnable record) {
+    if (running && queue.offer(record)) {
+      asyncWrites.incrementAndGet();
+      // The writer may have been stopped after we checked, in which case nobody else is going to
+      // write what we just queued.
+      if (!running) {
+        flush();
+      }
+      return;
+    }
+    inlineWrites.incrementAndGet();
+    writeSafely(record);
+  }
+
+  /** Synchronously writes every record that is currently queued. */
+  @VisibleForTesting
+  void flush() {
+    Runnable record;
+    while ((record = queue.poll()) != null) {
+      writeSafely(record);
+    }
+  }
+
+  /** Returns the number of records handed to the background thread. */
+  public long getAsyncWriteCount() {
+    return asyncWrites.get();
+  }
+
+  /** Returns the number of records written on the caller's thread. */
+  public long getInlineWriteCount() {
+    return inlineWrites.get();
+  }
+
+  private void drainUntilStopped() {
+    while (running) {
+      try {
+        Runnable record = queue.poll(POLL_INTERVAL_MILLIS, MILLISECONDS);
+        if (record != null) {
+          writeSafely(record);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+  }
+
+  private static void writeSafely(Runnable record) {
+    try {
+      record.run();
+    } catch (RuntimeException e) {
+      logger.severe(e, "Failed to write EPP command log record");
+    }
+  }
+}
@@ -68,13 +68,18 @@ public class FlowRunner {
   @Inject EppMetric.Builder metric;
   @Inject SessionMetadata sessionMetadata;
   @Inject Trid trid;
+  @Inject EppCommandLogWriter commandLogWriter;
   @Inject FlowRunner() {}
 
   public EppOutput run() throws EppException {
-    String prettyXml = prettyPrint(inputXmlBytes);
+    // Encode the input once; the same string is used by both reporting lines and the EPP_Mutation
+    // line. Reporting pipelines decode and pretty print it themselves, so the request thread
+    // doesn't have to.
     String xmlBase64 = base64().encode(inputXmlBytes);
     // This log line is very fragile since it's used for ICANN reporting - DO NOT CHANGE.
-    // New data to be logged should be added only to the JSON log statement below.
+    // New data to be logged should be added only to the JSON log statement below. Both reporting
+    // lines are written on the request thread, so that they stay in the request's logs. The XML
+    // field is the base64-encoded input, as in the JSON line, rather than a pretty printed copy.
     // TODO(b/20725722): remove this log statement entirely once we've transitioned to using the
     //   log line below instead, or change this one to be for human consumption only.
     logger.infofmt(
@@ -82,7 +87,7 @@ public class FlowRunner {
         trid.getServerTransactionId(),
         clientId,
         sessionMetadata,
-        prettyXml.replaceAll("\n", "\n\t"),
+        xmlBase64,
         credentials,
         eppRequestSource,
         isDryRun ? "DRY_RUN" : "LIVE",
@@ -95,8 +100,8 @@ public class FlowRunner {
         JSONValue.toJSONString(ImmutableMap.<String, Object>of(
             "trid", trid.getServerTransactionId(),
             "clientId", clientId,
-            "xml", prettyXml,
             "xmlBytes", xmlBase64)));
+    commandLogWriter.write(new PrettyXmlLogRecord(trid.getServerTransactionId(), inputXmlBytes));
     if (!isTransactional) {
       metric.incrementAttempts();
       return createAndInitFlow(clock.nowUtc()).run();
@@ -152,6 +157,32 @@ public class FlowRunner {
           now);
   }
 
+  /**
+   * A human-readable copy of the input XML of a single EPP command, for people reading the logs.
+   *
+   * <p>Pretty printing re-parses the whole input, so this is written through {@link
+   * EppCommandLogWriter}, off the request thread. Nothing parses this line, and since it may not
+   * be in the request's logs, it is tagged with the server transaction ID instead.
+   */
+  private static class PrettyXmlLogRecord implements Runnable {
+
+    private final String serverTransactionId;
+    private final byte[] xmlBytes;
+
+    PrettyXmlLogRecord(String serverTransactionId, byte[] xmlBytes) {
+      this.serverTransactionId = serverTransactionId;
+      this.xmlBytes = xmlBytes;
+    }
+
+    @Override
+    public void run() {
+      logger.infofmt(
+          "EPP Command XML %s\n\t%s",
+          serverTransactionId,
+          prettyPrint(xmlBytes).replaceAll("\n", "\n\t"));
+    }
+  }
+
   /**
    * Helper for logging in json format.
    *
@@ -53,6 +53,7 @@ import com.google.common.collect.Iterators;
 import com.google.common.collect.Multiset;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.Work;
+import google.registry.config.ConfigModule.Config;
 import google.registry.dns.DnsQueue;
 import google.registry.flows.async.DeleteContactsAndHostsAction.DeletionResult.Type;
 import google.registry.mapreduce.MapreduceRunner;
@@ -64,6 +65,7 @@ import google.registry.model.annotations.ExternalMessagingName;
 import google.registry.model.contact.ContactResource;
 import google.registry.model.domain.DomainBase;
 import google.registry.model.host.HostResource;
+import google.registry.model.index.DomainReferenceIndex;
 import google.registry.model.poll.PollMessage;
 import google.registry.model.reporting.HistoryEntry;
 import google.registry.request.Action;
@@ -83,6 +85,10 @@ import org.joda.time.DateTime;
  * A mapreduce that processes batch asynchronous deletions of contact and host resources by mapping
  * over all domains and domain applications and checking for any references to the contacts/hosts in
  * pending deletion.
+ *
+ * <p>Once the {@link DomainReferenceIndex} is trusted, the deletions are instead processed in the
+ * action itself, by reading just the domains that the index lists as referencing each resource.
+ * Until then, the mapreduce logs any references that the index is missing.
  */
 @Action(path = "/_dr/task/deleteContactsAndHosts")
 public class DeleteContactsAndHostsAction implements Runnable {
@@ -106,6 +112,7 @@ public class DeleteContactsAndHostsAction implements Runnable {
   @Inject @Named(QUEUE_ASYNC_DELETE) Queue queue;
   @Inject Response response;
   @Inject Retrier retrier;
+  @Inject @Config("asyncFlowsUseDomainReferenceIndex") boolean useDomainReferenceIndex;
   @Inject DeleteContactsAndHostsAction() {}
 
   @Override
@@ -149,7 +156,11 @@ public class DeleteContactsAndHostsAction implements Runnable {
       logger.infofmt(
           "Processing asynchronous deletion of %d contacts and %d hosts: %s",
           kindCounts.count(KIND_CONTACT), kindCounts.count(KIND_HOST), resourceKeys.build());
-      runMapreduce(deletionRequests);
+      if (useDomainReferenceIndex) {
+        processDeletionsUsingIndex(deletionRequests);
+      } else {
+        runMapreduce(deletionRequests);
+      }
     }
   }
 
@@ -167,6 +178,32 @@ public class DeleteContactsAndHostsAction implements Runnable {
           }}, TransientFailureException.class);
   }
 
+  /**
+   * Processes the deletions by checking the domains that the {@link DomainReferenceIndex} lists as
+   * referencing each resource, rather than mapping over all domains.
+   *
+   * <p>Resources in PENDING_DELETE can't gain new references, and this runs long enough after they
+   * entered it for any domain flows that were in progress to have committed, and for the eventually
+   * consistent index query to include their references.
+   */
+  private void processDeletionsUsingIndex(ImmutableList<DeletionRequest> deletionRequests) {
+    Multiset<String> resultCounts = HashMultiset.create();
+    for (DeletionRequest deletionRequest : deletionRequests) {
+      try {
+        boolean hasNoActiveReferences = DomainReferenceIndex
+            .loadActiveReferencingDomains(deletionRequest.key(), deletionRequest.lastUpdateTime())
+            .isEmpty();
+        DeletionResult result =
+            DeleteEppResourceReducer.processDeletion(deletionRequest, hasNoActiveReferences);
+        resultCounts.add(result.type().renderCounterText(deletionRequest.key().getKind() + "s"));
+      } catch (Throwable t) {
+        // The task stays leased, so the deletion will be retried once the lease expires.
+        logger.severefmt(t, "Error while processing async deletion of %s", deletionRequest.key());
+      }
+    }
+    response.setPayload(String.format("Processed deletions: %s", resultCounts));
+  }
+
   private void runMapreduce(ImmutableList<DeletionRequest> deletionRequests) {
     try {
       int numReducers =
@@ -218,6 +255,12 @@ public class DeleteContactsAndHostsAction implements Runnable {
           getContext()
               .incrementCounter(
                   String.format("active Domain-%s links found", deletionRequest.key().getKind()));
+          if (!DomainReferenceIndex.isIndexed(Key.create(domain), deletionRequest.key())) {
+            logger.severefmt(
+                "Domain reference index is missing link from %s to %s",
+                Key.create(domain), deletionRequest.key());
+            getContext().incrementCounter("links missing from domain reference index");
+          }
         }
       }
       if (domain != null) {
@@ -248,8 +291,19 @@ public class DeleteContactsAndHostsAction implements Runnable {
     private static final DnsQueue dnsQueue = DnsQueue.create();
 
     @Override
-    public void reduce(final DeletionRequest deletionRequest, ReducerInput<Boolean> values) {
-      final boolean hasNoActiveReferences = !Iterators.contains(values, true);
+    public void reduce(DeletionRequest deletionRequest, ReducerInput<Boolean> values) {
+      DeletionResult result =
+          processDeletion(deletionRequest, !Iterators.contains(values, true));
+      String resourceNamePlural = deletionRequest.key().getKind() + "s";
+      getContext().incrementCounter(result.type().renderCounterText(resourceNamePlural));
+    }
+
+    /**
+     * Deletes the resource if it has no active references and unmarks it for deletion otherwise,
+     * and then deletes its task.
+     */
+    static DeletionResult processDeletion(
+        final DeletionRequest deletionRequest, final boolean hasNoActiveReferences) {
       logger.infofmt("Processing async deletion request for %s", deletionRequest.key());
       DeletionResult result = ofy().transactNew(new Work<DeletionResult>() {
         @Override
@@ -260,14 +314,13 @@ public class DeleteContactsAndHostsAction implements Runnable {
           getQueue(QUEUE_ASYNC_DELETE).deleteTask(deletionRequest.task());
           return deletionResult;
         }});
-      String resourceNamePlural = deletionRequest.key().getKind() + "s";
-      getContext().incrementCounter(result.type().renderCounterText(resourceNamePlural));
       logger.infofmt(
           "Result of async deletion for resource %s: %s",
           deletionRequest.key(), result.pollMessageText());
+      return result;
     }
 
-    private DeletionResult attemptToDeleteResource(
+    private static DeletionResult attemptToDeleteResource(
         DeletionRequest deletionRequest, boolean hasNoActiveReferences) {
       DateTime now = ofy().getTransactionTime();
       EppResource resource =
@@ -328,7 +381,8 @@ public class DeleteContactsAndHostsAction implements Runnable {
      * Determine the proper history entry type for the delete operation, as a function of
      * whether or not the delete was successful.
      */
-    private HistoryEntry.Type getHistoryEntryType(EppResource resource, boolean successfulDelete) {
+    private static HistoryEntry.Type getHistoryEntryType(
+        EppResource resource, boolean successfulDelete) {
       if (resource instanceof ContactResource) {
         return successfulDelete ? CONTACT_DELETE : CONTACT_DELETE_FAILURE;
       } else if (resource instanceof HostResource) {
@@ -339,7 +393,7 @@ public class DeleteContactsAndHostsAction implements Runnable {
     }
 
     /** Perform any type-specific tasks on the resource to be deleted (and/or its dependencies). */
-    private void performDeleteTasks(
+    private static void performDeleteTasks(
         EppResource existingResource,
         EppResource deletedResource,
         DateTime deletionTime,
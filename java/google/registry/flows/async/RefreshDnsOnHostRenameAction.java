@@ -38,11 +38,14 @@ import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.googlecode.objectify.Key;
+import google.registry.config.ConfigModule.Config;
 import google.registry.dns.DnsQueue;
 import google.registry.mapreduce.MapreduceRunner;
 import google.registry.mapreduce.inputs.NullInput;
+import google.registry.model.domain.DomainBase;
 import google.registry.model.domain.DomainResource;
 import google.registry.model.host.HostResource;
+import google.registry.model.index.DomainReferenceIndex;
 import google.registry.request.Action;
 import google.registry.request.Response;
 import google.registry.util.Clock;
@@ -50,14 +53,22 @@ import google.registry.util.FormattingLogger;
 import google.registry.util.Retrier;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Named;
 import org.joda.time.DateTime;
 
-/** Performs batched DNS refreshes for applicable domains following a host rename. */
+/**
+ * Performs batched DNS refreshes for applicable domains following a host rename.
+ *
+ * <p>The domains are found by mapping over all domains, which also logs any references that the
+ * {@link DomainReferenceIndex} is missing, or once the index is trusted, by reading just the
+ * domains that it lists as referencing the renamed hosts.
+ */
 @Action(path = "/_dr/task/refreshDnsOnHostRename")
 public class RefreshDnsOnHostRenameAction implements Runnable {
 
@@ -73,6 +84,7 @@ public class RefreshDnsOnHostRenameAction implements Runnable {
   @Inject @Named(QUEUE_ASYNC_HOST_RENAME) Queue pullQueue;
   @Inject Response response;
   @Inject Retrier retrier;
+  @Inject @Config("asyncFlowsUseDomainReferenceIndex") boolean useDomainReferenceIndex;
   @Inject RefreshDnsOnHostRenameAction() {}
 
   @Override
@@ -115,8 +127,44 @@ public class RefreshDnsOnHostRenameAction implements Runnable {
       response.setPayload("All requested DNS refreshes are on hosts that were since deleted.");
     } else {
       logger.infofmt("Processing asynchronous DNS refresh for renamed hosts: %s", hostKeys.build());
-      runMapreduce(refreshRequests, tasks);
+      if (useDomainReferenceIndex) {
+        refreshDnsUsingIndex(refreshRequests, tasks);
+      } else {
+        runMapreduce(refreshRequests, tasks);
+      }
+    }
+  }
+
+  /**
+   * Refreshes DNS for the domains that the {@link DomainReferenceIndex} lists as referencing the
+   * renamed hosts, rather than mapping over all domains.
+   */
+  private void refreshDnsUsingIndex(
+      ImmutableList<DnsRefreshRequest> refreshRequests, List<TaskHandle> tasks) {
+    Set<String> domainNames = new LinkedHashSet<>();
+    for (DnsRefreshRequest request : refreshRequests) {
+      for (DomainBase domain : DomainReferenceIndex.loadActiveReferencingDomains(
+          request.hostKey(), request.lastUpdateTime())) {
+        // Applications aren't published to DNS.
+        if (domain instanceof DomainResource) {
+          domainNames.add(domain.getFullyQualifiedDomainName());
+        }
+      }
+    }
+    final DnsQueue dnsQueue = DnsQueue.create();
+    for (final String domainName : domainNames) {
+      retrier.callWithRetry(
+          new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+              dnsQueue.addDomainRefreshTask(domainName);
+              return null;
+            }}, TransientFailureException.class);
     }
+    // If anything above fails, the tasks stay leased and are retried once the lease expires.
+    deleteTasksWithRetry(tasks, pullQueue, retrier);
+    response.setPayload(
+        String.format("Enqueued DNS refreshes for %d domains.", domainNames.size()));
   }
 
   private void runMapreduce(
@@ -169,6 +217,12 @@ public class RefreshDnsOnHostRenameAction implements Runnable {
         }
       }
       if (referencingHostKey != null) {
+        if (!DomainReferenceIndex.isIndexed(Key.create(domain), referencingHostKey)) {
+          logger.severefmt(
+              "Domain reference index is missing link from %s to %s",
+              Key.create(domain), referencingHostKey);
+          getContext().incrementCounter("links missing from domain reference index");
+        }
         retrier.callWithRetry(
             new Callable<Void>() {
               @Override
@@ -75,6 +75,7 @@ import google.registry.model.eppinput.ResourceCommand;
 import google.registry.model.eppoutput.CreateData.DomainCreateData;
 import google.registry.model.eppoutput.EppOutput;
 import google.registry.model.eppoutput.Result;
+import google.registry.model.index.DomainReferenceIndex;
 import google.registry.model.index.EppResourceIndex;
 import google.registry.model.index.ForeignKeyIndex;
 import google.registry.model.ofy.ObjectifyService;
@@ -173,6 +174,7 @@ public class DomainAllocateFlow extends LoggedInFlow implements TransactionalFlo
         updateApplication(application),
         ForeignKeyIndex.create(newDomain, newDomain.getDeletionTime()),
         EppResourceIndex.create(Key.create(newDomain)));
+    entitiesToSave.addAll(DomainReferenceIndex.createAddedInstances(null, newDomain));
     // Anchor tenant registrations override LRP.
     String authInfoToken = authInfo.getPw().getValue();
     if (hasLrpToken(domainName, registry, authInfoToken)) {
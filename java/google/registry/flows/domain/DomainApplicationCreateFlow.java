@@ -78,6 +78,7 @@ import google.registry.model.eppoutput.CreateData.DomainCreateData;
 import google.registry.model.eppoutput.EppOutput;
 import google.registry.model.eppoutput.EppResponse.ResponseExtension;
 import google.registry.model.index.DomainApplicationIndex;
+import google.registry.model.index.DomainReferenceIndex;
 import google.registry.model.index.EppResourceIndex;
 import google.registry.model.ofy.ObjectifyService;
 import google.registry.model.registry.Registry;
@@ -237,6 +238,7 @@ public final class DomainApplicationCreateFlow extends LoggedInFlow implements T
         historyEntry,
         DomainApplicationIndex.createUpdatedInstance(newApplication),
         EppResourceIndex.create(Key.create(newApplication)));
+    entitiesToSave.addAll(DomainReferenceIndex.createAddedInstances(null, newApplication));
     // Anchor tenant registrations override LRP, and landrush applications can skip it.
     if (registry.getLrpPeriod().contains(now) && !isAnchorTenant) {
       // TODO(b/32059212): This is a bug: empty tokens should still fail. Preserving to fix in a
@@ -43,6 +43,7 @@ import google.registry.model.domain.launch.LaunchPhase;
 import google.registry.model.domain.metadata.MetadataExtension;
 import google.registry.model.eppcommon.AuthInfo;
 import google.registry.model.eppoutput.EppOutput;
+import google.registry.model.index.DomainReferenceIndex;
 import google.registry.model.registry.Registry;
 import google.registry.model.registry.Registry.TldState;
 import google.registry.model.reporting.HistoryEntry;
@@ -105,6 +106,7 @@ public final class DomainApplicationDeleteFlow extends LoggedInFlow implements T
     updateForeignKeyIndexDeletionTime(newApplication);
     handlePendingTransferOnDelete(existingApplication, newApplication, now, historyEntry);
     ofy().save().<Object>entities(newApplication, historyEntry);
+    ofy().delete().keys(DomainReferenceIndex.createRemovedKeys(existingApplication, null));
     return createOutput(SUCCESS);
   }
 
@@ -64,6 +64,7 @@ import google.registry.model.eppcommon.StatusValue;
 import google.registry.model.eppinput.ResourceCommand;
 import google.registry.model.eppinput.ResourceCommand.AddRemoveSameValueException;
 import google.registry.model.eppoutput.EppOutput;
+import google.registry.model.index.DomainReferenceIndex;
 import google.registry.model.reporting.HistoryEntry;
 import javax.inject.Inject;
 
@@ -143,6 +144,10 @@ public class DomainApplicationUpdateFlow extends LoggedInFlow implements Transac
     DomainApplication newApplication = updateApplication(existingApplication, command);
     validateNewApplication(newApplication);
     ofy().save().<ImmutableObject>entities(newApplication, historyEntry);
+    ofy().save().entities(
+        DomainReferenceIndex.createAddedInstances(existingApplication, newApplication));
+    ofy().delete().keys(
+        DomainReferenceIndex.createRemovedKeys(existingApplication, newApplication));
     return createOutput(SUCCESS);
   }
 
@@ -56,10 +56,13 @@ import google.registry.model.eppoutput.EppOutput;
 import google.registry.model.eppoutput.EppResponse.ResponseExtension;
 import google.registry.model.registry.Registry;
 import google.registry.model.registry.Registry.TldState;
+import google.registry.model.registry.label.ReservationIndex;
 import google.registry.model.registry.label.ReservationType;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import javax.inject.Inject;
 
@@ -115,6 +118,7 @@ public final class DomainCheckFlow extends LoggedInFlow {
     ImmutableMap.Builder<String, InternetDomainName> domains = new ImmutableMap.Builder<>();
     // Only check that the registrar has access to a TLD the first time it is encountered
     Set<String> seenTlds = new HashSet<>();
+    Map<String, ReservationIndex> reservationIndexes = new HashMap<>();
     for (String targetId : ImmutableSet.copyOf(targetIds)) {
       InternetDomainName domainName = validateDomainName(targetId);
       validateDomainNameWithIdnTables(domainName);
@@ -126,13 +130,16 @@ public final class DomainCheckFlow extends LoggedInFlow {
         if (!isSuperuser) {
           verifyNotInPredelegation(Registry.get(tld), now);
         }
+        reservationIndexes.put(tld, ReservationIndex.forTld(tld));
       }
     }
     ImmutableMap<String, InternetDomainName> domainNames = domains.build();
     Set<String> existingIds = checkResourcesExist(DomainResource.class, targetIds, now);
     ImmutableList.Builder<DomainCheck> checks = new ImmutableList.Builder<>();
     for (String targetId : targetIds) {
-      String message = getMessageForCheck(domainNames.get(targetId), existingIds);
+      InternetDomainName domainName = domainNames.get(targetId);
+      String message = getMessageForCheck(
+          domainName, existingIds, reservationIndexes.get(domainName.parent().toString()));
       checks.add(DomainCheck.create(message == null, targetId, message));
     }
     return createOutput(
@@ -142,7 +149,9 @@ public final class DomainCheckFlow extends LoggedInFlow {
   }
 
   private String getMessageForCheck(
-      InternetDomainName domainName, Set<String> existingIds) {
+      InternetDomainName domainName,
+      Set<String> existingIds,
+      ReservationIndex reservationIndex) {
     if (existingIds.contains(domainName.toString())) {
       return "In use";
     }
@@ -156,7 +165,7 @@ public final class DomainCheckFlow extends LoggedInFlow {
               }})) {
       return "Pending allocation";
     }
-    ReservationType reservationType = getReservationType(domainName);
+    ReservationType reservationType = getReservationType(domainName, reservationIndex);
     if (reservationType == UNRESERVED
         && getPricesForDomainName(domainName.toString(), now).isPremium()
         && registry.getPremiumPriceAckRequired()
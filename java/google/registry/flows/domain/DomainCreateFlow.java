@@ -80,6 +80,7 @@ import google.registry.model.eppinput.ResourceCommand;
 import google.registry.model.eppoutput.CreateData.DomainCreateData;
 import google.registry.model.eppoutput.EppOutput;
 import google.registry.model.eppoutput.Result;
+import google.registry.model.index.DomainReferenceIndex;
 import google.registry.model.index.EppResourceIndex;
 import google.registry.model.index.ForeignKeyIndex;
 import google.registry.model.ofy.ObjectifyService;
@@ -266,6 +267,7 @@ public class DomainCreateFlow extends LoggedInFlow implements TransactionalFlow
         newDomain,
         ForeignKeyIndex.create(newDomain, newDomain.getDeletionTime()),
         EppResourceIndex.create(Key.create(newDomain)));
+    entitiesToSave.addAll(DomainReferenceIndex.createAddedInstances(null, newDomain));
     // Anchor tenant registrations override LRP, and landrush applications can skip it.
     if (hasLrpToken(registry, isAnchorTenant)) {
       // TODO(b/32059212): This is a bug: empty tokens should still fail. Preserving to fix in a
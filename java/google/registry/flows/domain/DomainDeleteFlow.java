@@ -60,6 +60,7 @@ import google.registry.model.eppcommon.AuthInfo;
 import google.registry.model.eppcommon.ProtocolDefinition.ServiceExtension;
 import google.registry.model.eppcommon.StatusValue;
 import google.registry.model.eppoutput.EppOutput;
+import google.registry.model.index.DomainReferenceIndex;
 import google.registry.model.poll.PendingActionNotificationResponse.DomainPendingActionNotificationResponse;
 import google.registry.model.poll.PollMessage;
 import google.registry.model.poll.PollMessage.OneTime;
@@ -135,6 +136,11 @@ public final class DomainDeleteFlow extends LoggedInFlow implements Transactiona
     handleExtraFlowLogic(existingDomain, historyEntry);
     DomainResource newDomain = builder.build();
     updateForeignKeyIndexDeletionTime(newDomain);
+    // A domain that is pending delete still references its contacts and hosts until it's deleted,
+    // but one that is deleted outright stops referencing them now.
+    if (!newDomain.getDeletionTime().isAfter(now)) {
+      ofy().delete().keys(DomainReferenceIndex.createRemovedKeys(existingDomain, null));
+    }
     handlePendingTransferOnDelete(existingDomain, newDomain, now, historyEntry);
     // Close the autorenew billing event and poll message. This may delete the poll message.
     updateAutorenewRecurrenceEndTime(existingDomain, now);
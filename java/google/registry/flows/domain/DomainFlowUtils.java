@@ -26,7 +26,6 @@ import static google.registry.flows.domain.TldSpecificLogicProxy.getMatchingLrpT
 import static google.registry.model.EppResourceUtils.loadByForeignKey;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.model.registry.Registries.findTldForName;
-import static google.registry.model.registry.label.ReservedList.getReservation;
 import static google.registry.pricing.PricingEngineProxy.getPricesForDomainName;
 import static google.registry.tldconfig.idn.IdnLabelValidator.findValidIdnTableForTld;
 import static google.registry.util.CollectionUtils.nullToEmpty;
@@ -106,6 +105,7 @@ import google.registry.model.poll.PollMessage;
 import google.registry.model.registrar.Registrar;
 import google.registry.model.registry.Registry;
 import google.registry.model.registry.Registry.TldState;
+import google.registry.model.registry.label.ReservationIndex;
 import google.registry.model.registry.label.ReservationType;
 import google.registry.model.reporting.HistoryEntry;
 import google.registry.model.smd.AbstractSignedMark;
@@ -384,7 +384,16 @@ public class DomainFlowUtils {
   /** Returns an enum that encodes how and when this name is reserved in the current tld. */
   static ReservationType getReservationType(InternetDomainName domainName) {
     // The TLD should always be the parent of the requested domain name.
-    return getReservation(domainName.parts().get(0), domainName.parent().toString());
+    return getReservationType(domainName, ReservationIndex.forTld(domainName.parent().toString()));
+  }
+
+  /**
+   * Returns an enum that encodes how and when this name is reserved, using an already-fetched
+   * {@link ReservationIndex} for the name's tld.
+   */
+  static ReservationType getReservationType(
+      InternetDomainName domainName, ReservationIndex reservationIndex) {
+    return reservationIndex.getReservation(domainName.parts().get(0));
   }
 
   /** Verifies that a launch extension's specified phase matches the specified registry's phase. */
@@ -67,6 +67,7 @@ import google.registry.model.eppcommon.StatusValue;
 import google.registry.model.eppinput.ResourceCommand;
 import google.registry.model.eppinput.ResourceCommand.AddRemoveSameValueException;
 import google.registry.model.eppoutput.EppOutput;
+import google.registry.model.index.DomainReferenceIndex;
 import google.registry.model.registry.Registry;
 import google.registry.model.reporting.HistoryEntry;
 import javax.inject.Inject;
@@ -164,6 +165,8 @@ public final class DomainUpdateFlow extends LoggedInFlow implements Transactiona
     handleExtraFlowLogic(existingDomain, historyEntry);
     ImmutableList.Builder<ImmutableObject> entitiesToSave = new ImmutableList.Builder<>();
     entitiesToSave.add(newDomain, historyEntry);
+    entitiesToSave.addAll(DomainReferenceIndex.createAddedInstances(existingDomain, newDomain));
+    ofy().delete().keys(DomainReferenceIndex.createRemovedKeys(existingDomain, newDomain));
     Optional<BillingEvent.OneTime> statusUpdateBillingEvent =
         createBillingEventForStatusUpdates(existingDomain, newDomain, historyEntry);
     if (statusUpdateBillingEvent.isPresent()) {
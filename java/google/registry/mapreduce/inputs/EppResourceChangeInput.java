@@ -0,0 +1,61 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package google.registry.mapreduce.inputs;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.appengine.tools.mapreduce.Input;
+import com.google.appengine.tools.mapreduce.InputReader;
+import com.google.common.collect.ImmutableList;
+import com.googlecode.objectify.Key;
+import google.registry.model.EppResource;
+import google.registry.model.ofy.CommitLogBucket;
+import java.util.List;
+import org.joda.time.DateTime;
+
+/**
+ * A MapReduce {@link Input} that loads the {@link EppResource} objects that changed during a period
+ * of time.
+ *
+ * <p>There is one reader per commit log bucket, which finds the resources saved during the period,
+ * and one {@link EppResourceScheduledChangeReader} for the resources that changed without a save.
+ * Each resource is returned exactly once, even if it was saved many times during the period.
+ */
+class EppResourceChangeInput extends Input<EppResource> {
+
+  private static final long serialVersionUID = -3394624196208396412L;
+
+  private final DateTime lowerBound;
+  private final DateTime upperBound;
+
+  /**
+   * @param lowerBound exclusive lower bound on commit times
+   * @param upperBound inclusive upper bound on commit times
+   */
+  EppResourceChangeInput(DateTime lowerBound, DateTime upperBound) {
+    checkArgument(lowerBound.isBefore(upperBound), "Empty period: %s %s", lowerBound, upperBound);
+    this.lowerBound = lowerBound;
+    this.upperBound = upperBound;
+  }
+
+  @Override
+  public List<InputReader<EppResource>> createReaders() {
+    ImmutableList.Builder<InputReader<EppResource>> readers = new ImmutableList.Builder<>();
+    for (Key<CommitLogBucket> bucketKey : CommitLogBucket.getAllBucketKeys()) {
+      readers.add(new EppResourceChangeReader(bucketKey, lowerBound, upperBound));
+    }
+    readers.add(new EppResourceScheduledChangeReader(lowerBound, upperBound));
+    return readers.build();
+  }
+}
@@ -0,0 +1,158 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package google.registry.mapreduce.inputs;
+
+import static google.registry.model.ofy.ObjectifyService.ofy;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.tools.mapreduce.InputReader;
+import com.google.common.collect.ImmutableSet;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.cmd.Query;
+import google.registry.model.EppResource;
+import google.registry.model.contact.ContactResource;
+import google.registry.model.domain.DomainBase;
+import google.registry.model.host.HostResource;
+import google.registry.model.ofy.CommitLogBucket;
+import google.registry.model.ofy.CommitLogManifest;
+import google.registry.model.ofy.CommitLogMutation;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import org.joda.time.DateTime;
+
+/**
+ * Reader that maps over the {@link CommitLogMutation} keys of a commit log bucket and returns the
+ * {@link EppResource} objects that they saved.
+ *
+ * <p>A resource saved several times might have mutations in several buckets. To return it only
+ * once, it is returned by whichever reader owns the commit of its latest revision in the period,
+ * as recorded in {@link EppResource#getRevisions}. Since the revisions map only keeps the last
+ * commit of each day, the bounds of the period should be at midnight.
+ */
+class EppResourceChangeReader extends InputReader<EppResource> {
+
+  private static final long serialVersionUID = 4406207313451622913L;
+
+  /** Number of bytes in 1MB of memory, used for memory estimates. */
+  private static final long ONE_MB = 1024 * 1024;
+
+  private static final ImmutableSet<String> RESOURCE_KINDS = ImmutableSet.of(
+      Key.getKind(ContactResource.class),
+      Key.getKind(DomainBase.class),
+      Key.getKind(HostResource.class));
+
+  private final Key<CommitLogBucket> bucketKey;
+  private final DateTime lowerBound;
+  private final DateTime upperBound;
+
+  private Cursor cursor;
+  private int total;
+  private int loaded;
+
+  private transient QueryResultIterator<Key<CommitLogMutation>> queryIterator;
+
+  EppResourceChangeReader(
+      Key<CommitLogBucket> bucketKey, DateTime lowerBound, DateTime upperBound) {
+    this.bucketKey = bucketKey;
+    this.lowerBound = lowerBound;
+    this.upperBound = upperBound;
+  }
+
+  /** Called once at start. Cache the expected size. */
+  @Override
+  public void beginShard() {
+    total = query().count();
+  }
+
+  /** Called every time we are deserialized. Create a new query or resume an existing one. */
+  @Override
+  public void beginSlice() {
+    Query<CommitLogMutation> query = query();
+    if (cursor != null) {
+      query = query.startAt(cursor);
+    }
+    queryIterator = query.keys().iterator();
+  }
+
+  /** Called occasionally alongside {@link #next}. */
+  @Override
+  public Double getProgress() {
+    return (total == 0) ? 1.0 : Math.min(1.0, ((double) loaded) / total);
+  }
+
+  /** Called before we are serialized. Save a serializable cursor for this query. */
+  @Override
+  public void endSlice() {
+    cursor = queryIterator.getCursor();
+  }
+
+  /** Returns the estimated memory that will be used by this reader in bytes. */
+  @Override
+  public long estimateMemoryRequirement() {
+    // Estimate 2MB of memory for this reader, since it loads a (max 1MB) entity.
+    return ONE_MB * 2;
+  }
+
+  /**
+   * Query for the mutations of the commits in this bucket during the period.
+   *
+   * <p>A mutation is a child of its commit's {@link CommitLogManifest}, so the mutations of all
+   * commits in the period sort between the manifest keys of the bounds. Since manifest keys are
+   * ids, add 1 to both bounds to make the lower bound inclusive and the upper bound exclusive.
+   */
+  private Query<CommitLogMutation> query() {
+    return ofy().load()
+        .type(CommitLogMutation.class)
+        .ancestor(bucketKey)
+        .filterKey(">=", CommitLogManifest.createKey(bucketKey, lowerBound.plusMillis(1)))
+        .filterKey("<", CommitLogManifest.createKey(bucketKey, upperBound.plusMillis(1)));
+  }
+
+  /**
+   * Called for each map invocation.
+   *
+   * @throws NoSuchElementException if there are no more elements, as specified in the
+   *         {@link InputReader#next} Javadoc.
+   */
+  @Override
+  public EppResource next() throws NoSuchElementException {
+    // Loop until we find a value, or the query iterator throws a NoSuchElementException.
+    while (true) {
+      Key<CommitLogMutation> mutationKey = queryIterator.next();
+      loaded++;
+      // The name of a mutation is the key of the entity that it saved.
+      Key<?> key = Key.create(mutationKey.getName());
+      if (!RESOURCE_KINDS.contains(key.getKind())) {
+        continue;
+      }
+      EppResource resource;
+      try {
+        resource = (EppResource) ofy().load().key(key).now();
+      } finally {
+        ofy().clearSessionCache();  // Try not to leak memory.
+      }
+      if (resource == null) {
+        continue;  // The resource was hard-deleted since.
+      }
+      Map.Entry<DateTime, Key<CommitLogManifest>> revision =
+          resource.getRevisions().floorEntry(upperBound);
+      if (revision != null
+          && revision.getKey().isAfter(lowerBound)
+          && revision.getValue().equals(mutationKey.getParent())) {
+        return resource;
+      }
+    }
+  }
+}
@@ -27,6 +27,7 @@ import com.googlecode.objectify.annotation.EntitySubclass;
 import google.registry.model.EppResource;
 import google.registry.model.ImmutableObject;
 import google.registry.model.index.EppResourceIndex;
+import org.joda.time.DateTime;
 
 /**
  * Mapreduce helpers for {@link EppResource} keys and objects.
@@ -43,6 +44,19 @@ public final class EppResourceInputs {
     return new EppResourceIndexInput();
   }
 
+  /**
+   * Returns a MapReduce {@link Input} that loads the {@link EppResource} objects that changed after
+   * {@code lowerBound} and at or before {@code upperBound}: the ones saved in that period according
+   * to the commit logs, and the ones that changed without a save, such as by a pending delete
+   * taking effect.
+   *
+   * <p>Both bounds should be at midnight, and within the commit log retention period.
+   */
+  public static Input<EppResource> createChangedEntityInput(
+      DateTime lowerBound, DateTime upperBound) {
+    return new EppResourceChangeInput(lowerBound, upperBound);
+  }
+
   /**
    * Returns a MapReduce {@link Input} that loads all {@link EppResource} objects of a given type,
    * including deleted resources.
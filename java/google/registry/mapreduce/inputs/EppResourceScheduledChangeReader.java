@@ -0,0 +1,319 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.mapreduce.inputs;
+
+import static google.registry.model.EppResourceUtils.hasChangedBetween;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.util.DateTimeUtils.END_OF_TIME;
+import static google.registry.util.DateTimeUtils.isBeforeOrAt;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.tools.mapreduce.InputReader;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.googlecode.objectify.cmd.Query;
+import google.registry.model.EppResource;
+import google.registry.model.contact.ContactResource;
+import google.registry.model.domain.DomainBase;
+import google.registry.model.domain.DomainResource;
+import google.registry.model.domain.GracePeriod;
+import google.registry.model.host.HostResource;
+import google.registry.model.registry.Registries;
+import google.registry.model.registry.Registry;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import javax.annotation.Nullable;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+
+/**
+ * Reader that returns the {@link EppResource} objects that changed during a period of time without
+ * being saved, because something that was scheduled when they were last saved took effect.
+ *
+ * <p>Pending deletes, server-approved transfers, autorenews and the ends of grace periods all take
+ * effect this way, so they have no commit log mutations, and {@link EppResourceChangeReader} can't
+ * find them. This reader queries the indexed fields that say when they can take effect instead.
+ * Resources that were also saved during the period are skipped, because
+ * {@link EppResourceChangeReader} returns them, and a resource with several such changes is only
+ * returned by the first query that finds it.
+ *
+ * <p>One unsaved change can be followed by others that aren't stored on the resource, such as the
+ * end of the grace period of a projected autorenew or transfer, the second autorenew of a domain
+ * that hasn't been saved in over a year, or a subordinate host changing sponsor when its
+ * superordinate domain is transferred. So the queries find every resource that might have changed,
+ * and only the ones whose projections at the two ends of the period differ are returned.
+ */
+class EppResourceScheduledChangeReader extends InputReader<EppResource> {
+
+  private static final long serialVersionUID = -6418729355367510211L;
+
+  /** Number of bytes in 1MB of memory, used for memory estimates. */
+  private static final long ONE_MB = 1024 * 1024;
+
+  /** Kinds of change that take effect without a save, and the indexed fields that find them. */
+  private enum ScheduledChange {
+
+    /** Pending deletes, and whatever else happens to the resource before it's deleted. */
+    DELETION(ContactResource.class, DomainBase.class, HostResource.class) {
+      @Override
+      <T> Query<T> addFilters(Query<T> query, EppResourceScheduledChangeReader reader) {
+        return query
+            .filter("deletionTime >", reader.lowerBound)
+            .filter("deletionTime <", END_OF_TIME);
+      }
+
+      @Override
+      boolean isCandidate(EppResource resource, EppResourceScheduledChangeReader reader) {
+        return resource.getDeletionTime().isAfter(reader.lowerBound)
+            && resource.getDeletionTime().isBefore(END_OF_TIME);
+      }},
+
+    /** Server-approved transfers, and the ends of the grace periods that they start. */
+    TRANSFER(ContactResource.class, DomainBase.class) {
+      @Override
+      <T> Query<T> addFilters(Query<T> query, EppResourceScheduledChangeReader reader) {
+        return query
+            .filter("transferData.pendingTransferExpirationTime >", reader.transferLowerBound)
+            .filter("transferData.pendingTransferExpirationTime <=", reader.upperBound);
+      }
+
+      @Override
+      boolean isCandidate(EppResource resource, EppResourceScheduledChangeReader reader) {
+        return isBetween(
+            resource.getTransferData().getPendingTransferExpirationTime(),
+            reader.transferLowerBound,
+            reader.upperBound);
+      }},
+
+    /**
+     * Autorenews, and the ends of their grace periods. A domain that hasn't been saved since it
+     * expired can autorenew many times, and the registration expiration time only ever grows, so
+     * every undeleted domain that expired before the end of the period is a candidate.
+     */
+    AUTORENEW(DomainBase.class) {
+      @Override
+      <T> Query<T> addFilters(Query<T> query, EppResourceScheduledChangeReader reader) {
+        return query
+            .filter("deletionTime", END_OF_TIME)
+            .filter("registrationExpirationTime <=", reader.upperBound);
+      }
+
+      @Override
+      boolean isCandidate(EppResource resource, EppResourceScheduledChangeReader reader) {
+        return resource instanceof DomainResource
+            && resource.getDeletionTime().equals(END_OF_TIME)
+            && isBeforeOrAt(
+                ((DomainResource) resource).getRegistrationExpirationTime(), reader.upperBound);
+      }},
+
+    /** Ends of grace periods that are stored on the domain. */
+    GRACE_PERIOD_END(DomainBase.class) {
+      @Override
+      <T> Query<T> addFilters(Query<T> query, EppResourceScheduledChangeReader reader) {
+        return query
+            .filter("gracePeriods.expirationTime >", reader.lowerBound)
+            .filter("gracePeriods.expirationTime <=", reader.upperBound);
+      }
+
+      @Override
+      boolean isCandidate(EppResource resource, EppResourceScheduledChangeReader reader) {
+        if (resource instanceof DomainResource) {
+          for (GracePeriod gracePeriod : ((DomainResource) resource).getGracePeriods()) {
+            if (isBetween(gracePeriod.getExpirationTime(), reader.lowerBound, reader.upperBound)) {
+              return true;
+            }
+          }
+        }
+        return false;
+      }},
+
+    /** Subordinate hosts, whose sponsor changes when their superordinate domain is transferred. */
+    SUPERORDINATE_DOMAIN_TRANSFER(HostResource.class) {
+      @Override
+      <T> Query<T> addFilters(Query<T> query, EppResourceScheduledChangeReader reader) {
+        return query.filter("superordinateDomain !=", null);
+      }
+
+      @Override
+      boolean isCandidate(EppResource resource, EppResourceScheduledChangeReader reader) {
+        return resource instanceof HostResource
+            && ((HostResource) resource).getSuperordinateDomain() != null;
+      }};
+
+    private final ImmutableList<Class<? extends EppResource>> kinds;
+
+    @SafeVarargs
+    private ScheduledChange(Class<? extends EppResource>... kinds) {
+      this.kinds = ImmutableList.copyOf(kinds);
+    }
+
+    /** Adds the filters that find the candidates for this change to a query. */
+    abstract <T> Query<T> addFilters(Query<T> query, EppResourceScheduledChangeReader reader);
+
+    /** Returns true if the query for this change finds the given resource. */
+    abstract boolean isCandidate(EppResource resource, EppResourceScheduledChangeReader reader);
+
+    boolean finds(EppResource resource, EppResourceScheduledChangeReader reader) {
+      for (Class<? extends EppResource> kind : kinds) {
+        if (kind.isInstance(resource)) {
+          return isCandidate(resource, reader);
+        }
+      }
+      return false;
+    }
+  }
+
+  /** The queries to run, in order, as pairs of the change to look for and the kind to query. */
+  private static final ImmutableList<Map.Entry<ScheduledChange, Class<? extends EppResource>>>
+      QUERIES = createQueries();
+
+  private final DateTime lowerBound;
+  private final DateTime upperBound;
+
+  /**
+   * Lower bound on the times of transfers that can have changed a resource during the period,
+   * which is earlier than {@link #lowerBound} because a transfer's grace period can end then.
+   */
+  private final DateTime transferLowerBound;
+
+  private int queryIndex;
+  private Cursor cursor;
+
+  private transient QueryResultIterator<? extends EppResource> queryIterator;
+
+  EppResourceScheduledChangeReader(DateTime lowerBound, DateTime upperBound) {
+    this.lowerBound = lowerBound;
+    this.upperBound = upperBound;
+    this.transferLowerBound = lowerBound.minus(getLongestTransferGracePeriod());
+  }
+
+  private static Duration getLongestTransferGracePeriod() {
+    Duration longest = Duration.ZERO;
+    for (String tld : Registries.getTlds()) {
+      Duration transferGracePeriod = Registry.get(tld).getTransferGracePeriodLength();
+      if (transferGracePeriod.isLongerThan(longest)) {
+        longest = transferGracePeriod;
+      }
+    }
+    return longest;
+  }
+
+  private static ImmutableList<Map.Entry<ScheduledChange, Class<? extends EppResource>>>
+      createQueries() {
+    ImmutableList.Builder<Map.Entry<ScheduledChange, Class<? extends EppResource>>> queries =
+        new ImmutableList.Builder<>();
+    for (ScheduledChange change : ScheduledChange.values()) {
+      for (Class<? extends EppResource> kind : change.kinds) {
+        queries.add(Maps.<ScheduledChange, Class<? extends EppResource>>immutableEntry(
+            change, kind));
+      }
+    }
+    return queries.build();
+  }
+
+  private static boolean isBetween(
+      @Nullable DateTime time, DateTime lowerBound, DateTime upperBound) {
+    return time != null && time.isAfter(lowerBound) && isBeforeOrAt(time, upperBound);
+  }
+
+  /** Called every time we are deserialized. Create a new query or resume an existing one. */
+  @Override
+  public void beginSlice() {
+    startQuery();
+  }
+
+  /** Called occasionally alongside {@link #next}. */
+  @Override
+  public Double getProgress() {
+    return Math.min(1.0, ((double) queryIndex) / QUERIES.size());
+  }
+
+  /** Called before we are serialized. Save a serializable cursor for the current query. */
+  @Override
+  public void endSlice() {
+    cursor = (queryIterator == null) ? null : queryIterator.getCursor();
+  }
+
+  /** Returns the estimated memory that will be used by this reader in bytes. */
+  @Override
+  public long estimateMemoryRequirement() {
+    // Estimate 2MB of memory for this reader, since it loads a (max 1MB) entity.
+    return ONE_MB * 2;
+  }
+
+  private void startQuery() {
+    if (queryIndex >= QUERIES.size()) {
+      queryIterator = null;
+      return;
+    }
+    Map.Entry<ScheduledChange, Class<? extends EppResource>> entry = QUERIES.get(queryIndex);
+    Query<? extends EppResource> query =
+        entry.getKey().addFilters(ofy().load().type(entry.getValue()), this);
+    if (cursor != null) {
+      query = query.startAt(cursor);
+    }
+    queryIterator = query.iterator();
+  }
+
+  /**
+   * Called for each map invocation.
+   *
+   * @throws NoSuchElementException if there are no more elements, as specified in the
+   *         {@link InputReader#next} Javadoc.
+   */
+  @Override
+  public EppResource next() throws NoSuchElementException {
+    while (queryIterator != null) {
+      if (!queryIterator.hasNext()) {
+        queryIndex++;
+        cursor = null;
+        startQuery();
+        continue;
+      }
+      EppResource resource;
+      try {
+        resource = queryIterator.next();
+      } finally {
+        ofy().clearSessionCache();  // Try not to leak memory.
+      }
+      if (isFirstFoundByCurrentQuery(resource)
+          && hasChangedBetween(resource, lowerBound, upperBound)) {
+        return resource;
+      }
+    }
+    throw new NoSuchElementException();
+  }
+
+  /**
+   * Returns false if the resource was saved during the period, or if an earlier query also finds
+   * it, so that each resource is returned by only one reader and only once.
+   */
+  private boolean isFirstFoundByCurrentQuery(EppResource resource) {
+    if (!resource.getRevisions().subMap(lowerBound, false, upperBound, true).isEmpty()) {
+      return false;
+    }
+    ScheduledChange currentChange = QUERIES.get(queryIndex).getKey();
+    for (ScheduledChange change : ScheduledChange.values()) {
+      if (change == currentChange) {
+        return true;
+      }
+      if (change.finds(resource, this)) {
+        return false;
+      }
+    }
+    throw new AssertionError(currentChange);
+  }
+}
@@ -24,6 +24,7 @@ import static google.registry.util.DateTimeUtils.isBeforeOrAt;
 import static google.registry.util.DateTimeUtils.latestOf;
 
 import com.google.common.base.Function;
+import com.google.common.collect.ImmutableMap;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.Result;
 import com.googlecode.objectify.util.ResultNow;
@@ -42,6 +43,7 @@ import google.registry.model.transfer.TransferData;
 import google.registry.model.transfer.TransferStatus;
 import google.registry.util.FormattingLogger;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import javax.annotation.Nullable;
@@ -120,6 +122,40 @@ public final class EppResourceUtils {
         resource, latestOf(now, resource.getUpdateAutoTimestamp().getTimestamp()));
   }
 
+  /**
+   * Loads the last created versions of several {@link EppResource}s from the datastore by foreign
+   * key, with one batched load for all of their foreign key indexes and another for the resources.
+   *
+   * <p>The returned map omits any foreign key for which {@link #loadByForeignKey} would return
+   * null, and the resources in it are projected to time "now" in the same way.
+   *
+   * @param clazz the resource type to load
+   * @param foreignKeys ids to match
+   * @param now the current logical time to project resources at
+   */
+  public static <T extends EppResource> ImmutableMap<String, T> loadByForeignKeys(
+      Class<T> clazz, Iterable<String> foreignKeys, DateTime now) {
+    checkArgument(
+        ForeignKeyedEppResource.class.isAssignableFrom(clazz),
+        "loadByForeignKeys may only be called for foreign keyed EPP resources");
+    Map<String, ForeignKeyIndex<T>> indexes = ForeignKeyIndex.load(clazz, foreignKeys, now);
+    Map<Key<T>, T> resources = ofy().load().keys(
+        transform(indexes.values(), new Function<ForeignKeyIndex<T>, Key<T>>() {
+          @Override
+          public Key<T> apply(ForeignKeyIndex<T> index) {
+            return index.getResourceKey();
+          }}));
+    ImmutableMap.Builder<String, T> builder = new ImmutableMap.Builder<>();
+    for (Entry<String, ForeignKeyIndex<T>> entry : indexes.entrySet()) {
+      T resource = resources.get(entry.getValue().getResourceKey());
+      if (resource != null && !isAtOrAfter(now, resource.getDeletionTime())) {
+        builder.put(entry.getKey(), cloneProjectedAtTime(
+            resource, latestOf(now, resource.getUpdateAutoTimestamp().getTimestamp())));
+      }
+    }
+    return builder.build();
+  }
+
   /**
    * Returns the domain application with the given application id if it exists, or null if it does
    * not or is soft-deleted as of the given time.
@@ -200,6 +236,26 @@ public final class EppResourceUtils {
     return !isActive(resource, time);
   }
 
+  /**
+   * Returns true if a resource changed after {@code lowerBound} and at or before
+   * {@code upperBound}, either because it was saved, or because something that was scheduled when
+   * it was saved took effect without a save, such as a pending delete, a server-approved transfer,
+   * an autorenew or the end of a grace period.
+   */
+  public static boolean hasChangedBetween(
+      EppResource resource, DateTime lowerBound, DateTime upperBound) {
+    if (!resource.getRevisions().subMap(lowerBound, false, upperBound, true).isEmpty()) {
+      return true;
+    }
+    // A deletion taking effect doesn't change any field, so projecting won't find it.
+    if (resource.getDeletionTime().isAfter(lowerBound)
+        && isBeforeOrAt(resource.getDeletionTime(), upperBound)) {
+      return true;
+    }
+    return !cloneProjectedAtTime(resource, lowerBound)
+        .equals(cloneProjectedAtTime(resource, upperBound));
+  }
+
   /** Process an automatic transfer on a resource. */
   public static void setAutomaticTransferSuccessProperties(
       Builder<?, ?> builder, TransferData transferData) {
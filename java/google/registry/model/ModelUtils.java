@@ -14,6 +14,7 @@
 
 package google.registry.model;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Predicates.instanceOf;
 import static com.google.common.base.Predicates.isNull;
@@ -27,12 +28,12 @@ import static java.util.Arrays.asList;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Joiner;
-import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedMap;
@@ -94,6 +95,52 @@ public class ModelUtils {
             return ImmutableMap.copyOf(fields);
           }});
 
+  /**
+   * Caches the accessors of all instance fields on an object, in the same order as
+   * {@link #getAllFields}.
+   *
+   * <p>Equality, hashing and cloning run over every field of an object, and happen constantly, so
+   * this resolves each field's {@link AbstractFieldExposer} once per class rather than once per
+   * field access, and lets those callers walk the fields without building a map of their values.
+   */
+  private static final LoadingCache<Class<?>, ImmutableList<FieldAccessor>> FIELD_ACCESSORS_CACHE =
+      CacheBuilder.newBuilder().build(new CacheLoader<Class<?>, ImmutableList<FieldAccessor>>() {
+          @Override
+          public ImmutableList<FieldAccessor> load(Class<?> clazz) {
+            ImmutableList.Builder<FieldAccessor> accessors = new ImmutableList.Builder<>();
+            for (Field field : getAllFields(clazz).values()) {
+              accessors.add(new FieldAccessor(field, getFieldExposer(field)));
+            }
+            return accessors.build();
+          }});
+
+  /** A field paired with the {@link AbstractFieldExposer} of its declaring package. */
+  private static final class FieldAccessor {
+    final Field field;
+    final AbstractFieldExposer exposer;
+
+    FieldAccessor(Field field, AbstractFieldExposer exposer) {
+      this.field = field;
+      this.exposer = exposer;
+    }
+
+    Object get(Object instance) {
+      try {
+        return exposer.getFieldValue(instance, field);
+      } catch (IllegalAccessException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    void set(Object instance, Object value) {
+      try {
+        exposer.setFieldValue(instance, field, value);
+      } catch (IllegalAccessException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  }
+
   /** Per-package trampolines to expose package-private fields for reflection. */
   private static final Map<Package, AbstractFieldExposer> FIELD_EXPOSERS = Maps.uniqueIndex(
       FieldExposerRegistry.getFieldExposers(),
@@ -108,6 +155,16 @@ public class ModelUtils {
     return ALL_FIELDS_CACHE.getUnchecked(clazz);
   }
 
+  private static ImmutableList<FieldAccessor> getFieldAccessors(Class<?> clazz) {
+    return FIELD_ACCESSORS_CACHE.getUnchecked(clazz);
+  }
+
+  private static AbstractFieldExposer getFieldExposer(Field field) {
+    return checkNotNull(
+        FIELD_EXPOSERS.get(field.getDeclaringClass().getPackage()),
+        "No FieldExposer registered for %s", field.getDeclaringClass().getPackage().getName());
+  }
+
   /** Return a string representing the persisted schema of a type or enum. */
   static String getSchema(Class<?> clazz) {
     StringBuilder stringBuilder = new StringBuilder();
@@ -186,26 +243,12 @@ public class ModelUtils {
 
   /** Retrieves a field value via reflection. */
   static Object getFieldValue(Object instance, Field field) {
-    try {
-      return Preconditions.checkNotNull(
-          FIELD_EXPOSERS.get(field.getDeclaringClass().getPackage()),
-          "No FieldExposer registered for %s", field.getDeclaringClass().getPackage().getName())
-              .getFieldValue(instance, field);
-    } catch (IllegalAccessException e) {
-      throw new IllegalStateException(e);
-    }
+    return new FieldAccessor(field, getFieldExposer(field)).get(instance);
   }
 
   /** Sets a field value via reflection. */
   static void setFieldValue(Object instance, Field field, Object value) {
-    try {
-      Preconditions.checkNotNull(
-          FIELD_EXPOSERS.get(field.getDeclaringClass().getPackage()),
-          "No FieldExposer registered for %s", field.getDeclaringClass().getPackage().getName())
-              .setFieldValue(instance, field, value);
-    } catch (IllegalAccessException e) {
-      throw new IllegalStateException(e);
-    }
+    new FieldAccessor(field, getFieldExposer(field)).set(instance, value);
   }
 
   /**
@@ -218,8 +261,8 @@ public class ModelUtils {
   static Map<Field, Object> getFieldValues(Object instance) {
     // Don't make this ImmutableMap because field values can be null.
     Map<Field, Object> values = new LinkedHashMap<>();
-    for (Field field : getAllFields(instance.getClass()).values()) {
-      Object value = getFieldValue(instance, field);
+    for (FieldAccessor accessor : getFieldAccessors(instance.getClass())) {
+      Object value = accessor.get(instance);
       if (value != null && value.getClass().isArray()) {
         // It's surprisingly difficult to convert arrays into lists if the array might be primitive.
         final Object arrayValue = value;
@@ -234,11 +277,51 @@ public class ModelUtils {
               return Array.getLength(arrayValue);
             }};
       }
-      values.put(field, value);
+      values.put(accessor.field, value);
     }
     return values;
   }
 
+  /**
+   * Returns whether two objects of the same class have equal values in all of their fields, as
+   * compared by {@link #getFieldValues}, but without building the maps.
+   */
+  static boolean fieldValuesEqual(Object instance, Object other) {
+    checkArgument(instance.getClass().equals(other.getClass()));
+    for (FieldAccessor accessor : getFieldAccessors(instance.getClass())) {
+      if (!Objects.deepEquals(accessor.get(instance), accessor.get(other))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns a hash code of the values of all of an object's fields, equal to the hash code of the
+   * list of values of {@link #getFieldValues}, but without building the map.
+   */
+  static int fieldValuesHashCode(Object instance) {
+    int hashCode = 1;
+    for (FieldAccessor accessor : getFieldAccessors(instance.getClass())) {
+      Object value = accessor.get(instance);
+      hashCode = 31 * hashCode + ((value == null) ? 0 : hashCodeOf(value));
+    }
+    return hashCode;
+  }
+
+  /** Returns the hash code of a field value, hashing arrays like the lists they are shown as. */
+  private static int hashCodeOf(Object value) {
+    if (!value.getClass().isArray()) {
+      return value.hashCode();
+    }
+    int hashCode = 1;
+    for (int i = 0; i < Array.getLength(value); i++) {
+      Object element = Array.get(value, i);
+      hashCode = 31 * hashCode + ((element == null) ? 0 : element.hashCode());
+    }
+    return hashCode;
+  }
+
   /** Functional helper for {@link #cloneEmptyToNull}. */
   private static final Function<Object, ?> CLONE_EMPTY_TO_NULL = new Function<Object, Object>() {
     @Override
@@ -268,11 +351,11 @@ public class ModelUtils {
         if (obj instanceof ImmutableObject) {
           // Recurse on the fields of an ImmutableObject.
           ImmutableObject copy = ImmutableObject.clone((ImmutableObject) obj);
-          for (Field field : getAllFields(obj.getClass()).values()) {
-            Object oldValue = getFieldValue(obj, field);
+          for (FieldAccessor accessor : getFieldAccessors(obj.getClass())) {
+            Object oldValue = accessor.get(obj);
             Object newValue = apply(oldValue);
             if (!Objects.equals(oldValue, newValue)) {
-              setFieldValue(copy, field, newValue);
+              accessor.set(copy, newValue);
             }
           }
           return copy;
@@ -289,5 +372,6 @@ public class ModelUtils {
   @VisibleForTesting
   static void resetCaches() {
     ALL_FIELDS_CACHE.invalidateAll();
+    FIELD_ACCESSORS_CACHE.invalidateAll();
   }
 }
@@ -28,7 +28,7 @@ import google.registry.model.registry.Registry;
 public final class RoidSuffixes {
 
   private static Supplier<HashBiMap<String, String>> roidSuffixMapCache =
-      memoizeWithShortExpiration(new Supplier<HashBiMap<String, String>>() {
+      memoizeWithShortExpiration("roidSuffixes", new Supplier<HashBiMap<String, String>>() {
         @Override
         public HashBiMap<String, String> get() {
           return ofy().doTransactionless(new Work<HashBiMap<String, String>>() {
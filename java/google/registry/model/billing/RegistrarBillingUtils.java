@@ -38,6 +38,7 @@ public final class RegistrarBillingUtils {
 
   private static final Supplier<ImmutableSortedSet<CurrencyUnit>> CURRENCIES_CACHE =
       CacheUtils.memoizeWithShortExpiration(
+          "registrarBillingCurrencies",
           new Supplier<ImmutableSortedSet<CurrencyUnit>>() {
             @Override
             public ImmutableSortedSet<CurrencyUnit> get() {
@@ -31,6 +31,7 @@ import com.googlecode.objectify.Key;
 import com.googlecode.objectify.annotation.Cache;
 import com.googlecode.objectify.annotation.EntitySubclass;
 import com.googlecode.objectify.annotation.IgnoreSave;
+import com.googlecode.objectify.annotation.Index;
 import com.googlecode.objectify.condition.IfNull;
 import google.registry.model.EppResource.ForeignKeyedEppResource;
 import google.registry.model.annotations.ExternalMessagingName;
@@ -88,7 +89,11 @@ public class DomainResource extends DomainBase implements ForeignKeyedEppResourc
   @XmlElement(name = "host")
   Set<String> subordinateHosts;
 
-  /** When this domain's registration will expire. */
+  /**
+   * When this domain's registration will expire. Indexed for incremental RDE deposits, which need
+   * to find the domains that autorenew without being saved.
+   */
+  @Index
   @XmlElement(name = "exDate")
   DateTime registrationExpirationTime;
 
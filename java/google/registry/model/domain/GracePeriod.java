@@ -19,6 +19,7 @@ import static google.registry.util.PreconditionsUtils.checkArgumentNotNull;
 
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.annotation.Embed;
+import com.googlecode.objectify.annotation.Index;
 import google.registry.model.ImmutableObject;
 import google.registry.model.billing.BillingEvent;
 import google.registry.model.domain.rgp.GracePeriodStatus;
@@ -37,7 +38,8 @@ public class GracePeriod extends ImmutableObject {
   /** The type of grace period. */
   GracePeriodStatus type;
 
-  /** When the grace period ends. */
+  /** When the grace period ends. Indexed for incremental RDE deposits. */
+  @Index
   DateTime expirationTime;
 
   /** The registrar to bill. */
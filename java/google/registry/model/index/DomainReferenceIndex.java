@@ -0,0 +1,173 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.index;
+
+import static google.registry.model.EppResourceUtils.isActive;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.util.TypeUtils.instantiate;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.Parent;
+import com.googlecode.objectify.annotation.Unindex;
+import google.registry.model.EppResource;
+import google.registry.model.ImmutableObject;
+import google.registry.model.domain.DomainBase;
+import javax.annotation.Nullable;
+import org.joda.time.DateTime;
+
+/**
+ * An index of the domains and domain applications that reference a contact or host, so that they
+ * can be found without mapping over every domain.
+ *
+ * <p>There is one instance of this entity for each resource that a domain references, as a child
+ * of the domain. So keeping a domain's references current doesn't add any entity groups to the
+ * flow's transaction, and flows on different domains never contend on the index, even when they
+ * reference the same popular nameserver. Each instance is small and has a single indexed property,
+ * the referenced resource, so a resource with many referencing domains has many instances rather
+ * than one large one. Finding the domains that reference a resource is a keys-only query on that
+ * property, which is eventually consistent.
+ *
+ * <p>References are added when a domain starts referencing a resource and removed when it stops,
+ * including when the domain is deleted outright. A domain that is pending delete still counts as
+ * referencing its contacts and hosts, so it keeps its references, and they outlive its eventual
+ * deletion. Callers must therefore check that the domains they load are still active, as {@link
+ * #loadActiveReferencingDomains} does.
+ */
+@Entity
+@Unindex
+public class DomainReferenceIndex extends ImmutableObject {
+
+  /** The web-safe key string of the referenced resource. */
+  @Id
+  String id;
+
+  /** The referencing domain or application. */
+  @Parent
+  Key<DomainBase> domain;
+
+  @Index
+  Key<? extends EppResource> reference;
+
+  public Key<DomainBase> getDomain() {
+    return domain;
+  }
+
+  public Key<? extends EppResource> getReference() {
+    return reference;
+  }
+
+  private static DomainReferenceIndex create(
+      Key<DomainBase> domainKey, Key<? extends EppResource> resourceKey) {
+    DomainReferenceIndex instance = instantiate(DomainReferenceIndex.class);
+    instance.id = resourceKey.getString();
+    instance.domain = domainKey;
+    instance.reference = resourceKey;
+    return instance;
+  }
+
+  public static Key<DomainReferenceIndex> createKey(
+      Key<? extends DomainBase> domainKey, Key<? extends EppResource> resourceKey) {
+    return Key.create(domainKey, DomainReferenceIndex.class, resourceKey.getString());
+  }
+
+  /** Returns all contacts and hosts that a domain or application references. */
+  private static ImmutableSet<Key<? extends EppResource>> getReferences(
+      @Nullable DomainBase domain) {
+    return domain == null
+        ? ImmutableSet.<Key<? extends EppResource>>of()
+        : new ImmutableSet.Builder<Key<? extends EppResource>>()
+            .addAll(domain.getNameservers())
+            .addAll(domain.getReferencedContacts())
+            .build();
+  }
+
+  /**
+   * Returns the index entities to save for a change to a domain or application, for the resources
+   * that it started referencing. Pass null as the old domain for a newly created one.
+   *
+   * <p>This must be called, and the result saved, in the same transaction as the domain itself.
+   */
+  public static ImmutableSet<DomainReferenceIndex> createAddedInstances(
+      @Nullable DomainBase oldDomain, DomainBase newDomain) {
+    Key<DomainBase> domainKey = Key.create(newDomain);
+    ImmutableSet.Builder<DomainReferenceIndex> instances = new ImmutableSet.Builder<>();
+    for (Key<? extends EppResource> resourceKey
+        : Sets.difference(getReferences(newDomain), getReferences(oldDomain))) {
+      instances.add(create(domainKey, resourceKey));
+    }
+    return instances.build();
+  }
+
+  /**
+   * Returns the keys of the index entities to delete for a change to a domain or application, for
+   * the resources that it stopped referencing. Pass null as the new domain for one that is deleted
+   * outright.
+   *
+   * <p>This must be called, and the keys deleted, in the same transaction as the domain itself.
+   */
+  public static ImmutableSet<Key<DomainReferenceIndex>> createRemovedKeys(
+      DomainBase oldDomain, @Nullable DomainBase newDomain) {
+    Key<DomainBase> domainKey = Key.create(oldDomain);
+    ImmutableSet.Builder<Key<DomainReferenceIndex>> keys = new ImmutableSet.Builder<>();
+    for (Key<? extends EppResource> resourceKey
+        : Sets.difference(getReferences(oldDomain), getReferences(newDomain))) {
+      keys.add(createKey(domainKey, resourceKey));
+    }
+    return keys.build();
+  }
+
+  /**
+   * Returns the keys of all domains and applications indexed as referencing the given resource.
+   * This may include domains that have since been deleted, and since the query is eventually
+   * consistent, it may miss references added in the last few seconds.
+   */
+  public static ImmutableSet<Key<DomainBase>> loadReferencingDomainKeys(
+      Key<? extends EppResource> resourceKey) {
+    ImmutableSet.Builder<Key<DomainBase>> domainKeys = new ImmutableSet.Builder<>();
+    for (Key<DomainReferenceIndex> indexKey : ofy().load()
+        .type(DomainReferenceIndex.class)
+        .filter("reference", resourceKey)
+        .keys()) {
+      domainKeys.add(indexKey.<DomainBase>getParent());
+    }
+    return domainKeys.build();
+  }
+
+  /**
+   * Returns the domains and applications that reference the given resource and are active at the
+   * given time, loading only the ones that the index lists.
+   */
+  public static ImmutableSet<DomainBase> loadActiveReferencingDomains(
+      Key<? extends EppResource> resourceKey, DateTime now) {
+    ImmutableSet.Builder<DomainBase> domains = new ImmutableSet.Builder<>();
+    for (DomainBase domain : ofy().load().keys(loadReferencingDomainKeys(resourceKey)).values()) {
+      if (isActive(domain, now) && getReferences(domain).contains(resourceKey)) {
+        domains.add(domain);
+      }
+    }
+    return domains.build();
+  }
+
+  /** Returns whether the index lists the given domain or application as referencing a resource. */
+  public static boolean isIndexed(
+      Key<? extends DomainBase> domainKey, Key<? extends EppResource> resourceKey) {
+    return ofy().load().key(createKey(domainKey, resourceKey)).now() != null;
+  }
+}
@@ -21,7 +21,6 @@ import static com.google.common.collect.Maps.filterKeys;
 import static com.google.common.collect.Sets.difference;
 import static com.google.common.collect.Sets.union;
 import static com.googlecode.objectify.ObjectifyService.ofy;
-import static google.registry.model.ofy.CommitLogBucket.loadBucket;
 import static google.registry.util.DateTimeUtils.isBeforeOrAt;
 
 import com.google.common.base.Function;
@@ -34,15 +33,23 @@ import com.googlecode.objectify.Work;
 import google.registry.model.BackupGroupRoot;
 import google.registry.model.ImmutableObject;
 import google.registry.util.Clock;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import org.joda.time.DateTime;
 
 /** Wrapper for {@link Work} that associates a time with each attempt. */
 class CommitLoggedWork<R> extends VoidWork {
 
+  /**
+   * Whether each kind is a {@link BackupGroupRoot}, so that finding the roots of the keys in a
+   * transaction doesn't have to look up the entity metadata of every key and ancestor each time.
+   */
+  private static final ConcurrentMap<String, Boolean> IS_BACKUP_GROUP_ROOT_BY_KIND =
+      new ConcurrentHashMap<>();
+
   private final Work<R> work;
   private final Clock clock;
 
@@ -127,15 +134,30 @@ class CommitLoggedWork<R> extends VoidWork {
     if (touchedKeys.isEmpty()) {
       return;
     }
-    CommitLogBucket bucket = loadBucket(info.bucketKey);
+    ImmutableSet<Key<BackupGroupRoot>> rootKeysForTouchedKeys =
+        getBackupGroupRootKeys(touchedKeys);
+    ImmutableSet<Key<BackupGroupRoot>> rootKeysForUntouchedKeys =
+        getBackupGroupRootKeys(difference(getObjectifySessionCacheKeys(), touchedKeys));
+    // Load the bucket and all of the roots in a single batch, rather than one round trip each. The
+    // bucket load was already started when the transaction began, so it is usually complete.
+    Map<Key<Object>, Object> loaded = ofy().load().keys(castToObjectKeys(
+        new ImmutableSet.Builder<Key<?>>()
+            .add(info.bucketKey)
+            .addAll(rootKeysForTouchedKeys)
+            .addAll(rootKeysForUntouchedKeys)
+            .build()));
+    CommitLogBucket bucket = (CommitLogBucket) loaded.get(info.bucketKey);
+    if (bucket == null) {
+      bucket = new CommitLogBucket.Builder().setBucketNum(info.bucketKey.getId()).build();
+    }
     // Enforce unique monotonic property on CommitLogBucket.getLastWrittenTime().
     if (isBeforeOrAt(info.transactionTime, bucket.getLastWrittenTime())) {
       throw new TimestampInversionException(info.transactionTime, bucket.getLastWrittenTime());
     }
     Map<Key<BackupGroupRoot>, BackupGroupRoot> rootsForTouchedKeys =
-        getBackupGroupRoots(touchedKeys);
+        getLoadedBackupGroupRoots(rootKeysForTouchedKeys, loaded);
     Map<Key<BackupGroupRoot>, BackupGroupRoot> rootsForUntouchedKeys =
-        getBackupGroupRoots(difference(getObjectifySessionCacheKeys(), touchedKeys));
+        getLoadedBackupGroupRoots(rootKeysForUntouchedKeys, loaded);
     // Check the update timestamps of all keys in the transaction, whether touched or merely read.
     checkBackupGroupRootTimestamps(
         info.transactionTime,
@@ -190,13 +212,23 @@ class CommitLoggedWork<R> extends VoidWork {
     }
   }
 
-  /** Find the set of {@link BackupGroupRoot} ancestors of the given keys. */
-  private Map<Key<BackupGroupRoot>, BackupGroupRoot> getBackupGroupRoots(Iterable<Key<?>> keys) {
-    Set<Key<BackupGroupRoot>> rootKeys = new HashSet<>();
+  /** Returns whether entities of the given key's kind are {@link BackupGroupRoot}s. */
+  private static boolean isBackupGroupRoot(Key<?> key) {
+    Boolean isRoot = IS_BACKUP_GROUP_ROOT_BY_KIND.get(key.getKind());
+    if (isRoot == null) {
+      isRoot = BackupGroupRoot.class
+          .isAssignableFrom(ofy().factory().getMetadata(key).getEntityClass());
+      IS_BACKUP_GROUP_ROOT_BY_KIND.put(key.getKind(), isRoot);
+    }
+    return isRoot;
+  }
+
+  /** Find the set of {@link BackupGroupRoot} ancestor keys of the given keys. */
+  private static ImmutableSet<Key<BackupGroupRoot>> getBackupGroupRootKeys(
+      Iterable<Key<?>> keys) {
+    ImmutableSet.Builder<Key<BackupGroupRoot>> rootKeys = new ImmutableSet.Builder<>();
     for (Key<?> key : keys) {
-      while (key != null
-          && !BackupGroupRoot.class
-              .isAssignableFrom(ofy().factory().getMetadata(key).getEntityClass())) {
+      while (key != null && !isBackupGroupRoot(key)) {
         key = key.getParent();
       }
       if (key != null) {
@@ -205,6 +237,26 @@ class CommitLoggedWork<R> extends VoidWork {
         rootKeys.add(rootKey);
       }
     }
-    return ImmutableMap.copyOf(ofy().load().keys(rootKeys));
+    return rootKeys.build();
+  }
+
+  /** Returns the roots with the given keys that exist among the loaded entities. */
+  private static Map<Key<BackupGroupRoot>, BackupGroupRoot> getLoadedBackupGroupRoots(
+      Set<Key<BackupGroupRoot>> rootKeys, Map<Key<Object>, Object> loaded) {
+    ImmutableMap.Builder<Key<BackupGroupRoot>, BackupGroupRoot> roots =
+        new ImmutableMap.Builder<>();
+    for (Key<BackupGroupRoot> rootKey : rootKeys) {
+      BackupGroupRoot root = (BackupGroupRoot) loaded.get(rootKey);
+      if (root != null) {
+        roots.put(rootKey, root);
+      }
+    }
+    return roots.build();
+  }
+
+  /** Casts keys of mixed kinds so that they can be loaded together in one batch. */
+  @SuppressWarnings("unchecked")
+  private static Iterable<Key<Object>> castToObjectKeys(Iterable<Key<?>> keys) {
+    return (Iterable<Key<Object>>) (Iterable<?>) keys;
   }
 }
@@ -22,6 +22,14 @@ public enum RdeMode {
   /** Include all information is in the escrow deposit. */
   FULL,
 
+  /**
+   * Include only objects created, updated or deleted since the previous escrow deposit.
+   *
+   * <p>Incremental deposits are generated on the days between weekly full deposits, using commit
+   * logs to find what changed.
+   */
+  INCR,
+
   /**
    * BRDA Periodic Access to Thin Registration Data.
    *
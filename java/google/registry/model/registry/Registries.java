@@ -47,7 +47,7 @@ public final class Registries {
    * query inside an unrelated client-affecting transaction.
    */
   private static Supplier<ImmutableMap<String, TldType>> createFreshCache() {
-    return memoizeWithShortExpiration(new Supplier<ImmutableMap<String, TldType>>() {
+    return memoizeWithShortExpiration("tldTypes", new Supplier<ImmutableMap<String, TldType>>() {
       @Override
       public ImmutableMap<String, TldType> get() {
         return ofy().doTransactionless(new Work<ImmutableMap<String, TldType>>() {
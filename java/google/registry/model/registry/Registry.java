@@ -99,6 +99,7 @@ public class Registry extends ImmutableObject implements Buildable {
   public static final TldState DEFAULT_TLD_STATE = TldState.PREDELEGATION;
   public static final boolean DEFAULT_ESCROW_ENABLED = false;
   public static final boolean DEFAULT_DNS_PAUSED = false;
+  public static final int DEFAULT_NUM_DNS_PUBLISH_LOCKS = 1;
   public static final Duration DEFAULT_ADD_GRACE_PERIOD = Duration.standardDays(5);
   public static final Duration DEFAULT_SUNRUSH_ADD_GRACE_PERIOD = Duration.standardDays(30);
   public static final Duration DEFAULT_AUTO_RENEW_GRACE_PERIOD = Duration.standardDays(45);
@@ -304,6 +305,12 @@ public class Registry extends ImmutableObject implements Buildable {
   /** Whether the pull queue that writes to authoritative DNS is paused for this TLD. */
   boolean dnsPaused = DEFAULT_DNS_PAUSED;
 
+  /**
+   * The number of shards that DNS publishing for this TLD is split into, each with its own lock,
+   * so that they can publish in parallel.
+   */
+  int numDnsPublishLocks = DEFAULT_NUM_DNS_PUBLISH_LOCKS;
+
   /** Whether the price must be acknowledged to register premiun names on this TLD. */
   boolean premiumPriceAckRequired = true;
 
@@ -435,6 +442,10 @@ public class Registry extends ImmutableObject implements Buildable {
     return dnsPaused;
   }
 
+  public int getNumDnsPublishLocks() {
+    return numDnsPublishLocks;
+  }
+
   public String getDriveFolderId() {
     return driveFolderId;
   }
@@ -625,6 +636,12 @@ public class Registry extends ImmutableObject implements Buildable {
       return this;
     }
 
+    public Builder setNumDnsPublishLocks(int numDnsPublishLocks) {
+      checkArgument(numDnsPublishLocks > 0, "numDnsPublishLocks must be positive");
+      getInstance().numDnsPublishLocks = numDnsPublishLocks;
+      return this;
+    }
+
     public Builder setDriveFolderId(String driveFolderId) {
       getInstance().driveFolderId = driveFolderId;
       return this;
@@ -0,0 +1,131 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.registry.label;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static google.registry.model.registry.label.ReservationType.FULLY_BLOCKED;
+import static google.registry.model.registry.label.ReservationType.RESERVED_FOR_ANCHOR_TENANT;
+import static google.registry.model.registry.label.ReservationType.UNRESERVED;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import google.registry.model.registry.Registry;
+import google.registry.model.registry.label.ReservedList.ReservedListEntry;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * A precompiled index of all of the reserved lists on a TLD, keyed by label.
+ *
+ * <p>Each label maps directly to its most severe {@link ReservedListEntry} across all of the TLD's
+ * reserved lists, so a lookup is a single map access regardless of how many lists the TLD has.
+ * An index remembers which cached {@link ReservedList} instances it was built from, and is only
+ * rebuilt when the TLD's set of lists changes or one of those lists is reloaded.
+ */
+@Immutable
+public final class ReservationIndex {
+
+  /** The most recently built index for each TLD. */
+  private static final ConcurrentMap<String, ReservationIndex> INDEXES = new ConcurrentHashMap<>();
+
+  private final ImmutableList<ReservedList> sources;
+  private final ImmutableMap<String, ReservedListEntry> entries;
+
+  private ReservationIndex(ImmutableList<ReservedList> sources) {
+    Map<String, ReservedListEntry> merged = new HashMap<>();
+    for (ReservedList list : sources) {
+      for (ReservedListEntry entry : list.getReservedListEntriesView().values()) {
+        ReservedListEntry existing = merged.get(entry.getLabel());
+        if (existing == null || entry.getValue().compareTo(existing.getValue()) > 0) {
+          merged.put(entry.getLabel(), entry);
+        }
+      }
+    }
+    this.sources = sources;
+    this.entries = ImmutableMap.copyOf(merged);
+  }
+
+  /**
+   * Returns the index for the given TLD, rebuilding it only if the TLD's reserved lists changed.
+   *
+   * @throws google.registry.model.registry.Registry.RegistryNotFoundException if the TLD doesn't
+   *     exist
+   */
+  public static ReservationIndex forTld(String tld) {
+    Registry registry = Registry.get(checkNotNull(tld, "tld"));
+    ImmutableList<ReservedList> lists = ReservedList.loadReservedLists(registry.getReservedLists());
+    ReservationIndex index = INDEXES.get(tld);
+    if (index == null || !index.isBuiltFrom(lists)) {
+      index = new ReservationIndex(lists);
+      INDEXES.put(tld, index);
+    }
+    return index;
+  }
+
+  /** Builds an index directly from the given lists, bypassing the per-TLD cache. */
+  @VisibleForTesting
+  static ReservationIndex create(ImmutableList<ReservedList> lists) {
+    return new ReservationIndex(lists);
+  }
+
+  /**
+   * Returns the most severe reservation type of the label across all of the indexed lists, or
+   * {@link ReservationType#UNRESERVED} if the label is on none of them.
+   */
+  public ReservationType getReservation(String label) {
+    checkNotNull(label, "label");
+    if (label.isEmpty()) {
+      return FULLY_BLOCKED;
+    }
+    ReservedListEntry entry = entries.get(label);
+    return (entry != null) ? entry.getValue() : UNRESERVED;
+  }
+
+  /**
+   * Returns true if the label is reserved for an anchor tenant, and the given auth code matches
+   * the one set on the reservation.
+   */
+  public boolean matchesAnchorTenantReservation(String label, String authCode) {
+    ReservedListEntry entry = getEntry(label);
+    return entry != null
+        && entry.getValue() == RESERVED_FOR_ANCHOR_TENANT
+        && Objects.equals(entry.getAuthCode(), authCode);
+  }
+
+  /** Returns the most severe entry for the label, or null if it is not on any indexed list. */
+  @Nullable
+  public ReservedListEntry getEntry(String label) {
+    return entries.get(checkNotNull(label, "label"));
+  }
+
+  /** Returns whether this index was built from exactly these list instances. */
+  private boolean isBuiltFrom(ImmutableList<ReservedList> lists) {
+    if (lists.size() != sources.size()) {
+      return false;
+    }
+    for (int i = 0; i < lists.size(); i++) {
+      if (lists.get(i) != sources.get(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -22,7 +22,6 @@ import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.model.ofy.Ofy.RECOMMENDED_MEMCACHE_EXPIRATION;
 import static google.registry.model.registry.label.ReservationType.FULLY_BLOCKED;
 import static google.registry.model.registry.label.ReservationType.RESERVED_FOR_ANCHOR_TENANT;
-import static google.registry.model.registry.label.ReservationType.UNRESERVED;
 import static google.registry.util.CollectionUtils.nullToEmpty;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
@@ -31,6 +30,7 @@ import com.google.common.base.Splitter;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.net.InternetDomainName;
@@ -46,7 +46,6 @@ import google.registry.config.RegistryEnvironment;
 import google.registry.model.registry.Registry;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.concurrent.ExecutionException;
 import javax.annotation.Nullable;
 
@@ -140,6 +139,11 @@ public final class ReservedList
     return ImmutableMap.copyOf(nullToEmpty(reservedListMap));
   }
 
+  /** Returns the entries of this list without copying them, for read-only use on lookup paths. */
+  Map<String, ReservedListEntry> getReservedListEntriesView() {
+    return nullToEmpty(reservedListMap);
+  }
+
   /**
    * Gets a ReservedList by name using the caching layer.
    *
@@ -159,16 +163,17 @@ public final class ReservedList
 
   /**
    * Queries the set of all reserved lists associated with the specified tld and returns the
-   * reservation type of the first occurrence of label seen. If the label is in none of the lists,
+   * most severe reservation type of the label across them. If the label is in none of the lists,
    * it returns UNRESERVED.
+   *
+   * @see ReservationIndex
    */
   public static ReservationType getReservation(String label, String tld) {
     checkNotNull(label, "label");
     if (label.length() == 0) {
       return FULLY_BLOCKED;
     }
-    ReservedListEntry entry = getReservedListEntry(label, tld);
-    return (entry != null) ? entry.reservationType : UNRESERVED;
+    return ReservationIndex.forTld(tld).getReservation(label);
   }
 
   /**
@@ -177,40 +182,14 @@ public final class ReservedList
    */
   public static boolean matchesAnchorTenantReservation(
       InternetDomainName domainName, String authCode) {
-    ReservedListEntry entry =
-        getReservedListEntry(domainName.parts().get(0), domainName.parent().toString());
-    return entry != null
-        && entry.reservationType == RESERVED_FOR_ANCHOR_TENANT
-        && Objects.equals(entry.getAuthCode(), authCode);
-  }
-
-  /**
-   * Helper function to retrieve the entry associated with this label and TLD, or null if no such
-   * entry exists.
-   */
-  @Nullable
-  private static ReservedListEntry getReservedListEntry(String label, String tld) {
-    Registry registry = Registry.get(checkNotNull(tld, "tld"));
-    ImmutableSet<Key<ReservedList>> reservedLists = registry.getReservedLists();
-    ImmutableSet<ReservedList> lists = loadReservedLists(reservedLists);
-    ReservedListEntry entry = null;
-
-    // Loop through all reservation lists and check each one for the inputted label, and return
-    // the most severe ReservationType found.
-    for (ReservedList rl : lists) {
-      Map<String, ReservedListEntry> entries = rl.getReservedListEntries();
-      ReservedListEntry nextEntry = entries.get(label);
-      if (nextEntry != null
-          && (entry == null || nextEntry.reservationType.compareTo(entry.reservationType) > 0)) {
-        entry = nextEntry;
-      }
-    }
-    return entry;
+    return ReservationIndex.forTld(domainName.parent().toString())
+        .matchesAnchorTenantReservation(domainName.parts().get(0), authCode);
   }
 
-  private static ImmutableSet<ReservedList> loadReservedLists(
+  /** Loads the given reserved lists through the caching layer, preserving their order. */
+  static ImmutableList<ReservedList> loadReservedLists(
       ImmutableSet<Key<ReservedList>> reservedListKeys) {
-    ImmutableSet.Builder<ReservedList> builder = new ImmutableSet.Builder<>();
+    ImmutableList.Builder<ReservedList> builder = new ImmutableList.Builder<>();
     for (Key<ReservedList> listKey : reservedListKeys) {
       try {
         builder.add(cache.get(listKey.getName()));
@@ -258,7 +237,7 @@ public final class ReservedList
    * which are applicable to an entire Registry, and need to check across multiple reserved lists.
    */
   public Optional<ReservationType> getReservationInList(String label) {
-    ReservedListEntry entry = getReservedListEntries().get(label);
+    ReservedListEntry entry = getReservedListEntriesView().get(label);
     return Optional.fromNullable(entry == null ? null : entry.reservationType);
   }
 
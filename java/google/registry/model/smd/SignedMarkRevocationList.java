@@ -91,8 +91,8 @@ public class SignedMarkRevocationList extends ImmutableObject {
    * A cached supplier that fetches the SMDRL shards from the datastore and recombines them into a
    * single {@link SignedMarkRevocationList} object.
    */
-  private static final Supplier<SignedMarkRevocationList> CACHE =
-      memoizeWithShortExpiration(new Supplier<SignedMarkRevocationList>() {
+  private static final Supplier<SignedMarkRevocationList> CACHE = memoizeWithShortExpiration(
+      "signedMarkRevocationList", new Supplier<SignedMarkRevocationList>() {
         @Override
         public SignedMarkRevocationList get() {
           // Open a new transactional read even if we are in a transaction currently.
@@ -0,0 +1,271 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.tmch;
+
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.primitives.UnsignedBytes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * A compact, read-only index from claims labels to claims keys.
+ *
+ * <p>The claims list has hundreds of thousands of entries, and holding it as a map of strings costs
+ * several objects per entry. This index instead stores all labels, and separately all keys, as
+ * UTF-8 bytes concatenated into a single array each, with an offset array marking where each entry
+ * starts. Labels are sorted by their unsigned UTF-8 bytes and deduplicated, so a lookup is a binary
+ * search that only allocates the encoded query label and, on a hit, the returned key.
+ *
+ * <p>An index is built once per claims list revision and shared by all requests; see
+ * {@link ClaimsListShard#get}.
+ */
+@Immutable
+public final class ClaimsListIndex {
+
+  private static final Comparator<byte[]> BYTE_ORDER = UnsignedBytes.lexicographicalComparator();
+
+  private static final ClaimsListIndex EMPTY = new Builder().build();
+
+  /** Concatenated UTF-8 bytes of all labels, in sorted order. */
+  private final byte[] labelBytes;
+
+  /** Start offsets of each label within {@link #labelBytes}, plus one trailing end offset. */
+  private final int[] labelOffsets;
+
+  /** Concatenated UTF-8 bytes of all claims keys, in the same order as the labels. */
+  private final byte[] keyBytes;
+
+  /** Start offsets of each key within {@link #keyBytes}, plus one trailing end offset. */
+  private final int[] keyOffsets;
+
+  private ClaimsListIndex(
+      byte[] labelBytes, int[] labelOffsets, byte[] keyBytes, int[] keyOffsets) {
+    this.labelBytes = labelBytes;
+    this.labelOffsets = labelOffsets;
+    this.keyBytes = keyBytes;
+    this.keyOffsets = keyOffsets;
+  }
+
+  /** Returns an index with no entries. */
+  public static ClaimsListIndex empty() {
+    return EMPTY;
+  }
+
+  /** Builds an index containing all of the entries of the given map. */
+  public static ClaimsListIndex create(Map<String, String> labelsToKeys) {
+    Builder builder = new Builder();
+    builder.putAll(labelsToKeys);
+    return builder.build();
+  }
+
+  /** Returns the claims key for the given label, or null if the label isn't on the claims list. */
+  @Nullable
+  public String get(String label) {
+    int index = find(checkNotNull(label, "label").getBytes(UTF_8));
+    return index < 0 ? null : getKey(index);
+  }
+
+  /** Returns the number of labels in the index. */
+  public int size() {
+    return labelOffsets.length - 1;
+  }
+
+  /** Returns the label at the given position, in sorted order. */
+  public String getLabel(int index) {
+    checkElementIndex(index, size());
+    return decode(labelBytes, labelOffsets, index);
+  }
+
+  /** Returns the claims key for the label at the given position, in sorted order. */
+  public String getKey(int index) {
+    checkElementIndex(index, size());
+    return decode(keyBytes, keyOffsets, index);
+  }
+
+  /**
+   * Returns the position of the first label that sorts at or after the given one, or {@link #size}
+   * if there is none.
+   */
+  public int ceilingPosition(String label) {
+    int index = find(checkNotNull(label, "label").getBytes(UTF_8));
+    return index < 0 ? -(index + 1) : index;
+  }
+
+  /** Copies the entries at positions {@code start} (inclusive) to {@code end} into a map. */
+  public ImmutableMap<String, String> toMap(int start, int end) {
+    checkPositionIndexes(start, end, size());
+    ImmutableMap.Builder<String, String> builder = new ImmutableMap.Builder<>();
+    for (int i = start; i < end; i++) {
+      builder.put(getLabel(i), getKey(i));
+    }
+    return builder.build();
+  }
+
+  /**
+   * Copies the index into a map, sorted by label.
+   *
+   * <p>This allocates the whole claims list on the heap, so it should only be used by tools and
+   * tests, never on request paths.
+   */
+  public ImmutableMap<String, String> toMap() {
+    return toMap(0, size());
+  }
+
+  /** Returns the position of the encoded label, or a negative number if it isn't present. */
+  private int find(byte[] label) {
+    int low = 0;
+    int high = size() - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int comparison = compareLabelAt(mid, label);
+      if (comparison < 0) {
+        low = mid + 1;
+      } else if (comparison > 0) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
+
+  /** Compares the stored label at {@code index} to {@code label} as unsigned bytes. */
+  private int compareLabelAt(int index, byte[] label) {
+    int start = labelOffsets[index];
+    int length = labelOffsets[index + 1] - start;
+    int common = Math.min(length, label.length);
+    for (int i = 0; i < common; i++) {
+      int comparison = UnsignedBytes.compare(labelBytes[start + i], label[i]);
+      if (comparison != 0) {
+        return comparison;
+      }
+    }
+    return length - label.length;
+  }
+
+  private static String decode(byte[] bytes, int[] offsets, int index) {
+    return new String(bytes, offsets[index], offsets[index + 1] - offsets[index], UTF_8);
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (!(other instanceof ClaimsListIndex)) {
+      return false;
+    }
+    ClaimsListIndex that = (ClaimsListIndex) other;
+    return Arrays.equals(labelOffsets, that.labelOffsets)
+        && Arrays.equals(labelBytes, that.labelBytes)
+        && Arrays.equals(keyOffsets, that.keyOffsets)
+        && Arrays.equals(keyBytes, that.keyBytes);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * Arrays.hashCode(labelBytes) + Arrays.hashCode(keyBytes);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("ClaimsListIndex{size=%d, bytes=%d}",
+        size(), labelBytes.length + keyBytes.length);
+  }
+
+  /**
+   * Builder for {@link ClaimsListIndex}.
+   *
+   * <p>If the same label is put more than once, the last key put wins, matching the semantics of
+   * combining shards with {@link Map#putAll}.
+   */
+  public static final class Builder {
+
+    private final List<Entry> entries = new ArrayList<>();
+
+    public Builder put(String label, String key) {
+      entries.add(new Entry(
+          checkNotNull(label, "label").getBytes(UTF_8),
+          checkNotNull(key, "key").getBytes(UTF_8),
+          entries.size()));
+      return this;
+    }
+
+    public Builder putAll(Map<String, String> labelsToKeys) {
+      for (Map.Entry<String, String> entry : labelsToKeys.entrySet()) {
+        put(entry.getKey(), entry.getValue());
+      }
+      return this;
+    }
+
+    public ClaimsListIndex build() {
+      // Sort by label, and then by insertion order so that the last of any duplicates comes last.
+      Collections.sort(entries, new Comparator<Entry>() {
+        @Override
+        public int compare(Entry left, Entry right) {
+          int comparison = BYTE_ORDER.compare(left.label, right.label);
+          return comparison != 0 ? comparison : Integer.compare(left.sequence, right.sequence);
+        }});
+      List<Entry> deduped = new ArrayList<>(entries.size());
+      int labelLength = 0;
+      int keyLength = 0;
+      for (int i = 0; i < entries.size(); i++) {
+        Entry entry = entries.get(i);
+        if (i + 1 < entries.size() && Arrays.equals(entry.label, entries.get(i + 1).label)) {
+          continue;  // A later entry overrides this one.
+        }
+        deduped.add(entry);
+        labelLength += entry.label.length;
+        keyLength += entry.key.length;
+      }
+      byte[] labelBytes = new byte[labelLength];
+      int[] labelOffsets = new int[deduped.size() + 1];
+      byte[] keyBytes = new byte[keyLength];
+      int[] keyOffsets = new int[deduped.size() + 1];
+      for (int i = 0; i < deduped.size(); i++) {
+        Entry entry = deduped.get(i);
+        System.arraycopy(entry.label, 0, labelBytes, labelOffsets[i], entry.label.length);
+        labelOffsets[i + 1] = labelOffsets[i] + entry.label.length;
+        System.arraycopy(entry.key, 0, keyBytes, keyOffsets[i], entry.key.length);
+        keyOffsets[i + 1] = keyOffsets[i] + entry.key.length;
+      }
+      return new ClaimsListIndex(labelBytes, labelOffsets, keyBytes, keyOffsets);
+    }
+
+    /** An encoded entry waiting to be sorted into the index. */
+    private static final class Entry {
+      final byte[] label;
+      final byte[] key;
+      final int sequence;
+
+      Entry(byte[] label, byte[] key, int sequence) {
+        this.label = label;
+        this.key = key;
+        this.sequence = sequence;
+      }
+    }
+  }
+}
@@ -21,12 +21,16 @@ import static google.registry.model.ofy.ObjectifyService.allocateId;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.model.ofy.Ofy.RECOMMENDED_MEMCACHE_EXPIRATION;
 import static google.registry.util.CacheUtils.memoizeWithShortExpiration;
+import static google.registry.util.CollectionUtils.nullToEmpty;
 import static google.registry.util.DateTimeUtils.START_OF_TIME;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.VoidWork;
 import com.googlecode.objectify.Work;
@@ -45,9 +49,10 @@ import google.registry.model.common.CrossTldSingleton;
 import google.registry.util.CollectionUtils;
 import google.registry.util.Concurrent;
 import google.registry.util.NonFinalForTesting;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import javax.annotation.Nullable;
 import org.joda.time.DateTime;
 
@@ -64,7 +69,7 @@ import org.joda.time.DateTime;
  * 10MB per transaction limit.
  *
  * <p>Therefore, it is never OK to save an instance of this class directly to Datastore. Instead you
- * must use the {@link #save} method to do it for you.
+ * must use the {@link #save} or {@link #saveChanges} method to do it for you.
  */
 @Entity
 @NotBackedUp(reason = Reason.EXTERNALLY_SOURCED)
@@ -92,23 +97,45 @@ public class ClaimsListShard extends ImmutableObject {
   @Ignore
   boolean isShard = false;
 
+  /**
+   * A compact index over {@link #labelsToKeys}, used for all lookups.
+   *
+   * <p>For the combined list returned by {@link #get} this is the only copy of the data, and
+   * {@link #labelsToKeys} is null.
+   */
+  @Ignore
+  ClaimsListIndex index;
+
   /**
    * A cached supplier that fetches the claims list shards from the datastore and recombines them
-   * into a single {@link ClaimsListShard} object.
+   * into a single {@link ClaimsListShard} object, backed by a {@link ClaimsListIndex}.
+   *
+   * <p>The shards are only reloaded when the current revision has changed, so the index is built
+   * once per revision and shared across requests.
    */
   private static final Supplier<ClaimsListShard> CACHE =
-      memoizeWithShortExpiration(new Supplier<ClaimsListShard>() {
+      memoizeWithShortExpiration("claimsList", new Supplier<ClaimsListShard>() {
+
+        /** The revision that {@link #lastLoaded} was built from. */
+        private Key<ClaimsListRevision> lastRevision;
+
+        /** The most recently loaded claims list. */
+        private ClaimsListShard lastLoaded;
+
         @Override
-        public ClaimsListShard get() {
+        public synchronized ClaimsListShard get() {
           // Find the most recent revision.
-          Key<ClaimsListRevision> revisionKey = getCurrentRevision();
+          ClaimsListSingleton singleton = loadSingleton();
+          Key<ClaimsListRevision> revisionKey = getRevision(singleton);
+          if (lastLoaded != null && Objects.equals(revisionKey, lastRevision)) {
+            return lastLoaded;
+          }
 
-          Map<String, String> combinedLabelsToKeys = new HashMap<>();
+          ClaimsListIndex.Builder combinedLabelsToKeys = new ClaimsListIndex.Builder();
           DateTime creationTime = START_OF_TIME;
           if (revisionKey != null) {
             // Grab all of the keys for the shards that belong to the current revision.
-            final List<Key<ClaimsListShard>> shardKeys =
-                ofy().load().type(ClaimsListShard.class).ancestor(revisionKey).keys().list();
+            final List<Key<ClaimsListShard>> shardKeys = getActiveShardKeys(singleton);
 
             // Load all of the shards concurrently, each in a separate transaction.
             List<ClaimsListShard> shards = Concurrent.transform(
@@ -123,7 +150,13 @@ public class ClaimsListShard extends ImmutableObject {
                   }});
 
             // Combine the shards together and return the concatenated ClaimsList.
-            if (!shards.isEmpty()) {
+            if (singleton.creationTime != null) {
+              // Shards reused by saveChanges keep the creation time of the list that wrote them.
+              creationTime = singleton.creationTime;
+              for (ClaimsListShard shard : shards) {
+                combinedLabelsToKeys.putAll(shard.labelsToKeys);
+              }
+            } else if (!shards.isEmpty()) {
               creationTime = shards.get(0).creationTime;
               for (ClaimsListShard shard : shards) {
                 combinedLabelsToKeys.putAll(shard.labelsToKeys);
@@ -132,24 +165,43 @@ public class ClaimsListShard extends ImmutableObject {
               }
             }
           }
-          return create(creationTime, ImmutableMap.copyOf(combinedLabelsToKeys));
+          lastLoaded = createFromIndex(creationTime, combinedLabelsToKeys.build());
+          lastRevision = revisionKey;
+          return lastLoaded;
         }});
 
   public DateTime getCreationTime() {
     return creationTime;
   }
 
+  @Nullable
   public String getClaimKey(String label) {
-    return labelsToKeys.get(label);
+    return getIndex().get(label);
   }
 
+  /**
+   * Returns a copy of the full claims list as a map.
+   *
+   * <p>This allocates the whole list on the heap; request paths should use {@link #getClaimKey} or
+   * {@link #getIndex} instead.
+   */
   public ImmutableMap<String, String> getLabelsToKeys() {
-    return ImmutableMap.copyOf(labelsToKeys);
+    return labelsToKeys != null ? ImmutableMap.copyOf(labelsToKeys) : index.toMap();
+  }
+
+  /** Returns the compact index of this claims list, building it first if necessary. */
+  public ClaimsListIndex getIndex() {
+    // ClaimsListIndex is immutable with only final fields, so this racy initialization is safe.
+    ClaimsListIndex result = index;
+    if (result == null) {
+      index = result = ClaimsListIndex.create(labelsToKeys);
+    }
+    return result;
   }
 
   /** Returns the number of claims. */
   public int size() {
-    return labelsToKeys.size();
+    return getIndex().size();
   }
 
   /**
@@ -158,11 +210,11 @@ public class ClaimsListShard extends ImmutableObject {
    */
   public void save() {
     // Figure out what the next versionId should be based on which ones already exist.
-    final Key<ClaimsListRevision> oldRevision = getCurrentRevision();
+    final ClaimsListSingleton oldSingleton = loadSingleton();
     final Key<ClaimsListRevision> parentKey = ClaimsListRevision.createKey();
 
     // Save the ClaimsList shards in separate transactions.
-    Concurrent.transform(CollectionUtils.partitionMap(labelsToKeys, shardSize),
+    Concurrent.transform(CollectionUtils.partitionMap(getLabelsToKeys(), shardSize),
         new Function<ImmutableMap<String, String>, ClaimsListShard>() {
           @Override
           public ClaimsListShard apply(final ImmutableMap<String, String> labelsToKeysShard) {
@@ -178,20 +230,121 @@ public class ClaimsListShard extends ImmutableObject {
           }});
 
     // Persist the new revision, thus causing the newly created shards to go live.
+    switchToRevision(oldSingleton, ClaimsListSingleton.create(parentKey));
+  }
+
+  /**
+   * Save the claims list to Datastore like {@link #save}, but only write the shards that differ
+   * from the current revision's.
+   *
+   * <p>Shards saved this way each hold a contiguous range of labels, in the order of
+   * {@link ClaimsListIndex}. The new list is split at the first labels of the current revision's
+   * shards, and each part that equals the old shard reuses it by key, so only the shards that
+   * gained, lost or changed labels are rewritten. If the current revision wasn't saved this way,
+   * every shard is written, and the next save is incremental.
+   *
+   * @return the number of shards that were written
+   */
+  public int saveChanges() {
+    final ClaimsListSingleton oldSingleton = loadSingleton();
+    final Key<ClaimsListRevision> parentKey = ClaimsListRevision.createKey();
+    List<Key<ClaimsListShard>> oldShardKeys =
+        (oldSingleton == null || oldSingleton.activeShards == null)
+            ? ImmutableList.<Key<ClaimsListShard>>of()
+            : oldSingleton.activeShards;
+    ClaimsListIndex newIndex = getIndex();
+    // The shards of the new revision in label order, and the new ones among them.
+    ImmutableList.Builder<Key<ClaimsListShard>> newShardKeys = new ImmutableList.Builder<>();
+    List<ClaimsListShard> changedShards = new ArrayList<>();
+    if (oldShardKeys.isEmpty()) {
+      addShards(newIndex.toMap(), parentKey, newShardKeys, changedShards);
+    } else {
+      // Compare one old shard at a time, loading the next one to find where this one's range ends.
+      // The first shard's range also includes any labels before it.
+      ClaimsListShard oldShard = loadShard(oldShardKeys.get(0));
+      int start = 0;
+      for (int i = 0; i < oldShardKeys.size(); i++) {
+        ClaimsListShard nextOldShard =
+            (i + 1 < oldShardKeys.size()) ? loadShard(oldShardKeys.get(i + 1)) : null;
+        int end = (nextOldShard == null)
+            ? newIndex.size()
+            : newIndex.ceilingPosition(nextOldShard.getIndex().getLabel(0));
+        ImmutableMap<String, String> labelsToKeysShard = newIndex.toMap(start, end);
+        if (labelsToKeysShard.equals(oldShard.labelsToKeys)) {
+          newShardKeys.add(oldShardKeys.get(i));
+        } else {
+          addShards(labelsToKeysShard, parentKey, newShardKeys, changedShards);
+        }
+        oldShard = nextOldShard;
+        start = end;
+      }
+    }
+
+    // Save the changed shards in separate transactions.
+    Concurrent.transform(changedShards, new Function<ClaimsListShard, Void>() {
+      @Override
+      public Void apply(final ClaimsListShard shard) {
+        ofy().transactNew(new VoidWork() {
+          @Override
+          public void vrun() {
+            ofy().saveWithoutBackup().entity(shard);
+          }});
+        return null;
+      }});
+
+    // Persist the new revision, reusing the unchanged shards.
+    switchToRevision(
+        oldSingleton, ClaimsListSingleton.create(parentKey, newShardKeys.build(), creationTime));
+    return changedShards.size();
+  }
+
+  /** Splits a range of the claims list into new shards, and adds them in label order. */
+  private void addShards(
+      ImmutableMap<String, String> labelsToKeysRange,
+      Key<ClaimsListRevision> parentKey,
+      ImmutableList.Builder<Key<ClaimsListShard>> newShardKeys,
+      List<ClaimsListShard> changedShards) {
+    for (ImmutableMap<String, String> labelsToKeysShard
+        : CollectionUtils.partitionMap(labelsToKeysRange, shardSize)) {
+      ClaimsListShard shard = create(creationTime, labelsToKeysShard);
+      shard.isShard = true;
+      shard.parent = parentKey;
+      newShardKeys.add(Key.create(shard));
+      changedShards.add(shard);
+    }
+  }
+
+  private static ClaimsListShard loadShard(final Key<ClaimsListShard> key) {
+    return ofy().transactNewReadOnly(new Work<ClaimsListShard>() {
+      @Override
+      public ClaimsListShard run() {
+        return ofy().load().key(key).now();
+      }});
+  }
+
+  /**
+   * Atomically makes a new revision live, as long as the live revision is still the old one, then
+   * deletes the old revision's shards that the new one doesn't reuse.
+   *
+   * <p>The old shards are deleted after the switch, outside of its transaction, since reused shards
+   * can belong to more revisions' entity groups than a single transaction may span.
+   */
+  private static void switchToRevision(
+      @Nullable final ClaimsListSingleton oldSingleton, final ClaimsListSingleton newSingleton) {
     ofy().transactNew(new VoidWork() {
       @Override
       public void vrun() {
         verify(
-            (getCurrentRevision() == null && oldRevision == null)
-                || getCurrentRevision().equals(oldRevision),
+            Objects.equals(getCurrentRevision(), getRevision(oldSingleton)),
             "ClaimsList on Registries was updated by someone else while attempting to update.");
-        ofy().saveWithoutBackup().entity(ClaimsListSingleton.create(parentKey));
-        // Delete the old ClaimsListShard entities.
-        if (oldRevision != null) {
-          ofy().deleteWithoutBackup()
-              .keys(ofy().load().type(ClaimsListShard.class).ancestor(oldRevision).keys());
-        }
+        ofy().saveWithoutBackup().entity(newSingleton);
       }});
+    // Delete the old ClaimsListShard entities.
+    if (getRevision(oldSingleton) != null) {
+      ofy().deleteWithoutBackup().keys(Sets.difference(
+          ImmutableSet.copyOf(getActiveShardKeys(oldSingleton)),
+          ImmutableSet.copyOf(nullToEmpty(newSingleton.activeShards)))).now();
+    }
   }
 
   public static ClaimsListShard create(
@@ -203,6 +356,15 @@ public class ClaimsListShard extends ImmutableObject {
     return instance;
   }
 
+  /** Creates a combined claims list backed only by a {@link ClaimsListIndex}. */
+  public static ClaimsListShard createFromIndex(DateTime creationTime, ClaimsListIndex index) {
+    ClaimsListShard instance = new ClaimsListShard();
+    instance.id = allocateId();
+    instance.creationTime = checkNotNull(creationTime);
+    instance.index = checkNotNull(index);
+    return instance;
+  }
+
   /** Return a single logical instance that combines all the datastore shards. */
   @Nullable
   public static ClaimsListShard get() {
@@ -251,12 +413,32 @@ public class ClaimsListShard extends ImmutableObject {
   public static class ClaimsListSingleton extends CrossTldSingleton {
     Key<ClaimsListRevision> activeRevision;
 
+    /**
+     * The shards of the active revision in label order, or null if they are the children of the
+     * revision. Set by {@link ClaimsListShard#saveChanges}, whose shards can belong to an earlier
+     * revision.
+     */
+    List<Key<ClaimsListShard>> activeShards;
+
+    /** When the active claims list was created, or null if only its shards record it. */
+    DateTime creationTime;
+
     static ClaimsListSingleton create(Key<ClaimsListRevision> revision) {
       ClaimsListSingleton instance = new ClaimsListSingleton();
       instance.activeRevision = revision;
       return instance;
     }
 
+    static ClaimsListSingleton create(
+        Key<ClaimsListRevision> revision,
+        ImmutableList<Key<ClaimsListShard>> shards,
+        DateTime creationTime) {
+      ClaimsListSingleton instance = create(revision);
+      instance.activeShards = shards;
+      instance.creationTime = creationTime;
+      return instance;
+    }
+
     @VisibleForTesting
     public void setActiveRevision(Key<ClaimsListRevision> revision) {
       activeRevision = revision;
@@ -269,10 +451,26 @@ public class ClaimsListShard extends ImmutableObject {
    */
   @Nullable
   public static Key<ClaimsListRevision> getCurrentRevision() {
-    ClaimsListSingleton singleton = ofy().load().entity(new ClaimsListSingleton()).now();
+    return getRevision(loadSingleton());
+  }
+
+  @Nullable
+  private static ClaimsListSingleton loadSingleton() {
+    return ofy().load().entity(new ClaimsListSingleton()).now();
+  }
+
+  @Nullable
+  private static Key<ClaimsListRevision> getRevision(@Nullable ClaimsListSingleton singleton) {
     return singleton == null ? null : singleton.activeRevision;
   }
 
+  /** Returns the keys of the shards of a singleton's active revision. */
+  private static List<Key<ClaimsListShard>> getActiveShardKeys(ClaimsListSingleton singleton) {
+    return (singleton.activeShards != null)
+        ? singleton.activeShards
+        : ofy().load().type(ClaimsListShard.class).ancestor(singleton.activeRevision).keys().list();
+  }
+
   /** Exception when trying to directly save a {@link ClaimsListShard} without sharding. */
   public static class UnshardedSaveException extends RuntimeException {}
 }
@@ -14,6 +14,8 @@
 
 package google.registry.model.transfer;
 
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.condition.PojoIf;
 import google.registry.model.Buildable.GenericBuilder;
 import google.registry.model.ImmutableObject;
 import javax.xml.bind.annotation.XmlElement;
@@ -47,10 +49,23 @@ public abstract class BaseTransferObject extends ImmutableObject {
    * If the current transfer status is pending, then this holds the time that the transfer must be
    * acted upon before the server will automatically approve the transfer. For all other states,
    * this holds the time that the last pending transfer ended. Can be null if never transferred.
+   *
+   * <p>This is indexed on {@link TransferData} only, so that incremental RDE deposits can find the
+   * transfers that the server approved automatically, which change the resource without saving it.
+   * Nothing queries the copies in {@link TransferResponse} poll messages.
    */
+  @Index(IfTransferData.class)
   @XmlElement(name = "acDate")
   DateTime pendingTransferExpirationTime;
 
+  /** Objectify condition that holds for the fields of a {@link TransferData}. */
+  public static class IfTransferData extends PojoIf<BaseTransferObject> {
+    @Override
+    public boolean matchesPojo(BaseTransferObject pojo) {
+      return pojo instanceof TransferData;
+    }
+  }
+
   public TransferStatus getTransferStatus() {
     return transferStatus;
   }
@@ -20,6 +20,7 @@ import google.registry.backup.CommitLogCheckpointAction;
 import google.registry.backup.DeleteOldCommitLogsAction;
 import google.registry.backup.ExportCommitLogDiffAction;
 import google.registry.backup.RestoreCommitLogsAction;
+import google.registry.backup.RestoreEntitiesAction;
 import google.registry.batch.DeleteProberDataAction;
 import google.registry.batch.ExpandRecurringBillingEventsAction;
 import google.registry.cron.CommitLogFanoutAction;
@@ -110,6 +111,7 @@ interface BackendRequestComponent {
   RefreshDnsAction refreshDnsAction();
   RefreshDnsOnHostRenameAction refreshDnsOnHostRenameAction();
   RestoreCommitLogsAction restoreCommitLogsAction();
+  RestoreEntitiesAction restoreEntitiesAction();
   SyncGroupMembersAction syncGroupMembersAction();
   SyncRegistrarsSheetAction syncRegistrarsSheetAction();
   TldFanoutAction tldFanoutAction();
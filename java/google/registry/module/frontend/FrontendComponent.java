@@ -17,9 +17,11 @@ package google.registry.module.frontend;
 import dagger.Component;
 import google.registry.braintree.BraintreeModule;
 import google.registry.config.ConfigModule;
+import google.registry.flows.EppCommandLogWriter;
 import google.registry.keyring.api.DummyKeyringModule;
 import google.registry.keyring.api.KeyModule;
 import google.registry.monitoring.metrics.MetricReporter;
+import google.registry.monitoring.whitebox.BigQueryMetricsSender;
 import google.registry.monitoring.whitebox.StackdriverModule;
 import google.registry.request.Modules.AppIdentityCredentialModule;
 import google.registry.request.Modules.Jackson2Module;
@@ -54,4 +56,6 @@ import javax.inject.Singleton;
 interface FrontendComponent {
   FrontendRequestComponent startRequest(RequestModule requestModule);
   MetricReporter metricReporter();
+  EppCommandLogWriter eppCommandLogWriter();
+  BigQueryMetricsSender bigQueryMetricsSender();
 }
@@ -16,9 +16,14 @@ package google.registry.module.frontend;
 
 import static java.util.Arrays.asList;
 
+import com.google.appengine.api.LifecycleManager;
+import com.google.appengine.api.LifecycleManager.ShutdownHook;
+import com.google.appengine.api.ThreadManager;
 import com.google.common.base.Function;
 import com.google.common.collect.FluentIterable;
+import google.registry.flows.EppCommandLogWriter;
 import google.registry.monitoring.metrics.MetricReporter;
+import google.registry.monitoring.whitebox.BigQueryMetricsSender;
 import google.registry.request.RequestHandler;
 import google.registry.request.RequestModule;
 import google.registry.util.FormattingLogger;
@@ -31,12 +36,16 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.joda.time.Duration;
 
 /** Servlet that should handle all requests to our "default" App Engine module. */
 public final class FrontendServlet extends HttpServlet {
 
   private static final FrontendComponent component = DaggerFrontendComponent.create();
   private static final MetricReporter metricReporter = component.metricReporter();
+  private static final EppCommandLogWriter eppCommandLogWriter = component.eppCommandLogWriter();
+  private static final BigQueryMetricsSender bigQueryMetricsSender =
+      component.bigQueryMetricsSender();
   private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
 
   private static final RequestHandler<FrontendRequestComponent> requestHandler =
@@ -59,6 +68,21 @@ public final class FrontendServlet extends HttpServlet {
     } catch (TimeoutException timeoutException) {
       logger.severefmt("Failed to initialize MetricReporter: %s", timeoutException);
     }
+
+    eppCommandLogWriter.start(ThreadManager.backgroundThreadFactory());
+    logger.info("Started up EppCommandLogWriter");
+
+    bigQueryMetricsSender.start(ThreadManager.backgroundThreadFactory());
+    logger.info("Started up BigQueryMetricsSender");
+
+    // App Engine doesn't always destroy the servlet when it shuts an instance down, so queued
+    // command log records and buffered metric rows are also written from the shutdown hook.
+    LifecycleManager.getInstance().setShutdownHook(new ShutdownHook() {
+      @Override
+      public void shutdown() {
+        stopEppCommandLogWriter();
+        stopBigQueryMetricsSender();
+      }});
   }
 
   @Override
@@ -69,6 +93,29 @@ public final class FrontendServlet extends HttpServlet {
     } catch (TimeoutException timeoutException) {
       logger.severefmt("Failed to stop MetricReporter: %s", timeoutException);
     }
+
+    stopEppCommandLogWriter();
+    stopBigQueryMetricsSender();
+  }
+
+  private static void stopEppCommandLogWriter() {
+    try {
+      eppCommandLogWriter.stop(Duration.standardSeconds(10));
+      logger.info("Shut down EppCommandLogWriter");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      logger.severefmt("Interrupted while stopping EppCommandLogWriter: %s", e);
+    }
+  }
+
+  private static void stopBigQueryMetricsSender() {
+    try {
+      bigQueryMetricsSender.stop(Duration.standardSeconds(10));
+      logger.info("Shut down BigQueryMetricsSender");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      logger.severefmt("Interrupted while stopping BigQueryMetricsSender: %s", e);
+    }
   }
 
   @Override
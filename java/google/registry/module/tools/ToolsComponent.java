@@ -23,6 +23,7 @@ import google.registry.groups.GroupsModule;
 import google.registry.groups.GroupssettingsModule;
 import google.registry.keyring.api.DummyKeyringModule;
 import google.registry.keyring.api.KeyModule;
+import google.registry.monitoring.whitebox.BigQueryMetricsSender;
 import google.registry.request.Modules.AppIdentityCredentialModule;
 import google.registry.request.Modules.DatastoreServiceModule;
 import google.registry.request.Modules.GoogleCredentialModule;
@@ -59,4 +60,5 @@ import javax.inject.Singleton;
     })
 interface ToolsComponent {
   ToolsRequestComponent startRequest(RequestModule requestModule);
+  BigQueryMetricsSender bigQueryMetricsSender();
 }
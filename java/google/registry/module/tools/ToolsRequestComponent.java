@@ -26,6 +26,7 @@ import google.registry.mapreduce.MapreduceModule;
 import google.registry.monitoring.whitebox.WhiteboxModule;
 import google.registry.request.RequestModule;
 import google.registry.request.RequestScope;
+import google.registry.tools.server.BackfillDomainReferenceIndexAction;
 import google.registry.tools.server.CreateGroupsAction;
 import google.registry.tools.server.CreatePremiumListAction;
 import google.registry.tools.server.DeleteEntityAction;
@@ -57,6 +58,7 @@ import google.registry.tools.server.javascrap.RefreshAllDomainsAction;
         WhiteboxModule.class,
     })
 interface ToolsRequestComponent {
+  BackfillDomainReferenceIndexAction backfillDomainReferenceIndexAction();
   CreateGroupsAction createGroupsAction();
   CreatePremiumListAction createPremiumListAction();
   DeleteEntityAction deleteEntityAction();
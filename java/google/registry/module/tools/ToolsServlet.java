@@ -16,10 +16,15 @@ package google.registry.module.tools;
 
 import static java.util.Arrays.asList;
 
+import com.google.appengine.api.LifecycleManager;
+import com.google.appengine.api.LifecycleManager.ShutdownHook;
+import com.google.appengine.api.ThreadManager;
 import com.google.common.base.Function;
 import com.google.common.collect.FluentIterable;
+import google.registry.monitoring.whitebox.BigQueryMetricsSender;
 import google.registry.request.RequestHandler;
 import google.registry.request.RequestModule;
+import google.registry.util.FormattingLogger;
 import java.io.IOException;
 import java.lang.reflect.Method;
 import java.security.Security;
@@ -27,11 +32,15 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.joda.time.Duration;
 
 /** Servlet that should handle all requests to our "tools" App Engine module. */
 public final class ToolsServlet extends HttpServlet {
 
   private static final ToolsComponent component = DaggerToolsComponent.create();
+  private static final BigQueryMetricsSender bigQueryMetricsSender =
+      component.bigQueryMetricsSender();
+  private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
 
   private static final RequestHandler<ToolsRequestComponent> requestHandler =
       RequestHandler.create(ToolsRequestComponent.class, FluentIterable
@@ -46,6 +55,31 @@ public final class ToolsServlet extends HttpServlet {
   @Override
   public void init() {
     Security.addProvider(new BouncyCastleProvider());
+
+    bigQueryMetricsSender.start(ThreadManager.backgroundThreadFactory());
+    // App Engine doesn't always destroy the servlet when it shuts an instance down, so the rows
+    // still buffered are also sent from the shutdown hook.
+    LifecycleManager.getInstance().setShutdownHook(new ShutdownHook() {
+      @Override
+      public void shutdown() {
+        stopBigQueryMetricsSender();
+      }});
+    logger.info("Started up BigQueryMetricsSender");
+  }
+
+  @Override
+  public void destroy() {
+    stopBigQueryMetricsSender();
+  }
+
+  private static void stopBigQueryMetricsSender() {
+    try {
+      bigQueryMetricsSender.stop(Duration.standardSeconds(10));
+      logger.info("Shut down BigQueryMetricsSender");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      logger.severefmt("Interrupted while stopping BigQueryMetricsSender: %s", e);
+    }
   }
 
   @Override
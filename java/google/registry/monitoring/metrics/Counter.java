@@ -21,13 +21,8 @@ import static google.registry.monitoring.metrics.MetricsUtils.newConcurrentHashM
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Ordering;
-import com.google.common.util.concurrent.AtomicLongMap;
-import com.google.common.util.concurrent.Striped;
 import google.registry.monitoring.metrics.MetricSchema.Kind;
-import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.Lock;
 import javax.annotation.concurrent.ThreadSafe;
 import org.joda.time.Instant;
 
@@ -38,36 +33,18 @@ import org.joda.time.Instant;
  *
  * <p>The start of the {@link MetricPoint#interval()} of values of instances of this metric will be
  * set to the time that the metric was first set or last {@link #reset()}.
+ *
+ * <p>Each tuple of label values has its own {@link CounterCell}, which holds the count in striped
+ * atomic cells and is only summed when the metric is exported.
  */
 @ThreadSafe
 public final class Counter extends AbstractMetric<Long>
     implements SettableMetric<Long>, IncrementableMetric {
 
-  /**
-   * A map of the {@link Counter} values, with a list of label values as the keys.
-   *
-   * <p>This should be modified in a critical section with {@code valueStartTimestamps} so that the
-   * values are in sync.
-   */
-  private final AtomicLongMap<ImmutableList<String>> values = AtomicLongMap.create();
-
-  /**
-   * A map of the {@link Instant} that each value was created, with a list of label values as the
-   * keys. The start timestamp (as part of the {@link MetricPoint#interval()} can be used by
-   * implementations of {@link MetricWriter} to encode resets of monotonic counters.
-   */
-  private final ConcurrentHashMap<ImmutableList<String>, Instant> valueStartTimestamps =
+  /** A map of the {@link Counter} cells, with a list of label values as the keys. */
+  private final ConcurrentHashMap<ImmutableList<String>, CounterCell> cells =
       newConcurrentHashMap(DEFAULT_CONCURRENCY_LEVEL);
 
-  /**
-   * A fine-grained lock to ensure that {@code values} and {@code valueStartTimestamps} are modified
-   * and read in a critical section. The initialization parameter is the concurrency level, set to
-   * match the default concurrency level of {@link ConcurrentHashMap}.
-   *
-   * @see Striped
-   */
-  private final Striped<Lock> valueLocks = Striped.lock(DEFAULT_CONCURRENCY_LEVEL);
-
   Counter(
       String name,
       String description,
@@ -76,17 +53,28 @@ public final class Counter extends AbstractMetric<Long>
     super(name, description, valueDisplayName, Kind.CUMULATIVE, labels, Long.class);
   }
 
+  /** Returns the cell for the given label values, creating it with the current time if absent. */
+  private CounterCell getCell(ImmutableList<String> labelValues) {
+    CounterCell cell = cells.get(labelValues);
+    return (cell != null) ? cell : getCell(labelValues, Instant.now());
+  }
+
+  /** Returns the cell for the given label values, creating it with the given time if absent. */
+  private CounterCell getCell(ImmutableList<String> labelValues, Instant startTimestamp) {
+    CounterCell cell = cells.get(labelValues);
+    if (cell == null) {
+      CounterCell newCell = new CounterCell(labelValues, startTimestamp);
+      cell = cells.putIfAbsent(labelValues, newCell);
+      if (cell == null) {
+        cell = newCell;
+      }
+    }
+    return cell;
+  }
+
   @VisibleForTesting
   void incrementBy(long offset, Instant startTimestamp, ImmutableList<String> labelValues) {
-    Lock lock = valueLocks.get(labelValues);
-    lock.lock();
-
-    try {
-      values.addAndGet(labelValues, offset);
-      valueStartTimestamps.putIfAbsent(labelValues, startTimestamp);
-    } finally {
-      lock.unlock();
-    }
+    getCell(labelValues, startTimestamp).add(offset);
   }
 
   @Override
@@ -94,14 +82,14 @@ public final class Counter extends AbstractMetric<Long>
     MetricsUtils.checkLabelValuesLength(this, labelValues);
     checkArgument(offset >= 0, "The offset provided must be non-negative");
 
-    incrementBy(offset, Instant.now(), ImmutableList.copyOf(labelValues));
+    getCell(ImmutableList.copyOf(labelValues)).add(offset);
   }
 
   @Override
   public final void increment(String... labelValues) {
     MetricsUtils.checkLabelValuesLength(this, labelValues);
 
-    incrementBy(1L, Instant.now(), ImmutableList.copyOf(labelValues));
+    getCell(ImmutableList.copyOf(labelValues)).increment();
   }
 
   /**
@@ -115,76 +103,43 @@ public final class Counter extends AbstractMetric<Long>
 
   @Override
   public final int getCardinality() {
-    return values.size();
+    return cells.size();
   }
 
   @VisibleForTesting
   final ImmutableList<MetricPoint<Long>> getTimestampedValues(Instant endTimestamp) {
     ImmutableList.Builder<MetricPoint<Long>> timestampedValues = new ImmutableList.Builder<>();
-    for (Entry<ImmutableList<String>, Long> entry : values.asMap().entrySet()) {
-      ImmutableList<String> labelValues = entry.getKey();
-      valueLocks.get(labelValues).lock();
-
-      Instant startTimestamp;
-      try {
-        startTimestamp = valueStartTimestamps.get(labelValues);
-      } finally {
-        valueLocks.get(labelValues).unlock();
-      }
-
-      // There is an opportunity for endTimestamp to be less than startTimestamp if
-      // one of the modification methods is called on a value before the lock for that value is
-      // acquired but after getTimestampedValues has been invoked. Just set endTimestamp equal to
-      // startTimestamp if that happens.
-      endTimestamp = Ordering.natural().max(startTimestamp, endTimestamp);
-
-      timestampedValues.add(
-          MetricPoint.create(this, labelValues, startTimestamp, endTimestamp, entry.getValue()));
-
+    for (CounterCell cell : cells.values()) {
+      timestampedValues.add(cell.snapshot(this, endTimestamp));
     }
     return timestampedValues.build();
   }
 
   @VisibleForTesting
   final void set(Long value, Instant startTimestamp, ImmutableList<String> labelValues) {
-    Lock lock = valueLocks.get(labelValues);
-    lock.lock();
-
-    try {
-      this.values.put(labelValues, value);
-      valueStartTimestamps.putIfAbsent(labelValues, startTimestamp);
-    } finally {
-      lock.unlock();
-    }
+    getCell(labelValues, startTimestamp).set(value);
   }
 
   @Override
   public final void set(Long value, String... labelValues) {
     MetricsUtils.checkLabelValuesLength(this, labelValues);
 
-    set(value, Instant.now(), ImmutableList.copyOf(labelValues));
+    getCell(ImmutableList.copyOf(labelValues)).set(value);
   }
 
   @VisibleForTesting
   final void reset(Instant startTimestamp) {
-    // Lock the entire set of values so that all existing values will have a consistent timestamp
-    // after this call, without the possibility of interleaving with another reset() call.
-    for (int i = 0; i < valueLocks.size(); i++) {
-      valueLocks.getAt(i).lock();
-    }
-
-    try {
-      for (ImmutableList<String> labelValues : values.asMap().keySet()) {
-        this.values.put(labelValues, 0);
-        this.valueStartTimestamps.put(labelValues, startTimestamp);
-      }
-    } finally {
-      for (int i = 0; i < valueLocks.size(); i++) {
-        valueLocks.getAt(i).unlock();
-      }
+    for (CounterCell cell : cells.values()) {
+      cell.reset(startTimestamp);
     }
   }
 
+  /**
+   * Resets the value and start timestamp of the metric for all label values.
+   *
+   * <p>Each cell is reset atomically, but the cells are reset one after another, and increments
+   * that race with the reset may be lost.
+   */
   @Override
   public final void reset() {
     reset(Instant.now());
@@ -192,15 +147,7 @@ public final class Counter extends AbstractMetric<Long>
 
   @VisibleForTesting
   final void reset(Instant startTimestamp, ImmutableList<String> labelValues) {
-    Lock lock = valueLocks.get(labelValues);
-    lock.lock();
-
-    try {
-      this.values.put(labelValues, 0);
-      this.valueStartTimestamps.put(labelValues, startTimestamp);
-    } finally {
-      lock.unlock();
-    }
+    getCell(labelValues, startTimestamp).reset(startTimestamp);
   }
 
   @Override
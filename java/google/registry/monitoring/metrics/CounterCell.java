@@ -0,0 +1,78 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package google.registry.monitoring.metrics;
+
+import com.google.common.collect.ImmutableList;
+import javax.annotation.concurrent.ThreadSafe;
+import org.joda.time.Instant;
+
+/**
+ * The value of a {@link Counter} for one tuple of label values.
+ *
+ * <p>Increments don't lock, allocate or read the clock.
+ */
+@ThreadSafe
+final class CounterCell {
+
+  /** The count since the start timestamp, replaced as a whole on reset so the two agree. */
+  private static final class Value {
+    final Instant startTimestamp;
+    final StripedLong count;
+
+    Value(Instant startTimestamp, StripedLong count) {
+      this.startTimestamp = startTimestamp;
+      this.count = count;
+    }
+  }
+
+  private final ImmutableList<String> labelValues;
+  private volatile Value value;
+
+  CounterCell(ImmutableList<String> labelValues, Instant startTimestamp) {
+    this.labelValues = labelValues;
+    this.value = new Value(startTimestamp, new StripedLong());
+  }
+
+  /** Increments the cell by 1. */
+  void increment() {
+    value.count.add(1L);
+  }
+
+  /** Adds any offset, including a negative one, for {@link Counter#incrementBy}. */
+  void add(long offset) {
+    value.count.add(offset);
+  }
+
+  /** Sets the count, keeping the start timestamp. Concurrent increments may be lost. */
+  void set(long count) {
+    value = new Value(value.startTimestamp, new StripedLong(count));
+  }
+
+  /** Sets the count to zero and the start timestamp to the given time. */
+  void reset(Instant startTimestamp) {
+    value = new Value(startTimestamp, new StripedLong());
+  }
+
+  /** Returns the current count as a point ending at the given time, or later if need be. */
+  MetricPoint<Long> snapshot(Metric<Long> metric, Instant endTimestamp) {
+    Value current = value;
+    // A reset after the caller read the clock can leave the start after the end. Just set the end
+    // equal to the start if that happens.
+    Instant end = current.startTimestamp.isAfter(endTimestamp)
+        ? current.startTimestamp
+        : endTimestamp;
+    return MetricPoint.create(
+        metric, labelValues, current.startTimestamp, end, current.count.sum());
+  }
+}
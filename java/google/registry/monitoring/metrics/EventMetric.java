@@ -20,12 +20,9 @@ import static google.registry.monitoring.metrics.MetricsUtils.newConcurrentHashM
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Ordering;
-import com.google.common.util.concurrent.Striped;
 import google.registry.monitoring.metrics.MetricSchema.Kind;
-import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.Lock;
+import javax.annotation.Nullable;
 import org.joda.time.Instant;
 
 /**
@@ -36,7 +33,8 @@ import org.joda.time.Instant;
  * quantitative aspect of an event. For example, this metric would be suitable for recording the
  * latency distribution for a request over the network.
  *
- * <p>The {@link MutableDistribution} values tracked by this metric can be reset with {@link
+ * <p>Each tuple of label values has its own {@link EventMetricCell}, which is only turned into an
+ * {@link ImmutableDistribution} when the metric is exported. The values can be reset with {@link
  * EventMetric#reset()}.
  */
 public final class EventMetric extends AbstractMetric<Distribution> {
@@ -48,22 +46,11 @@ public final class EventMetric extends AbstractMetric<Distribution> {
    */
   public static final DistributionFitter DEFAULT_FITTER = ExponentialFitter.create(16, 4.0, 1.0);
 
-  private final ConcurrentHashMap<ImmutableList<String>, Instant> valueStartTimestamps =
-      newConcurrentHashMap(DEFAULT_CONCURRENCY_LEVEL);
-  private final ConcurrentHashMap<ImmutableList<String>, MutableDistribution> values =
+  private final ConcurrentHashMap<ImmutableList<String>, EventMetricCell> cells =
       newConcurrentHashMap(DEFAULT_CONCURRENCY_LEVEL);
 
   private final DistributionFitter distributionFitter;
 
-  /**
-   * A fine-grained lock to ensure that {@code values} and {@code valueStartTimestamps} are modified
-   * and read in a critical section. The initialization parameter is the concurrency level, set to
-   * match the default concurrency level of {@link ConcurrentHashMap}.
-   *
-   * @see Striped
-   */
-  private final Striped<Lock> valueLocks = Striped.lock(DEFAULT_CONCURRENCY_LEVEL);
-
   EventMetric(
       String name,
       String description,
@@ -77,7 +64,7 @@ public final class EventMetric extends AbstractMetric<Distribution> {
 
   @Override
   public final int getCardinality() {
-    return values.size();
+    return cells.size();
   }
 
   @Override
@@ -89,32 +76,30 @@ public final class EventMetric extends AbstractMetric<Distribution> {
   final ImmutableList<MetricPoint<Distribution>> getTimestampedValues(Instant endTimestamp) {
     ImmutableList.Builder<MetricPoint<Distribution>> timestampedValues =
         new ImmutableList.Builder<>();
+    for (EventMetricCell cell : cells.values()) {
+      timestampedValues.add(cell.snapshot(this, endTimestamp));
+    }
+    return timestampedValues.build();
+  }
 
-    for (Entry<ImmutableList<String>, MutableDistribution> entry : values.entrySet()) {
-      ImmutableList<String> labelValues = entry.getKey();
-      Lock lock = valueLocks.get(labelValues);
-      lock.lock();
-
-      Instant startTimestamp;
-      ImmutableDistribution distribution;
-      try {
-        startTimestamp = valueStartTimestamps.get(labelValues);
-        distribution = ImmutableDistribution.copyOf(entry.getValue());
-      } finally {
-        lock.unlock();
+  /**
+   * Returns the cell for the given label values, creating it if absent with the given start
+   * timestamp, or with the current time if that is null.
+   */
+  private EventMetricCell getCell(
+      ImmutableList<String> labelValues, @Nullable Instant startTimestamp) {
+    EventMetricCell cell = cells.get(labelValues);
+    if (cell == null) {
+      EventMetricCell newCell = new EventMetricCell(
+          labelValues,
+          distributionFitter,
+          (startTimestamp != null) ? startTimestamp : Instant.now());
+      cell = cells.putIfAbsent(labelValues, newCell);
+      if (cell == null) {
+        cell = newCell;
       }
-
-      // There is an opportunity for endTimestamp to be less than startTimestamp if
-      // one of the modification methods is called on a value before the lock for that value is
-      // acquired but after getTimestampedValues has been invoked. Just set endTimestamp equal to
-      // startTimestamp if that happens.
-      endTimestamp = Ordering.natural().max(startTimestamp, endTimestamp);
-
-      timestampedValues.add(
-          MetricPoint.create(this, labelValues, startTimestamp, endTimestamp, distribution));
     }
-
-    return timestampedValues.build();
+    return cell;
   }
 
   /**
@@ -128,7 +113,7 @@ public final class EventMetric extends AbstractMetric<Distribution> {
   public final void record(double sample, String... labelValues) {
     MetricsUtils.checkLabelValuesLength(this, labelValues);
 
-    recordMultiple(sample, 1, Instant.now(), ImmutableList.copyOf(labelValues));
+    getCell(ImmutableList.copyOf(labelValues), null).record(sample, 1);
   }
 
   /**
@@ -143,29 +128,20 @@ public final class EventMetric extends AbstractMetric<Distribution> {
   public final void record(double sample, int count, String... labelValues) {
     MetricsUtils.checkLabelValuesLength(this, labelValues);
 
-    recordMultiple(sample, count, Instant.now(), ImmutableList.copyOf(labelValues));
+    getCell(ImmutableList.copyOf(labelValues), null).record(sample, count);
   }
 
   @VisibleForTesting
   final void recordMultiple(
       double sample, int count, Instant startTimestamp, ImmutableList<String> labelValues) {
-    Lock lock = valueLocks.get(labelValues);
-    lock.lock();
-
-    try {
-      if (!values.containsKey(labelValues)) {
-        values.put(labelValues, new MutableDistribution(distributionFitter));
-      }
-
-      values.get(labelValues).add(sample, count);
-      valueStartTimestamps.putIfAbsent(labelValues, startTimestamp);
-    } finally {
-      lock.unlock();
-    }
+    getCell(labelValues, startTimestamp).record(sample, count);
   }
 
   /**
-   * Atomically resets the value and start timestamp of the metric for all label values.
+   * Resets the value and start timestamp of the metric for all label values.
+   *
+   * <p>Each cell is reset atomically, but the cells are reset one after another, and samples that
+   * race with the reset may be lost.
    *
    * <p>This is useful if the metric is tracking values that are reset as part of a retrying
    * transaction, for example.
@@ -176,21 +152,8 @@ public final class EventMetric extends AbstractMetric<Distribution> {
 
   @VisibleForTesting
   final void reset(Instant startTime) {
-    // Lock the entire set of values so that all existing values will have a consistent timestamp
-    // after this call, without the possibility of interleaving with another reset() call.
-    for (int i = 0; i < valueLocks.size(); i++) {
-      valueLocks.getAt(i).lock();
-    }
-
-    try {
-      for (ImmutableList<String> labelValues : values.keySet()) {
-        this.values.put(labelValues, new MutableDistribution(distributionFitter));
-        this.valueStartTimestamps.put(labelValues, startTime);
-      }
-    } finally {
-      for (int i = 0; i < valueLocks.size(); i++) {
-        valueLocks.getAt(i).unlock();
-      }
+    for (EventMetricCell cell : cells.values()) {
+      cell.reset(startTime);
     }
   }
 
@@ -208,14 +171,6 @@ public final class EventMetric extends AbstractMetric<Distribution> {
 
   @VisibleForTesting
   final void reset(Instant startTimestamp, ImmutableList<String> labelValues) {
-    Lock lock = valueLocks.get(labelValues);
-    lock.lock();
-
-    try {
-      this.values.put(labelValues, new MutableDistribution(distributionFitter));
-      this.valueStartTimestamps.put(labelValues, startTimestamp);
-    } finally {
-      lock.unlock();
-    }
+    getCell(labelValues, startTimestamp).reset(startTimestamp);
   }
 }
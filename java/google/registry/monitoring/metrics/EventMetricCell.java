@@ -0,0 +1,91 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package google.registry.monitoring.metrics;
+
+import com.google.common.collect.ImmutableList;
+import javax.annotation.concurrent.ThreadSafe;
+import org.joda.time.Instant;
+
+/**
+ * The {@link Distribution} of an {@link EventMetric} for one tuple of label values.
+ *
+ * <p>Samples are recorded into one of several {@link Histogram} stripes, chosen by thread, each
+ * under its own lock. Threads therefore rarely wait for each other, and the stripes are only
+ * merged when the metric is exported.
+ */
+@ThreadSafe
+final class EventMetricCell {
+
+  /** The stripes since the start timestamp, replaced as a whole on reset so the two agree. */
+  private static final class Value {
+    final Instant startTimestamp;
+    final Histogram[] stripes;
+
+    Value(Instant startTimestamp, DistributionFitter distributionFitter) {
+      this.startTimestamp = startTimestamp;
+      this.stripes = new Histogram[StripedLong.NUM_STRIPES];
+      for (int i = 0; i < stripes.length; i++) {
+        stripes[i] = new Histogram(distributionFitter);
+      }
+    }
+  }
+
+  private final ImmutableList<String> labelValues;
+  private final DistributionFitter distributionFitter;
+  private volatile Value value;
+
+  EventMetricCell(
+      ImmutableList<String> labelValues,
+      DistributionFitter distributionFitter,
+      Instant startTimestamp) {
+    this.labelValues = labelValues;
+    this.distributionFitter = distributionFitter;
+    this.value = new Value(startTimestamp, distributionFitter);
+  }
+
+  /** Adds {@code count} of the given sample to the distribution. */
+  void record(double sample, long count) {
+    Histogram stripe = value.stripes[StripedLong.currentStripe()];
+    synchronized (stripe) {
+      stripe.add(sample, count);
+    }
+  }
+
+  /** Clears the distribution and sets the start timestamp to the given time. */
+  void reset(Instant startTimestamp) {
+    value = new Value(startTimestamp, distributionFitter);
+  }
+
+  /** Returns the current distribution as a point ending at the given time, or later if need be. */
+  MetricPoint<Distribution> snapshot(Metric<Distribution> metric, Instant endTimestamp) {
+    Value current = value;
+    Histogram merged = new Histogram(distributionFitter);
+    for (Histogram stripe : current.stripes) {
+      synchronized (stripe) {
+        merged.merge(stripe);
+      }
+    }
+    // A reset after the caller read the clock can leave the start after the end. Just set the end
+    // equal to the start if that happens.
+    Instant end = current.startTimestamp.isAfter(endTimestamp)
+        ? current.startTimestamp
+        : endTimestamp;
+    return MetricPoint.<Distribution>create(
+        metric,
+        labelValues,
+        current.startTimestamp,
+        end,
+        merged.toImmutableDistribution());
+  }
+}
@@ -0,0 +1,183 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package google.registry.monitoring.metrics;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static google.registry.monitoring.metrics.MetricsUtils.checkDouble;
+
+import com.google.common.collect.ImmutableRangeMap;
+import com.google.common.collect.Range;
+import com.google.common.primitives.Doubles;
+import java.util.Arrays;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Histogram of samples fitted by a {@link DistributionFitter}, along with their count, mean and sum
+ * of squared deviation, kept in primitive arrays and fields.
+ *
+ * <p>Bucket 0 is the underflow interval, bucket {@code i} is the interval from boundary {@code i -
+ * 1} (inclusive) to boundary {@code i} (exclusive), and the last bucket is the overflow interval.
+ * The bucket of a sample is computed directly for {@link LinearFitter} and {@link
+ * ExponentialFitter} intervals, and found with a binary search of the boundaries otherwise, so
+ * adding a sample never allocates.
+ *
+ * <p>Histograms with the same fitter can be merged, for instance to combine per-thread histograms
+ * when exporting a metric.
+ */
+@NotThreadSafe
+final class Histogram {
+
+  private final DistributionFitter distributionFitter;
+  private final double[] boundaries;
+  private final BucketIndex bucketIndex;
+  private final long[] bucketCounts;
+  private long count;
+  private double mean;
+  private double sumOfSquaredDeviation;
+
+  Histogram(DistributionFitter distributionFitter) {
+    this.distributionFitter = checkNotNull(distributionFitter);
+    this.boundaries = Doubles.toArray(distributionFitter.boundaries());
+    checkArgument(boundaries.length > 0);
+    this.bucketIndex = createBucketIndex(distributionFitter, boundaries);
+    this.bucketCounts = new long[boundaries.length + 1];
+  }
+
+  void add(double value, long numSamples) {
+    checkArgument(numSamples > 0, "numSamples must be greater than 0");
+    checkDouble(value);
+
+    bucketCounts[getBucket(value)] += numSamples;
+    count += numSamples;
+
+    // Update mean and sumOfSquaredDeviation using Welford's method
+    // See Knuth, "The Art of Computer Programming", Vol. 2, page 232, 3rd edition
+    double delta = value - mean;
+    mean += delta * numSamples / count;
+    sumOfSquaredDeviation += delta * (value - mean) * numSamples;
+  }
+
+  /** Adds all the samples of another histogram with the same fitter to this one. */
+  void merge(Histogram other) {
+    checkArgument(
+        distributionFitter.equals(other.distributionFitter), "Histograms have different fitters");
+    if (other.count == 0) {
+      return;
+    }
+    for (int i = 0; i < bucketCounts.length; i++) {
+      bucketCounts[i] += other.bucketCounts[i];
+    }
+    if (count == 0) {
+      count = other.count;
+      mean = other.mean;
+      sumOfSquaredDeviation = other.sumOfSquaredDeviation;
+      return;
+    }
+    // Combine the means and squared deviations with Chan et al.'s parallel algorithm.
+    long total = count + other.count;
+    double delta = other.mean - mean;
+    mean += delta * other.count / total;
+    sumOfSquaredDeviation +=
+        other.sumOfSquaredDeviation + delta * delta * count * other.count / total;
+    count = total;
+  }
+
+  long count() {
+    return count;
+  }
+
+  double mean() {
+    return mean;
+  }
+
+  double sumOfSquaredDeviation() {
+    return sumOfSquaredDeviation;
+  }
+
+  DistributionFitter distributionFitter() {
+    return distributionFitter;
+  }
+
+  /** Returns the bucket counts keyed by their intervals. */
+  ImmutableRangeMap<Double, Long> intervalCounts() {
+    ImmutableRangeMap.Builder<Double, Long> intervalCounts = ImmutableRangeMap.builder();
+    intervalCounts.put(Range.lessThan(boundaries[0]), bucketCounts[0]);
+    for (int i = 1; i < boundaries.length; i++) {
+      intervalCounts.put(Range.closedOpen(boundaries[i - 1], boundaries[i]), bucketCounts[i]);
+    }
+    intervalCounts.put(
+        Range.atLeast(boundaries[boundaries.length - 1]), bucketCounts[boundaries.length]);
+    return intervalCounts.build();
+  }
+
+  ImmutableDistribution toImmutableDistribution() {
+    return ImmutableDistribution.create(
+        mean, sumOfSquaredDeviation, count, intervalCounts(), distributionFitter);
+  }
+
+  /** Returns the index of the bucket that holds the given value. */
+  int getBucket(double value) {
+    int bucket = bucketIndex.estimate(value);
+    // The estimate can be one off because of rounding, so check it against the real boundaries.
+    while (bucket > 0 && value < boundaries[bucket - 1]) {
+      bucket--;
+    }
+    while (bucket < boundaries.length && value >= boundaries[bucket]) {
+      bucket++;
+    }
+    return bucket;
+  }
+
+  /** Estimates the bucket of a value, within a bucket or so of the right one. */
+  private interface BucketIndex {
+    int estimate(double value);
+  }
+
+  private static BucketIndex createBucketIndex(
+      DistributionFitter distributionFitter, final double[] boundaries) {
+    final int maxBucket = boundaries.length;
+    if (distributionFitter instanceof LinearFitter) {
+      final double offset = ((LinearFitter) distributionFitter).offset();
+      final double width = ((LinearFitter) distributionFitter).width();
+      return new BucketIndex() {
+        @Override
+        public int estimate(double value) {
+          double bucket = Math.floor((value - offset) / width) + 1;
+          return (int) Math.max(0, Math.min(maxBucket, bucket));
+        }};
+    }
+    if (distributionFitter instanceof ExponentialFitter
+        && ((ExponentialFitter) distributionFitter).scale() > 0) {
+      final double scale = ((ExponentialFitter) distributionFitter).scale();
+      final double logBase = Math.log(((ExponentialFitter) distributionFitter).base());
+      return new BucketIndex() {
+        @Override
+        public int estimate(double value) {
+          if (value < scale) {
+            return 0;
+          }
+          double bucket = Math.floor(Math.log(value / scale) / logBase) + 1;
+          return (int) Math.min(maxBucket, bucket);
+        }};
+    }
+    return new BucketIndex() {
+      @Override
+      public int estimate(double value) {
+        int index = Arrays.binarySearch(boundaries, value);
+        // A value equal to a boundary belongs to the bucket that the boundary starts.
+        return (index >= 0) ? index + 1 : -index - 1;
+      }};
+  }
+}
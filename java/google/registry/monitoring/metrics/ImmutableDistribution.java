@@ -18,7 +18,6 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static google.registry.monitoring.metrics.MetricsUtils.checkDouble;
 
 import com.google.auto.value.AutoValue;
-import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableRangeMap;
 import javax.annotation.concurrent.ThreadSafe;
 
@@ -41,7 +40,6 @@ public abstract class ImmutableDistribution implements Distribution {
         distribution.distributionFitter());
   }
 
-  @VisibleForTesting
   static ImmutableDistribution create(
       double mean,
       double sumOfSquaredDeviation,
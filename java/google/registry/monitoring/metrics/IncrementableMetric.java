@@ -58,7 +58,7 @@ public interface IncrementableMetric extends Metric<Long> {
   void reset(String... labelValues);
 
   /**
-   * Atomically resets the value and start timestamp of the metric for all label values.
+   * Resets the value and start timestamp of the metric for all label values.
    *
    * <p>This is useful if the counter is tracking values that are reset as part of a retrying
    * transaction, for example.
@@ -0,0 +1,65 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package google.registry.monitoring.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A long sum spread over several padded stripes, so that concurrent updates from different threads
+ * rarely contend on the same cache line.
+ *
+ * <p>This fills the role of {@code java.util.concurrent.atomic.LongAdder}, which isn't available on
+ * Java 7. Threads are assigned to stripes by their id. Updates never block, and the stripes are
+ * only summed when the value is read, which happens at export time.
+ */
+@ThreadSafe
+final class StripedLong {
+
+  /** Number of stripes, a power of two at least as large as the number of processors. */
+  static final int NUM_STRIPES =
+      Math.min(Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1), 64);
+
+  /** Distance in longs between two stripes, so that each one is on its own cache line. */
+  private static final int PADDING = 8;
+
+  private final AtomicLongArray stripes = new AtomicLongArray(NUM_STRIPES * PADDING);
+
+  StripedLong() {}
+
+  StripedLong(long initialValue) {
+    stripes.set(0, initialValue);
+  }
+
+  /** Returns the index of the stripe for the current thread. */
+  static int currentStripe() {
+    return (int) Thread.currentThread().getId() & (NUM_STRIPES - 1);
+  }
+
+  void add(long delta) {
+    stripes.addAndGet(currentStripe() * PADDING, delta);
+  }
+
+  /**
+   * Returns the sum of all the stripes. Updates that happen while the stripes are being summed may
+   * or may not be included.
+   */
+  long sum() {
+    long sum = 0;
+    for (int i = 0; i < NUM_STRIPES; i++) {
+      sum += stripes.get(i * PADDING);
+    }
+    return sum;
+  }
+}
@@ -0,0 +1,202 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.monitoring.whitebox;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import google.registry.config.ConfigModule.Config;
+import google.registry.monitoring.metrics.IncrementableMetric;
+import google.registry.monitoring.metrics.LabelDescriptor;
+import google.registry.monitoring.metrics.MetricRegistryImpl;
+import google.registry.util.Clock;
+import google.registry.util.FormattingLogger;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.concurrent.GuardedBy;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+
+/**
+ * An in-memory buffer of BigQuery metric rows, shared by all requests served by an instance.
+ *
+ * <p>Enqueuing a task for every metric costs a task queue call on every EPP request, and a
+ * BigQuery insertAll call for every row. This buffer instead collects rows per table and hands
+ * them back in batches, once a table has {@code batchSize} rows waiting or its oldest row has
+ * waited {@code maxBatchAge}. Ready batches are handed back whenever a row is added, and
+ * {@link BigQueryMetricsSender} also collects them on a timer and at shutdown, so that rows don't
+ * wait indefinitely on a quiet instance.
+ *
+ * <p>The buffer holds at most {@code maxBufferedRows} rows, so that a task queue outage can't
+ * exhaust the instance's memory. Rows that don't fit are dropped and counted.
+ */
+@Singleton
+public class BigQueryMetricsBuffer {
+
+  private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
+
+  /** Reason for dropping rows because the buffer was full. */
+  static final String BUFFER_FULL = "BUFFER_FULL";
+
+  /** Reason for dropping rows because they couldn't be enqueued, and couldn't be kept either. */
+  static final String ENQUEUE_FAILED = "ENQUEUE_FAILED";
+
+  private static final IncrementableMetric droppedRows =
+      MetricRegistryImpl.getDefault()
+          .newIncrementableMetric(
+              "/bigquery/metrics/dropped_rows",
+              "count of metric rows dropped instead of being exported",
+              "count",
+              ImmutableSet.of(
+                  LabelDescriptor.create("table_id", "BigQuery table ID."),
+                  LabelDescriptor.create("reason", "BUFFER_FULL or ENQUEUE_FAILED.")));
+
+  /** A row waiting to be exported, with the insert ID that BigQuery deduplicates it by. */
+  @AutoValue
+  abstract static class Row {
+
+    static Row create(String insertId, ImmutableMap<String, String> fields) {
+      return new AutoValue_BigQueryMetricsBuffer_Row(insertId, fields);
+    }
+
+    abstract String insertId();
+
+    abstract ImmutableMap<String, String> fields();
+  }
+
+  /** The rows waiting to be exported to one table. */
+  private static class PendingBatch {
+    final DateTime startTime;
+    final List<Row> rows = new ArrayList<>();
+
+    PendingBatch(DateTime startTime) {
+      this.startTime = startTime;
+    }
+  }
+
+  private final int batchSize;
+  private final Duration maxBatchAge;
+  private final int maxBufferedRows;
+  private final Clock clock;
+
+  @GuardedBy("this")
+  private final Map<String, PendingBatch> pendingBatches = new LinkedHashMap<>();
+
+  @GuardedBy("this")
+  private int bufferedRows;
+
+  @Inject
+  BigQueryMetricsBuffer(
+      @Config("bigQueryMetricsBatchSize") int batchSize,
+      @Config("bigQueryMetricsMaxBatchAge") Duration maxBatchAge,
+      @Config("bigQueryMetricsMaxBufferedRows") int maxBufferedRows,
+      Clock clock) {
+    checkArgument(batchSize > 0, "batchSize must be positive");
+    checkArgument(maxBufferedRows >= batchSize, "maxBufferedRows must be at least batchSize");
+    this.batchSize = batchSize;
+    this.maxBatchAge = maxBatchAge;
+    this.maxBufferedRows = maxBufferedRows;
+    this.clock = clock;
+  }
+
+  /** Returns the number of rows that are exported together. */
+  int getBatchSize() {
+    return batchSize;
+  }
+
+  /**
+   * Adds a row to the buffer, and removes and returns every batch that is now ready to be
+   * exported, keyed by table ID.
+   */
+  synchronized ImmutableMap<String, ImmutableList<Row>> add(String tableId, Row row) {
+    if (bufferedRows >= maxBufferedRows) {
+      recordDroppedRows(tableId, 1, BUFFER_FULL);
+    } else {
+      getPendingBatch(tableId).rows.add(row);
+      bufferedRows++;
+    }
+    return removeReadyBatches();
+  }
+
+  /**
+   * Removes and returns every batch that is ready to be exported, because it is full or its oldest
+   * row has waited long enough, keyed by table ID.
+   */
+  synchronized ImmutableMap<String, ImmutableList<Row>> removeReadyBatches() {
+    DateTime now = clock.nowUtc();
+    ImmutableMap.Builder<String, ImmutableList<Row>> readyBatches = new ImmutableMap.Builder<>();
+    Iterator<Map.Entry<String, PendingBatch>> iterator = pendingBatches.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<String, PendingBatch> entry = iterator.next();
+      PendingBatch batch = entry.getValue();
+      if (batch.rows.size() >= batchSize || !now.isBefore(batch.startTime.plus(maxBatchAge))) {
+        iterator.remove();
+        bufferedRows -= batch.rows.size();
+        readyBatches.put(entry.getKey(), ImmutableList.copyOf(batch.rows));
+      }
+    }
+    return readyBatches.build();
+  }
+
+  /** Removes and returns every batch, however small or new, keyed by table ID. */
+  synchronized ImmutableMap<String, ImmutableList<Row>> removeAllBatches() {
+    ImmutableMap.Builder<String, ImmutableList<Row>> batches = new ImmutableMap.Builder<>();
+    for (Map.Entry<String, PendingBatch> entry : pendingBatches.entrySet()) {
+      batches.put(entry.getKey(), ImmutableList.copyOf(entry.getValue().rows));
+    }
+    pendingBatches.clear();
+    bufferedRows = 0;
+    return batches.build();
+  }
+
+  /**
+   * Puts back rows whose export failed, ahead of any rows added since, so that they go out with
+   * the table's next batch. Rows that no longer fit in the buffer are dropped.
+   */
+  synchronized void putBack(String tableId, List<Row> rows) {
+    int rowsToKeep = Math.max(0, Math.min(rows.size(), maxBufferedRows - bufferedRows));
+    if (rowsToKeep > 0) {
+      getPendingBatch(tableId).rows.addAll(0, rows.subList(0, rowsToKeep));
+      bufferedRows += rowsToKeep;
+    }
+    if (rowsToKeep < rows.size()) {
+      recordDroppedRows(tableId, rows.size() - rowsToKeep, BUFFER_FULL);
+    }
+  }
+
+  @GuardedBy("this")
+  private PendingBatch getPendingBatch(String tableId) {
+    PendingBatch batch = pendingBatches.get(tableId);
+    if (batch == null) {
+      batch = new PendingBatch(clock.nowUtc());
+      pendingBatches.put(tableId, batch);
+    }
+    return batch;
+  }
+
+  /** Counts and logs rows that were dropped for the given reason. */
+  static void recordDroppedRows(String tableId, int count, String reason) {
+    droppedRows.incrementBy(count, tableId, reason);
+    logger.warningfmt("Dropped %d metric rows for table %s: %s", count, tableId, reason);
+  }
+}
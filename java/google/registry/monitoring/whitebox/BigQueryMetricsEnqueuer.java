@@ -14,15 +14,8 @@
 
 package google.registry.monitoring.whitebox;
 
-import static com.google.appengine.api.taskqueue.QueueFactory.getQueue;
-import static com.google.appengine.api.taskqueue.TaskOptions.Builder.withUrl;
-
-import com.google.appengine.api.modules.ModulesService;
-import com.google.appengine.api.taskqueue.TaskOptions;
-import com.google.appengine.api.taskqueue.TransientFailureException;
 import com.google.common.base.Supplier;
-import google.registry.util.FormattingLogger;
-import java.util.Map.Entry;
+import google.registry.monitoring.whitebox.BigQueryMetricsBuffer.Row;
 import javax.inject.Inject;
 import javax.inject.Named;
 
@@ -30,34 +23,24 @@ import javax.inject.Named;
  * A collector of metric information. Enqueues collected metrics to a task queue to be written to
  * BigQuery asynchronously.
  *
+ * <p>Metrics are collected in a per-instance {@link BigQueryMetricsBuffer}, and each batch that it
+ * hands back is sent by {@link BigQueryMetricsSender} as a single task, which
+ * {@link MetricsExportAction} writes with a single insertAll call. With a batch size of one, each
+ * metric is sent as soon as it is exported.
+ *
  * @see MetricsExportAction
  */
 public class BigQueryMetricsEnqueuer {
 
-  private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
-
   public static final String QUEUE = "bigquery-streaming-metrics";
 
-  @Inject ModulesService modulesService;
+  @Inject BigQueryMetricsSender sender;
   @Inject @Named("insertIdGenerator") Supplier<String> idGenerator;
 
   @Inject BigQueryMetricsEnqueuer() {}
 
   public void export(BigQueryMetric metric) {
-    try {
-      String hostname = modulesService.getVersionHostname("backend", null);
-      TaskOptions opts =
-          withUrl(MetricsExportAction.PATH)
-              .header("Host", hostname)
-              .param("insertId", idGenerator.get());
-      for (Entry<String, String> entry : metric.getBigQueryRowEncoding().entrySet()) {
-        opts.param(entry.getKey(), entry.getValue());
-      }
-      opts.param("tableId", metric.getTableId());
-      getQueue(QUEUE).add(opts);
-    } catch (TransientFailureException e) {
-      // Log and swallow. We may drop some metrics here but this should be rare.
-      logger.info(e, e.getMessage());
-    }
+    sender.send(
+        metric.getTableId(), Row.create(idGenerator.get(), metric.getBigQueryRowEncoding()));
   }
 }
@@ -0,0 +1,179 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.monitoring.whitebox;
+
+import static com.google.appengine.api.taskqueue.QueueFactory.getQueue;
+import static com.google.appengine.api.taskqueue.TaskOptions.Builder.withUrl;
+import static com.google.common.base.Preconditions.checkState;
+import static google.registry.monitoring.whitebox.BigQueryMetricsBuffer.ENQUEUE_FAILED;
+import static google.registry.monitoring.whitebox.BigQueryMetricsBuffer.recordDroppedRows;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.json.simple.JSONValue.toJSONString;
+
+import com.google.appengine.api.modules.ModulesService;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.appengine.api.taskqueue.TransientFailureException;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import google.registry.config.ConfigModule.Config;
+import google.registry.monitoring.whitebox.BigQueryMetricsBuffer.Row;
+import google.registry.util.FormattingLogger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.joda.time.Duration;
+
+/**
+ * Sends the metric rows collected in the instance's {@link BigQueryMetricsBuffer} to the task
+ * queue, as tasks for {@link MetricsExportAction}.
+ *
+ * <p>Batches are sent when a row added by a request completes them. Once {@link #start} has been
+ * called, a background thread also sends the batches that have waited {@code maxBatchAge}, checking
+ * every {@code maxBatchAge}, so a row on a quiet instance waits at most about twice that long.
+ * {@link #stop} sends whatever is left in the buffer, and should be called when the instance shuts
+ * down. Rows that can't be sent then are dropped and counted.
+ */
+@Singleton
+public class BigQueryMetricsSender {
+
+  private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
+
+  private final BigQueryMetricsBuffer buffer;
+  private final ModulesService modulesService;
+  private final Duration flushInterval;
+
+  @GuardedBy("this")
+  @Nullable
+  private ScheduledExecutorService flushExecutor;
+
+  @Inject
+  BigQueryMetricsSender(
+      BigQueryMetricsBuffer buffer,
+      ModulesService modulesService,
+      @Config("bigQueryMetricsMaxBatchAge") Duration maxBatchAge) {
+    this.buffer = buffer;
+    this.modulesService = modulesService;
+    this.flushInterval = maxBatchAge;
+  }
+
+  /** Starts sending old batches on a timer, from a thread that must outlive the request. */
+  public synchronized void start(ThreadFactory threadFactory) {
+    checkState(flushExecutor == null, "BigQueryMetricsSender already started");
+    flushExecutor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+    flushExecutor.scheduleWithFixedDelay(
+        new Runnable() {
+          @Override
+          public void run() {
+            flushReadyBatches();
+          }},
+        flushInterval.getMillis(),
+        flushInterval.getMillis(),
+        MILLISECONDS);
+  }
+
+  /**
+   * Stops the timer, waiting up to {@code timeout} for a flush in progress to finish, and then
+   * sends every row still in the buffer. Rows that can't be enqueued are dropped, since there will
+   * be no later batch to send them with.
+   */
+  public synchronized void stop(Duration timeout) throws InterruptedException {
+    if (flushExecutor != null) {
+      flushExecutor.shutdown();
+      flushExecutor.awaitTermination(timeout.getMillis(), MILLISECONDS);
+      flushExecutor = null;
+    }
+    for (Entry<String, ImmutableList<Row>> batch : buffer.removeAllBatches().entrySet()) {
+      if (!enqueueBatch(batch.getKey(), batch.getValue())) {
+        recordDroppedRows(batch.getKey(), batch.getValue().size(), ENQUEUE_FAILED);
+      }
+    }
+  }
+
+  /** Adds a row to the buffer, and sends it along with any batches that are now ready. */
+  void send(String tableId, Row row) {
+    if (buffer.getBatchSize() == 1) {
+      enqueueRow(tableId, row);
+      return;
+    }
+    sendBatches(buffer.add(tableId, row));
+  }
+
+  /** Sends the batches that are full or have waited long enough. */
+  @VisibleForTesting
+  void flushReadyBatches() {
+    try {
+      sendBatches(buffer.removeReadyBatches());
+    } catch (RuntimeException e) {
+      // Don't let an unexpected failure cancel all future flushes.
+      logger.severe(e, "Failed to flush buffered BigQuery metric rows");
+    }
+  }
+
+  private void sendBatches(ImmutableMap<String, ImmutableList<Row>> batches) {
+    for (Entry<String, ImmutableList<Row>> batch : batches.entrySet()) {
+      if (!enqueueBatch(batch.getKey(), batch.getValue())) {
+        // Keep the rows for the next batch. Their insert IDs stay the same, so BigQuery will
+        // deduplicate them if the task was in fact added.
+        buffer.putBack(batch.getKey(), batch.getValue());
+      }
+    }
+  }
+
+  private void enqueueRow(String tableId, Row row) {
+    try {
+      TaskOptions opts = createTask(tableId).param("insertId", row.insertId());
+      for (Entry<String, String> entry : row.fields().entrySet()) {
+        opts.param(entry.getKey(), entry.getValue());
+      }
+      getQueue(BigQueryMetricsEnqueuer.QUEUE).add(opts);
+    } catch (TransientFailureException e) {
+      // Log, count and swallow. We may drop some metrics here but this should be rare.
+      logger.info(e, e.getMessage());
+      recordDroppedRows(tableId, 1, ENQUEUE_FAILED);
+    }
+  }
+
+  /** Enqueues a batch as a single task, returning false if the task queue failed transiently. */
+  private boolean enqueueBatch(String tableId, ImmutableList<Row> rows) {
+    List<Map<String, Object>> jsonRows = new ArrayList<>();
+    for (Row row : rows) {
+      jsonRows.add(
+          ImmutableMap.<String, Object>of("insertId", row.insertId(), "json", row.fields()));
+    }
+    try {
+      getQueue(BigQueryMetricsEnqueuer.QUEUE)
+          .add(createTask(tableId).param("rows", toJSONString(jsonRows)));
+      return true;
+    } catch (TransientFailureException e) {
+      logger.info(e, e.getMessage());
+      return false;
+    }
+  }
+
+  private TaskOptions createTask(String tableId) {
+    return withUrl(MetricsExportAction.PATH)
+        .header("Host", modulesService.getVersionHostname("backend", null))
+        .param("tableId", tableId);
+  }
+}
@@ -14,6 +14,7 @@
 
 package google.registry.monitoring.whitebox;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Predicates.in;
 import static com.google.common.base.Predicates.not;
 import static com.google.common.collect.Multimaps.filterKeys;
@@ -26,6 +27,7 @@ import com.google.api.services.bigquery.model.TableDataInsertAllResponse;
 import com.google.api.services.bigquery.model.TableDataInsertAllResponse.InsertErrors;
 import com.google.common.base.Function;
 import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
@@ -38,21 +40,31 @@ import google.registry.request.Parameter;
 import google.registry.request.ParameterMap;
 import google.registry.util.FormattingLogger;
 import java.io.IOException;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import javax.inject.Inject;
+import org.json.simple.JSONValue;
 
-/** Action for exporting metrics to BigQuery. */
+/**
+ * Action for exporting metrics to BigQuery.
+ *
+ * <p>A task either carries a single row, as one parameter per field plus an {@code insertId}, or
+ * a batch of rows from {@link BigQueryMetricsBuffer}, as a JSON list in the {@code rows}
+ * parameter. Either way the rows are written with a single insertAll call.
+ */
 @Action(path = MetricsExportAction.PATH, method = POST)
 public class MetricsExportAction implements Runnable {
 
   public static final String PATH = "/_dr/task/metrics";
   private static final FormattingLogger logger = getLoggerForCallerClass();
   private static final String DATASET_ID = "metrics";
-  private static final Set<String> SPECIAL_PARAMS = ImmutableSet.of("tableId", "insertId");
+  private static final Set<String> SPECIAL_PARAMS =
+      ImmutableSet.of("tableId", "insertId", "rows");
 
   @Inject @Parameter("tableId") String tableId;
-  @Inject @Parameter("insertId") String insertId;
+  @Inject @Parameter("insertId") Optional<String> insertId;
+  @Inject @Parameter("rows") Optional<String> rows;
   @Inject @Config("projectId") String projectId;
   @Inject BigqueryFactory bigqueryFactory;
   @Inject @ParameterMap ImmutableListMultimap<String, String> parameters;
@@ -63,21 +75,13 @@ public class MetricsExportAction implements Runnable {
   public void run() {
     try {
       Bigquery bigquery = bigqueryFactory.create(projectId, DATASET_ID, tableId);
-      // Filter out the special parameters that the Action is called with.  Everything that's left
-      // is returned in a Map that is suitable to pass to Bigquery as row data.
-      Map<String, Object> jsonRows =
-          ImmutableMap.<String, Object>copyOf(
-              filterKeys(parameters, not(in(SPECIAL_PARAMS))).entries());
       TableDataInsertAllResponse response = bigquery.tabledata()
           .insertAll(
               projectId,
               DATASET_ID,
               tableId,
               new TableDataInsertAllRequest()
-                  .setRows(
-                      ImmutableList.of(new TableDataInsertAllRequest.Rows()
-                          .setInsertId(insertId)
-                          .setJson(jsonRows))))
+                  .setRows(rows.isPresent() ? parseBatchedRows(rows.get()) : getSingleRow()))
           .execute();
 
       if (response.getInsertErrors() != null && !response.getInsertErrors().isEmpty()) {
@@ -98,4 +102,29 @@ public class MetricsExportAction implements Runnable {
       logger.warningfmt("Caught Unknown Exception: %s", e);
     }
   }
+
+  /**
+   * Returns the row encoded in the request parameters. Everything besides the special parameters
+   * that the Action is called with is row data.
+   */
+  private ImmutableList<TableDataInsertAllRequest.Rows> getSingleRow() {
+    checkArgument(insertId.isPresent(), "Missing insertId parameter");
+    Map<String, Object> jsonRow =
+        ImmutableMap.<String, Object>copyOf(
+            filterKeys(parameters, not(in(SPECIAL_PARAMS))).entries());
+    return ImmutableList.of(
+        new TableDataInsertAllRequest.Rows().setInsertId(insertId.get()).setJson(jsonRow));
+  }
+
+  /** Returns the rows of a batch written by {@link BigQueryMetricsEnqueuer}. */
+  @SuppressWarnings("unchecked")
+  private static ImmutableList<TableDataInsertAllRequest.Rows> parseBatchedRows(String rows) {
+    ImmutableList.Builder<TableDataInsertAllRequest.Rows> builder = new ImmutableList.Builder<>();
+    for (Map<String, Object> row : (List<Map<String, Object>>) JSONValue.parse(rows)) {
+      builder.add(new TableDataInsertAllRequest.Rows()
+          .setInsertId((String) row.get("insertId"))
+          .setJson((Map<String, Object>) row.get("json")));
+    }
+    return builder.build();
+  }
 }
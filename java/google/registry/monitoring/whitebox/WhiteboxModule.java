@@ -14,10 +14,12 @@
 
 package google.registry.monitoring.whitebox;
 
+import static google.registry.request.RequestParameters.extractOptionalParameter;
 import static google.registry.request.RequestParameters.extractRequiredParameter;
 
 import com.google.api.services.bigquery.model.TableFieldSchema;
 import com.google.apphosting.api.ApiProxy;
+import com.google.common.base.Optional;
 import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
 import dagger.Module;
@@ -60,8 +62,14 @@ public class WhiteboxModule {
 
   @Provides
   @Parameter("insertId")
-  static String provideInsertId(HttpServletRequest req) {
-    return extractRequiredParameter(req, "insertId");
+  static Optional<String> provideInsertId(HttpServletRequest req) {
+    return extractOptionalParameter(req, "insertId");
+  }
+
+  @Provides
+  @Parameter("rows")
+  static Optional<String> provideRows(HttpServletRequest req) {
+    return extractOptionalParameter(req, "rows");
   }
 
   @Provides
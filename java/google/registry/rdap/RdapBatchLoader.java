@@ -0,0 +1,188 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.rdap;
+
+import static google.registry.model.ofy.ObjectifyService.ofy;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.googlecode.objectify.Key;
+import google.registry.model.EppResource;
+import google.registry.model.contact.ContactResource;
+import google.registry.model.domain.DomainResource;
+import google.registry.model.host.HostResource;
+import google.registry.model.reporting.HistoryEntry;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The linked resources and history entries needed to render a page of RDAP results, loaded in bulk.
+ *
+ * <p>Rendering full data for a domain needs its nameservers and contacts, and the history entries
+ * of all of them. Loading those object by object costs several serial datastore round trips per
+ * nameserver and contact. This class instead fetches all of a page's nameservers and contacts with
+ * a single multi-get, and then runs the history entry queries a bounded number at a time, so that
+ * their fetches overlap without flooding the datastore.
+ *
+ * <p>Anything that wasn't loaded up front, for instance because the loader is {@link #empty}, is
+ * loaded on demand, so rendering works the same either way.
+ */
+final class RdapBatchLoader {
+
+  /** Maximum number of history entry queries that are in flight at the same time. */
+  @VisibleForTesting
+  static final int MAX_CONCURRENT_HISTORY_QUERIES = 10;
+
+  private static final RdapBatchLoader EMPTY = new RdapBatchLoader(
+      ImmutableMap.<Key<?>, Object>of(), ImmutableMap.<Key<?>, ImmutableList<HistoryEntry>>of());
+
+  private final ImmutableMap<Key<?>, Object> linkedResources;
+  private final ImmutableMap<Key<?>, ImmutableList<HistoryEntry>> histories;
+
+  private RdapBatchLoader(
+      ImmutableMap<Key<?>, Object> linkedResources,
+      ImmutableMap<Key<?>, ImmutableList<HistoryEntry>> histories) {
+    this.linkedResources = linkedResources;
+    this.histories = histories;
+  }
+
+  /** Returns a loader with nothing preloaded, which loads everything on demand. */
+  static RdapBatchLoader empty() {
+    return EMPTY;
+  }
+
+  /**
+   * Loads the nameservers and contacts of the given domains, and the history entries of the
+   * domains and all of those nameservers and contacts.
+   */
+  static RdapBatchLoader forDomains(Iterable<DomainResource> domains) {
+    Set<Key<?>> linkedKeys = new LinkedHashSet<>();
+    for (DomainResource domain : domains) {
+      linkedKeys.addAll(domain.getNameservers());
+      linkedKeys.addAll(domain.getReferencedContacts());
+    }
+    ImmutableMap<Key<?>, Object> linkedResources = loadLinkedResources(linkedKeys);
+    Set<EppResource> resourcesWithHistories = new LinkedHashSet<>();
+    for (DomainResource domain : domains) {
+      resourcesWithHistories.add(domain);
+    }
+    for (Object resource : linkedResources.values()) {
+      resourcesWithHistories.add((EppResource) resource);
+    }
+    return new RdapBatchLoader(linkedResources, loadHistories(resourcesWithHistories));
+  }
+
+  /** Loads the history entries of the given hosts or contacts. */
+  static RdapBatchLoader forResources(Iterable<? extends EppResource> resources) {
+    return new RdapBatchLoader(ImmutableMap.<Key<?>, Object>of(), loadHistories(resources));
+  }
+
+  /** Returns the hosts with the given keys, loading any that weren't preloaded. */
+  Map<Key<HostResource>, HostResource> getHosts(Iterable<Key<HostResource>> keys) {
+    return getLinkedResources(keys);
+  }
+
+  /** Returns the contacts with the given keys, loading any that weren't preloaded. */
+  Map<Key<ContactResource>, ContactResource> getContacts(Iterable<Key<ContactResource>> keys) {
+    return getLinkedResources(keys);
+  }
+
+  /** Returns the history entries of a resource in order of modification time. */
+  ImmutableList<HistoryEntry> getHistory(EppResource resource) {
+    Key<EppResource> key = Key.create(resource);
+    ImmutableList<HistoryEntry> history = histories.get(key);
+    return (history != null) ? history : ImmutableList.copyOf(startHistoryQuery(key));
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T> Map<Key<T>, T> getLinkedResources(Iterable<Key<T>> keys) {
+    Map<Key<T>, T> resources = new HashMap<>();
+    Set<Key<T>> missingKeys = new LinkedHashSet<>();
+    for (Key<T> key : keys) {
+      Object resource = linkedResources.get(key);
+      if (resource != null) {
+        resources.put(key, (T) resource);
+      } else {
+        missingKeys.add(key);
+      }
+    }
+    if (!missingKeys.isEmpty()) {
+      resources.putAll(ofy().load().keys(missingKeys));
+    }
+    return resources;
+  }
+
+  /** Loads resources of any type with a single datastore multi-get. */
+  @SuppressWarnings("unchecked")
+  private static ImmutableMap<Key<?>, Object> loadLinkedResources(Set<Key<?>> keys) {
+    if (keys.isEmpty()) {
+      return ImmutableMap.of();
+    }
+    Set<Key<Object>> objectKeys = new LinkedHashSet<>();
+    for (Key<?> key : keys) {
+      objectKeys.add((Key<Object>) key);
+    }
+    return ImmutableMap.<Key<?>, Object>copyOf(ofy().load().keys(objectKeys));
+  }
+
+  /**
+   * Loads the history entries of each resource, keeping up to {@link
+   * #MAX_CONCURRENT_HISTORY_QUERIES} ancestor queries in flight while reading their results.
+   */
+  private static ImmutableMap<Key<?>, ImmutableList<HistoryEntry>> loadHistories(
+      Iterable<? extends EppResource> resources) {
+    Set<Key<EppResource>> keys = new LinkedHashSet<>();
+    for (EppResource resource : resources) {
+      keys.add(Key.<EppResource>create(resource));
+    }
+    Iterator<Key<EppResource>> pendingKeys = keys.iterator();
+    Deque<Map.Entry<Key<EppResource>, Iterator<HistoryEntry>>> inFlight = new ArrayDeque<>();
+    ImmutableMap.Builder<Key<?>, ImmutableList<HistoryEntry>> histories =
+        new ImmutableMap.Builder<>();
+    while (inFlight.size() < MAX_CONCURRENT_HISTORY_QUERIES && pendingKeys.hasNext()) {
+      Key<EppResource> key = pendingKeys.next();
+      inFlight.addLast(Maps.immutableEntry(key, startHistoryQuery(key)));
+    }
+    while (!inFlight.isEmpty()) {
+      Map.Entry<Key<EppResource>, Iterator<HistoryEntry>> query = inFlight.removeFirst();
+      histories.put(query.getKey(), ImmutableList.copyOf(query.getValue()));
+      // Start the next query as soon as one finishes, to keep the same number in flight.
+      if (pendingKeys.hasNext()) {
+        Key<EppResource> key = pendingKeys.next();
+        inFlight.addLast(Maps.immutableEntry(key, startHistoryQuery(key)));
+      }
+    }
+    return histories.build();
+  }
+
+  /**
+   * Starts an ancestor query for a resource's history entries. The datastore begins fetching the
+   * first batch of results as soon as the iterator is created, before it is read.
+   */
+  private static Iterator<HistoryEntry> startHistoryQuery(Key<EppResource> key) {
+    return ofy().load()
+        .type(HistoryEntry.class)
+        .ancestor(key)
+        .order("modificationTime")
+        .iterator();
+  }
+}
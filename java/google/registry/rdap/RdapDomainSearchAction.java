@@ -27,6 +27,10 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Ordering;
+import com.google.common.net.InetAddresses;
+import com.google.common.net.UrlEscapers;
 import com.google.common.primitives.Booleans;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.cmd.Query;
@@ -34,6 +38,7 @@ import google.registry.config.ConfigModule.Config;
 import google.registry.model.EppResourceUtils;
 import google.registry.model.domain.DomainResource;
 import google.registry.model.host.HostResource;
+import google.registry.model.index.ForeignKeyIndex;
 import google.registry.rdap.RdapJsonFormatter.BoilerplateType;
 import google.registry.rdap.RdapJsonFormatter.OutputDataType;
 import google.registry.request.Action;
@@ -44,8 +49,10 @@ import google.registry.util.Clock;
 import google.registry.util.Idn;
 import java.net.InetAddress;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import javax.inject.Inject;
 import org.joda.time.DateTime;
 
@@ -54,10 +61,18 @@ import org.joda.time.DateTime;
  *
  * <p>All commands and responses conform to the RDAP spec as defined in RFCs 7480 through 7485.
  *
+ * <p>Results are returned in order of domain name. If there are more than fit in one response, the
+ * response includes paging metadata in the style of RFC 8977, with a link to the next page. That
+ * link carries an opaque cursor holding the last domain name returned, so that the next page picks
+ * up exactly where this one left off, even if domains are created or deleted in between.
+ *
  * @see <a href="http://tools.ietf.org/html/rfc7482">
  *        RFC 7482: Registration Data Access Protocol (RDAP) Query Format</a>
  * @see <a href="http://tools.ietf.org/html/rfc7483">
  *        RFC 7483: JSON Responses for the Registration Data Access Protocol (RDAP)</a>
+ * @see <a href="https://tools.ietf.org/html/rfc8977">
+ *        RFC 8977: Registration Data Access Protocol (RDAP) Query Parameters for Result Sorting
+ *        and Paging</a>
  */
 @Action(path = RdapDomainSearchAction.PATH, method = {GET, HEAD}, isPrefix = true)
 public class RdapDomainSearchAction extends RdapActionBase {
@@ -66,10 +81,22 @@ public class RdapDomainSearchAction extends RdapActionBase {
 
   public static final int RESULT_SET_SIZE_SCALING_FACTOR = 30;
 
+  /** Maximum number of values allowed in a datastore "in" filter. */
+  private static final int IN_FILTER_MAX_VALUES = 30;
+
+  private static final Ordering<DomainResource> DOMAIN_NAME_ORDERING =
+      new Ordering<DomainResource>() {
+        @Override
+        public int compare(DomainResource left, DomainResource right) {
+          return left.getFullyQualifiedDomainName()
+              .compareTo(right.getFullyQualifiedDomainName());
+        }};
+
   @Inject Clock clock;
   @Inject @Parameter("name") Optional<String> nameParam;
   @Inject @Parameter("nsLdhName") Optional<String> nsLdhNameParam;
   @Inject @Parameter("nsIp") Optional<InetAddress> nsIpParam;
+  @Inject @Parameter("cursor") Optional<String> cursorParam;
   @Inject @Config("rdapResultSetMaxSize") int rdapResultSetMaxSize;
   @Inject RdapDomainSearchAction() {}
 
@@ -98,7 +125,11 @@ public class RdapDomainSearchAction extends RdapActionBase {
       throw new BadRequestException(
           "You must specify either name=XXXX, nsLdhName=YYYY or nsIp=ZZZZ");
     }
+    Optional<String> cursorName = cursorParam.isPresent()
+        ? Optional.of(RdapSearchCursor.decode(cursorParam.get()))
+        : Optional.<String>absent();
     RdapSearchResults results;
+    String searchQuery;
     if (nameParam.isPresent()) {
       // syntax: /rdap/domains?name=exam*.com
       String asciiName;
@@ -107,7 +138,8 @@ public class RdapDomainSearchAction extends RdapActionBase {
       } catch (Exception e) {
         throw new BadRequestException("Invalid value of nsLdhName parameter");
       }
-      results = searchByDomainName(RdapSearchPattern.create(asciiName, true), now);
+      results = searchByDomainName(RdapSearchPattern.create(asciiName, true), cursorName, now);
+      searchQuery = "name=" + UrlEscapers.urlFormParameterEscaper().escape(nameParam.get());
     } else if (nsLdhNameParam.isPresent()) {
       // syntax: /rdap/domains?nsLdhName=ns1.exam*.com
       // RFC 7482 appears to say that Unicode domains must be specified using punycode when
@@ -116,12 +148,17 @@ public class RdapDomainSearchAction extends RdapActionBase {
         throw new BadRequestException("Invalid value of nsLdhName parameter");
       }
       results = searchByNameserverLdhName(
-          RdapSearchPattern.create(nsLdhNameParam.get(), true), now);
+          RdapSearchPattern.create(nsLdhNameParam.get(), true), cursorName, now);
+      searchQuery =
+          "nsLdhName=" + UrlEscapers.urlFormParameterEscaper().escape(nsLdhNameParam.get());
     } else {
       // syntax: /rdap/domains?nsIp=1.2.3.4
-      results = searchByNameserverIp(nsIpParam.get(), now);
+      results = searchByNameserverIp(nsIpParam.get(), cursorName, now);
+      searchQuery = "nsIp=" + InetAddresses.toAddrString(nsIpParam.get());
     }
-    if (results.jsonList().isEmpty()) {
+    // A page can be empty but still have a next page, if a search was truncated before it found
+    // any live domains.
+    if (results.jsonList().isEmpty() && !results.nextCursor().isPresent()) {
       throw new NotFoundException("No domains found");
     }
     ImmutableMap.Builder<String, Object> builder = new ImmutableMap.Builder<>();
@@ -133,12 +170,33 @@ public class RdapDomainSearchAction extends RdapActionBase {
             ? TRUNCATION_NOTICES : ImmutableList.<ImmutableMap<String, Object>>of(),
         ImmutableList.<ImmutableMap<String, Object>>of(),
         rdapLinkBase);
+    if (results.nextCursor().isPresent()) {
+      builder.put(
+          "paging_metadata",
+          RdapJsonFormatter.makePagingMetadata(
+              results.jsonList().size(),
+              makeSearchUrl(searchQuery, cursorParam),
+              makeSearchUrl(searchQuery, results.nextCursor())));
+    }
     return builder.build();
   }
 
-  /** Searches for domains by domain name, returning a JSON array of domain info maps. */
+  /** Returns the URL for a page of this search, starting after the given cursor if present. */
+  private String makeSearchUrl(String searchQuery, Optional<String> cursor) {
+    String url = (rdapLinkBase.endsWith("/") ? rdapLinkBase : rdapLinkBase + '/')
+        + PATH.substring("/rdap/".length()) + '?' + searchQuery;
+    return cursor.isPresent() ? url + "&cursor=" + cursor.get() : url;
+  }
+
+  /**
+   * Searches for domains by domain name, returning a JSON array of domain info maps.
+   *
+   * <p>For wildcard searches, only domains whose names sort after {@code cursorName} are returned.
+   */
   private RdapSearchResults searchByDomainName(
-      final RdapSearchPattern partialStringQuery, final DateTime now) {
+      final RdapSearchPattern partialStringQuery,
+      final Optional<String> cursorName,
+      final DateTime now) {
     // Handle queries without a wildcard -- just load by foreign key.
     if (!partialStringQuery.getHasWildcard()) {
       DomainResource domainResource =
@@ -153,39 +211,56 @@ public class RdapDomainSearchAction extends RdapActionBase {
       // inequality query on deletion time, and we are already using inequality queries on
       // fullyQualifiedDomainName. So we instead pick an arbitrary limit of
       // RESULT_SET_SIZE_SCALING_FACTOR times the result set size limit, fetch up to that many, and
-      // weed out all deleted domains. If there still isn't a full result set's worth of domains, we
-      // give up and return just the ones we found.
+      // weed out all deleted domains. If there still isn't a full result set's worth of domains but
+      // the limit was reached, we return the ones we found as a truncated page, whose next page
+      // starts after the last name we looked at.
       // TODO(b/31546493): Add metrics to figure out how well this.
       List<DomainResource> domainList = new ArrayList<>();
       Query<DomainResource> query = ofy().load()
           .type(DomainResource.class)
-          .filter("fullyQualifiedDomainName <", partialStringQuery.getNextInitialString())
-          .filter("fullyQualifiedDomainName >=", partialStringQuery.getInitialString());
+          .filter("fullyQualifiedDomainName <", partialStringQuery.getNextInitialString());
+      if (cursorName.isPresent()
+          && cursorName.get().compareTo(partialStringQuery.getInitialString()) >= 0) {
+        query = query.filter("fullyQualifiedDomainName >", cursorName.get());
+      } else {
+        query = query.filter("fullyQualifiedDomainName >=", partialStringQuery.getInitialString());
+      }
       if (partialStringQuery.getSuffix() != null) {
         query = query.filter("tld", partialStringQuery.getSuffix());
       }
       // TODO(mountford): Investigate fetching by foreign key instead of the domain itself.
-      for (DomainResource domain :
-          query.limit(RESULT_SET_SIZE_SCALING_FACTOR * rdapResultSetMaxSize)) {
+      int limit = RESULT_SET_SIZE_SCALING_FACTOR * rdapResultSetMaxSize;
+      int numScanned = 0;
+      String lastScannedName = null;
+      for (DomainResource domain : query.limit(limit)) {
         if (EppResourceUtils.isActive(domain, now)) {
           if (domainList.size() >= rdapResultSetMaxSize) {
             return makeSearchResults(ImmutableList.copyOf(domainList), true, now);
           }
           domainList.add(domain);
         }
+        numScanned++;
+        lastScannedName = domain.getFullyQualifiedDomainName();
       }
-      return makeSearchResults(ImmutableList.copyOf(domainList), false, now);
+      // If the query stopped at its limit, there may be more live domains after the last name it
+      // returned, even though they didn't fill a result set.
+      return makeSearchResults(
+          ImmutableList.copyOf(domainList),
+          (numScanned >= limit) ? Optional.of(lastScannedName) : Optional.<String>absent(),
+          now);
     }
   }
 
   /** Searches for domains by nameserver name, returning a JSON array of domain info maps. */
   private RdapSearchResults searchByNameserverLdhName(
-      final RdapSearchPattern partialStringQuery, final DateTime now) {
+      final RdapSearchPattern partialStringQuery,
+      final Optional<String> cursorName,
+      final DateTime now) {
     Iterable<Key<HostResource>> hostKeys = getNameserverRefsByLdhName(partialStringQuery, now);
     if (Iterables.isEmpty(hostKeys)) {
       throw new NotFoundException("No matching nameservers found");
     }
-    return searchByNameserverRefs(hostKeys, now);
+    return searchByNameserverRefs(hostKeys, cursorName, now);
   }
 
   /** Assembles a list of {@link HostResource} keys by name. */
@@ -218,15 +293,22 @@ public class RdapDomainSearchAction extends RdapActionBase {
       if (domainResource == null) {
         throw new NotFoundException("No domain found for specified nameserver suffix");
       }
-      ImmutableList.Builder<Key<HostResource>> builder = new ImmutableList.Builder<>();
+      List<String> matchingHostNames = new ArrayList<>();
       for (String fqhn : ImmutableSortedSet.copyOf(domainResource.getSubordinateHosts())) {
         // We can't just check that the host name starts with the initial query string, because then
         // the query ns.exam*.example.com would match against nameserver ns.example.com.
         if (partialStringQuery.matches(fqhn)) {
-          Key<HostResource> hostKey = loadAndGetKey(HostResource.class, fqhn, now);
-          if (hostKey != null) {
-            builder.add(hostKey);
-          }
+          matchingHostNames.add(fqhn);
+        }
+      }
+      // Load the foreign key indexes of all the matching hosts in one batch.
+      Map<String, ForeignKeyIndex<HostResource>> indexes =
+          ForeignKeyIndex.load(HostResource.class, matchingHostNames, now);
+      ImmutableList.Builder<Key<HostResource>> builder = new ImmutableList.Builder<>();
+      for (String fqhn : matchingHostNames) {
+        ForeignKeyIndex<HostResource> index = indexes.get(fqhn);
+        if (index != null) {
+          builder.add(index.getResourceKey());
         }
       }
       return builder.build();
@@ -235,7 +317,7 @@ public class RdapDomainSearchAction extends RdapActionBase {
 
   /** Searches for domains by nameserver address, returning a JSON array of domain info maps. */
   private RdapSearchResults searchByNameserverIp(
-      final InetAddress inetAddress, final DateTime now) {
+      final InetAddress inetAddress, final Optional<String> cursorName, final DateTime now) {
     // In theory, we could filter on the deletion time being in the future. But we can't do that in
     // the query on nameserver name (because we're already using an inequality query), and it seems
     // dangerous and confusing to filter on deletion time differently between the two queries.
@@ -249,6 +331,7 @@ public class RdapDomainSearchAction extends RdapActionBase {
             .filter("deletionTime", END_OF_TIME)
             .limit(1000)
             .keys(),
+        cursorName,
         now);
   }
 
@@ -256,49 +339,147 @@ public class RdapDomainSearchAction extends RdapActionBase {
    * Locates all domains which are linked to a set of host keys.
    *
    * <p>This method is called by {@link #searchByNameserverLdhName} and
-   * {@link #searchByNameserverIp} after they assemble the relevant host keys.
+   * {@link #searchByNameserverIp} after they assemble the relevant host keys. Only domains whose
+   * names sort after {@code cursorName} are returned.
    */
   private RdapSearchResults searchByNameserverRefs(
-      final Iterable<Key<HostResource>> hostKeys, final DateTime now) {
+      final Iterable<Key<HostResource>> hostKeys,
+      final Optional<String> cursorName,
+      final DateTime now) {
     // We must break the query up into chunks, because the in operator is limited to 30 subqueries.
-    // Since it is possible for the same domain to show up more than once in our result list (if
-    // we do a wildcard nameserver search that returns multiple nameservers used by the same
-    // domain), we must create a set of resulting {@link DomainResource} objects. But we use a
-    // LinkedHashSet to preserve the order in which we found the domains.
-    LinkedHashSet<DomainResource> domains = new LinkedHashSet<>();
-    for (List<Key<HostResource>> chunk : Iterables.partition(hostKeys, 30)) {
-      for (DomainResource domain : ofy().load()
+    // Each chunk's query is ordered by domain name, and they are all started before any of them is
+    // read, so that their datastore fetches run concurrently. Merging the ordered chunks then gives
+    // us the matching domains in name order, which keeps pages stable across requests. We can't
+    // also filter on deletion time in the queries, since that would be a second inequality, so as
+    // with searches by domain name, we fetch up to RESULT_SET_SIZE_SCALING_FACTOR times the result
+    // set size limit per chunk and weed out deleted domains as we go.
+    //
+    // A chunk that hits that limit may have more matching domains after the last one it returned,
+    // so no domain sorting after that name can be returned until the next page, or else live
+    // domains beyond the limit would be skipped over by the cursor. In that case we stop merging
+    // at the chunk's last name, and make that the cursor, even if it means returning a short page.
+    int chunkLimit = RESULT_SET_SIZE_SCALING_FACTOR * rdapResultSetMaxSize;
+    List<ChunkIterator> chunkIterators = new ArrayList<>();
+    for (List<Key<HostResource>> chunk : Iterables.partition(hostKeys, IN_FILTER_MAX_VALUES)) {
+      Query<DomainResource> query = ofy().load()
           .type(DomainResource.class)
-          .filter("nsHosts in", chunk)
-          .filter("deletionTime >", now)
-          .limit(rdapResultSetMaxSize + 1)) {
-        if (!domains.contains(domain)) {
-          if (domains.size() >= rdapResultSetMaxSize) {
-            return makeSearchResults(ImmutableList.copyOf(domains), true, now);
-          }
-          domains.add(domain);
+          .filter("nsHosts in", chunk);
+      if (cursorName.isPresent()) {
+        query = query.filter("fullyQualifiedDomainName >", cursorName.get());
+      }
+      chunkIterators.add(new ChunkIterator(
+          query.order("fullyQualifiedDomainName").limit(chunkLimit).iterator(), chunkLimit));
+    }
+    // Since it is possible for the same domain to show up in more than one chunk (if we do a
+    // wildcard nameserver search that returns multiple nameservers used by the same domain), we
+    // must create a set of resulting {@link DomainResource} objects. But we use a LinkedHashSet to
+    // preserve the order in which we found the domains.
+    LinkedHashSet<DomainResource> domains = new LinkedHashSet<>();
+    Iterator<DomainResource> mergedDomains =
+        Iterators.mergeSorted(chunkIterators, DOMAIN_NAME_ORDERING);
+    while (mergedDomains.hasNext()) {
+      DomainResource domain = mergedDomains.next();
+      Optional<String> horizon = getTruncationHorizon(chunkIterators);
+      if (horizon.isPresent()
+          && horizon.get().compareTo(domain.getFullyQualifiedDomainName()) < 0) {
+        return makeSearchResults(ImmutableList.copyOf(domains), horizon, now);
+      }
+      if (now.isBefore(domain.getDeletionTime()) && !domains.contains(domain)) {
+        if (domains.size() >= rdapResultSetMaxSize) {
+          return makeSearchResults(ImmutableList.copyOf(domains), true, now);
         }
+        domains.add(domain);
+      }
+    }
+    return makeSearchResults(
+        ImmutableList.copyOf(domains), getTruncationHorizon(chunkIterators), now);
+  }
+
+  /**
+   * Returns the lowest last domain name of the chunks that have hit their limit, or absent if none
+   * have. Only domains up to that name are known to have been read from every chunk.
+   */
+  private static Optional<String> getTruncationHorizon(Iterable<ChunkIterator> chunkIterators) {
+    Optional<String> horizon = Optional.absent();
+    for (ChunkIterator chunkIterator : chunkIterators) {
+      if (chunkIterator.isAtLimit()
+          && (!horizon.isPresent() || chunkIterator.lastName.compareTo(horizon.get()) < 0)) {
+        horizon = Optional.of(chunkIterator.lastName);
       }
     }
-    return makeSearchResults(ImmutableList.copyOf(domains), false, now);
+    return horizon;
+  }
+
+  /** Iterator over a chunk's query results that tracks whether the query's limit was reached. */
+  private static class ChunkIterator implements Iterator<DomainResource> {
+
+    private final Iterator<DomainResource> delegate;
+    private final int limit;
+    private int count;
+    private String lastName;
+
+    ChunkIterator(Iterator<DomainResource> delegate, int limit) {
+      this.delegate = delegate;
+      this.limit = limit;
+    }
+
+    /** Returns whether the chunk returned as many domains as its query was limited to. */
+    boolean isAtLimit() {
+      return count >= limit;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return delegate.hasNext();
+    }
+
+    @Override
+    public DomainResource next() {
+      DomainResource domain = delegate.next();
+      count++;
+      lastName = domain.getFullyQualifiedDomainName();
+      return domain;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
   }
 
   /**
    * Output JSON for a list of domains.
    *
    * <p>The isTruncated parameter should be true if the search found more results than are in the
-   * list, meaning that the truncation notice should be added.
+   * list, meaning that the truncation notice should be added, along with a cursor pointing just
+   * past the last domain in the list. The list must therefore be in order of domain name.
    */
   private RdapSearchResults makeSearchResults(
       ImmutableList<DomainResource> domains, boolean isTruncated, DateTime now) {
+    return makeSearchResults(
+        domains,
+        isTruncated
+            ? Optional.of(Iterables.getLast(domains).getFullyQualifiedDomainName())
+            : Optional.<String>absent(),
+        now);
+  }
+
+  /**
+   * Output JSON for a list of domains, truncated at the given domain name if present.
+   *
+   * <p>The next page starts just past that name, which must not sort before any domain in the
+   * list. The list may be empty if the search was truncated before it found any live domains.
+   */
+  private RdapSearchResults makeSearchResults(
+      ImmutableList<DomainResource> domains, Optional<String> nextCursorName, DateTime now) {
     OutputDataType outputDataType =
         (domains.size() > 1) ? OutputDataType.SUMMARY : OutputDataType.FULL;
-    ImmutableList.Builder<ImmutableMap<String, Object>> jsonBuilder = new ImmutableList.Builder<>();
-    for (DomainResource domain : domains) {
-      jsonBuilder.add(
-          RdapJsonFormatter.makeRdapJsonForDomain(
-              domain, false, rdapLinkBase, rdapWhoisServer, now, outputDataType));
-    }
-    return RdapSearchResults.create(jsonBuilder.build(), isTruncated);
+    return RdapSearchResults.create(
+        RdapJsonFormatter.makeRdapJsonForDomains(
+            domains, rdapLinkBase, rdapWhoisServer, now, outputDataType),
+        nextCursorName.isPresent(),
+        nextCursorName.isPresent()
+            ? Optional.of(RdapSearchCursor.encode(nextCursorName.get()))
+            : Optional.<String>absent());
   }
 }
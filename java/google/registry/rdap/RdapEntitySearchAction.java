@@ -27,7 +27,6 @@ import com.google.common.primitives.Booleans;
 import com.googlecode.objectify.Key;
 import google.registry.config.ConfigModule.Config;
 import google.registry.model.contact.ContactResource;
-import google.registry.model.domain.DesignatedContact;
 import google.registry.model.registrar.Registrar;
 import google.registry.rdap.RdapJsonFormatter.BoilerplateType;
 import google.registry.rdap.RdapJsonFormatter.OutputDataType;
@@ -236,21 +235,17 @@ public class RdapEntitySearchAction extends RdapActionBase {
     // There can be more results than our max size, partially because we have two pools to draw from
     // (contacts and registrars), and partially because we try to fetch one more than the max size,
     // so we can tell whether to display the truncation notification.
-    List<ImmutableMap<String, Object>> jsonOutputList = new ArrayList<>();
-    for (ContactResource contact : contacts) {
-      if (jsonOutputList.size() >= rdapResultSetMaxSize) {
-        return RdapSearchResults.create(ImmutableList.copyOf(jsonOutputList), true);
-      }
-      // As per Andy Newton on the regext mailing list, contacts by themselves have no role, since
-      // they are global, and might have different roles for different domains.
-      jsonOutputList.add(RdapJsonFormatter.makeRdapJsonForContact(
-          contact,
-          false,
-          Optional.<DesignatedContact.Type>absent(),
-          rdapLinkBase,
-          rdapWhoisServer,
-          now,
-          outputDataType));
+    // As per Andy Newton on the regext mailing list, contacts by themselves have no role, since
+    // they are global, and might have different roles for different domains.
+    List<ImmutableMap<String, Object>> jsonOutputList = new ArrayList<>(
+        RdapJsonFormatter.makeRdapJsonForContacts(
+            contacts.subList(0, Math.min(contacts.size(), rdapResultSetMaxSize)),
+            rdapLinkBase,
+            rdapWhoisServer,
+            now,
+            outputDataType));
+    if (contacts.size() > rdapResultSetMaxSize) {
+      return RdapSearchResults.create(ImmutableList.copyOf(jsonOutputList), true);
     }
     for (Registrar registrar : registrars) {
       if (registrar.isActiveAndPubliclyVisible()) {
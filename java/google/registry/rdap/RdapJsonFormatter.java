@@ -15,7 +15,6 @@
 package google.registry.rdap;
 
 import static com.google.common.base.Strings.nullToEmpty;
-import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.util.DomainNameUtils.ACE_PREFIX;
 
 import com.google.auto.value.AutoValue;
@@ -442,6 +441,57 @@ public class RdapJsonFormatter {
       @Nullable String whoisServer,
       DateTime now,
       OutputDataType outputDataType) {
+    return makeRdapJsonForDomain(
+        domainResource,
+        isTopLevel,
+        linkBase,
+        whoisServer,
+        now,
+        outputDataType,
+        (outputDataType == OutputDataType.FULL)
+            ? RdapBatchLoader.forDomains(ImmutableList.of(domainResource))
+            : RdapBatchLoader.empty());
+  }
+
+  /**
+   * Creates JSON objects for a page of {@link DomainResource} search results.
+   *
+   * <p>When generating full data, the nameservers, contacts and history entries of all the domains
+   * are loaded in bulk up front, rather than domain by domain.
+   *
+   * @param domainResources the domain resource objects from which the JSON objects should be
+   *        created
+   * @param linkBase the URL base to be used when creating links
+   * @param whoisServer the fully-qualified domain name of the WHOIS server to be listed in the
+   *        port43 field; if null, port43 is not added to the objects
+   * @param now the as-date
+   * @param outputDataType whether to generate full or summary data
+   */
+  static ImmutableList<ImmutableMap<String, Object>> makeRdapJsonForDomains(
+      List<DomainResource> domainResources,
+      @Nullable String linkBase,
+      @Nullable String whoisServer,
+      DateTime now,
+      OutputDataType outputDataType) {
+    RdapBatchLoader loader = (outputDataType == OutputDataType.FULL)
+        ? RdapBatchLoader.forDomains(domainResources)
+        : RdapBatchLoader.empty();
+    ImmutableList.Builder<ImmutableMap<String, Object>> jsonBuilder = new ImmutableList.Builder<>();
+    for (DomainResource domainResource : domainResources) {
+      jsonBuilder.add(makeRdapJsonForDomain(
+          domainResource, false, linkBase, whoisServer, now, outputDataType, loader));
+    }
+    return jsonBuilder.build();
+  }
+
+  private static ImmutableMap<String, Object> makeRdapJsonForDomain(
+      DomainResource domainResource,
+      boolean isTopLevel,
+      @Nullable String linkBase,
+      @Nullable String whoisServer,
+      DateTime now,
+      OutputDataType outputDataType,
+      RdapBatchLoader loader) {
     // Start with the domain-level information.
     ImmutableMap.Builder<String, Object> jsonBuilder = new ImmutableMap.Builder<>();
     jsonBuilder.put("objectClassName", "domain");
@@ -462,22 +512,22 @@ public class RdapJsonFormatter {
       remarks = ImmutableList.of(RdapIcannStandardInformation.SUMMARY_DATA_REMARK);
     } else {
       remarks = ImmutableList.of();
-      ImmutableList<Object> events = makeEvents(domainResource, now);
+      ImmutableList<Object> events = makeEvents(domainResource, now, loader);
       if (!events.isEmpty()) {
         jsonBuilder.put("events", events);
       }
-      // Kick off the database loads of the nameservers that we will need.
+      // Get the nameservers that we will need, which the loader has usually fetched already.
       Map<Key<HostResource>, HostResource> loadedHosts =
-          ofy().load().keys(domainResource.getNameservers());
+          loader.getHosts(domainResource.getNameservers());
       // And the registrant and other contacts.
       Map<Key<ContactResource>, ContactResource> loadedContacts =
-          ofy().load().keys(domainResource.getReferencedContacts());
+          loader.getContacts(domainResource.getReferencedContacts());
       // Nameservers
       ImmutableList.Builder<Object> nsBuilder = new ImmutableList.Builder<>();
       for (HostResource hostResource
           : HOST_RESOURCE_ORDERING.immutableSortedCopy(loadedHosts.values())) {
         nsBuilder.add(makeRdapJsonForHost(
-            hostResource, false, linkBase, null, now, outputDataType));
+            hostResource, false, linkBase, null, now, outputDataType, loader));
       }
       ImmutableList<Object> ns = nsBuilder.build();
       if (!ns.isEmpty()) {
@@ -496,7 +546,8 @@ public class RdapJsonFormatter {
             linkBase,
             null,
             now,
-            outputDataType));
+            outputDataType,
+            loader));
       }
       ImmutableList<Object> entities = entitiesBuilder.build();
       if (!entities.isEmpty()) {
@@ -536,6 +587,54 @@ public class RdapJsonFormatter {
       @Nullable String whoisServer,
       DateTime now,
       OutputDataType outputDataType) {
+    return makeRdapJsonForHost(
+        hostResource,
+        isTopLevel,
+        linkBase,
+        whoisServer,
+        now,
+        outputDataType,
+        RdapBatchLoader.empty());
+  }
+
+  /**
+   * Creates JSON objects for a page of {@link HostResource} search results.
+   *
+   * <p>When generating full data, the history entries of all the hosts are loaded in bulk up front,
+   * rather than host by host.
+   *
+   * @param hostResources the host resource objects from which the JSON objects should be created
+   * @param linkBase the URL base to be used when creating links
+   * @param whoisServer the fully-qualified domain name of the WHOIS server to be listed in the
+   *        port43 field; if null, port43 is not added to the objects
+   * @param now the as-date
+   * @param outputDataType whether to generate full or summary data
+   */
+  static ImmutableList<ImmutableMap<String, Object>> makeRdapJsonForHosts(
+      List<HostResource> hostResources,
+      @Nullable String linkBase,
+      @Nullable String whoisServer,
+      DateTime now,
+      OutputDataType outputDataType) {
+    RdapBatchLoader loader = (outputDataType == OutputDataType.FULL)
+        ? RdapBatchLoader.forResources(hostResources)
+        : RdapBatchLoader.empty();
+    ImmutableList.Builder<ImmutableMap<String, Object>> jsonBuilder = new ImmutableList.Builder<>();
+    for (HostResource hostResource : hostResources) {
+      jsonBuilder.add(makeRdapJsonForHost(
+          hostResource, false, linkBase, whoisServer, now, outputDataType, loader));
+    }
+    return jsonBuilder.build();
+  }
+
+  private static ImmutableMap<String, Object> makeRdapJsonForHost(
+      HostResource hostResource,
+      boolean isTopLevel,
+      @Nullable String linkBase,
+      @Nullable String whoisServer,
+      DateTime now,
+      OutputDataType outputDataType,
+      RdapBatchLoader loader) {
     ImmutableMap.Builder<String, Object> jsonBuilder = new ImmutableMap.Builder<>();
     jsonBuilder.put("objectClassName", "nameserver");
     jsonBuilder.put("handle", hostResource.getRepoId());
@@ -554,7 +653,7 @@ public class RdapJsonFormatter {
       remarks = ImmutableList.of(RdapIcannStandardInformation.SUMMARY_DATA_REMARK);
     } else {
       remarks = ImmutableList.of();
-      ImmutableList<Object> events = makeEvents(hostResource, now);
+      ImmutableList<Object> events = makeEvents(hostResource, now, loader);
       if (!events.isEmpty()) {
         jsonBuilder.put("events", events);
       }
@@ -620,6 +719,64 @@ public class RdapJsonFormatter {
       @Nullable String whoisServer,
       DateTime now,
       OutputDataType outputDataType) {
+    return makeRdapJsonForContact(
+        contactResource,
+        isTopLevel,
+        contactType,
+        linkBase,
+        whoisServer,
+        now,
+        outputDataType,
+        RdapBatchLoader.empty());
+  }
+
+  /**
+   * Creates JSON objects for a page of {@link ContactResource} search results, with no roles.
+   *
+   * <p>When generating full data, the history entries of all the contacts are loaded in bulk up
+   * front, rather than contact by contact.
+   *
+   * @param contactResources the contact resource objects from which the JSON objects should be
+   *        created
+   * @param linkBase the URL base to be used when creating links
+   * @param whoisServer the fully-qualified domain name of the WHOIS server to be listed in the
+   *        port43 field; if null, port43 is not added to the objects
+   * @param now the as-date
+   * @param outputDataType whether to generate full or summary data
+   */
+  static ImmutableList<ImmutableMap<String, Object>> makeRdapJsonForContacts(
+      List<ContactResource> contactResources,
+      @Nullable String linkBase,
+      @Nullable String whoisServer,
+      DateTime now,
+      OutputDataType outputDataType) {
+    RdapBatchLoader loader = (outputDataType == OutputDataType.FULL)
+        ? RdapBatchLoader.forResources(contactResources)
+        : RdapBatchLoader.empty();
+    ImmutableList.Builder<ImmutableMap<String, Object>> jsonBuilder = new ImmutableList.Builder<>();
+    for (ContactResource contactResource : contactResources) {
+      jsonBuilder.add(makeRdapJsonForContact(
+          contactResource,
+          false,
+          Optional.<DesignatedContact.Type>absent(),
+          linkBase,
+          whoisServer,
+          now,
+          outputDataType,
+          loader));
+    }
+    return jsonBuilder.build();
+  }
+
+  private static ImmutableMap<String, Object> makeRdapJsonForContact(
+      ContactResource contactResource,
+      boolean isTopLevel,
+      Optional<DesignatedContact.Type> contactType,
+      @Nullable String linkBase,
+      @Nullable String whoisServer,
+      DateTime now,
+      OutputDataType outputDataType,
+      RdapBatchLoader loader) {
     ImmutableMap.Builder<String, Object> jsonBuilder = new ImmutableMap.Builder<>();
     jsonBuilder.put("objectClassName", "entity");
     jsonBuilder.put("handle", contactResource.getRepoId());
@@ -669,7 +826,7 @@ public class RdapJsonFormatter {
       remarks = ImmutableList.of(RdapIcannStandardInformation.SUMMARY_DATA_REMARK);
     } else {
       remarks = ImmutableList.of();
-      ImmutableList<Object> events = makeEvents(contactResource, now);
+      ImmutableList<Object> events = makeEvents(contactResource, now, loader);
       if (!events.isEmpty()) {
         jsonBuilder.put("events", events);
       }
@@ -872,12 +1029,10 @@ public class RdapJsonFormatter {
   /**
    * Creates an event list for a domain, host or contact resource.
    */
-  private static ImmutableList<Object> makeEvents(EppResource resource, DateTime now) {
+  private static ImmutableList<Object> makeEvents(
+      EppResource resource, DateTime now, RdapBatchLoader loader) {
     ImmutableList.Builder<Object> eventsBuilder = new ImmutableList.Builder<>();
-    for (HistoryEntry historyEntry : ofy().load()
-        .type(HistoryEntry.class)
-        .ancestor(resource)
-        .order("modificationTime")) {
+    for (HistoryEntry historyEntry : loader.getHistory(resource)) {
       // Only create an event if this is a type we care about.
       if (!historyEntryTypeToRdapEventActionMap.containsKey(historyEntry.getType())) {
         continue;
@@ -1038,6 +1193,27 @@ public class RdapJsonFormatter {
         "type", "application/rdap+json");
   }
 
+  /**
+   * Creates the paging metadata for a truncated search result set, linking to the next page.
+   *
+   * @param pageSize the number of results returned on this page
+   * @param currentUrl the URL of this page
+   * @param nextUrl the URL of the page after this one
+   * @see <a href="https://tools.ietf.org/html/rfc8977">
+   *        RFC 8977: Registration Data Access Protocol (RDAP) Query Parameters for Result Sorting
+   *        and Paging</a>
+   */
+  static ImmutableMap<String, Object> makePagingMetadata(
+      int pageSize, String currentUrl, String nextUrl) {
+    return ImmutableMap.<String, Object>of(
+        "pageSize", (long) pageSize,
+        "links", ImmutableList.of(ImmutableMap.of(
+            "value", currentUrl,
+            "rel", "next",
+            "href", nextUrl,
+            "type", "application/rdap+json")));
+  }
+
   /**
    * Creates a JSON error indication.
    *
@@ -61,4 +61,10 @@ public final class RdapModule {
   static Optional<String> provideHandle(HttpServletRequest req) {
     return RequestParameters.extractOptionalParameter(req, "handle");
   }
+
+  @Provides
+  @Parameter("cursor")
+  static Optional<String> provideCursor(HttpServletRequest req) {
+    return RequestParameters.extractOptionalParameter(req, "cursor");
+  }
 }
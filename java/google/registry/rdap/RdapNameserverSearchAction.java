@@ -182,14 +182,13 @@ public class RdapNameserverSearchAction extends RdapActionBase {
   private RdapSearchResults makeSearchResults(List<HostResource> hosts, DateTime now) {
     OutputDataType outputDataType =
         (hosts.size() > 1) ? OutputDataType.SUMMARY : OutputDataType.FULL;
-    ImmutableList.Builder<ImmutableMap<String, Object>> jsonListBuilder =
-        new ImmutableList.Builder<>();
-    for (HostResource host : Iterables.limit(hosts, rdapResultSetMaxSize)) {
-      jsonListBuilder.add(
-          RdapJsonFormatter.makeRdapJsonForHost(
-              host, false, rdapLinkBase, rdapWhoisServer, now, outputDataType));
-    }
-    ImmutableList<ImmutableMap<String, Object>> jsonList = jsonListBuilder.build();
+    ImmutableList<ImmutableMap<String, Object>> jsonList =
+        RdapJsonFormatter.makeRdapJsonForHosts(
+            ImmutableList.copyOf(Iterables.limit(hosts, rdapResultSetMaxSize)),
+            rdapLinkBase,
+            rdapWhoisServer,
+            now,
+            outputDataType);
     return RdapSearchResults.create(jsonList, jsonList.size() < hosts.size());
   }
 }
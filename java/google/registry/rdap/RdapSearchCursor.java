@@ -0,0 +1,60 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.rdap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.io.BaseEncoding;
+import google.registry.request.HttpException.BadRequestException;
+
+/**
+ * Opaque paging cursor for RDAP search results.
+ *
+ * <p>Search results are returned in order of name, so the position of a page within the result
+ * set is fully described by the last name returned on the previous page. The cursor wraps that
+ * name in a versioned, URL-safe encoding, so that clients treat it as opaque and we can change
+ * what it holds later without breaking the links we have already handed out.
+ *
+ * @see <a href="https://tools.ietf.org/html/rfc8977">
+ *        RFC 8977: Registration Data Access Protocol (RDAP) Query Parameters for Result Sorting
+ *        and Paging</a>
+ */
+final class RdapSearchCursor {
+
+  private static final String VERSION_PREFIX = "1:";
+
+  private static final BaseEncoding ENCODING = BaseEncoding.base64Url().omitPadding();
+
+  /** Returns a cursor pointing just past the given name. */
+  static String encode(String lastName) {
+    return ENCODING.encode((VERSION_PREFIX + lastName).getBytes(UTF_8));
+  }
+
+  /** Returns the name encoded in a cursor, or throws if the cursor wasn't created by us. */
+  static String decode(String cursor) {
+    String decoded;
+    try {
+      decoded = new String(ENCODING.decode(cursor), UTF_8);
+    } catch (IllegalArgumentException e) {
+      throw new BadRequestException("Invalid value of cursor parameter");
+    }
+    if (!decoded.startsWith(VERSION_PREFIX) || decoded.length() == VERSION_PREFIX.length()) {
+      throw new BadRequestException("Invalid value of cursor parameter");
+    }
+    return decoded.substring(VERSION_PREFIX.length());
+  }
+
+  private RdapSearchCursor() {}
+}
@@ -15,30 +15,42 @@
 package google.registry.rdap;
 
 import com.google.auto.value.AutoValue;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 
 /**
  * Holds domain, nameserver and entity search results.
- * 
+ *
  * <p>We need to know not only the list of things we found, but also whether the result set was
- * truncated to the limit. If it is, we must add the ICANN-mandated notice to that effect.
+ * truncated to the limit. If it is, we must add the ICANN-mandated notice to that effect, and if
+ * the search supports paging, a link to the next page.
  */
 @AutoValue
 abstract class RdapSearchResults {
-  
+
   static RdapSearchResults create(ImmutableList<ImmutableMap<String, Object>> jsonList) {
     return create(jsonList, false);
   }
-  
+
   static RdapSearchResults create(
       ImmutableList<ImmutableMap<String, Object>> jsonList, boolean isTruncated) {
-    return new AutoValue_RdapSearchResults(jsonList, isTruncated);
+    return create(jsonList, isTruncated, Optional.<String>absent());
+  }
+
+  static RdapSearchResults create(
+      ImmutableList<ImmutableMap<String, Object>> jsonList,
+      boolean isTruncated,
+      Optional<String> nextCursor) {
+    return new AutoValue_RdapSearchResults(jsonList, isTruncated, nextCursor);
   }
 
   /** List of JSON result object representations. */
   abstract ImmutableList<ImmutableMap<String, Object>> jsonList();
-  
+
   /** True if the result set was truncated to the maximum size limit. */
   abstract boolean isTruncated();
+
+  /** Cursor for fetching the page after this one, if the results were truncated. */
+  abstract Optional<String> nextCursor();
 }
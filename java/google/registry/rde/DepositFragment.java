@@ -27,8 +27,16 @@ public abstract class DepositFragment implements Serializable {
   public abstract String xml();
   public abstract String error();
 
+  /** Returns true if this fragment belongs in the deletes section of an incremental deposit. */
+  public abstract boolean isDelete();
+
   public static DepositFragment create(RdeResourceType type, String xml, String error) {
-    return new AutoValue_DepositFragment(type, xml, error);
+    return new AutoValue_DepositFragment(type, xml, error, false);
+  }
+
+  /** Creates a fragment saying that an object was deleted since the previous deposit. */
+  public static DepositFragment createDelete(RdeResourceType type, String xml) {
+    return new AutoValue_DepositFragment(type, xml, "", true);
   }
 
   DepositFragment() {}
@@ -151,6 +151,7 @@ final class DomainResourceToXjcConverter {
 
     switch (mode) {
       case FULL:
+      case INCR:
         // o  Zero or more OPTIONAL <rgpStatus> element to represent
         //    "pendingDelete" sub-statuses, including "redemptionPeriod",
         //    "pendingRestore", and "pendingDelete", that a domain name can be
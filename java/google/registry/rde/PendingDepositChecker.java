@@ -24,6 +24,7 @@ import google.registry.config.ConfigModule.Config;
 import google.registry.model.common.Cursor;
 import google.registry.model.common.Cursor.CursorType;
 import google.registry.model.rde.RdeMode;
+import google.registry.model.rde.RdeRevision;
 import google.registry.model.registry.Registries;
 import google.registry.model.registry.Registry;
 import google.registry.model.registry.Registry.TldType;
@@ -49,6 +50,11 @@ import org.joda.time.Duration;
  * <p>If no deposits have been made so far, then {@code startingPoint} is used as the watermark
  * of the next deposit. If that's a day in the future, then escrow won't start until that date.
  * This first deposit time will be set to datastore in a transaction.
+ *
+ * <p>If incremental deposits are enabled, an RDE deposit is only {@link RdeMode#FULL full} on
+ * {@code rdeFullDepositDayOfWeek}, and {@link RdeMode#INCR incremental} on the other days. A
+ * deposit is also full if the deposit for the previous interval was never staged, since there is
+ * then nothing for an incremental deposit to build on.
  */
 public final class PendingDepositChecker {
 
@@ -56,6 +62,8 @@ public final class PendingDepositChecker {
   @Inject @Config("brdaDayOfWeek") int brdaDayOfWeek;
   @Inject @Config("brdaInterval") Duration brdaInterval;
   @Inject @Config("rdeInterval") Duration rdeInterval;
+  @Inject @Config("rdeIncrementalDeposits") boolean incrementalDeposits;
+  @Inject @Config("rdeFullDepositDayOfWeek") int fullDepositDayOfWeek;
   @Inject PendingDepositChecker() {}
 
   /** Returns multimap of TLDs to all RDE and BRDA deposits that need to happen. */
@@ -96,13 +104,27 @@ public final class PendingDepositChecker {
             ? cursor.getCursorTime()
             : transactionallyInitializeCursor(registry, cursorType, startingPoint));
         if (isBeforeOrAt(watermark, now)) {
-          builder.put(tld, PendingDeposit.create(tld, watermark, mode, cursorType, interval));
+          RdeMode depositMode = (mode == RdeMode.FULL && isIncremental(tld, watermark, interval))
+              ? RdeMode.INCR
+              : mode;
+          builder.put(
+              tld, PendingDeposit.create(tld, watermark, depositMode, cursorType, interval));
         }
       }
     }
     return builder.build();
   }
 
+  /** Returns true if the RDE deposit at {@code watermark} should be incremental. */
+  private boolean isIncremental(String tld, DateTime watermark, Duration interval) {
+    if (!incrementalDeposits || watermark.getDayOfWeek() == fullDepositDayOfWeek) {
+      return false;
+    }
+    DateTime previousWatermark = watermark.minus(interval);
+    return RdeRevision.getNextRevision(tld, previousWatermark, RdeMode.FULL) > 0
+        || RdeRevision.getNextRevision(tld, previousWatermark, RdeMode.INCR) > 0;
+  }
+
   private DateTime transactionallyInitializeCursor(
       final Registry registry,
       final CursorType cursorType,
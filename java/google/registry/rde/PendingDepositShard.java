@@ -0,0 +1,43 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.rde;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.auto.value.AutoValue;
+import java.io.Serializable;
+
+/**
+ * One of the reduce shards among which the XML fragments of a {@link PendingDeposit} are split.
+ *
+ * <p>Each shard writes its own part of the deposit, so that large deposits can be generated
+ * concurrently. A deposit with a single shard is written as a single file.
+ */
+@AutoValue
+public abstract class PendingDepositShard implements Serializable {
+
+  private static final long serialVersionUID = 5893620461093285813L;
+
+  public abstract PendingDeposit deposit();
+  public abstract int shard();
+  public abstract int shardCount();
+
+  static PendingDepositShard create(PendingDeposit deposit, int shard, int shardCount) {
+    checkArgument(0 <= shard && shard < shardCount, "Bad shard %s of %s", shard, shardCount);
+    return new AutoValue_PendingDepositShard(deposit, shard, shardCount);
+  }
+
+  PendingDepositShard() {}
+}
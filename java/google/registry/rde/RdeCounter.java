@@ -53,6 +53,16 @@ public final class RdeCounter {
     counts.get(type).incrementAndGet();
   }
 
+  /** Adds to the count on a given resource, e.g. when combining the counts of deposit parts. */
+  public void add(RdeResourceType type, long delta) {
+    counts.get(type).addAndGet(delta);
+  }
+
+  /** Returns the count on a given resource. */
+  public long get(RdeResourceType type) {
+    return counts.get(type).get();
+  }
+
   /** Constructs a header containing the sum of {@link #increment(RdeResourceType)} calls. */
   public XjcRdeHeader makeHeader(String tld, RdeMode mode) {
     XjcRdeHeader header = new XjcRdeHeader();
@@ -68,9 +78,16 @@ public final class RdeCounter {
   /** Returns an ICANN notification report as a JAXB object. */
   public XjcRdeReport
       makeReport(String id, DateTime watermark, XjcRdeHeader header, int revision) {
+    return makeReport(id, watermark, header, revision, RdeMode.FULL);
+  }
+
+  /** Returns an ICANN notification report for a full or incremental deposit. */
+  public XjcRdeReport makeReport(
+      String id, DateTime watermark, XjcRdeHeader header, int revision, RdeMode mode) {
     XjcRdeReport report = new XjcRdeReport();
     report.setId(id);
-    report.setKind(XjcRdeDepositTypeType.FULL);
+    report.setKind(
+        (mode == RdeMode.INCR) ? XjcRdeDepositTypeType.INCR : XjcRdeDepositTypeType.FULL);
     report.setCrDate(watermark);
     report.setWatermark(watermark);
     report.setVersion(ICANN_REPORT_SPEC_VERSION);
@@ -15,6 +15,8 @@
 package google.registry.rde;
 
 import static com.google.common.base.Verify.verify;
+import static com.google.common.collect.Iterables.isEmpty;
+import static com.google.common.xml.XmlEscapers.xmlContentEscaper;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.googlecode.objectify.Key;
@@ -40,6 +42,7 @@ import google.registry.xml.XmlFragmentMarshaller;
 import java.io.ByteArrayOutputStream;
 import java.io.Serializable;
 import java.util.Collection;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.MarshalException;
@@ -53,11 +56,50 @@ public final class RdeMarshaller implements Serializable {
 
   private static final long serialVersionUID = 202890386611768455L;
 
+  private static final String CONTENTS_START = "<rde:contents>\n";
+
   private transient XmlFragmentMarshaller memoizedMarshaller;
 
   /** Returns top-portion of XML document. */
   public String makeHeader(
       String depositId, DateTime watermark, Collection<String> uris, int revision) {
+    return makeDepositStart(XjcRdeDepositTypeType.FULL, depositId, null, watermark, uris, revision)
+        + CONTENTS_START;
+  }
+
+  /**
+   * Returns top-portion of an incremental XML document, which lists the objects deleted since the
+   * previous deposit before the contents.
+   *
+   * @param deletes XML fragments made by the {@code marshal*Delete} methods
+   */
+  public String makeIncrementalHeader(
+      String depositId,
+      String previousDepositId,
+      DateTime watermark,
+      Collection<String> uris,
+      int revision,
+      Iterable<String> deletes) {
+    StringBuilder header = new StringBuilder(makeDepositStart(
+        XjcRdeDepositTypeType.INCR, depositId, previousDepositId, watermark, uris, revision));
+    if (!isEmpty(deletes)) {
+      header.append("<rde:deletes>\n");
+      for (String delete : deletes) {
+        header.append(delete);
+      }
+      header.append("</rde:deletes>\n");
+    }
+    return header.append(CONTENTS_START).toString();
+  }
+
+  /** Returns the XML document up to where the deletes or contents start. */
+  private String makeDepositStart(
+      XjcRdeDepositTypeType type,
+      String depositId,
+      @Nullable String previousDepositId,
+      DateTime watermark,
+      Collection<String> uris,
+      int revision) {
     // We can't make JAXB marshal half an element. So we're going to use a kludge where we provide
     // it with the minimum data necessary to marshal a deposit, and then cut it up by manually.
     XjcRdeMenuType menu = new XjcRdeMenuType();
@@ -70,8 +112,9 @@ public final class RdeMarshaller implements Serializable {
     contents.getContents().add(new XjcRdePolicyElement(policy));
     XjcRdeDeposit deposit = new XjcRdeDeposit();
     deposit.setId(depositId);
+    deposit.setPrevId(previousDepositId);
     deposit.setWatermark(watermark);
-    deposit.setType(XjcRdeDepositTypeType.FULL);
+    deposit.setType(type);
     if (revision > 0) {
       deposit.setResend(revision);
     }
@@ -84,10 +127,9 @@ public final class RdeMarshaller implements Serializable {
       throw new RuntimeException(e);
     }
     String rdeDocument = os.toString();
-    String marker = "<rde:contents>\n";
-    int startOfContents = rdeDocument.indexOf(marker);
+    int startOfContents = rdeDocument.indexOf(CONTENTS_START);
     verify(startOfContents > 0, "Bad RDE document:\n%s", rdeDocument);
-    return rdeDocument.substring(0, startOfContents + marker.length());
+    return rdeDocument.substring(0, startOfContents);
   }
 
   /** Returns bottom-portion of XML document. */
@@ -137,6 +179,32 @@ public final class RdeMarshaller implements Serializable {
     return marshalStrictlyOrDie(new XjcRdeIdnElement(bean));
   }
 
+  /** Returns an XML fragment saying that a domain was deleted, for an incremental deposit. */
+  public DepositFragment marshalDomainDelete(String fullyQualifiedDomainName) {
+    return marshalDelete(RdeResourceType.DOMAIN, "rdeDomain", "name", fullyQualifiedDomainName);
+  }
+
+  /** Returns an XML fragment saying that a host was deleted, for an incremental deposit. */
+  public DepositFragment marshalHostDelete(String fullyQualifiedHostName) {
+    return marshalDelete(RdeResourceType.HOST, "rdeHost", "name", fullyQualifiedHostName);
+  }
+
+  /** Returns an XML fragment saying that a contact was deleted, for an incremental deposit. */
+  public DepositFragment marshalContactDelete(String contactId) {
+    return marshalDelete(RdeResourceType.CONTACT, "rdeContact", "id", contactId);
+  }
+
+  /**
+   * Makes a delete fragment by hand, since it's nothing more than an identifier. The namespace
+   * prefix is declared at the top of the deposit, just like for the marshalled contents.
+   */
+  private static DepositFragment marshalDelete(
+      RdeResourceType type, String prefix, String element, String value) {
+    return DepositFragment.createDelete(type, String.format(
+        "<%1$s:delete>\n  <%1$s:%2$s>%3$s</%1$s:%2$s>\n</%1$s:delete>\n",
+        prefix, element, xmlContentEscaper().escape(value)));
+  }
+
   private DepositFragment marshalResource(
       RdeResourceType type, ImmutableObject resource, JAXBElement<?> element) {
     String xml = "";
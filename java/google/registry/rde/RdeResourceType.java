@@ -15,6 +15,7 @@
 package google.registry.rde;
 
 import static google.registry.model.rde.RdeMode.FULL;
+import static google.registry.model.rde.RdeMode.INCR;
 import static google.registry.model.rde.RdeMode.THIN;
 
 import com.google.common.collect.ImmutableSortedSet;
@@ -26,12 +27,12 @@ import java.util.Set;
 
 /** Types of objects that get embedded in an escrow deposit. */
 public enum RdeResourceType {
-  CONTACT("urn:ietf:params:xml:ns:rdeContact-1.0", EnumSet.of(FULL)),
-  DOMAIN("urn:ietf:params:xml:ns:rdeDomain-1.0", EnumSet.of(FULL, THIN)),
-  HOST("urn:ietf:params:xml:ns:rdeHost-1.0", EnumSet.of(FULL)),
-  REGISTRAR("urn:ietf:params:xml:ns:rdeRegistrar-1.0", EnumSet.of(FULL, THIN)),
-  IDN("urn:ietf:params:xml:ns:rdeIDN-1.0", EnumSet.of(FULL, THIN)),
-  HEADER("urn:ietf:params:xml:ns:rdeHeader-1.0", EnumSet.of(FULL, THIN));
+  CONTACT("urn:ietf:params:xml:ns:rdeContact-1.0", EnumSet.of(FULL, INCR)),
+  DOMAIN("urn:ietf:params:xml:ns:rdeDomain-1.0", EnumSet.of(FULL, INCR, THIN)),
+  HOST("urn:ietf:params:xml:ns:rdeHost-1.0", EnumSet.of(FULL, INCR)),
+  REGISTRAR("urn:ietf:params:xml:ns:rdeRegistrar-1.0", EnumSet.of(FULL, INCR, THIN)),
+  IDN("urn:ietf:params:xml:ns:rdeIDN-1.0", EnumSet.of(FULL, INCR, THIN)),
+  HEADER("urn:ietf:params:xml:ns:rdeHeader-1.0", EnumSet.of(FULL, INCR, THIN));
 
   private final String uri;
   private final Set<RdeMode> modes;
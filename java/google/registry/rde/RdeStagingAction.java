@@ -14,9 +14,14 @@
 
 package google.registry.rde;
 
+import static google.registry.util.DateTimeUtils.END_OF_TIME;
+import static google.registry.util.DateTimeUtils.START_OF_TIME;
+import static google.registry.util.DateTimeUtils.earliestOf;
+import static google.registry.util.DateTimeUtils.latestOf;
 import static google.registry.util.PipelineUtils.createJobPath;
 import static javax.servlet.http.HttpServletResponse.SC_NO_CONTENT;
 
+import com.google.appengine.tools.mapreduce.Input;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSetMultimap;
@@ -38,6 +43,7 @@ import google.registry.request.Response;
 import google.registry.util.Clock;
 import google.registry.util.FormattingLogger;
 import javax.inject.Inject;
+import org.joda.time.DateTime;
 import org.joda.time.Duration;
 
 /**
@@ -53,7 +59,31 @@ import org.joda.time.Duration;
  * representation of each entity to the escrow XML files in which it should appear.
  *
  * <p>There is one map worker for each {@code EppResourceIndexBucket} entity group shard. There is
- * one reduce worker for each deposit being generated.
+ * one reduce worker for each part of each deposit being generated.
+ *
+ * <h3>Multi-Part Deposits</h3>
+ *
+ * <p>A {@link RdeMode#FULL full} deposit is split into several parts, which are written
+ * concurrently by separate reduce workers, because writing a large TLD's deposit on a single
+ * thread takes hours. Each resource is assigned to a part by hashing its ROID. Each reduce worker
+ * writes its part as a separate ghostryde file, along with a small summary of its counts and
+ * length. Whichever worker finishes last writes the top and bottom of the XML document, whose
+ * header contains the total counts, along with a manifest listing the files in order. The
+ * {@link RdeUploadAction} then streams the files in the order given by the manifest.
+ *
+ * <p>Thin deposits, and full deposits when only one part is configured, are written as a single
+ * file by a single reduce worker.
+ *
+ * <h3>Incremental Deposits</h3>
+ *
+ * <p>When {@link PendingDepositChecker} decides that an RDE deposit should be
+ * {@link RdeMode#INCR incremental}, the deposit only contains the resources that were saved since
+ * the watermark of the previous deposit, along with a list of the resources that were deleted in
+ * the meantime. Registrars are always included. If every pending deposit is incremental, the job
+ * doesn't scan every {@link EppResource} in datastore, but only the ones whose saves are recorded
+ * in the commit logs since the earliest previous watermark. An incremental deposit always has a
+ * single part, but is written in the multi-part layout, because its deletes must come before its
+ * contents and are only known once all of its fragments have been read.
  *
  * <p>{@link ContactResource} and {@link HostResource} are emitted on all TLDs, even when the
  * domains on a TLD don't reference them. BRDA {@link RdeMode#THIN thin} deposits exclude contacts
@@ -164,6 +194,7 @@ public final class RdeStagingAction implements Runnable {
   @Inject Response response;
   @Inject MapreduceRunner mrRunner;
   @Inject @Config("transactionCooldown") Duration transactionCooldown;
+  @Inject @Config("rdeStagingPartsPerDeposit") int partsPerDeposit;
   @Inject RdeStagingAction() {}
 
   @Override
@@ -188,19 +219,40 @@ public final class RdeStagingAction implements Runnable {
       response.setPayload(message);
       return;
     }
+    RdeStagingMapper mapper = new RdeStagingMapper(pendings, partsPerDeposit);
+    int reduceShards = 0;
     for (PendingDeposit pending : pendings.values()) {
       logger.infofmt("%s", pending);
+      reduceShards += mapper.getPartCount(pending);
     }
     response.sendJavaScriptRedirect(createJobPath(mrRunner
         .setJobName("Stage escrow deposits for all TLDs")
         .setModuleName("backend")
-        .setDefaultReduceShards(pendings.size())
+        .setDefaultReduceShards(reduceShards)
         .runMapreduce(
-            new RdeStagingMapper(pendings),
+            mapper,
             reducer,
             ImmutableList.of(
                 // Add an extra shard that maps over a null resource. See the mapper code for why.
                 new NullInput<EppResource>(),
-                EppResourceInputs.createEntityInput(EppResource.class)))));
+                createInput(pendings.values())))));
+  }
+
+  /**
+   * Returns the input that maps over all resources, or only over the resources that were saved
+   * since the previous deposits if all pending deposits are incremental.
+   */
+  private static Input<EppResource> createInput(Iterable<PendingDeposit> pendings) {
+    DateTime lowerBound = END_OF_TIME;
+    DateTime upperBound = START_OF_TIME;
+    for (PendingDeposit pending : pendings) {
+      if (pending.mode() != RdeMode.INCR) {
+        return EppResourceInputs.createEntityInput(EppResource.class);
+      }
+      lowerBound = earliestOf(lowerBound, pending.watermark().minus(pending.interval()));
+      upperBound = latestOf(upperBound, pending.watermark());
+    }
+    logger.infofmt("Only scanning resources saved after %s up to %s", lowerBound, upperBound);
+    return EppResourceInputs.createChangedEntityInput(lowerBound, upperBound);
   }
 }
@@ -15,7 +15,9 @@
 package google.registry.rde;
 
 import static com.google.common.base.Strings.nullToEmpty;
+import static google.registry.model.EppResourceUtils.hasChangedBetween;
 import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.util.DateTimeUtils.isBeforeOrAt;
 
 import com.google.appengine.tools.mapreduce.Mapper;
 import com.google.auto.value.AutoValue;
@@ -26,6 +28,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.Maps;
+import com.google.common.math.IntMath;
 import com.googlecode.objectify.Result;
 import google.registry.model.EppResource;
 import google.registry.model.EppResourceUtils;
@@ -39,15 +42,32 @@ import java.util.Map;
 import org.joda.time.DateTime;
 
 /** Mapper for {@link RdeStagingAction}. */
-public final class RdeStagingMapper extends Mapper<EppResource, PendingDeposit, DepositFragment> {
+public final class RdeStagingMapper
+    extends Mapper<EppResource, PendingDepositShard, DepositFragment> {
 
   private static final long serialVersionUID = -1518185703789372524L;
 
+  /** Empty fragment emitted to each part of a deposit so that every part's reducer runs. */
+  private static final DepositFragment EMPTY_FRAGMENT =
+      DepositFragment.create(RdeResourceType.REGISTRAR, "", "");
+
   private final ImmutableSetMultimap<String, PendingDeposit> pendings;
+  private final int partsPerFullDeposit;
   private final RdeMarshaller marshaller = new RdeMarshaller();
 
-  RdeStagingMapper(ImmutableSetMultimap<String, PendingDeposit> pendings) {
+  RdeStagingMapper(ImmutableSetMultimap<String, PendingDeposit> pendings, int partsPerFullDeposit) {
     this.pendings = pendings;
+    this.partsPerFullDeposit = partsPerFullDeposit;
+  }
+
+  /**
+   * Returns the number of parts into which a deposit is split.
+   *
+   * <p>Only full deposits are big enough to be worth splitting. Thin BRDA deposits contain neither
+   * contacts nor hosts, so they are always written by a single reducer.
+   */
+  int getPartCount(PendingDeposit pending) {
+    return (pending.mode() == RdeMode.FULL) ? partsPerFullDeposit : 1;
   }
 
   @Override
@@ -58,11 +78,19 @@ public final class RdeStagingMapper extends Mapper<EppResource, PendingDeposit,
     // not added in a separate stage, because the reducer only runs if there is at least one value
     // emitted from the mapper. Without this, a cursor might never advance because no EppResource
     // entity exists at the watermark.
+    // Registrars all go to the first part of each deposit, and the other parts get an empty
+    // fragment for the same reason.
     if (resource == null) {
       for (Registrar registrar : Registrar.loadAll()) {
         DepositFragment fragment = marshaller.marshalRegistrar(registrar);
         for (PendingDeposit pending : pendings.values()) {
-          emit(pending, fragment);
+          emit(PendingDepositShard.create(pending, 0, getPartCount(pending)), fragment);
+        }
+      }
+      for (PendingDeposit pending : pendings.values()) {
+        int partCount = getPartCount(pending);
+        for (int part = 1; part < partCount; part++) {
+          emit(PendingDepositShard.create(pending, part, partCount), EMPTY_FRAGMENT);
         }
       }
       return;
@@ -125,9 +153,27 @@ public final class RdeStagingMapper extends Mapper<EppResource, PendingDeposit,
                 || resource instanceof HostResource)) {
           continue;
         }
-        for (DepositFragment fragment
-            : fragmenter.marshal(pending.watermark(), pending.mode()).asSet()) {
-          emit(pending, fragment);
+        // Spread resources evenly among the parts of the deposit.
+        int partCount = getPartCount(pending);
+        PendingDepositShard shard = PendingDepositShard.create(
+            pending, IntMath.mod(resource.getRepoId().hashCode(), partCount), partCount);
+        RdeMode mode = pending.mode();
+        if (mode == RdeMode.INCR) {
+          // Incremental deposits only contain what changed since the previous deposit, using the
+          // same XML as full deposits, plus the objects that were deleted.
+          // Changes include ones made without a save, such as a pending delete taking effect.
+          DateTime previousWatermark = pending.watermark().minus(pending.interval());
+          if (!hasChangedBetween(resource, previousWatermark, pending.watermark())) {
+            continue;
+          }
+          if (wasDeletedBetween(resource, previousWatermark, pending.watermark())) {
+            emit(shard, marshalDelete(resource));
+            continue;
+          }
+          mode = RdeMode.FULL;
+        }
+        for (DepositFragment fragment : fragmenter.marshal(pending.watermark(), mode).asSet()) {
+          emit(shard, fragment);
         }
       }
     }
@@ -136,6 +182,30 @@ public final class RdeStagingMapper extends Mapper<EppResource, PendingDeposit,
     ofy().clearSessionCache();
   }
 
+  /**
+   * Returns true if a resource that was in the deposit at {@code previousWatermark} is gone by
+   * {@code watermark}. A resource that was created and deleted in between was never deposited, so
+   * there's nothing to delete.
+   */
+  private static boolean wasDeletedBetween(
+      EppResource resource, DateTime previousWatermark, DateTime watermark) {
+    return isBeforeOrAt(resource.getCreationTime(), previousWatermark)
+        && resource.getDeletionTime().isAfter(previousWatermark)
+        && isBeforeOrAt(resource.getDeletionTime(), watermark);
+  }
+
+  private DepositFragment marshalDelete(EppResource resource) {
+    if (resource instanceof DomainResource) {
+      return marshaller.marshalDomainDelete(resource.getForeignKey());
+    } else if (resource instanceof ContactResource) {
+      return marshaller.marshalContactDelete(resource.getForeignKey());
+    } else if (resource instanceof HostResource) {
+      return marshaller.marshalHostDelete(resource.getForeignKey());
+    } else {
+      throw new AssertionError(resource.toString());
+    }
+  }
+
   /** Loading cache that turns a resource into XML for the various points in time and modes. */
   private class Fragmenter {
     private final Map<WatermarkModePair, Optional<DepositFragment>> cache = new HashMap<>();
@@ -27,6 +27,11 @@ import com.google.appengine.tools.cloudstorage.GcsFilename;
 import com.google.appengine.tools.cloudstorage.RetryParams;
 import com.google.appengine.tools.mapreduce.Reducer;
 import com.google.appengine.tools.mapreduce.ReducerInput;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
+import com.google.common.io.ByteStreams;
 import com.googlecode.objectify.VoidWork;
 import google.registry.config.ConfigModule.Config;
 import google.registry.gcs.GcsUtils;
@@ -46,11 +51,14 @@ import google.registry.xjc.rdeheader.XjcRdeHeader;
 import google.registry.xjc.rdeheader.XjcRdeHeaderElement;
 import google.registry.xml.XmlException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.security.Security;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.Callable;
 import javax.inject.Inject;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
@@ -59,8 +67,19 @@ import org.bouncycastle.openpgp.PGPPublicKey;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
 
-/** Reducer for {@link RdeStagingAction}. */
-public final class RdeStagingReducer extends Reducer<PendingDeposit, DepositFragment, Void> {
+/**
+ * Reducer for {@link RdeStagingAction}.
+ *
+ * <p>Each reduce shard writes one part of a deposit. If the deposit has a single part, the whole
+ * XML document is written as one file. Otherwise each shard writes its fragments to a part file
+ * along with a summary of its counts and length, and the last shard to finish merges the summaries
+ * and writes the top and bottom of the document, along with a manifest listing the parts in order.
+ *
+ * <p>Incremental deposits always have a single part, but are written like multi-part deposits,
+ * since the deletes they contain go at the top of the document, and the mapper emits them in no
+ * particular order along with the other fragments.
+ */
+public final class RdeStagingReducer extends Reducer<PendingDepositShard, DepositFragment, Void> {
 
   private static final long serialVersionUID = -3366189042770402345L;
 
@@ -77,148 +96,309 @@ public final class RdeStagingReducer extends Reducer<PendingDeposit, DepositFrag
   @Inject RdeStagingReducer() {}
 
   @Override
-  public void reduce(final PendingDeposit key, final ReducerInput<DepositFragment> fragments) {
+  public void reduce(
+      final PendingDepositShard key, final ReducerInput<DepositFragment> fragments) {
     Callable<Void> lockRunner = new Callable<Void>() {
       @Override
       public Void call() throws Exception {
         reduceWithLock(key, fragments);
         return null;
       }};
-    String lockName = String.format("RdeStaging %s", key.tld());
+    String lockName = (key.shardCount() == 1)
+        ? String.format("RdeStaging %s", key.deposit().tld())
+        : String.format("RdeStaging %s part %d", key.deposit().tld(), key.shard());
     if (!Lock.executeWithLocks(lockRunner, null, null, lockTimeout, lockName)) {
       logger.warningfmt("Lock in use: %s", lockName);
     }
   }
 
-  private void reduceWithLock(final PendingDeposit key, Iterator<DepositFragment> fragments) {
+  private void reduceWithLock(PendingDepositShard key, Iterator<DepositFragment> fragments) {
     logger.infofmt("RdeStagingReducer %s", key);
 
     // Normally this is done by BackendServlet but it's not present in MapReduceServlet.
     Security.addProvider(new BouncyCastleProvider());
 
+    DepositWriter writer = new DepositWriter(key.deposit());
+    if (key.shardCount() == 1 && writer.mode != RdeMode.INCR) {
+      // Write a gigantic XML file to GCS.
+      long xmlLength = writer.writeXml(
+          new GcsFilename(bucket, writer.prefix + ".xml.ghostryde"),
+          writer.prefix + ".xml",
+          true,
+          fragments,
+          true);
+      // If an entity was broken, abort after writing as much logs/deposit data as possible.
+      verify(!writer.failed);
+      writer.finish(xmlLength);
+      return;
+    }
+
+    // Write this shard's part of the deposit, and then a summary of what it contains.
+    String partName = String.format("%s.xml.part-%d", writer.prefix, key.shard());
+    long partLength = writer.writeXml(
+        new GcsFilename(bucket, partName + ".ghostryde"), partName, false, fragments, false);
+    verify(!writer.failed);
+    verify(writer.deletes.isEmpty() || key.shardCount() == 1,
+        "Deletes can't be merged from several parts: %s", key);
+    String jobId = getContext().getJobId();
+    writer.writeAscii(
+        new GcsFilename(bucket, partName + ".summary"),
+        writer.makePartSummary(jobId, partLength));
+
+    // If every part of the deposit has now been written by this job, merge them. When several
+    // shards finish at the same time they might all merge, which is harmless, because merging is
+    // idempotent and only the first to roll forward the cursor enqueues the upload.
+    RdeCounter totals = new RdeCounter();
+    long totalLength = 0;
+    ImmutableList.Builder<String> partNames = new ImmutableList.Builder<>();
+    for (int shard = 0; shard < key.shardCount(); shard++) {
+      String name = String.format("%s.xml.part-%d", writer.prefix, shard);
+      GcsFilename summaryFilename = new GcsFilename(bucket, name + ".summary");
+      if (!writer.cloudStorage.existsAndNotEmpty(summaryFilename)) {
+        logger.infofmt("Waiting for %s", summaryFilename);
+        return;
+      }
+      List<String> summary = Splitter.on('\n').splitToList(writer.readAscii(summaryFilename));
+      if (!summary.get(0).equals(jobId)) {
+        // This summary is left over from an earlier attempt that failed.
+        logger.infofmt("Waiting for %s from job %s", summaryFilename, jobId);
+        return;
+      }
+      totalLength += Long.parseLong(summary.get(1));
+      for (String count : summary.subList(2, summary.size())) {
+        List<String> typeAndCount = Splitter.on(' ').splitToList(count);
+        totals.add(
+            RdeResourceType.valueOf(typeAndCount.get(0)), Long.parseLong(typeAndCount.get(1)));
+      }
+      partNames.add(name + ".ghostryde");
+    }
+    logger.infofmt("Merging %d parts of %s", key.shardCount(), writer.prefix);
+    writer.counter = totals;
+    String headName = writer.prefix + ".xml.head";
+    String tailName = writer.prefix + ".xml.tail";
+    totalLength += writer.writeXml(
+        new GcsFilename(bucket, headName + ".ghostryde"),
+        headName,
+        true,
+        Iterators.<DepositFragment>emptyIterator(),
+        false);
+    totalLength += writer.writeXml(
+        new GcsFilename(bucket, tailName + ".ghostryde"),
+        tailName,
+        false,
+        Iterators.<DepositFragment>emptyIterator(),
+        true);
+
+    // Write the manifest that tells RdeUploadAction which files to concatenate, and in what order.
+    writer.writeAscii(
+        new GcsFilename(bucket, writer.prefix + ".xml.parts"),
+        Joiner.on('\n').join(new ImmutableList.Builder<String>()
+            .add(headName + ".ghostryde")
+            .addAll(partNames.build())
+            .add(tailName + ".ghostryde")
+            .build()));
+    writer.finish(totalLength);
+  }
+
+  /** Writes the files of a single deposit to GCS. */
+  private final class DepositWriter {
+
     // Construct things that Dagger would inject if this wasn't serialized.
-    Ghostryde ghostryde = new Ghostryde(ghostrydeBufferSize);
-    PGPPublicKey stagingKey = PgpHelper.loadPublicKeyBytes(stagingKeyBytes);
-    GcsUtils cloudStorage =
+    final Ghostryde ghostryde = new Ghostryde(ghostrydeBufferSize);
+    final PGPPublicKey stagingKey = PgpHelper.loadPublicKeyBytes(stagingKeyBytes);
+    final GcsUtils cloudStorage =
         new GcsUtils(createGcsService(RetryParams.getDefaultInstance()), gcsBufferSize);
-    RdeCounter counter = new RdeCounter();
 
     // Determine some basic things about the deposit.
-    final RdeMode mode = key.mode();
-    final String tld = key.tld();
-    final DateTime watermark = key.watermark();
-    final int revision = RdeRevision.getNextRevision(tld, watermark, mode);
-    String id = RdeUtil.timestampToId(watermark);
-    String prefix = RdeNamingUtils.makeRydeFilename(tld, watermark, mode, 1, revision);
-    GcsFilename xmlFilename = new GcsFilename(bucket, prefix + ".xml.ghostryde");
-    GcsFilename xmlLengthFilename = new GcsFilename(bucket, prefix + ".xml.length");
-    GcsFilename reportFilename = new GcsFilename(bucket, prefix + "-report.xml.ghostryde");
-
-    // These variables will be populated as we write the deposit XML and used for other files.
+    final PendingDeposit key;
+    final RdeMode mode;
+    final String tld;
+    final DateTime watermark;
+    final int revision;
+    final String id;
+    final String prefix;
+
+    // These fields will be populated as we write the deposit XML and used for other files.
+    RdeCounter counter = new RdeCounter();
+    List<String> deletes = new ArrayList<>();
     boolean failed = false;
-    long xmlLength;
     XjcRdeHeader header;
 
-    // Write a gigantic XML file to GCS. We'll start by opening encrypted out/err file handles.
-    logger.infofmt("Writing %s", xmlFilename);
-    try (OutputStream gcsOutput = cloudStorage.openOutputStream(xmlFilename);
-        Ghostryde.Encryptor encryptor = ghostryde.openEncryptor(gcsOutput, stagingKey);
-        Ghostryde.Compressor kompressor = ghostryde.openCompressor(encryptor);
-        Ghostryde.Output gOutput = ghostryde.openOutput(kompressor, prefix + ".xml", watermark);
-        Writer output = new OutputStreamWriter(gOutput, UTF_8)) {
-
-      // Output the top portion of the XML document.
-      output.write(marshaller.makeHeader(id, watermark, RdeResourceType.getUris(mode), revision));
-
-      // Output XML fragments emitted to us by RdeStagingMapper while counting them.
-      while (fragments.hasNext()) {
-        DepositFragment fragment = fragments.next();
-        if (!fragment.xml().isEmpty()) {
-          output.write(fragment.xml());
-          counter.increment(fragment.type());
+    DepositWriter(PendingDeposit key) {
+      this.key = key;
+      this.mode = key.mode();
+      this.tld = key.tld();
+      this.watermark = key.watermark();
+      this.revision = RdeRevision.getNextRevision(tld, watermark, mode);
+      this.id = RdeUtil.timestampToId(watermark);
+      this.prefix = RdeNamingUtils.makeRydeFilename(tld, watermark, mode, 1, revision);
+    }
+
+    /**
+     * Writes some portion of the deposit XML to a ghostryde file, returning its raw XML length.
+     *
+     * @param top whether to output the top portion of the XML document
+     * @param fragments XML fragments emitted to us by {@link RdeStagingMapper}, which are counted,
+     *     except for deletes, which are held back for the top of an incremental deposit
+     * @param bottom whether to output the IDN tables, header and bottom of the XML document, which
+     *     must come after all fragments have been counted
+     */
+    long writeXml(
+        GcsFilename filename,
+        String innerName,
+        boolean top,
+        Iterator<DepositFragment> fragments,
+        boolean bottom) {
+      // We'll start by opening encrypted out/err file handles.
+      logger.infofmt("Writing %s", filename);
+      try (OutputStream gcsOutput = cloudStorage.openOutputStream(filename);
+          Ghostryde.Encryptor encryptor = ghostryde.openEncryptor(gcsOutput, stagingKey);
+          Ghostryde.Compressor kompressor = ghostryde.openCompressor(encryptor);
+          Ghostryde.Output gOutput = ghostryde.openOutput(kompressor, innerName, watermark);
+          Writer output = new OutputStreamWriter(gOutput, UTF_8)) {
+
+        // Output the top portion of the XML document.
+        if (top) {
+          if (mode == RdeMode.INCR) {
+            output.write(marshaller.makeIncrementalHeader(
+                id,
+                RdeUtil.timestampToId(watermark.minus(key.interval())),
+                watermark,
+                RdeResourceType.getUris(mode),
+                revision,
+                deletes));
+          } else {
+            output.write(
+                marshaller.makeHeader(id, watermark, RdeResourceType.getUris(mode), revision));
+          }
         }
-        if (!fragment.error().isEmpty()) {
-          failed = true;
-          logger.severe(fragment.error());
+
+        // Output XML fragments emitted to us by RdeStagingMapper while counting them.
+        while (fragments.hasNext()) {
+          DepositFragment fragment = fragments.next();
+          if (fragment.isDelete()) {
+            deletes.add(fragment.xml());
+          } else if (!fragment.xml().isEmpty()) {
+            output.write(fragment.xml());
+            counter.increment(fragment.type());
+          }
+          if (!fragment.error().isEmpty()) {
+            failed = true;
+            logger.severe(fragment.error());
+          }
         }
-      }
-      for (IdnTableEnum idn : IdnTableEnum.values()) {
-        output.write(marshaller.marshalIdn(idn.getTable()));
-        counter.increment(RdeResourceType.IDN);
-      }
 
-      // Output XML that says how many resources were emitted.
-      header = counter.makeHeader(tld, mode);
-      output.write(marshaller.marshalStrictlyOrDie(new XjcRdeHeaderElement(header)));
+        if (bottom) {
+          for (IdnTableEnum idn : IdnTableEnum.values()) {
+            output.write(marshaller.marshalIdn(idn.getTable()));
+            counter.increment(RdeResourceType.IDN);
+          }
 
-      // Output the bottom of the XML document.
-      output.write(marshaller.makeFooter());
+          // Output XML that says how many resources were emitted.
+          header = counter.makeHeader(tld, mode);
+          output.write(marshaller.marshalStrictlyOrDie(new XjcRdeHeaderElement(header)));
 
-      // And we're done! How many raw XML bytes did we write?
-      output.flush();
-      xmlLength = gOutput.getBytesWritten();
-    } catch (IOException | PGPException e) {
-      throw new RuntimeException(e);
+          // Output the bottom of the XML document.
+          output.write(marshaller.makeFooter());
+        }
+
+        // And we're done! How many raw XML bytes did we write?
+        output.flush();
+        return gOutput.getBytesWritten();
+      } catch (IOException | PGPException e) {
+        throw new RuntimeException(e);
+      }
     }
 
-    // If an entity was broken, abort after writing as much logs/deposit data as possible.
-    verify(!failed);
-
-    // Write a file to GCS containing the byte length (ASCII) of the raw unencrypted XML.
-    //
-    // This is necessary because RdeUploadAction creates a tar file which requires that the length
-    // be outputted. We don't want to have to decrypt the entire ghostryde file to determine the
-    // length, so we just save it separately.
-    logger.infofmt("Writing %s", xmlLengthFilename);
-    try (OutputStream gcsOutput = cloudStorage.openOutputStream(xmlLengthFilename)) {
-      gcsOutput.write(Long.toString(xmlLength).getBytes(US_ASCII));
-    } catch (IOException e) {
-      throw new RuntimeException(e);
+    /**
+     * Returns the summary of a part of the deposit, which is the ID of the job that wrote it, its
+     * raw XML length, and then the count of each type of resource in it, all on separate lines.
+     */
+    String makePartSummary(String jobId, long partLength) {
+      StringBuilder summary = new StringBuilder();
+      summary.append(jobId).append('\n').append(partLength);
+      for (RdeResourceType type : RdeResourceType.values()) {
+        if (type != RdeResourceType.HEADER && counter.get(type) > 0) {
+          summary.append('\n').append(type.name()).append(' ').append(counter.get(type));
+        }
+      }
+      return summary.toString();
     }
 
-    // Write a tiny XML file to GCS containing some information about the deposit.
-    //
-    // This will be sent to ICANN once we're done uploading the big XML to the escrow provider.
-    if (mode == RdeMode.FULL) {
-      logger.infofmt("Writing %s", reportFilename);
-      String innerName = prefix + "-report.xml";
-      try (OutputStream gcsOutput = cloudStorage.openOutputStream(reportFilename);
-          Ghostryde.Encryptor encryptor = ghostryde.openEncryptor(gcsOutput, stagingKey);
-          Ghostryde.Compressor kompressor = ghostryde.openCompressor(encryptor);
-          Ghostryde.Output output = ghostryde.openOutput(kompressor, innerName, watermark)) {
-        counter.makeReport(id, watermark, header, revision).marshal(output, UTF_8);
-      } catch (IOException | PGPException | XmlException e) {
+    void writeAscii(GcsFilename filename, String content) {
+      logger.infofmt("Writing %s", filename);
+      try (OutputStream gcsOutput = cloudStorage.openOutputStream(filename)) {
+        gcsOutput.write(content.getBytes(US_ASCII));
+      } catch (IOException e) {
         throw new RuntimeException(e);
       }
     }
 
-    // Now that we're done, kick off RdeUploadAction and roll forward the cursor transactionally.
-    ofy().transact(new VoidWork() {
-      @Override
-      public void vrun() {
-        Registry registry = Registry.get(tld);
-        DateTime position = getCursorTimeOrStartOfTime(
-            ofy().load().key(Cursor.createKey(key.cursor(), registry)).now());
-        DateTime newPosition = key.watermark().plus(key.interval());
-        if (!position.isBefore(newPosition)) {
-          logger.warning("Cursor has already been rolled forward.");
-          return;
-        }
-        verify(position.equals(key.watermark()),
-            "Partial ordering of RDE deposits broken: %s %s", position, key);
-        ofy().save().entity(Cursor.create(key.cursor(), newPosition, registry)).now();
-        logger.infofmt("Rolled forward %s on %s cursor to %s", key.cursor(), tld, newPosition);
-        RdeRevision.saveRevision(tld, watermark, mode, revision);
-        if (mode == RdeMode.FULL) {
-          taskEnqueuer.enqueue(getQueue("rde-upload"),
-              withUrl(RdeUploadAction.PATH)
-                  .param(RequestParameters.PARAM_TLD, tld));
-        } else {
-          taskEnqueuer.enqueue(getQueue("brda"),
-              withUrl(BrdaCopyAction.PATH)
-                  .param(RequestParameters.PARAM_TLD, tld)
-                  .param(RdeModule.PARAM_WATERMARK, watermark.toString()));
+    String readAscii(GcsFilename filename) {
+      try (InputStream gcsInput = cloudStorage.openInputStream(filename)) {
+        return new String(ByteStreams.toByteArray(gcsInput), US_ASCII);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    /**
+     * Writes the length and report files of a deposit whose XML has been written in its entirety,
+     * then rolls forward the cursor and kicks off the next step.
+     */
+    void finish(long xmlLength) {
+      // Write a file to GCS containing the byte length (ASCII) of the raw unencrypted XML.
+      //
+      // This is necessary because RdeUploadAction creates a tar file which requires that the
+      // length be outputted. We don't want to have to decrypt the entire ghostryde file to
+      // determine the length, so we just save it separately.
+      writeAscii(new GcsFilename(bucket, prefix + ".xml.length"), Long.toString(xmlLength));
+
+      // Write a tiny XML file to GCS containing some information about the deposit.
+      //
+      // This will be sent to ICANN once we're done uploading the big XML to the escrow provider.
+      if (mode != RdeMode.THIN) {
+        GcsFilename reportFilename = new GcsFilename(bucket, prefix + "-report.xml.ghostryde");
+        logger.infofmt("Writing %s", reportFilename);
+        String innerName = prefix + "-report.xml";
+        try (OutputStream gcsOutput = cloudStorage.openOutputStream(reportFilename);
+            Ghostryde.Encryptor encryptor = ghostryde.openEncryptor(gcsOutput, stagingKey);
+            Ghostryde.Compressor kompressor = ghostryde.openCompressor(encryptor);
+            Ghostryde.Output output = ghostryde.openOutput(kompressor, innerName, watermark)) {
+          counter.makeReport(id, watermark, header, revision, mode).marshal(output, UTF_8);
+        } catch (IOException | PGPException | XmlException e) {
+          throw new RuntimeException(e);
         }
-      }});
+      }
+
+      // Now that we're done, kick off RdeUploadAction and roll forward the cursor transactionally.
+      ofy().transact(new VoidWork() {
+        @Override
+        public void vrun() {
+          Registry registry = Registry.get(tld);
+          DateTime position = getCursorTimeOrStartOfTime(
+              ofy().load().key(Cursor.createKey(key.cursor(), registry)).now());
+          DateTime newPosition = key.watermark().plus(key.interval());
+          if (!position.isBefore(newPosition)) {
+            logger.warning("Cursor has already been rolled forward.");
+            return;
+          }
+          verify(position.equals(key.watermark()),
+              "Partial ordering of RDE deposits broken: %s %s", position, key);
+          ofy().save().entity(Cursor.create(key.cursor(), newPosition, registry)).now();
+          logger.infofmt("Rolled forward %s on %s cursor to %s", key.cursor(), tld, newPosition);
+          RdeRevision.saveRevision(tld, watermark, mode, revision);
+          if (mode != RdeMode.THIN) {
+            taskEnqueuer.enqueue(getQueue("rde-upload"),
+                withUrl(RdeUploadAction.PATH)
+                    .param(RequestParameters.PARAM_TLD, tld));
+          } else {
+            taskEnqueuer.enqueue(getQueue("brda"),
+                withUrl(BrdaCopyAction.PATH)
+                    .param(RequestParameters.PARAM_TLD, tld)
+                    .param(RdeModule.PARAM_WATERMARK, watermark.toString()));
+          }
+        }});
+    }
   }
 }
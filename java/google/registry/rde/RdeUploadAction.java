@@ -14,19 +14,21 @@
 
 package google.registry.rde;
 
+import static com.google.appengine.api.ThreadManager.currentRequestThreadFactory;
 import static com.google.appengine.api.taskqueue.TaskOptions.Builder.withUrl;
 import static com.google.common.base.Verify.verify;
 import static com.google.common.net.MediaType.PLAIN_TEXT_UTF_8;
 import static com.jcraft.jsch.ChannelSftp.OVERWRITE;
 import static google.registry.model.common.Cursor.getCursorTimeOrStartOfTime;
 import static google.registry.model.ofy.ObjectifyService.ofy;
-import static google.registry.model.rde.RdeMode.FULL;
 import static google.registry.request.Action.Method.POST;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Arrays.asList;
 
 import com.google.appengine.api.taskqueue.Queue;
 import com.google.appengine.tools.cloudstorage.GcsFilename;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
 import com.google.common.io.ByteStreams;
 import com.googlecode.objectify.VoidWork;
 import com.jcraft.jsch.JSch;
@@ -35,6 +37,7 @@ import google.registry.gcs.GcsUtils;
 import google.registry.keyring.api.KeyModule.Key;
 import google.registry.model.common.Cursor;
 import google.registry.model.common.Cursor.CursorType;
+import google.registry.model.rde.RdeMode;
 import google.registry.model.rde.RdeNamingUtils;
 import google.registry.model.rde.RdeRevision;
 import google.registry.model.registry.Registry;
@@ -47,6 +50,8 @@ import google.registry.request.RequestParameters;
 import google.registry.request.Response;
 import google.registry.util.Clock;
 import google.registry.util.FormattingLogger;
+import google.registry.util.ImprovedOutputStream;
+import google.registry.util.PipelinedOutputStream;
 import google.registry.util.TaskEnqueuer;
 import google.registry.util.TeeOutputStream;
 import java.io.ByteArrayInputStream;
@@ -54,6 +59,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
+import java.util.concurrent.ThreadFactory;
+import javax.annotation.Nullable;
+import javax.annotation.WillNotClose;
 import javax.inject.Inject;
 import javax.inject.Named;
 import org.bouncycastle.openpgp.PGPKeyPair;
@@ -95,6 +103,10 @@ public final class RdeUploadAction implements Runnable, EscrowTask {
   @Inject @Parameter(RequestParameters.PARAM_TLD) String tld;
   @Inject @Config("rdeBucket") String bucket;
   @Inject @Config("rdeInterval") Duration interval;
+  @Inject @Config("rdeRydeBufferSize") Integer bufferSize;
+  @Inject @Config("rdeUploadCompressionBlockSize") int compressionBlockSize;
+  @Inject @Config("rdeUploadCompressionThreads") int compressionThreads;
+  @Inject @Config("rdeUploadPipelineDepth") int pipelineDepth;
   @Inject @Config("rdeUploadLockTimeout") Duration timeout;
   @Inject @Config("rdeUploadSftpCooldown") Duration sftpCooldown;
   @Inject @Config("rdeUploadUrl") URI uploadUrl;
@@ -127,16 +139,19 @@ public final class RdeUploadAction implements Runnable, EscrowTask {
       logger.infofmt("tld=%s cursor=%s sftpCursor=%s", tld, watermark, sftpCursorTime);
       throw new ServiceUnavailableException("SFTP cooldown has not yet passed");
     }
-    int revision = RdeRevision.getNextRevision(tld, watermark, FULL) - 1;
+    RdeMode mode = RdeUtil.getStagedRdeMode(tld, watermark);
+    int revision = RdeRevision.getNextRevision(tld, watermark, mode) - 1;
     verify(revision >= 0, "RdeRevision was not set on generated deposit");
-    String name = RdeNamingUtils.makeRydeFilename(tld, watermark, FULL, 1, revision);
-    GcsFilename xmlFilename = new GcsFilename(bucket, name + ".xml.ghostryde");
+    String name = RdeNamingUtils.makeRydeFilename(tld, watermark, mode, 1, revision);
     GcsFilename xmlLengthFilename = new GcsFilename(bucket, name + ".xml.length");
     GcsFilename reportFilename = new GcsFilename(bucket, name + "-report.xml.ghostryde");
-    verifyFileExists(xmlFilename);
+    ImmutableList<GcsFilename> xmlFiles = getXmlFiles(name);
+    for (GcsFilename xmlFile : xmlFiles) {
+      verifyFileExists(xmlFile);
+    }
     verifyFileExists(xmlLengthFilename);
     verifyFileExists(reportFilename);
-    upload(xmlFilename, readXmlLength(xmlLengthFilename), watermark, name);
+    upload(xmlFiles, readXmlLength(xmlLengthFilename), watermark, name);
     ofy().transact(new VoidWork() {
       @Override
       public void vrun() {
@@ -160,10 +175,19 @@ public final class RdeUploadAction implements Runnable, EscrowTask {
    * simultaneously uploading it to the SFTP endpoint, and then using {@link ByteStreams#copy} to
    * blocking-copy bytes from the cloud storage {@code InputStream} to the RyDE/SFTP pipeline.
    *
+   * <p>If the deposit was staged in multiple parts, each part is decrypted in turn and copied into
+   * the same pipeline, so the escrow provider still receives a single XML file.
+   *
+   * <p>Each PGP layer is CPU-heavy, so unless {@code rdeUploadPipelineDepth} is zero, the
+   * pipeline is split into stages that run on separate threads, handing buffers to each other
+   * through bounded queues: decrypting and tarring the staged XML, compressing, encrypting, and
+   * signing and uploading. Compression can further be split into blocks compressed in parallel.
+   * Each stage logs its throughput when it finishes, which shows where the time is going.
+   *
    * <p>In psuedoshell, the whole process looks like the following:
    *
    * <pre>   {@code
-   *   gcs read $xmlFile \                                   # Get GhostRyDE from cloud storage.
+   *   gcs read $xmlFiles \                                  # Get GhostRyDE from cloud storage.
    *     | decrypt | decompress \                            # Convert it to XML.
    *     | tar | file | compress | encrypt | sign /tmp/sig \ # Convert it to a RyDE file.
    *     | tee gs://bucket/$rydeFilename.ryde \              # Save a copy of the RyDE file to GCS.
@@ -173,37 +197,100 @@ public final class RdeUploadAction implements Runnable, EscrowTask {
    *   }</pre>
    */
   private void upload(
-      GcsFilename xmlFile, long xmlLength, DateTime watermark, String name) throws Exception {
-    logger.infofmt("Uploading %s to %s", xmlFile, uploadUrl);
-    try (InputStream gcsInput = gcsUtils.openInputStream(xmlFile);
-        Ghostryde.Decryptor decryptor = ghostryde.openDecryptor(gcsInput, stagingDecryptionKey);
-        Ghostryde.Decompressor decompressor = ghostryde.openDecompressor(decryptor);
-        Ghostryde.Input xmlInput = ghostryde.openInput(decompressor)) {
-      try (JSchSshSession session = jschSshSessionFactory.create(jsch, uploadUrl);
-          JSchSftpChannel ftpChan = session.openSftpChannel()) {
-        byte[] signature;
-        String rydeFilename = name + ".ryde";
-        GcsFilename rydeGcsFilename = new GcsFilename(bucket, rydeFilename);
-        try (OutputStream ftpOutput = ftpChan.get().put(rydeFilename, OVERWRITE);
-            OutputStream gcsOutput = gcsUtils.openOutputStream(rydeGcsFilename);
-            TeeOutputStream teeOutput = new TeeOutputStream(asList(ftpOutput, gcsOutput));
-            RydePgpSigningOutputStream signer = pgpSigningFactory.create(teeOutput, signingKey)) {
-          try (OutputStream encryptLayer = pgpEncryptionFactory.create(signer, receiverKey);
-              OutputStream kompressor = pgpCompressionFactory.create(encryptLayer);
-              OutputStream fileLayer = pgpFileFactory.create(kompressor, watermark, name + ".tar");
-              OutputStream tarLayer =
-                  tarFactory.create(fileLayer, xmlLength, watermark, name + ".xml")) {
-            ByteStreams.copy(xmlInput, tarLayer);
+      ImmutableList<GcsFilename> xmlFiles, long xmlLength, DateTime watermark, String name)
+      throws Exception {
+    logger.infofmt("Uploading %s to %s", xmlFiles, uploadUrl);
+    try (JSchSshSession session = jschSshSessionFactory.create(jsch, uploadUrl);
+        JSchSftpChannel ftpChan = session.openSftpChannel()) {
+      byte[] signature;
+      String rydeFilename = name + ".ryde";
+      GcsFilename rydeGcsFilename = new GcsFilename(bucket, rydeFilename);
+      try (OutputStream ftpOutput = ftpChan.get().put(rydeFilename, OVERWRITE);
+          OutputStream gcsOutput = gcsUtils.openOutputStream(rydeGcsFilename);
+          TeeOutputStream teeOutput = new TeeOutputStream(asList(ftpOutput, gcsOutput));
+          RydePgpSigningOutputStream signer = pgpSigningFactory.create(teeOutput, signingKey)) {
+        ThreadFactory threadFactory = (pipelineDepth > 0) ? currentRequestThreadFactory() : null;
+        try (OutputStream signStage = createStage("sign", signer, threadFactory);
+            OutputStream encryptLayer = pgpEncryptionFactory.create(signStage, receiverKey);
+            OutputStream encryptStage = createStage("encrypt", encryptLayer, threadFactory);
+            OutputStream kompressor = createCompressionLayer(encryptStage, threadFactory);
+            OutputStream compressStage = createStage("compress", kompressor, threadFactory);
+            OutputStream fileLayer =
+                pgpFileFactory.create(compressStage, watermark, name + ".tar");
+            OutputStream tarLayer =
+                tarFactory.create(fileLayer, xmlLength, watermark, name + ".xml")) {
+          for (GcsFilename xmlFile : xmlFiles) {
+            try (InputStream gcsInput = gcsUtils.openInputStream(xmlFile);
+                Ghostryde.Decryptor decryptor =
+                    ghostryde.openDecryptor(gcsInput, stagingDecryptionKey);
+                Ghostryde.Decompressor decompressor = ghostryde.openDecompressor(decryptor);
+                Ghostryde.Input xmlInput = ghostryde.openInput(decompressor)) {
+              ByteStreams.copy(xmlInput, tarLayer);
+            }
           }
-          signature = signer.getSignature();
-          logger.infofmt("uploaded %,d bytes: %s.ryde", signer.getBytesWritten(), name);
         }
-        String sigFilename = name + ".sig";
-        gcsUtils.createFromBytes(new GcsFilename(bucket, sigFilename), signature);
-        ftpChan.get().put(new ByteArrayInputStream(signature), sigFilename);
-        logger.infofmt("uploaded %,d bytes: %s.sig", signature.length, name);
+        signature = signer.getSignature();
+        logger.infofmt("uploaded %,d bytes: %s.ryde", signer.getBytesWritten(), name);
+      }
+      String sigFilename = name + ".sig";
+      gcsUtils.createFromBytes(new GcsFilename(bucket, sigFilename), signature);
+      ftpChan.get().put(new ByteArrayInputStream(signature), sigFilename);
+      logger.infofmt("uploaded %,d bytes: %s.sig", signature.length, name);
+    }
+  }
+
+  /**
+   * Returns a stream that runs the layers beneath it on a thread of their own, so that they work
+   * at the same time as the layers above it.
+   *
+   * <p>If pipelining is disabled, or threads can't be created, the returned stream simply writes
+   * through on the calling thread.
+   *
+   * @param stage name of the layers beneath the returned stream, used to log and export their
+   *     throughput
+   */
+  private OutputStream createStage(
+      String stage, @WillNotClose OutputStream os, @Nullable ThreadFactory threadFactory) {
+    return (threadFactory == null)
+        ? new ImprovedOutputStream(os, false, -1)
+        : new PipelinedOutputStream(
+            "rde_upload/" + stage,
+            String.format("%s stage of %s upload", stage, tld),
+            os,
+            threadFactory,
+            bufferSize,
+            pipelineDepth);
+  }
+
+  /** Returns the compression layer, which compresses independent blocks in parallel if enabled. */
+  private OutputStream createCompressionLayer(
+      @WillNotClose OutputStream os, @Nullable ThreadFactory threadFactory) {
+    return (compressionBlockSize > 0)
+        ? pgpCompressionFactory.create(os, compressionBlockSize, compressionThreads, threadFactory)
+        : pgpCompressionFactory.create(os);
+  }
+
+  /**
+   * Returns the staged ghostryde files that make up the deposit XML, in order.
+   *
+   * <p>A deposit staged in multiple parts has a manifest listing its files, one per line. Otherwise
+   * the whole deposit is in a single file.
+   *
+   * @see RdeStagingReducer
+   */
+  private ImmutableList<GcsFilename> getXmlFiles(String name) throws IOException {
+    GcsFilename manifestFilename = new GcsFilename(bucket, name + ".xml.parts");
+    if (!gcsUtils.existsAndNotEmpty(manifestFilename)) {
+      return ImmutableList.of(new GcsFilename(bucket, name + ".xml.ghostryde"));
+    }
+    ImmutableList.Builder<GcsFilename> xmlFiles = new ImmutableList.Builder<>();
+    try (InputStream input = gcsUtils.openInputStream(manifestFilename)) {
+      for (String objectName : Splitter.on('\n').omitEmptyStrings().trimResults()
+          .split(new String(ByteStreams.toByteArray(input), UTF_8))) {
+        xmlFiles.add(new GcsFilename(bucket, objectName));
       }
     }
+    return xmlFiles.build();
   }
 
   /** Reads the contents of a file from Cloud Storage that contains nothing but an integer. */
@@ -20,6 +20,8 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 import com.google.common.io.BaseEncoding;
 import com.google.re2j.Matcher;
 import com.google.re2j.Pattern;
+import google.registry.model.rde.RdeMode;
+import google.registry.model.rde.RdeRevision;
 import google.registry.xjc.rde.XjcRdeRrType;
 import google.registry.xml.XmlException;
 import java.io.BufferedInputStream;
@@ -87,6 +89,16 @@ public final class RdeUtil {
     return BaseEncoding.base32().omitPadding().encode(bytes);
   }
 
+  /**
+   * Returns whether the RDE deposit that was staged for {@code watermark} is
+   * {@linkplain RdeMode#FULL full} or {@linkplain RdeMode#INCR incremental}.
+   */
+  static RdeMode getStagedRdeMode(String tld, DateTime watermark) {
+    return (RdeRevision.getNextRevision(tld, watermark, RdeMode.INCR) > 0)
+        ? RdeMode.INCR
+        : RdeMode.FULL;
+  }
+
   static XjcRdeRrType makeXjcRdeRrType(String clientId) {
     XjcRdeRrType bean = new XjcRdeRrType();
     bean.setValue(clientId);
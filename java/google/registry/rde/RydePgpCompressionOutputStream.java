@@ -14,15 +14,32 @@
 
 package google.registry.rde;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static java.util.concurrent.Executors.newFixedThreadPool;
 import static org.bouncycastle.bcpg.CompressionAlgorithmTags.ZIP;
 
 import com.google.auto.factory.AutoFactory;
 import com.google.auto.factory.Provided;
+import com.google.common.util.concurrent.Uninterruptibles;
 import google.registry.config.ConfigModule.Config;
 import google.registry.util.ImprovedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.Deflater;
+import javax.annotation.Nullable;
 import javax.annotation.WillNotClose;
+import org.bouncycastle.bcpg.BCPGOutputStream;
+import org.bouncycastle.bcpg.PacketTags;
 import org.bouncycastle.openpgp.PGPCompressedDataGenerator;
 import org.bouncycastle.openpgp.PGPException;
 
@@ -30,6 +47,11 @@ import org.bouncycastle.openpgp.PGPException;
  * OpenPGP compression service that wraps an {@link OutputStream}.
  *
  * <p>This uses the ZIP compression algorithm per the ICANN escrow specification.
+ *
+ * <p>Compression is usually the slowest layer of a RyDE file. It can optionally be done in blocks
+ * that are compressed independently of each other, on several threads at once. Each block ends
+ * with a full flush, so the blocks concatenate into a single standard deflate stream that any
+ * OpenPGP implementation can read, at the cost of a slightly worse compression ratio.
  */
 @AutoFactory(allowSubclasses = true)
 public class RydePgpCompressionOutputStream extends ImprovedOutputStream {
@@ -46,6 +68,24 @@ public class RydePgpCompressionOutputStream extends ImprovedOutputStream {
     super(createDelegate(bufferSize, os));
   }
 
+  /**
+   * Creates a new instance that compresses data in independent blocks.
+   *
+   * @param os is the upstream {@link OutputStream} which is not closed by this object
+   * @param blockSize is the number of uncompressed bytes in each block
+   * @param threads is the number of blocks to compress at once
+   * @param threadFactory creates the threads that compress blocks, or {@code null} to compress
+   *     them on the calling thread
+   */
+  public RydePgpCompressionOutputStream(
+      @Provided @Config("rdeRydeBufferSize") Integer bufferSize,
+      @WillNotClose OutputStream os,
+      int blockSize,
+      int threads,
+      @Nullable ThreadFactory threadFactory) {
+    super(new BlockCompressor(bufferSize, os, blockSize, threads, threadFactory));
+  }
+
   private static OutputStream createDelegate(int bufferSize, OutputStream os) {
     try {
       return new PGPCompressedDataGenerator(ZIP).open(os, new byte[bufferSize]);
@@ -53,4 +93,145 @@ public class RydePgpCompressionOutputStream extends ImprovedOutputStream {
       throw new RuntimeException(e);
     }
   }
+
+  /**
+   * Writes an OpenPGP compressed data packet whose contents are compressed one block at a time.
+   *
+   * <p>Blocks are compressed in the background while more data is written, and written to the
+   * packet in order. At most twice as many blocks as there are threads are held in memory.
+   */
+  private static final class BlockCompressor extends OutputStream {
+
+    private final BCPGOutputStream packet;
+    private final int blockSize;
+    private final int maxBlocksInFlight;
+    @Nullable private final ExecutorService executor;
+    private final Deque<Future<byte[]>> inFlight = new ArrayDeque<>();
+
+    private byte[] block;
+    private int blockLength;
+    private boolean isClosed;
+
+    BlockCompressor(
+        int bufferSize,
+        OutputStream os,
+        int blockSize,
+        int threads,
+        @Nullable ThreadFactory threadFactory) {
+      checkArgument(blockSize > 0, "blockSize must be positive");
+      checkArgument(threads > 0, "threads must be positive");
+      this.blockSize = blockSize;
+      this.block = new byte[blockSize];
+      this.executor = (threadFactory == null || threads == 1)
+          ? null
+          : newFixedThreadPool(threads, threadFactory);
+      this.maxBlocksInFlight = (executor == null) ? 1 : threads * 2;
+      try {
+        // This is what PGPCompressedDataGenerator does, except that we do our own deflating.
+        packet = new BCPGOutputStream(os, PacketTags.COMPRESSED_DATA, new byte[bufferSize]);
+        packet.write(ZIP);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      checkState(!isClosed, "outputstream closed");
+      while (len > 0) {
+        int n = Math.min(len, blockSize - blockLength);
+        System.arraycopy(b, off, block, blockLength, n);
+        blockLength += n;
+        off += n;
+        len -= n;
+        if (blockLength == blockSize) {
+          submit(block, blockLength, false);
+          block = new byte[blockSize];
+          blockLength = 0;
+        }
+      }
+    }
+
+    /** Writes the last block and finishes the packet, without closing the upstream stream. */
+    @Override
+    public void close() throws IOException {
+      if (isClosed) {
+        return;
+      }
+      isClosed = true;
+      try {
+        submit(block, blockLength, true);
+        block = null;
+        while (!inFlight.isEmpty()) {
+          writeNextBlock();
+        }
+        packet.finish();
+        packet.flush();
+      } finally {
+        if (executor != null) {
+          executor.shutdownNow();
+        }
+      }
+    }
+
+    private void submit(final byte[] data, final int length, final boolean last)
+        throws IOException {
+      FutureTask<byte[]> task = new FutureTask<>(new Callable<byte[]>() {
+        @Override
+        public byte[] call() {
+          return deflate(data, length, last);
+        }});
+      if (executor == null) {
+        task.run();
+      } else {
+        executor.execute(task);
+      }
+      inFlight.addLast(task);
+      while (inFlight.size() > maxBlocksInFlight) {
+        writeNextBlock();
+      }
+    }
+
+    private void writeNextBlock() throws IOException {
+      try {
+        packet.write(Uninterruptibles.getUninterruptibly(inFlight.removeFirst()));
+      } catch (ExecutionException e) {
+        throw new IOException("Compression failed", e.getCause());
+      }
+    }
+
+    /**
+     * Compresses a block as raw deflate data that doesn't refer to any other block. Every block
+     * but the last ends with a full flush, which aligns it to a byte boundary and resets the
+     * dictionary, so the next block can be appended to it.
+     */
+    private static byte[] deflate(byte[] data, int length, boolean last) {
+      Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+      try {
+        deflater.setInput(data, 0, length);
+        ByteArrayOutputStream output = new ByteArrayOutputStream(length / 2 + 64);
+        byte[] buffer = new byte[64 * 1024];
+        if (last) {
+          deflater.finish();
+          while (!deflater.finished()) {
+            output.write(buffer, 0, deflater.deflate(buffer));
+          }
+        } else {
+          int n;
+          do {
+            n = deflater.deflate(buffer, 0, buffer.length, Deflater.FULL_FLUSH);
+            output.write(buffer, 0, n);
+          } while (n == buffer.length);
+        }
+        return output.toByteArray();
+      } finally {
+        deflater.end();
+      }
+    }
+  }
 }
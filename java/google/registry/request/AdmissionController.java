@@ -0,0 +1,67 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.request;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Limits how many requests to an action can run at once on this instance, so that a burst of
+ * expensive requests to some actions can't starve the rest.
+ *
+ * <p>Limits are configured by path prefix, so a limit can cover a single action, or a whole class
+ * of actions such as everything under {@code /rdap/}. An action is governed by the longest
+ * configured prefix of its path, and all actions under that prefix share its permits. Requests
+ * beyond the limit are shed immediately rather than queued, since a queued request would only tie
+ * up another thread.
+ */
+final class AdmissionController {
+
+  /** The permits of each configured path prefix. */
+  private final ImmutableMap<String, Semaphore> permitsByPathPrefix;
+
+  AdmissionController(ImmutableMap<String, Integer> concurrencyLimits) {
+    ImmutableMap.Builder<String, Semaphore> permitsByPathPrefix = new ImmutableMap.Builder<>();
+    for (Map.Entry<String, Integer> entry : concurrencyLimits.entrySet()) {
+      checkArgument(
+          entry.getValue() > 0,
+          "Concurrency limit for %s must be positive: %s",
+          entry.getKey(),
+          entry.getValue());
+      permitsByPathPrefix.put(entry.getKey(), new Semaphore(entry.getValue()));
+    }
+    this.permitsByPathPrefix = permitsByPathPrefix.build();
+  }
+
+  /**
+   * Returns the permits that requests to an action must hold while they run, or absent if the
+   * action's concurrency isn't limited.
+   */
+  Optional<Semaphore> getPermits(String actionPath) {
+    String longestPrefix = null;
+    for (String pathPrefix : permitsByPathPrefix.keySet()) {
+      if (actionPath.startsWith(pathPrefix)
+          && (longestPrefix == null || pathPrefix.length() > longestPrefix.length())) {
+        longestPrefix = pathPrefix;
+      }
+    }
+    return Optional.fromNullable(
+        (longestPrefix == null) ? null : permitsByPathPrefix.get(longestPrefix));
+  }
+}
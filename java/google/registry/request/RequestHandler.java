@@ -20,18 +20,25 @@ import static com.google.common.net.HttpHeaders.LOCATION;
 import static com.google.common.net.MediaType.PLAIN_TEXT_UTF_8;
 import static google.registry.security.XsrfTokenManager.X_CSRF_TOKEN;
 import static google.registry.security.XsrfTokenManager.validateToken;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static javax.servlet.http.HttpServletResponse.SC_FORBIDDEN;
 import static javax.servlet.http.HttpServletResponse.SC_METHOD_NOT_ALLOWED;
 import static javax.servlet.http.HttpServletResponse.SC_MOVED_TEMPORARILY;
 import static javax.servlet.http.HttpServletResponse.SC_NOT_FOUND;
+import static javax.servlet.http.HttpServletResponse.SC_SERVICE_UNAVAILABLE;
 
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableMap;
+import google.registry.config.RegistryEnvironment;
 import google.registry.util.FormattingLogger;
 import google.registry.util.NonFinalForTesting;
 import java.io.IOException;
 import java.lang.reflect.Method;
+import java.util.concurrent.Semaphore;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.joda.time.Duration;
@@ -65,6 +72,14 @@ import org.joda.time.Duration;
  *
  * <p>This class also enforces the {@link Action#requireLogin() requireLogin} setting.
  *
+ * <h3>Admission Control</h3>
+ *
+ * <p>Actions can be given a limit on how many of their requests may run at once on an instance,
+ * by {@link google.registry.config.RegistryConfig#getActionConcurrencyLimits}. Requests beyond
+ * the limit fail fast with a 503, so that a burst of expensive requests, such as RDAP or WHOIS
+ * searches, can't tie up the threads that EPP needs. The latency, in-flight count and outcome of
+ * the requests to every action are recorded by {@link RequestMetrics}.
+ *
  * @param <C> component type
  */
 public final class RequestHandler<C> {
@@ -89,14 +104,27 @@ public final class RequestHandler<C> {
    *     {@link Action} annotation
    */
   public static <C> RequestHandler<C> create(Class<C> component, Iterable<Method> methods) {
-    return new RequestHandler<>(component, Router.create(methods));
+    return create(
+        component, methods, RegistryEnvironment.get().config().getActionConcurrencyLimits());
+  }
+
+  /** Creates a new request processor with the given concurrency limits, keyed by path prefix. */
+  @VisibleForTesting
+  static <C> RequestHandler<C> create(
+      Class<C> component, Iterable<Method> methods, ImmutableMap<String, Integer> limits) {
+    return new RequestHandler<>(
+        component, Router.create(methods), new AdmissionController(limits));
   }
 
   private final Router router;
+  private final AdmissionController admissionController;
+  private final RequestMetrics metrics = new RequestMetrics();
 
-  private RequestHandler(Class<C> component, Router router) {
+  private RequestHandler(
+      Class<C> component, Router router, AdmissionController admissionController) {
     checkNotNull(component);
     this.router = router;
+    this.admissionController = admissionController;
   }
 
   /**
@@ -143,14 +171,32 @@ public final class RequestHandler<C> {
       rsp.sendError(SC_FORBIDDEN, "Invalid " + X_CSRF_TOKEN);
       return;
     }
+    String actionPath = route.get().action().path();
+    Optional<Semaphore> permits = admissionController.getPermits(actionPath);
+    if (permits.isPresent() && !permits.get().tryAcquire()) {
+      logger.warningfmt("Too many concurrent requests, shedding: %s", path);
+      metrics.incrementShedRequests(actionPath);
+      rsp.sendError(SC_SERVICE_UNAVAILABLE, "Too many concurrent requests");
+      return;
+    }
+    metrics.startRequest(actionPath);
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    String outcome = "EXCEPTION";
     try {
       route.get().instantiator().apply(component).run();
       if (route.get().action().automaticallyPrintOk()) {
         rsp.setContentType(PLAIN_TEXT_UTF_8.toString());
         rsp.getWriter().write("OK\n");
       }
+      outcome = "OK";
     } catch (HttpException e) {
+      outcome = String.valueOf(e.getResponseCode());
       e.send(rsp);
+    } finally {
+      metrics.finishRequest(actionPath, method, outcome, stopwatch.elapsed(MILLISECONDS));
+      if (permits.isPresent()) {
+        permits.get().release();
+      }
     }
   }
 }
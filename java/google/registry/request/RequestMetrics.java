@@ -0,0 +1,117 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.request;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import google.registry.monitoring.metrics.EventMetric;
+import google.registry.monitoring.metrics.IncrementableMetric;
+import google.registry.monitoring.metrics.LabelDescriptor;
+import google.registry.monitoring.metrics.Metric;
+import google.registry.monitoring.metrics.MetricRegistryImpl;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Request handling instrumentation, per {@link Action}. */
+final class RequestMetrics {
+
+  private static final LabelDescriptor ACTION_LABEL =
+      LabelDescriptor.create("action", "The path of the action handling the request.");
+
+  private static final ImmutableSet<LabelDescriptor> LABEL_DESCRIPTORS =
+      ImmutableSet.of(
+          ACTION_LABEL,
+          LabelDescriptor.create("method", "The HTTP method of the request."),
+          LabelDescriptor.create(
+              "outcome",
+              "OK if the action returned normally, the status code if it threw an HTTP exception, "
+                  + "or EXCEPTION if it threw anything else."));
+
+  private static final EventMetric processingTime =
+      MetricRegistryImpl.getDefault()
+          .newEventMetric(
+              "/request/processing_time",
+              "time taken to run an action",
+              "milliseconds",
+              LABEL_DESCRIPTORS,
+              EventMetric.DEFAULT_FITTER);
+
+  /** The number of requests currently running, per action path. */
+  private static final ConcurrentMap<String, AtomicLong> inFlightCounts =
+      new ConcurrentHashMap<>();
+
+  @SuppressWarnings("unused")
+  private static final Metric<Long> inFlightRequests =
+      MetricRegistryImpl.getDefault()
+          .newGauge(
+              "/request/in_flight",
+              "count of requests running on this instance",
+              "count",
+              ImmutableSet.of(ACTION_LABEL),
+              new Supplier<ImmutableMap<ImmutableList<String>, Long>>() {
+                @Override
+                public ImmutableMap<ImmutableList<String>, Long> get() {
+                  ImmutableMap.Builder<ImmutableList<String>, Long> values =
+                      new ImmutableMap.Builder<>();
+                  for (Map.Entry<String, AtomicLong> entry : inFlightCounts.entrySet()) {
+                    values.put(ImmutableList.of(entry.getKey()), entry.getValue().get());
+                  }
+                  return values.build();
+                }
+              },
+              Long.class);
+
+  private static final IncrementableMetric shedRequests =
+      MetricRegistryImpl.getDefault()
+          .newIncrementableMetric(
+              "/request/shed_requests",
+              "count of requests rejected because the action had too many running",
+              "count",
+              ImmutableSet.of(ACTION_LABEL));
+
+  /** Records that a request to an action has started running. */
+  void startRequest(String actionPath) {
+    AtomicLong count = inFlightCounts.get(actionPath);
+    if (count == null) {
+      inFlightCounts.putIfAbsent(actionPath, new AtomicLong());
+      count = inFlightCounts.get(actionPath);
+    }
+    count.incrementAndGet();
+  }
+
+  /** Records that a request to an action has finished running, and how long it took. */
+  void finishRequest(
+      String actionPath, Action.Method method, String outcome, long processingTimeMillis) {
+    inFlightCounts.get(actionPath).decrementAndGet();
+    processingTime.record(processingTimeMillis, actionPath, method.name(), outcome);
+  }
+
+  /** Increments a counter of requests to an action that were shed by admission control. */
+  void incrementShedRequests(String actionPath) {
+    shedRequests.increment(actionPath);
+  }
+
+  /** Returns the number of requests to an action that are currently running. */
+  @VisibleForTesting
+  static long getInFlightCount(String actionPath) {
+    AtomicLong count = inFlightCounts.get(actionPath);
+    return (count == null) ? 0 : count.get();
+  }
+}
@@ -15,10 +15,16 @@
 package google.registry.tmch;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Strings.nullToEmpty;
+import static java.nio.charset.StandardCharsets.US_ASCII;
 
 import com.google.common.base.Splitter;
-import com.google.common.collect.ImmutableMap;
+import google.registry.model.tmch.ClaimsListIndex;
 import google.registry.model.tmch.ClaimsListShard;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.util.List;
 import org.joda.time.DateTime;
 
@@ -32,16 +38,21 @@ import org.joda.time.DateTime;
  */
 public class ClaimsListParser {
 
+  private static final Splitter COMMA_SPLITTER = Splitter.on(',');
+
   /**
-   * Converts the lines from the DNL CSV file into a {@link ClaimsListShard} object.
+   * Reads the DNL CSV file from a stream into a {@link ClaimsListShard} object.
+   *
+   * <p>The claims are read a line at a time straight into a {@link ClaimsListIndex}, so the file
+   * is never held in memory as a list of lines or a map of strings.
    *
    * <p>Please note that this does <b>not</b> insert the object into the datastore.
    */
-  public static ClaimsListShard parse(List<String> lines) {
-    ImmutableMap.Builder<String, String> builder = new ImmutableMap.Builder<>();
+  public static ClaimsListShard parse(InputStream input) throws IOException {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(input, US_ASCII));
 
     // First line: <version>,<DNL List creation datetime>
-    List<String> firstLine = Splitter.on(',').splitToList(lines.get(0));
+    List<String> firstLine = COMMA_SPLITTER.splitToList(nullToEmpty(reader.readLine()));
     checkArgument(firstLine.size() == 2, String.format(
         "Line 1: Expected 2 elements, found %d", firstLine.size()));
 
@@ -51,7 +62,7 @@ public class ClaimsListParser {
         "Line 1: Expected version 1, found %d", version));
 
     // Second line contains headers: DNL,lookup-key,insertion-datetime
-    List<String> secondLine = Splitter.on(',').splitToList(lines.get(1));
+    List<String> secondLine = COMMA_SPLITTER.splitToList(nullToEmpty(reader.readLine()));
     checkArgument(secondLine.size() == 3, String.format(
         "Line 2: Expected 3 elements, found %d", secondLine.size()));
     checkArgument("DNL".equals(secondLine.get(0)), String.format(
@@ -62,17 +73,25 @@ public class ClaimsListParser {
         "Line 2: Expected header \"insertion-datetime\", found \"%s\"", secondLine.get(2)));
 
     // Subsequent lines: <DNL>,<lookup key>,<DNL insertion datetime>
-    for (int i = 2; i < lines.size(); i++) {
-      List<String> currentLine = Splitter.on(',').splitToList(lines.get(i));
-      checkArgument(currentLine.size() == 3, String.format(
-          "Line %d: Expected 3 elements, found %d", i + 1, currentLine.size()));
-
-      String label = currentLine.get(0);
-      String lookupKey = currentLine.get(1);
-      DateTime.parse(currentLine.get(2));  // This is the insertion time, currently unused.
-      builder.put(label, lookupKey);
+    ClaimsListIndex.Builder builder = new ClaimsListIndex.Builder();
+    int lineNumber = 2;
+    for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+      lineNumber++;
+      // Find the fields by hand rather than splitting, since there are hundreds of thousands of
+      // lines. The insertion time is currently unused, so it's only checked to be present.
+      int firstComma = line.indexOf(',');
+      int secondComma = (firstComma < 0) ? -1 : line.indexOf(',', firstComma + 1);
+      if (secondComma < 0 || line.indexOf(',', secondComma + 1) >= 0) {
+        throw new IllegalArgumentException(String.format(
+            "Line %d: Expected 3 elements, found %d",
+            lineNumber,
+            COMMA_SPLITTER.splitToList(line).size()));
+      }
+      checkArgument(secondComma < line.length() - 1, String.format(
+          "Line %d: Expected an insertion datetime", lineNumber));
+      builder.put(line.substring(0, firstComma), line.substring(firstComma + 1, secondComma));
     }
 
-    return ClaimsListShard.create(creationTime, builder.build());
+    return ClaimsListShard.createFromIndex(creationTime, builder.build());
   }
 }
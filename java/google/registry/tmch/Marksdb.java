@@ -118,9 +118,16 @@ public final class Marksdb {
   List<String> fetchSignedCsv(
       Optional<String> login, String csvPath, String sigPath)
       throws IOException, SignatureException, PGPException {
+    return fetchSignedCsvSource(login, csvPath, sigPath).asCharSource(US_ASCII).readLines();
+  }
+
+  /** Fetches a CSV file and its signature, and returns the file once the signature is verified. */
+  ByteSource fetchSignedCsvSource(
+      Optional<String> login, String csvPath, String sigPath)
+      throws IOException, SignatureException, PGPException {
     byte[] csv = fetch(new URL(tmchMarksdbUrl + csvPath), login);
     byte[] sig = fetch(new URL(tmchMarksdbUrl + sigPath), login);
     pgpVerifySignature(csv, sig, marksdbPublicKey);
-    return ByteSource.wrap(csv).asCharSource(US_ASCII).readLines();
+    return ByteSource.wrap(csv);
   }
 }
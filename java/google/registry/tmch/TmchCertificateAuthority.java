@@ -52,7 +52,7 @@ public final class TmchCertificateAuthority {
    * string into an X509CRL instance is expensive and should itself be cached.
    */
   private static final Supplier<X509CRL> CRL_CACHE =
-      memoizeWithShortExpiration(new Supplier<X509CRL>() {
+      memoizeWithShortExpiration("tmchCrl", new Supplier<X509CRL>() {
         @Override
         public X509CRL get() {
           TmchCrl storedCrl = TmchCrl.get();
@@ -69,6 +69,12 @@ abstract class CreateOrUpdateTldCommand extends MutatingCommand {
       arity = 1)
   private Boolean dns;
 
+  @Nullable
+  @Parameter(
+      names = "--num_dns_publish_locks",
+      description = "The number of shards to split DNS publishing into, each with its own lock")
+  private Integer numDnsPublishLocks;
+
   @Nullable
   @Parameter(
       names = "--add_grace_period",
@@ -286,6 +292,10 @@ abstract class CreateOrUpdateTldCommand extends MutatingCommand {
         builder.setDnsPaused(!dns);
       }
 
+      if (numDnsPublishLocks != null) {
+        builder.setNumDnsPublishLocks(numDnsPublishLocks);
+      }
+
       Optional<Map.Entry<DateTime, TldState>> tldStateTransitionToAdd =
           getTldStateTransitionToAdd();
       if (!tldStateTransitions.isEmpty()) {
@@ -44,6 +44,13 @@ final class GenerateZoneFilesCommand implements ServerSideCommand {
       validateWith = DateTimeParameter.class)
   private DateTime exportTime = DateTime.now(UTC).minus(standardMinutes(2)).withTimeAtStartOfDay();
 
+  @Parameter(
+      names = "--previous_export_time",
+      description = "The (midnight UTC) time of existing zone files to generate the new ones from, "
+          + "by applying only the changes since then. Also generates files with the changes.",
+      validateWith = DateTimeParameter.class)
+  private DateTime previousExportTime;
+
   private Connection connection;
 
   @Override
@@ -56,10 +63,14 @@ final class GenerateZoneFilesCommand implements ServerSideCommand {
     for (String tld : mainParameters) {
       assertTldExists(tld);
     }
-    ImmutableMap<String, Object> params = ImmutableMap.of(
-        "tlds", mainParameters,
-        "exportTime", exportTime.toString());
-    Map<String, Object> response = connection.sendJson(GenerateZoneFilesAction.PATH, params);
+    ImmutableMap.Builder<String, Object> params = new ImmutableMap.Builder<String, Object>()
+        .put("tlds", mainParameters)
+        .put("exportTime", exportTime.toString());
+    if (previousExportTime != null) {
+      params.put("previousExportTime", previousExportTime.toString());
+    }
+    Map<String, Object> response =
+        connection.sendJson(GenerateZoneFilesAction.PATH, params.build());
     System.out.printf(
         "Job started at %s%s\n",
         connection.getServerUrl(),
@@ -70,5 +81,13 @@ final class GenerateZoneFilesCommand implements ServerSideCommand {
     for (String filename : filenames) {
       System.out.println(filename);
     }
+    @SuppressWarnings("unchecked")
+    List<String> diffFilenames = (List<String>) response.get("diffFilenames");
+    if (diffFilenames != null) {
+      System.out.println("Diff files:");
+      for (String filename : diffFilenames) {
+        System.out.println(filename);
+      }
+    }
   }
 }
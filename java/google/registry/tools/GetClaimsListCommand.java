@@ -19,11 +19,12 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.Parameters;
-import com.google.common.base.Joiner;
 import com.google.common.io.Files;
+import google.registry.model.tmch.ClaimsListIndex;
 import google.registry.model.tmch.ClaimsListShard;
 import google.registry.tools.Command.RemoteApiCommand;
 import google.registry.tools.params.PathParameter;
+import java.io.Writer;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
@@ -45,7 +46,11 @@ final class GetClaimsListCommand implements RemoteApiCommand {
   @Override
   public void run() throws Exception {
     ClaimsListShard cl = checkNotNull(ClaimsListShard.get(), "Couldn't load ClaimsList");
-    String csv = Joiner.on('\n').withKeyValueSeparator(",").join(cl.getLabelsToKeys()) + "\n";
-    Files.write(csv, output.toFile(), UTF_8);
+    ClaimsListIndex index = cl.getIndex();
+    try (Writer writer = Files.newWriter(output.toFile(), UTF_8)) {
+      for (int i = 0; i < index.size(); i++) {
+        writer.append(index.getLabel(i)).append(',').append(index.getKey(i)).append('\n');
+      }
+    }
   }
 }
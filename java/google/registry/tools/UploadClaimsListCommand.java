@@ -15,7 +15,6 @@
 package google.registry.tools;
 
 import static com.google.common.base.Preconditions.checkArgument;
-import static java.nio.charset.StandardCharsets.US_ASCII;
 
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.Parameters;
@@ -26,6 +25,7 @@ import google.registry.tmch.ClaimsListParser;
 import google.registry.tools.Command.RemoteApiCommand;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -46,8 +46,10 @@ final class UploadClaimsListCommand extends ConfirmingCommand implements RemoteA
         "Expected a single argument with the claims list filename. Actual: %s",
         Joiner.on(' ').join(mainParameters));
     claimsListFilename = mainParameters.get(0);
-    claimsList = ClaimsListParser.parse(
-        Files.asCharSource(new File(claimsListFilename), US_ASCII).readLines());
+    try (InputStream input =
+        Files.asByteSource(new File(claimsListFilename)).openBufferedStream()) {
+      claimsList = ClaimsListParser.parse(input);
+    }
   }
 
   @Override
@@ -0,0 +1,81 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.tools.server;
+
+import static google.registry.mapreduce.inputs.EppResourceInputs.createEntityInput;
+import static google.registry.model.EppResourceUtils.isActive;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.util.PipelineUtils.createJobPath;
+
+import com.google.appengine.tools.mapreduce.Mapper;
+import com.google.common.collect.ImmutableList;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+import google.registry.mapreduce.MapreduceRunner;
+import google.registry.model.domain.DomainBase;
+import google.registry.model.index.DomainReferenceIndex;
+import google.registry.request.Action;
+import google.registry.request.Response;
+import javax.inject.Inject;
+
+/**
+ * A mapreduce that adds the references of all active domains and domain applications to the
+ * {@link DomainReferenceIndex}.
+ *
+ * <p>Domain flows keep the index current, so this only needs to run once, for the domains that
+ * existed before the index did. Adding references that are already indexed has no effect, so it's
+ * safe to run at any time.
+ */
+@Action(path = "/_dr/task/backfillDomainReferenceIndex")
+public class BackfillDomainReferenceIndexAction implements Runnable {
+
+  @Inject MapreduceRunner mrRunner;
+  @Inject Response response;
+  @Inject BackfillDomainReferenceIndexAction() {}
+
+  @Override
+  public void run() {
+    response.sendJavaScriptRedirect(createJobPath(mrRunner
+        .setJobName("Backfill domain reference index")
+        .setModuleName("backend")
+        .runMapOnly(
+            new BackfillDomainReferenceIndexMapper(),
+            ImmutableList.of(createEntityInput(DomainBase.class)))));
+  }
+
+  /** Mapper to add the references of each domain to the index. */
+  public static class BackfillDomainReferenceIndexMapper extends Mapper<DomainBase, Void, Void> {
+
+    private static final long serialVersionUID = 4270958254376245712L;
+
+    @Override
+    public final void map(DomainBase domain) {
+      final Key<DomainBase> domainKey = Key.create(domain);
+      boolean indexed = ofy().transact(new Work<Boolean>() {
+        @Override
+        public Boolean run() {
+          // Reload the domain in the transaction, so that a concurrent flow can't change its
+          // references between reading them and indexing them.
+          DomainBase reloadedDomain = ofy().load().key(domainKey).now();
+          if (!isActive(reloadedDomain, ofy().getTransactionTime())) {
+            return false;
+          }
+          ofy().save().entities(DomainReferenceIndex.createAddedInstances(null, reloadedDomain));
+          return true;
+        }});
+      getContext().incrementCounter(indexed ? "domains indexed" : "inactive domains skipped");
+    }
+  }
+}
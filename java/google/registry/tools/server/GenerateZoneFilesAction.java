@@ -15,9 +15,11 @@
 package google.registry.tools.server;
 
 import static com.google.appengine.tools.cloudstorage.GcsServiceFactory.createGcsService;
+import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.base.Predicates.notNull;
 import static com.google.common.collect.Iterators.filter;
 import static com.google.common.io.BaseEncoding.base16;
+import static google.registry.mapreduce.inputs.EppResourceInputs.createChangedEntityInput;
 import static google.registry.mapreduce.inputs.EppResourceInputs.createEntityInput;
 import static google.registry.model.EppResourceUtils.loadAtPointInTime;
 import static google.registry.model.ofy.ObjectifyService.ofy;
@@ -32,10 +34,14 @@ import com.google.appengine.tools.mapreduce.Mapper;
 import com.google.appengine.tools.mapreduce.Reducer;
 import com.google.appengine.tools.mapreduce.ReducerInput;
 import com.google.common.base.Function;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Sets;
 import google.registry.config.ConfigModule.Config;
 import google.registry.gcs.GcsUtils;
 import google.registry.mapreduce.MapreduceRunner;
@@ -48,16 +54,26 @@ import google.registry.request.Action;
 import google.registry.request.HttpException.BadRequestException;
 import google.registry.request.JsonActionRunner;
 import google.registry.util.Clock;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.Serializable;
 import java.io.Writer;
 import java.net.Inet4Address;
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
@@ -68,6 +84,13 @@ import org.joda.time.Duration;
  * <p>Zone files for each requested TLD are written to GCS. TLDs without entries produce zone files
  * with only a header. The export time must be at least two minutes in the past and no more than
  * 29 days in the past, and must be at midnight UTC.
+ *
+ * <p>If a previous export time is also given, the zone files are generated incrementally: the
+ * zone file for the previous export time is read back from GCS, and only the domains and hosts
+ * that changed since then, according to the commit logs, are loaded and regenerated. Along with
+ * each new zone file, an IXFR-style diff is written listing the records that were deleted and
+ * added. The previous export time has the same constraints as the export time, and its zone files
+ * must already exist.
  */
 @Action(
     path = GenerateZoneFilesAction.PATH,
@@ -81,12 +104,18 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
   /** Format for the zone file name. */
   private static final String FILENAME_FORMAT = "%s-%s.zone";
 
+  /** Format for the name of the file with the changes since the previous zone file. */
+  private static final String DIFF_FILENAME_FORMAT = "%s-%s.ixfr";
+
   /** Format for the GCS path to a file. */
   private static final String GCS_PATH_FORMAT = "gs://%s/%s";
 
   /** Format for the zone file header. */
   private static final String HEADER_FORMAT = "$ORIGIN\t%s.\n\n";
 
+  /** Format for the diff file header. */
+  private static final String DIFF_HEADER_FORMAT = "; Changes from %s to %s\n$ORIGIN\t%s.\n";
+
   /** Format for NS records. */
   private static final String NS_FORMAT = "%s\t%d\tIN\tNS\t%s.\n";
 
@@ -112,6 +141,7 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
   @Inject @Config("gcsBufferSize") int gcsBufferSize;
   @Inject @Config("commitLogDatastoreRetention") Duration datastoreRetention;
   @Inject Clock clock;
+  @Inject GcsUtils gcsUtils;
   @Inject GenerateZoneFilesAction() {}
 
   @Override
@@ -139,6 +169,10 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
     if (!exportTime.equals(exportTime.toDateTime(UTC).withTimeAtStartOfDay())) {
       throw new BadRequestException("Invalid export time: must be midnight UTC");
     }
+    if (json.get("previousExportTime") != null) {
+      return runIncremental(
+          tlds, DateTime.parse(json.get("previousExportTime").toString()), exportTime);
+    }
     String jobId = mrRunner
         .setJobName("Generate bind file stanzas")
         .setModuleName("tools")
@@ -149,7 +183,56 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
             ImmutableList.of(
                 new NullInput<EppResource>(),
                 createEntityInput(DomainResource.class, HostResource.class)));
-    ImmutableList<String> filenames = FluentIterable.from(tlds)
+    return ImmutableMap.<String, Object>of(
+        "jobPath", createJobPath(jobId),
+        "filenames", getGcsPaths(tlds, FILENAME_FORMAT, exportTime));
+  }
+
+  private Map<String, Object> runIncremental(
+      ImmutableSet<String> tlds, DateTime previousExportTime, DateTime exportTime) {
+    // Hosts are loaded at the previous export time to find their old names, so it has the same
+    // constraints as the export time.
+    if (!previousExportTime.isBefore(exportTime)) {
+      throw new BadRequestException("Invalid previous export time: must be before export time");
+    }
+    if (previousExportTime.isBefore(clock.nowUtc().minus(datastoreRetention))) {
+      throw new BadRequestException(String.format(
+          "Invalid previous export time: must be < %d days ago",
+          datastoreRetention.getStandardDays()));
+    }
+    if (!previousExportTime.equals(previousExportTime.toDateTime(UTC).withTimeAtStartOfDay())) {
+      throw new BadRequestException("Invalid previous export time: must be midnight UTC");
+    }
+    for (String tld : tlds) {
+      GcsFilename previousFile =
+          new GcsFilename(bucket, String.format(FILENAME_FORMAT, tld, previousExportTime));
+      if (!gcsUtils.existsAndNotEmpty(previousFile)) {
+        throw new BadRequestException(String.format(
+            "Previous zone file not found: " + GCS_PATH_FORMAT,
+            previousFile.getBucketName(),
+            previousFile.getObjectName()));
+      }
+    }
+    String jobId = mrRunner
+        .setJobName("Generate bind file diffs")
+        .setModuleName("tools")
+        .setDefaultReduceShards(tlds.size())
+        .runMapreduce(
+            new GenerateBindFileDiffMapper(tlds, previousExportTime, exportTime),
+            new GenerateBindFileDiffReducer(
+                bucket, previousExportTime, exportTime, gcsBufferSize),
+            ImmutableList.of(
+                new NullInput<EppResource>(),
+                createChangedEntityInput(previousExportTime, exportTime)));
+    return ImmutableMap.<String, Object>of(
+        "jobPath", createJobPath(jobId),
+        "filenames", getGcsPaths(tlds, FILENAME_FORMAT, exportTime),
+        "diffFilenames", getGcsPaths(tlds, DIFF_FILENAME_FORMAT, exportTime));
+  }
+
+  private ImmutableList<String> getGcsPaths(
+      ImmutableSet<String> tlds, final String filenameFormat, final DateTime exportTime) {
+    return FluentIterable.from(tlds)
         .transform(
             new Function<String, String>() {
               @Override
@@ -157,12 +240,9 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
                 return String.format(
                     GCS_PATH_FORMAT,
                     bucket,
-                    String.format(FILENAME_FORMAT, tld, exportTime));
+                    String.format(filenameFormat, tld, exportTime));
               }})
         .toList();
-    return ImmutableMap.<String, Object>of(
-        "jobPath", createJobPath(jobId),
-        "filenames", filenames);
   }
 
   /** Mapper to find domains and hosts that were active at a given time. */
@@ -209,15 +289,12 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
       host = loadAtPointInTime(host, exportTime).now();
       if (host != null) {  // A null means the host was deleted (or not created) at this time.
         // Find a matching tld. Hosts might change their tld, so check after the point-in-time load.
-        String fullyQualifiedHostName = host.getFullyQualifiedHostName();
-        for (String tld : tlds) {
-          if (fullyQualifiedHostName.endsWith("." + tld)) {
-            String stanza = hostStanza(host);
-            if (!stanza.isEmpty()) {
-              emit(tld, stanza);
-              getContext().incrementCounter(tld + " hosts");
-            }
-            return;
+        String tld = findTld(host.getFullyQualifiedHostName(), tlds);
+        if (tld != null) {
+          String stanza = hostStanza(host);
+          if (!stanza.isEmpty()) {
+            emit(tld, stanza);
+            getContext().incrementCounter(tld + " hosts");
           }
         }
       }
@@ -261,6 +338,323 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
     }
   }
 
+  /** A change to a zone file, from {@link GenerateBindFileDiffMapper}. */
+  static final class ZoneChange implements Serializable {
+
+    private static final long serialVersionUID = 2380925737342585498L;
+
+    /** Types of change. */
+    enum Type {
+      /** Replaces the NS and DS records of a domain with a new stanza, which may be empty. */
+      DOMAIN,
+
+      /** Replaces the A and AAAA records of a host with a new stanza, which may be empty. */
+      HOST,
+
+      /** Replaces a host name in NS records with its new name. */
+      RENAME
+    }
+
+    final Type type;
+
+    /** The domain or host name. */
+    final String name;
+
+    /** The new stanza, or the new host name. */
+    final String value;
+
+    ZoneChange(Type type, String name, String value) {
+      this.type = type;
+      this.name = name;
+      this.value = value;
+    }
+  }
+
+  /**
+   * Mapper to find the domains and hosts whose records changed between two export times.
+   *
+   * <p>The input is the resources saved in between, so this also queries for resources whose
+   * deletion took effect in between, since a pending delete takes effect without a save.
+   */
+  static class GenerateBindFileDiffMapper extends Mapper<EppResource, String, ZoneChange> {
+
+    private static final long serialVersionUID = -1541874361453702262L;
+
+    private final ImmutableSet<String> tlds;
+    private final DateTime previousExportTime;
+    private final DateTime exportTime;
+
+    GenerateBindFileDiffMapper(
+        ImmutableSet<String> tlds, DateTime previousExportTime, DateTime exportTime) {
+      this.tlds = tlds;
+      this.previousExportTime = previousExportTime;
+      this.exportTime = exportTime;
+    }
+
+    @Override
+    public void map(EppResource resource) {
+      if (resource == null) {  // Force the reducer to always generate a zone file for each tld.
+        for (String tld : tlds) {
+          emit(tld, null);
+          mapDeletedDomains(tld);
+        }
+        mapDeletedHosts();
+      } else if (resource instanceof DomainResource) {
+        mapDomain((DomainResource) resource);
+      } else if (resource instanceof HostResource) {
+        mapHost((HostResource) resource);
+      }
+    }
+
+    private void mapDomain(DomainResource domain) {
+      if (tlds.contains(domain.getTld())) {
+        // A null means the domain was deleted at this time, so its records should be removed.
+        DomainResource exportedDomain = loadAtPointInTime(domain, exportTime).now();
+        emit(domain.getTld(), new ZoneChange(
+            ZoneChange.Type.DOMAIN,
+            domain.getFullyQualifiedDomainName(),
+            exportedDomain == null ? "" : domainStanza(exportedDomain, exportTime)));
+        getContext().incrementCounter(domain.getTld() + " changed domains");
+      }
+    }
+
+    private void mapHost(HostResource host) {
+      HostResource previousHost = loadAtPointInTime(host, previousExportTime).now();
+      HostResource exportedHost = loadAtPointInTime(host, exportTime).now();
+      String previousName =
+          (previousHost == null) ? null : previousHost.getFullyQualifiedHostName();
+      String exportedName =
+          (exportedHost == null) ? null : exportedHost.getFullyQualifiedHostName();
+      if (previousName != null && !previousName.equals(exportedName)) {
+        emitHost(previousName, "");
+        if (exportedName != null) {
+          // Domains in any tld might use the host as a nameserver.
+          for (String tld : tlds) {
+            emit(tld, new ZoneChange(ZoneChange.Type.RENAME, previousName, exportedName));
+          }
+        }
+      }
+      if (exportedName != null) {
+        emitHost(exportedName, hostStanza(exportedHost));
+      }
+    }
+
+    private void emitHost(String fullyQualifiedHostName, String stanza) {
+      String tld = findTld(fullyQualifiedHostName, tlds);
+      if (tld != null) {
+        emit(tld, new ZoneChange(ZoneChange.Type.HOST, fullyQualifiedHostName, stanza));
+        getContext().incrementCounter(tld + " changed hosts");
+      }
+    }
+
+    private void mapDeletedDomains(String tld) {
+      for (DomainResource domain : ofy().load()
+          .type(DomainResource.class)
+          .filter("tld", tld)
+          .filter("deletionTime >", previousExportTime)
+          .filter("deletionTime <=", exportTime)) {
+        emit(tld, new ZoneChange(
+            ZoneChange.Type.DOMAIN, domain.getFullyQualifiedDomainName(), ""));
+        getContext().incrementCounter(tld + " deleted domains");
+      }
+    }
+
+    private void mapDeletedHosts() {
+      for (HostResource host : ofy().load()
+          .type(HostResource.class)
+          .filter("deletionTime >", previousExportTime)
+          .filter("deletionTime <=", exportTime)) {
+        emitHost(host.getFullyQualifiedHostName(), "");
+      }
+    }
+  }
+
+  /**
+   * Reducer to apply the changes to the previous zone files, and write the new zone files and the
+   * diffs to GCS.
+   *
+   * <p>The previous zone file is streamed through one stanza at a time, so only the changes are
+   * held in memory. Unchanged stanzas keep their place, and the changed ones are written after
+   * them, sorted by name.
+   */
+  static class GenerateBindFileDiffReducer extends Reducer<String, ZoneChange, Void> {
+
+    private static final long serialVersionUID = 6218937457915232871L;
+
+    private static final Splitter FIELD_SPLITTER = Splitter.on('\t');
+    private static final Splitter LINE_SPLITTER = Splitter.on('\n').omitEmptyStrings();
+    private static final Joiner FIELD_JOINER = Joiner.on('\t');
+    private static final Joiner LINE_JOINER = Joiner.on('\n');
+    private static final ImmutableSet<String> HOST_RECORD_TYPES = ImmutableSet.of("A", "AAAA");
+
+    private final String bucket;
+    private final DateTime previousExportTime;
+    private final DateTime exportTime;
+    private final int gcsBufferSize;
+
+    GenerateBindFileDiffReducer(
+        String bucket, DateTime previousExportTime, DateTime exportTime, int gcsBufferSize) {
+      this.bucket = bucket;
+      this.previousExportTime = previousExportTime;
+      this.exportTime = exportTime;
+      this.gcsBufferSize = gcsBufferSize;
+    }
+
+    @Override
+    public void reduce(String tld, ReducerInput<ZoneChange> changes) {
+      // The new stanzas of changed domains and hosts, by name, and the new names of hosts.
+      Map<String, String> domainStanzas = new TreeMap<>();
+      Map<String, String> hostStanzas = new TreeMap<>();
+      Map<String, String> renamedHosts = new HashMap<>();
+      for (Iterator<ZoneChange> changeIter = filter(changes, notNull()); changeIter.hasNext(); ) {
+        ZoneChange change = changeIter.next();
+        switch (change.type) {
+          case DOMAIN:
+            putStanza(domainStanzas, change);
+            break;
+          case HOST:
+            putStanza(hostStanzas, change);
+            break;
+          case RENAME:
+            renamedHosts.put(change.name, change.value);
+            break;
+          default:
+            throw new IllegalStateException("Unknown change type: " + change.type);
+        }
+      }
+      GcsUtils cloudStorage =
+          new GcsUtils(createGcsService(RetryParams.getDefaultInstance()), gcsBufferSize);
+      GcsFilename previousFilename =
+          new GcsFilename(bucket, String.format(FILENAME_FORMAT, tld, previousExportTime));
+      checkState(
+          cloudStorage.existsAndNotEmpty(previousFilename),
+          "Previous zone file not found: %s",
+          previousFilename);
+      Set<String> deletedRecords = new HashSet<>();
+      Set<String> addedRecords = new HashSet<>();
+      try (BufferedReader reader = new BufferedReader(
+              new InputStreamReader(cloudStorage.openInputStream(previousFilename), UTF_8));
+          OutputStream gcsOutput = cloudStorage.openOutputStream(
+              new GcsFilename(bucket, String.format(FILENAME_FORMAT, tld, exportTime)));
+          Writer osWriter = new OutputStreamWriter(gcsOutput, UTF_8);
+          PrintWriter writer = new PrintWriter(osWriter)) {
+        writer.printf(HEADER_FORMAT, tld);
+        // Stanzas are separated by blank lines. The old header is skipped, like a blank line.
+        List<String> records = new ArrayList<>();
+        for (String line = reader.readLine(); ; line = reader.readLine()) {
+          if (line != null && !line.isEmpty() && !line.startsWith("$ORIGIN")) {
+            records.add(line);
+            continue;
+          }
+          if (!records.isEmpty()) {
+            ImmutableList<String> newRecords =
+                rewriteStanza(records, domainStanzas, hostStanzas, renamedHosts);
+            if (!newRecords.isEmpty()) {
+              writer.println(LINE_JOINER.join(newRecords) + "\n");
+              getContext().incrementCounter(tld + " stanzas copied");
+            }
+            ImmutableSet<String> oldRecordSet = ImmutableSet.copyOf(records);
+            ImmutableSet<String> newRecordSet = ImmutableSet.copyOf(newRecords);
+            deletedRecords.addAll(Sets.difference(oldRecordSet, newRecordSet));
+            addedRecords.addAll(Sets.difference(newRecordSet, oldRecordSet));
+            records.clear();
+          }
+          if (line == null) {
+            break;
+          }
+        }
+        for (String stanza : Iterables.concat(domainStanzas.values(), hostStanzas.values())) {
+          if (!stanza.isEmpty()) {
+            writer.println(stanza);
+            addedRecords.addAll(LINE_SPLITTER.splitToList(stanza));
+            getContext().incrementCounter(tld + " stanzas changed");
+          }
+        }
+        writer.flush();
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      // A record that was deleted from one stanza and added to another didn't change.
+      writeDiff(
+          cloudStorage,
+          tld,
+          new TreeSet<>(Sets.difference(deletedRecords, addedRecords)),
+          new TreeSet<>(Sets.difference(addedRecords, deletedRecords)));
+    }
+
+    /**
+     * Adds a changed stanza, keeping a non-empty stanza over an empty one, as a name might have
+     * been freed and then reused between the export times.
+     */
+    private static void putStanza(Map<String, String> stanzas, ZoneChange change) {
+      if (!stanzas.containsKey(change.name) || stanzas.get(change.name).isEmpty()) {
+        stanzas.put(change.name, change.value);
+      }
+    }
+
+    /**
+     * Returns the records of a stanza from the previous zone file as they should appear in the new
+     * one. That's none if its domain or host changed, since the new stanza is written separately,
+     * and otherwise the same records with the new names of renamed nameservers.
+     */
+    private static ImmutableList<String> rewriteStanza(
+        List<String> records,
+        Map<String, String> domainStanzas,
+        Map<String, String> hostStanzas,
+        Map<String, String> renamedHosts) {
+      List<String> fields = FIELD_SPLITTER.splitToList(records.get(0));
+      boolean isHostStanza = HOST_RECORD_TYPES.contains(fields.get(3));
+      if ((isHostStanza ? hostStanzas : domainStanzas).containsKey(fields.get(0))) {
+        return ImmutableList.of();
+      }
+      ImmutableList.Builder<String> newRecords = new ImmutableList.Builder<>();
+      for (String record : records) {
+        fields = FIELD_SPLITTER.splitToList(record);
+        if (fields.get(3).equals("NS")) {
+          // Strip the trailing dot from the nameserver's name.
+          String nameserver = fields.get(4).substring(0, fields.get(4).length() - 1);
+          if (renamedHosts.containsKey(nameserver)) {
+            record = FIELD_JOINER.join(
+                fields.get(0),
+                fields.get(1),
+                fields.get(2),
+                fields.get(3),
+                renamedHosts.get(nameserver) + ".");
+          }
+        }
+        newRecords.add(record);
+      }
+      return newRecords.build();
+    }
+
+    /** Writes the records deleted and added since the previous zone file, like an IXFR. */
+    private void writeDiff(
+        GcsUtils cloudStorage,
+        String tld,
+        Iterable<String> deletedRecords,
+        Iterable<String> addedRecords) {
+      try (OutputStream gcsOutput = cloudStorage.openOutputStream(
+              new GcsFilename(bucket, String.format(DIFF_FILENAME_FORMAT, tld, exportTime)));
+          Writer osWriter = new OutputStreamWriter(gcsOutput, UTF_8);
+          PrintWriter writer = new PrintWriter(osWriter)) {
+        writer.printf(DIFF_HEADER_FORMAT, previousExportTime, exportTime, tld);
+        writer.println("\n; Deleted records");
+        for (String record : deletedRecords) {
+          writer.println(record);
+          getContext().incrementCounter(tld + " records deleted");
+        }
+        writer.println("\n; Added records");
+        for (String record : addedRecords) {
+          writer.println(record);
+          getContext().incrementCounter(tld + " records added");
+        }
+        writer.flush();
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
   /**
    * Generates DNS records for a domain (NS and DS).
    *
@@ -316,4 +710,15 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
     }
     return result.toString();
   }
+
+  /** Returns the tld, out of the given ones, that a host is under, or null if there's none. */
+  @Nullable
+  private static String findTld(String fullyQualifiedHostName, ImmutableSet<String> tlds) {
+    for (String tld : tlds) {
+      if (fullyQualifiedHostName.endsWith("." + tld)) {
+        return tld;
+      }
+    }
+    return null;
+  }
 }
@@ -16,10 +16,18 @@ package google.registry.util;
 
 import static com.google.common.base.Suppliers.memoizeWithExpiration;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
 import static org.joda.time.Duration.ZERO;
 
+import com.google.appengine.api.ThreadManager;
+import com.google.appengine.api.utils.SystemProperty;
 import com.google.common.base.Supplier;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import google.registry.config.RegistryEnvironment;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import org.joda.time.Duration;
 
 /** Utility methods related to caching. */
@@ -27,14 +35,59 @@ public class CacheUtils {
 
   private static final RegistryEnvironment ENVIRONMENT = RegistryEnvironment.get();
 
+  /** Number of threads reloading short-expiration caches in the background. */
+  private static final int RELOAD_THREADS = 2;
+
+  /** Maximum number of reloads waiting for a thread. */
+  private static final int RELOAD_QUEUE_SIZE = 64;
+
   /**
-   * Memoize a supplier, with a short expiration specified in the environment config.
+   * Memoize a supplier, refreshing it at a short interval specified in the environment config.
    *
    * <p>Use this for things that might change while code is running. (For example, the various
    * lists downloaded from the TMCH get updated in datastore and the caches need to be refreshed.)
+   *
+   * <p>Once the first value is loaded, callers never block on a refresh; see
+   * {@link RefreshAheadSupplier}. Reloads run on a small pool of background threads shared by all
+   * such caches, and every caller meanwhile keeps getting the stale value.
+   *
+   * @param name identifies the cache in the exported cache metrics
+   */
+  public static <T> Supplier<T> memoizeWithShortExpiration(String name, Supplier<T> original) {
+    Duration refreshInterval = ENVIRONMENT.config().getSingletonCacheRefreshDuration();
+    return refreshInterval.isEqual(ZERO)
+        ? original  // Tests use a zero interval so that different test values can be substituted.
+        : RefreshAheadSupplier.create(
+            name, original, refreshInterval, ReloadExecutorHolder.INSTANCE);
+  }
+
+  /** Holds the reload executor, so that it is only created once a cache needs it. */
+  private static final class ReloadExecutorHolder {
+    static final Executor INSTANCE = createReloadExecutor();
+  }
+
+  /**
+   * Creates the executor for reloading short-expiration caches.
+   *
+   * <p>Request threads on App Engine can't outlive their request, so reloads run on background
+   * threads, which the basic-scaling modules that use these caches allow. Off App Engine, such as
+   * in the command-line tool, plain daemon threads are used instead. Each cache has at most one
+   * reload queued at a time, so the queue is bounded; a rejected reload is simply retried on a
+   * later read.
    */
-  public static <T> Supplier<T> memoizeWithShortExpiration(Supplier<T> original) {
-    return memoizeForDuration(original, ENVIRONMENT.config().getSingletonCacheRefreshDuration());
+  private static Executor createReloadExecutor() {
+    ThreadFactory threadFactory = (SystemProperty.environment.value() == null)
+        ? new ThreadFactoryBuilder().setNameFormat("cache-reload-%d").setDaemon(true).build()
+        : ThreadManager.backgroundThreadFactory();
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(
+        RELOAD_THREADS,
+        RELOAD_THREADS,
+        1,
+        MINUTES,
+        new ArrayBlockingQueue<Runnable>(RELOAD_QUEUE_SIZE),
+        threadFactory);
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
   }
 
   /**
@@ -0,0 +1,269 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package google.registry.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
+import google.registry.monitoring.metrics.IncrementableMetric;
+import google.registry.monitoring.metrics.LabelDescriptor;
+import google.registry.monitoring.metrics.MetricRegistryImpl;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import javax.annotation.WillNotClose;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * {@link OutputStream} that writes to another stream on a separate thread.
+ *
+ * <p>Writes are copied into buffers, which are handed to the thread through a bounded queue. This
+ * lets a chain of CPU-heavy {@link java.io.FilterOutputStream FilterOutputStreams}, like the PGP
+ * layers of a RyDE file, be split into stages that run at the same time, rather than each layer
+ * waiting on the ones below it. When the queue is full, writes block until the thread catches up,
+ * so memory use is bounded by {@code bufferSize * (queueDepth + 2)}.
+ *
+ * <p>Only one thread at a time may write to this stream. Errors thrown by the downstream stream
+ * are rethrown by the next call to {@link #write} or {@link #close}. The downstream stream is not
+ * closed by this object.
+ *
+ * <p>Calling {@link #close} waits until everything has been written downstream, then logs how
+ * much time the stage spent writing and how much time its writers spent blocked, which tells you
+ * which stage of a pipeline is the bottleneck. The same numbers are added to the
+ * {@code /io/pipelined_stage/*} metrics, labeled by the stage.
+ */
+@NotThreadSafe
+public final class PipelinedOutputStream extends OutputStream {
+
+  private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
+
+  /** How long to wait on the queue before checking whether the downstream thread failed. */
+  private static final long POLL_MILLIS = 100;
+
+  /** Empty buffer that tells the downstream thread that there's nothing more to write. */
+  private static final byte[] END = new byte[0];
+
+  private static final ImmutableSet<LabelDescriptor> LABELS = ImmutableSet.of(
+      LabelDescriptor.create("stage", "Name of the pipeline stage, such as rde_upload/sign."));
+
+  @VisibleForTesting
+  static final IncrementableMetric bytes =
+      MetricRegistryImpl.getDefault()
+          .newIncrementableMetric(
+              "/io/pipelined_stage/bytes",
+              "count of bytes written to pipelined output stream stages",
+              "bytes",
+              LABELS);
+
+  @VisibleForTesting
+  static final IncrementableMetric downstreamTime =
+      MetricRegistryImpl.getDefault()
+          .newIncrementableMetric(
+              "/io/pipelined_stage/downstream_time",
+              "milliseconds pipelined output stream stages spent writing downstream",
+              "milliseconds",
+              LABELS);
+
+  @VisibleForTesting
+  static final IncrementableMetric blockedTime =
+      MetricRegistryImpl.getDefault()
+          .newIncrementableMetric(
+              "/io/pipelined_stage/blocked_time",
+              "milliseconds writers spent blocked on pipelined output stream stages",
+              "milliseconds",
+              LABELS);
+
+  private final String stage;
+  private final String name;
+  private final int bufferSize;
+  private final BlockingQueue<byte[]> queue;
+  private final Thread thread;
+
+  private byte[] buffer;
+  private int bufferLength;
+  private boolean isClosed;
+  private long bytesWritten;
+  private long blockedNanos;
+
+  // Written by the downstream thread.
+  private volatile Throwable error;
+  private volatile long downstreamNanos;
+
+  /**
+   * Creates a new stage and starts its thread.
+   *
+   * @param stage short name of the stage, used to label its metrics, e.g. {@code rde_upload/sign}
+   * @param name of this stream, used for logging
+   * @param downstream stream to which the thread writes, which is not closed by this object
+   * @param threadFactory used to create the thread, e.g. {@code currentRequestThreadFactory()}
+   * @param bufferSize number of bytes handed to the thread at once
+   * @param queueDepth number of buffers that can wait for the thread before writes block
+   */
+  public PipelinedOutputStream(
+      String stage,
+      String name,
+      @WillNotClose final OutputStream downstream,
+      ThreadFactory threadFactory,
+      int bufferSize,
+      int queueDepth) {
+    checkArgument(bufferSize > 0, "bufferSize must be positive");
+    checkArgument(queueDepth > 0, "queueDepth must be positive");
+    checkNotNull(downstream, "downstream");
+    this.stage = stage;
+    this.name = name;
+    this.bufferSize = bufferSize;
+    this.buffer = new byte[bufferSize];
+    this.queue = new ArrayBlockingQueue<>(queueDepth);
+    this.thread = threadFactory.newThread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          while (true) {
+            byte[] data = queue.take();
+            if (data == END) {
+              long start = System.nanoTime();
+              downstream.flush();
+              downstreamNanos += System.nanoTime() - start;
+              return;
+            }
+            long start = System.nanoTime();
+            downstream.write(data);
+            downstreamNanos += System.nanoTime() - start;
+          }
+        } catch (Throwable t) {
+          error = t;
+        }
+      }});
+    checkState(thread != null, "Thread factory didn't create a thread for %s", name);
+    thread.start();
+  }
+
+  /** Returns the number of bytes that have been written to this stream thus far. */
+  public long getBytesWritten() {
+    return bytesWritten;
+  }
+
+  /** @see java.io.OutputStream#write(int) */
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[] {(byte) b}, 0, 1);
+  }
+
+  /** @see #write(byte[], int, int) */
+  @Override
+  public void write(byte[] b) throws IOException {
+    write(b, 0, b.length);
+  }
+
+  /** @see java.io.OutputStream#write(byte[], int, int) */
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    checkState(!isClosed, "outputstream closed");
+    bytesWritten += len;
+    while (len > 0) {
+      int n = Math.min(len, bufferSize - bufferLength);
+      System.arraycopy(b, off, buffer, bufferLength, n);
+      bufferLength += n;
+      off += n;
+      len -= n;
+      if (bufferLength == bufferSize) {
+        handOff(buffer);
+        buffer = new byte[bufferSize];
+        bufferLength = 0;
+      }
+    }
+  }
+
+  /**
+   * Does nothing.
+   *
+   * <p>Data is only guaranteed to have been written downstream once this stream is closed, since
+   * handing off partial buffers would defeat the purpose of buffering.
+   */
+  @Override
+  public void flush() throws IOException {
+    checkError();
+  }
+
+  /**
+   * Hands off any buffered data, waits for the thread to write everything downstream, and records
+   * throughput statistics.
+   *
+   * @throws IOException if writing downstream failed
+   */
+  @Override
+  public void close() throws IOException {
+    if (isClosed) {
+      return;
+    }
+    isClosed = true;
+    if (bufferLength > 0) {
+      byte[] rest = new byte[bufferLength];
+      System.arraycopy(buffer, 0, rest, 0, bufferLength);
+      handOff(rest);
+    }
+    buffer = null;
+    handOff(END);
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(String.format("Interrupted waiting for %s", name));
+    }
+    checkError();
+    long downstreamMillis = NANOSECONDS.toMillis(downstreamNanos);
+    long blockedMillis = NANOSECONDS.toMillis(blockedNanos);
+    bytes.incrementBy(bytesWritten, stage);
+    downstreamTime.incrementBy(downstreamMillis, stage);
+    blockedTime.incrementBy(blockedMillis, stage);
+    logger.infofmt(
+        "%s wrote %,d bytes in %,d ms (%,d KB/s) with writers blocked for %,d ms",
+        name,
+        bytesWritten,
+        downstreamMillis,
+        (downstreamMillis == 0) ? 0 : bytesWritten / downstreamMillis,
+        blockedMillis);
+  }
+
+  private void handOff(byte[] data) throws IOException {
+    long start = System.nanoTime();
+    try {
+      while (!queue.offer(data, POLL_MILLIS, MILLISECONDS)) {
+        checkError();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(String.format("Interrupted writing to %s", name));
+    } finally {
+      blockedNanos += System.nanoTime() - start;
+    }
+    checkError();
+  }
+
+  private void checkError() throws IOException {
+    Throwable t = error;
+    if (t != null) {
+      isClosed = true;
+      throw new IOException(String.format("%s failed", name), t);
+    }
+  }
+}
@@ -0,0 +1,209 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableSet;
+import google.registry.monitoring.metrics.IncrementableMetric;
+import google.registry.monitoring.metrics.LabelDescriptor;
+import google.registry.monitoring.metrics.MetricRegistryImpl;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+
+/**
+ * A memoizing supplier that refreshes its value without blocking readers.
+ *
+ * <p>Unlike {@link com.google.common.base.Suppliers#memoizeWithExpiration}, which makes every
+ * caller wait while one of them reloads an expired value, this supplier keeps returning the stale
+ * value and hands a single reload to its {@link Executor}. Only the very first load, when there is
+ * no value to serve yet, blocks.
+ *
+ * <p>Refresh deadlines are jittered so that instances don't all reload at the same moment, and a
+ * failed reload keeps the stale value and is retried with exponential backoff. Hits, stale hits,
+ * misses and reload outcomes are exported as metrics, labeled by the supplier's name.
+ */
+@ThreadSafe
+public final class RefreshAheadSupplier<T> implements Supplier<T> {
+
+  private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
+
+  /** Refreshes are scheduled up to this fraction of the interval early. */
+  private static final double JITTER_FRACTION = 0.1;
+
+  /** Delay before retrying the first failed reload; doubled on each further failure. */
+  private static final Duration INITIAL_BACKOFF = Duration.standardSeconds(1);
+
+  private static final ImmutableSet<LabelDescriptor> REQUEST_LABELS = ImmutableSet.of(
+      LabelDescriptor.create("cache", "Name of the cached supplier."),
+      LabelDescriptor.create("outcome", "HIT, STALE (served while reloading) or MISS."));
+
+  private static final ImmutableSet<LabelDescriptor> RELOAD_LABELS = ImmutableSet.of(
+      LabelDescriptor.create("cache", "Name of the cached supplier."),
+      LabelDescriptor.create("status", "Whether the reload succeeded or failed."));
+
+  private static final IncrementableMetric requests =
+      MetricRegistryImpl.getDefault()
+          .newIncrementableMetric(
+              "/cache/refresh_ahead/requests",
+              "count of reads from refresh-ahead caches",
+              "count",
+              REQUEST_LABELS);
+
+  private static final IncrementableMetric reloads =
+      MetricRegistryImpl.getDefault()
+          .newIncrementableMetric(
+              "/cache/refresh_ahead/reloads",
+              "count of refresh-ahead cache reloads",
+              "count",
+              RELOAD_LABELS);
+
+  private final String name;
+  private final Supplier<T> delegate;
+  private final Duration refreshInterval;
+  private final Clock clock;
+  private final Executor executor;
+  private final Random random;
+
+  private final AtomicBoolean reloading = new AtomicBoolean();
+
+  private volatile CachedValue<T> cachedValue;
+
+  /** Number of reloads in a row that have failed; only touched by the current reloader. */
+  @GuardedBy("reloading")
+  private int consecutiveFailures;
+
+  @VisibleForTesting
+  RefreshAheadSupplier(
+      String name,
+      Supplier<T> delegate,
+      Duration refreshInterval,
+      Clock clock,
+      Executor executor,
+      Random random) {
+    checkArgument(refreshInterval.isLongerThan(Duration.ZERO), "Refresh interval must be positive");
+    this.name = checkNotNull(name, "name");
+    this.delegate = checkNotNull(delegate, "delegate");
+    this.refreshInterval = refreshInterval;
+    this.clock = checkNotNull(clock, "clock");
+    this.executor = checkNotNull(executor, "executor");
+    this.random = checkNotNull(random, "random");
+  }
+
+  /** Creates a supplier that reloads {@code delegate} roughly every {@code refreshInterval}. */
+  public static <T> RefreshAheadSupplier<T> create(
+      String name, Supplier<T> delegate, Duration refreshInterval, Executor executor) {
+    return new RefreshAheadSupplier<>(
+        name, delegate, refreshInterval, new SystemClock(), executor, new Random());
+  }
+
+  @Override
+  public T get() {
+    CachedValue<T> current = cachedValue;
+    if (current == null) {
+      return loadInitialValue();
+    }
+    if (!clock.nowUtc().isBefore(current.refreshAt)) {
+      // Every caller that gets the value after it was due for a refresh counts as a stale hit,
+      // but only the first of them schedules the reload.
+      requests.increment(name, "STALE");
+      if (reloading.compareAndSet(false, true)) {
+        scheduleReload(current);
+      }
+    } else {
+      requests.increment(name, "HIT");
+    }
+    return current.value;
+  }
+
+  /** Blocks on the very first load, since there is no value to serve until it finishes. */
+  private synchronized T loadInitialValue() {
+    CachedValue<T> current = cachedValue;
+    if (current != null) {
+      requests.increment(name, "HIT");
+      return current.value;
+    }
+    requests.increment(name, "MISS");
+    T value = delegate.get();
+    cachedValue = new CachedValue<>(value, nextRefreshTime());
+    return value;
+  }
+
+  private void scheduleReload(final CachedValue<T> stale) {
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          reload(stale);
+        }});
+    } catch (RejectedExecutionException e) {
+      logger.warningfmt(e, "Could not schedule reload of %s; serving stale value", name);
+      reloading.set(false);
+    }
+  }
+
+  private void reload(CachedValue<T> stale) {
+    try {
+      T value = delegate.get();
+      cachedValue = new CachedValue<>(value, nextRefreshTime());
+      consecutiveFailures = 0;
+      reloads.increment(name, "SUCCESS");
+    } catch (RuntimeException e) {
+      consecutiveFailures++;
+      cachedValue = new CachedValue<>(stale.value, nextRetryTime(consecutiveFailures));
+      reloads.increment(name, "FAILURE");
+      logger.warningfmt(
+          e, "Reload of %s failed %d time(s) in a row; serving stale value",
+          name, consecutiveFailures);
+    } finally {
+      reloading.set(false);
+    }
+  }
+
+  /** Returns the next refresh time, pulled earlier by a random jitter. */
+  private DateTime nextRefreshTime() {
+    long jitterMillis =
+        (long) (refreshInterval.getMillis() * JITTER_FRACTION * random.nextDouble());
+    return clock.nowUtc().plus(refreshInterval.getMillis() - jitterMillis);
+  }
+
+  /** Returns when to retry after the given number of failures, backing off up to the interval. */
+  private DateTime nextRetryTime(int failures) {
+    long backoffMillis = INITIAL_BACKOFF.getMillis() << Math.min(failures - 1, 30);
+    return clock.nowUtc().plus(Math.min(backoffMillis, refreshInterval.getMillis()));
+  }
+
+  /** A value together with the time after which it should be refreshed. */
+  @Immutable
+  private static final class CachedValue<T> {
+    final T value;
+    final DateTime refreshAt;
+
+    CachedValue(T value, DateTime refreshAt) {
+      this.value = value;
+      this.refreshAt = refreshAt;
+    }
+  }
+}
@@ -44,7 +44,7 @@ final class RegistrarLookupCommand implements WhoisCommand {
    * WHOIS.
    */
   private static final Supplier<Map<String, Registrar>> REGISTRAR_BY_NORMALIZED_NAME_CACHE =
-      memoizeWithShortExpiration(new Supplier<Map<String, Registrar>>() {
+      memoizeWithShortExpiration("whoisRegistrars", new Supplier<Map<String, Registrar>>() {
         @Override
         public Map<String, Registrar> get() {
           Map<String, Registrar> map = new HashMap<>();
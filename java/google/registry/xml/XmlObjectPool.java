@@ -0,0 +1,119 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.xml;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
+import google.registry.monitoring.metrics.IncrementableMetric;
+import google.registry.monitoring.metrics.LabelDescriptor;
+import google.registry.monitoring.metrics.MetricRegistryImpl;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.xml.bind.JAXBException;
+
+/**
+ * Bounded pool of expensive, non-thread-safe XML objects such as JAXB marshallers.
+ *
+ * <p>Each borrowed object is confined to the borrowing thread until it is released. Borrowing never
+ * blocks: if the pool is empty a new object is created, and if the pool is full when an object is
+ * released, that object is simply dropped. Objects whose use failed should not be released, since
+ * their internal state is unknown.
+ *
+ * <p>Borrows, split into hits and misses, and dropped releases are exported as metrics, labeled by
+ * the name of the pool. Pools with the same name, such as the marshaller pools of different
+ * {@link XmlTransformer} instances, add up to the same counts.
+ */
+@ThreadSafe
+final class XmlObjectPool<T> {
+
+  /** Factory for creating new pooled objects on a pool miss. */
+  interface Factory<T> {
+    T create() throws JAXBException;
+  }
+
+  private static final LabelDescriptor POOL_LABEL =
+      LabelDescriptor.create("pool", "Name of the pool, such as marshaller or validator.");
+
+  @VisibleForTesting
+  static final IncrementableMetric borrows =
+      MetricRegistryImpl.getDefault()
+          .newIncrementableMetric(
+              "/xml/pool/borrows",
+              "count of objects borrowed from XML object pools",
+              "count",
+              ImmutableSet.of(
+                  POOL_LABEL,
+                  LabelDescriptor.create(
+                      "outcome", "HIT if an idle object was reused, MISS if one was created.")));
+
+  @VisibleForTesting
+  static final IncrementableMetric drops =
+      MetricRegistryImpl.getDefault()
+          .newIncrementableMetric(
+              "/xml/pool/drops",
+              "count of released objects dropped because their XML object pool was full",
+              "count",
+              ImmutableSet.of(POOL_LABEL));
+
+  private final String name;
+  private final BlockingQueue<T> idle;
+  private final Factory<T> factory;
+  private final AtomicLong created = new AtomicLong();
+  private final AtomicLong reused = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+
+  /**
+   * @param name name of the pool, used as the label of its metrics
+   * @param capacity maximum number of idle objects kept
+   * @param factory creates objects when the pool is empty
+   */
+  XmlObjectPool(String name, int capacity, Factory<T> factory) {
+    checkArgument(capacity > 0, "Pool capacity must be positive");
+    this.name = checkNotNull(name, "name");
+    this.idle = new ArrayBlockingQueue<>(capacity);
+    this.factory = checkNotNull(factory, "factory");
+  }
+
+  /** Takes an idle object from the pool, or creates a new one if none is available. */
+  T borrow() throws JAXBException {
+    T object = idle.poll();
+    if (object != null) {
+      reused.incrementAndGet();
+      borrows.increment(name, "HIT");
+      return object;
+    }
+    created.incrementAndGet();
+    borrows.increment(name, "MISS");
+    return factory.create();
+  }
+
+  /** Returns a successfully used object to the pool, dropping it if the pool is full. */
+  void release(T object) {
+    if (!idle.offer(checkNotNull(object, "object"))) {
+      dropped.incrementAndGet();
+      drops.increment(name);
+    }
+  }
+
+  /** Returns a snapshot of the counters for this pool. */
+  XmlPoolStats getStats() {
+    return new XmlPoolStats(created.get(), reused.get(), dropped.get(), idle.size());
+  }
+}
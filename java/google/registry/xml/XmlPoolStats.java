@@ -0,0 +1,65 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.xml;
+
+import com.google.common.base.MoreObjects;
+import javax.annotation.concurrent.Immutable;
+
+/** Point-in-time counters for one of the marshaller, unmarshaller or validator pools. */
+@Immutable
+public final class XmlPoolStats {
+
+  private final long created;
+  private final long reused;
+  private final long dropped;
+  private final int idle;
+
+  XmlPoolStats(long created, long reused, long dropped, int idle) {
+    this.created = created;
+    this.reused = reused;
+    this.dropped = dropped;
+    this.idle = idle;
+  }
+
+  /** Number of objects created because the pool was empty. */
+  public long getCreated() {
+    return created;
+  }
+
+  /** Number of borrows that were served by an idle pooled object. */
+  public long getReused() {
+    return reused;
+  }
+
+  /** Number of released objects discarded because the pool was already full. */
+  public long getDropped() {
+    return dropped;
+  }
+
+  /** Number of objects currently sitting idle in the pool. */
+  public int getIdle() {
+    return idle;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("created", created)
+        .add("reused", reused)
+        .add("dropped", dropped)
+        .add("idle", idle)
+        .toString();
+  }
+}
@@ -54,6 +54,7 @@ import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.Validator;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 
@@ -75,6 +76,36 @@ public class XmlTransformer {
   /** A {@link Schema} to validate XML. */
   private final Schema schema;
 
+  /** Maximum number of idle objects kept in each of the pools below. */
+  private static final int POOL_CAPACITY = 32;
+
+  /** Pool of {@link Unmarshaller} instances, preconfigured with {@link #schema}. */
+  private final XmlObjectPool<Unmarshaller> unmarshallerPool =
+      new XmlObjectPool<>("unmarshaller", POOL_CAPACITY, new XmlObjectPool.Factory<Unmarshaller>() {
+        @Override
+        public Unmarshaller create() throws JAXBException {
+          return createUnmarshaller();
+        }
+      });
+
+  /** Pool of {@link Marshaller} instances, reconfigured on every borrow. */
+  private final XmlObjectPool<Marshaller> marshallerPool =
+      new XmlObjectPool<>("marshaller", POOL_CAPACITY, new XmlObjectPool.Factory<Marshaller>() {
+        @Override
+        public Marshaller create() throws JAXBException {
+          return jaxbContext.createMarshaller();
+        }
+      });
+
+  /** Pool of {@link Validator} instances for {@link #schema}. */
+  private final XmlObjectPool<Validator> validatorPool =
+      new XmlObjectPool<>("validator", POOL_CAPACITY, new XmlObjectPool.Factory<Validator>() {
+        @Override
+        public Validator create() {
+          return schema.newValidator();
+        }
+      });
+
   /**
    * Create a new XmlTransformer that validates using the given schemas, but uses the given classes
    * (rather than generated ones) for marshaling and unmarshaling.
@@ -126,8 +157,15 @@ public class XmlTransformer {
    */
   public void validate(String xml) throws XmlException {
     try {
-      schema.newValidator().validate(new StreamSource(new StringReader(xml)));
-    } catch (SAXException | IOException e) {
+      Validator validator = validatorPool.borrow();
+      try {
+        validator.validate(new StreamSource(new StringReader(xml)));
+      } finally {
+        // Validators hold no state worth discarding once reset, even after a failed validation.
+        validator.reset();
+        validatorPool.release(validator);
+      }
+    } catch (SAXException | IOException | JAXBException e) {
       throw new XmlException(e);
     }
   }
@@ -144,8 +182,12 @@ public class XmlTransformer {
    */
   public <T> T unmarshal(Class<T> clazz, InputStream stream) throws XmlException {
     try (InputStream autoClosingStream = stream) {
-      return clazz.cast(getUnmarshaller().unmarshal(
+      Unmarshaller unmarshaller = unmarshallerPool.borrow();
+      T result = clazz.cast(unmarshaller.unmarshal(
           XML_INPUT_FACTORY.createXMLStreamReader(new StreamSource(autoClosingStream, SYSTEM_ID))));
+      // Only return the unmarshaller to the pool if it didn't fail part way through.
+      unmarshallerPool.release(unmarshaller);
+      return result;
     } catch (UnmarshalException e) {
       // Plain old parsing exceptions have a SAXParseException with no further cause.
       if (e.getLinkedException() instanceof SAXParseException
@@ -190,10 +232,11 @@ public class XmlTransformer {
   public void marshal(Object root, Writer writer, ValidationMode validation) throws XmlException {
     try {
       // Omit XML declaration because character-oriented output prevents us from knowing.
-      getMarshaller(
+      Marshaller marshaller = getMarshaller(
           STRICT.equals(validation) ? schema : null,
-          ImmutableMap.of(Marshaller.JAXB_FRAGMENT, true)).marshal(
-              checkNotNull(root, "root"), checkNotNull(writer, "writer"));
+          ImmutableMap.of(Marshaller.JAXB_FRAGMENT, true));
+      marshaller.marshal(checkNotNull(root, "root"), checkNotNull(writer, "writer"));
+      marshallerPool.release(marshaller);
     } catch (JAXBException e) {
       throw new XmlException(e);
     }
@@ -217,10 +260,11 @@ public class XmlTransformer {
   public void marshal(Object root, OutputStream out, Charset charset, ValidationMode validation)
       throws XmlException {
     try {
-      getMarshaller(
+      Marshaller marshaller = getMarshaller(
           STRICT.equals(validation) ? schema : null,
-          ImmutableMap.of(Marshaller.JAXB_ENCODING, charset.toString())).marshal(
-              checkNotNull(root, "root"), checkNotNull(out, "out"));
+          ImmutableMap.of(Marshaller.JAXB_ENCODING, charset.toString()));
+      marshaller.marshal(checkNotNull(root, "root"), checkNotNull(out, "out"));
+      marshallerPool.release(marshaller);
     } catch (JAXBException e) {
       throw new XmlException(e);
     }
@@ -240,13 +284,28 @@ public class XmlTransformer {
    */
   public void marshalStrict(Object root, Result result) throws XmlException {
     try {
-      getMarshaller(schema, ImmutableMap.<String, Object>of())
-          .marshal(checkNotNull(root, "root"), checkNotNull(result, "result"));
+      Marshaller marshaller = getMarshaller(schema, ImmutableMap.<String, Object>of());
+      marshaller.marshal(checkNotNull(root, "root"), checkNotNull(result, "result"));
+      marshallerPool.release(marshaller);
     } catch (JAXBException e) {
       throw new XmlException(e);
     }
   }
 
+  /**
+   * Returns counters for the marshaller, unmarshaller and validator pools of this transformer.
+   *
+   * <p>The keys of the returned map are {@code marshaller}, {@code unmarshaller} and
+   * {@code validator}. The same names label the pool metrics, which add up the counts of all
+   * transformers.
+   */
+  public ImmutableMap<String, XmlPoolStats> getPoolStats() {
+    return ImmutableMap.of(
+        "marshaller", marshallerPool.getStats(),
+        "unmarshaller", unmarshallerPool.getStats(),
+        "validator", validatorPool.getStats());
+  }
+
   /** Returns new instance of {@link XmlFragmentMarshaller}. */
   public XmlFragmentMarshaller createFragmentMarshaller() {
     return new XmlFragmentMarshaller(jaxbContext, schema);
@@ -274,8 +333,8 @@ public class XmlTransformer {
     return JAXBContext.newInstance(prefix + Joiner.on(':' + prefix).join(schemaNames));
   }
 
-  /** Get a {@link Unmarshaller} instance with the default configuration. */
-  private Unmarshaller getUnmarshaller() throws JAXBException {
+  /** Create a {@link Unmarshaller} instance with the default configuration. */
+  private Unmarshaller createUnmarshaller() throws JAXBException {
     Unmarshaller unmarshaller = jaxbContext.createUnmarshaller();
     unmarshaller.setSchema(schema);
     // This handler was the default in JAXB 1.0. It fails on any exception thrown while
@@ -285,10 +344,18 @@ public class XmlTransformer {
     return unmarshaller;
   }
 
-  /** Get a {@link Marshaller} instance with the given configuration. */
+  /**
+   * Borrow a pooled {@link Marshaller} instance with the given configuration.
+   *
+   * <p>The caller should hand the marshaller back to {@link #marshallerPool} once it has been used
+   * successfully. Every property we ever set is reset here, so that no configuration leaks from
+   * one borrower to the next.
+   */
   private Marshaller getMarshaller(@Nullable Schema schemaParam, Map<String, ?> properties)
       throws JAXBException {
-    Marshaller marshaller = jaxbContext.createMarshaller();
+    Marshaller marshaller = marshallerPool.borrow();
+    marshaller.setProperty(Marshaller.JAXB_FRAGMENT, false);
+    marshaller.setProperty(Marshaller.JAXB_ENCODING, UTF_8.toString());
     for (Map.Entry<String, ?> entry : properties.entrySet()) {
       marshaller.setProperty(entry.getKey(), entry.getValue());
     }
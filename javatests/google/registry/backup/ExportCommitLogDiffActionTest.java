@@ -20,6 +20,7 @@ import static google.registry.backup.BackupUtils.GcsMetadataKeys.LOWER_BOUND_CHE
 import static google.registry.backup.BackupUtils.GcsMetadataKeys.NUM_TRANSACTIONS;
 import static google.registry.backup.BackupUtils.GcsMetadataKeys.UPPER_BOUND_CHECKPOINT;
 import static google.registry.backup.BackupUtils.deserializeEntities;
+import static google.registry.model.common.EntityGroupRoot.getCrossTldKey;
 import static google.registry.testing.DatastoreHelper.persistResource;
 import static google.registry.util.DateTimeUtils.START_OF_TIME;
 import static org.joda.time.DateTimeZone.UTC;
@@ -28,6 +29,7 @@ import com.google.appengine.tools.cloudstorage.GcsFilename;
 import com.google.appengine.tools.cloudstorage.GcsService;
 import com.google.appengine.tools.cloudstorage.GcsServiceFactory;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.ObjectifyService;
 import google.registry.config.TestRegistryConfig;
@@ -377,6 +379,52 @@ public class ExportCommitLogDiffActionTest {
             .inOrder();
   }
 
+  @Test
+  public void testRun_blockCompressed_exportsTransactionsInWholeBlocks() throws Exception {
+    task.lowerCheckpointTime = oneMinuteAgo;
+    task.upperCheckpointTime = now;
+    // Small enough that every transaction ends a block.
+    task.blockSize = 1;
+
+    persistResource(CommitLogCheckpoint.create(
+        oneMinuteAgo,
+        ImmutableMap.of(1, oneMinuteAgo, 2, oneMinuteAgo, 3, oneMinuteAgo)));
+    CommitLogCheckpoint upperCheckpoint = persistResource(CommitLogCheckpoint.create(
+        now,
+        ImmutableMap.of(1, now, 2, now, 3, now)));
+    persistManifestAndMutation(1, now.minusMillis(2));
+    persistManifestAndMutation(2, now.minusMillis(1));
+    persistManifestAndMutation(3, now);
+
+    task.run();
+
+    byte[] file = GcsTestingUtils.readGcsFile(
+        gcsService, new GcsFilename("gcs bucket", "commit_diff_until_" + now));
+    assertThat(BlockCompressedDiffFile.hasMagic(file)).isTrue();
+    CommitLogManifest manifest1 = createManifest(1, now.minusMillis(2));
+    CommitLogManifest manifest2 = createManifest(2, now.minusMillis(1));
+    CommitLogManifest manifest3 = createManifest(3, now);
+    assertThat(deserializeEntities(file)).containsExactly(
+        upperCheckpoint,
+        manifest1,
+        createMutation(manifest1),
+        manifest2,
+        createMutation(manifest2),
+        manifest3,
+        createMutation(manifest3))
+            .inOrder();
+    BlockCompressedDiffFile.Index index = BlockCompressedDiffFile.readIndex(file);
+    assertThat(index.blocks()).hasSize(4);
+    assertThat(BlockCompressedDiffFile.readBlock(file, index.blocks().get(0)))
+        .containsExactly(upperCheckpoint);
+    assertThat(BlockCompressedDiffFile.readBlock(file, index.blocks().get(2)))
+        .containsExactly(manifest2, createMutation(manifest2))
+        .inOrder();
+    // All the mutated test objects are in the cross-TLD entity group.
+    assertThat(index.blocksByEntityGroup().asMap())
+        .containsExactly(getCrossTldKey().getString(), ImmutableSet.of(1, 2, 3));
+  }
+
   private CommitLogManifest createManifest(int bucketNum, DateTime commitTime) {
     return CommitLogManifest.create(CommitLogBucket.getBucketKey(bucketNum), commitTime, null);
   }
@@ -42,6 +42,7 @@ import com.googlecode.objectify.Key;
 import com.googlecode.objectify.ObjectifyService;
 import google.registry.config.TestRegistryConfig;
 import google.registry.model.ImmutableObject;
+import google.registry.model.common.EntityGroupRoot;
 import google.registry.model.ofy.CommitLogBucket;
 import google.registry.model.ofy.CommitLogCheckpoint;
 import google.registry.model.ofy.CommitLogCheckpointRoot;
@@ -92,6 +93,7 @@ public class RestoreCommitLogsActionTest {
     action.datastoreService = DatastoreServiceFactory.getDatastoreService();
     action.fromTime = now.minusMillis(1);
     action.retrier = new Retrier(new FakeSleeper(new FakeClock()), 1);
+    action.executor = newDirectExecutorService();
     action.diffLister = new GcsDiffFileLister();
     action.diffLister.gcsService = gcsService;
     action.diffLister.gcsBucket = GCS_BUCKET;
@@ -259,6 +261,72 @@ public class RestoreCommitLogsActionTest {
     assertInDatastore(asList(CommitLogCheckpointRoot.create(now)));
   }
 
+  @Test
+  public void testRestore_blockCompressedDiffFile() throws Exception {
+    ofy().saveWithoutBackup().entities(
+        TestObject.create("previous to keep"),
+        TestObject.create("previous to delete")).now();
+    Key<CommitLogManifest> manifestKey = CommitLogManifest.createKey(getBucketKey(1), now);
+    saveDiffFileNotToRestore(now.minusMinutes(1));
+    Iterable<ImmutableObject> commitLogs = saveBlockCompressedDiffFile(
+        createCheckpoint(now),
+        CommitLogManifest.create(
+            getBucketKey(1),
+            now,
+            ImmutableSet.<Key<?>>of(Key.create(TestObject.create("previous to delete")))),
+        CommitLogMutation.create(manifestKey, TestObject.create("a")),
+        CommitLogMutation.create(manifestKey, TestObject.create("b")));
+    action.run();
+    ofy().clearSessionCache();
+    assertExpectedIds("previous to keep", "a", "b");
+    assertInDatastore(commitLogs);
+    assertInDatastore(asList(CommitLogCheckpointRoot.create(now)));
+    assertCommitLogBuckets(ImmutableMap.of(1, now));
+  }
+
+  @Test
+  public void testRestore_transactionsInSameEntityGroup_appliedInCommitOrder() throws Exception {
+    Key<EntityGroupRoot> group1 = Key.create(EntityGroupRoot.class, "group1");
+    Key<EntityGroupRoot> group2 = Key.create(EntityGroupRoot.class, "group2");
+    ofy().saveWithoutBackup().entity(TestObject.create("deleted then saved", "old", group2)).now();
+    // 1: Save "x" = "1" in group 1, delete "deleted then saved" in group 2.
+    // 2: Save "y" in group 2, which can't be restored in parallel with 1.
+    // 3: Save "x" = "3" and "deleted then saved" = "new", both after 1.
+    Key<CommitLogManifest> manifest1Key =
+        CommitLogManifest.createKey(getBucketKey(1), now.minusMillis(2));
+    Key<CommitLogManifest> manifest2Key =
+        CommitLogManifest.createKey(getBucketKey(2), now.minusMillis(1));
+    Key<CommitLogManifest> manifest3Key = CommitLogManifest.createKey(getBucketKey(3), now);
+    saveDiffFileNotToRestore(now.minusMinutes(1));
+    Iterable<ImmutableObject> commitLogs = saveDiffFile(
+        createCheckpoint(now),
+        CommitLogManifest.create(
+            getBucketKey(1),
+            now.minusMillis(2),
+            ImmutableSet.<Key<?>>of(
+                Key.create(TestObject.create("deleted then saved", null, group2)))),
+        CommitLogMutation.create(manifest1Key, TestObject.create("x", "1", group1)),
+        CommitLogManifest.create(getBucketKey(2), now.minusMillis(1), null),
+        CommitLogMutation.create(manifest2Key, TestObject.create("y", "2", group2)),
+        CommitLogManifest.create(getBucketKey(3), now, null),
+        CommitLogMutation.create(manifest3Key, TestObject.create("x", "3", group1)),
+        CommitLogMutation.create(
+            manifest3Key, TestObject.create("deleted then saved", "new", group2)));
+    action.run();
+    ofy().clearSessionCache();
+    assertThat(ofy().load().entity(TestObject.create("x", null, group1)).now().getField())
+        .isEqualTo("3");
+    assertThat(ofy().load().entity(TestObject.create("y", null, group2)).now().getField())
+        .isEqualTo("2");
+    assertThat(
+            ofy().load().entity(TestObject.create("deleted then saved", null, group2)).now()
+                .getField())
+        .isEqualTo("new");
+    assertInDatastore(commitLogs);
+    assertCommitLogBuckets(
+        ImmutableMap.of(1, now.minusMillis(2), 2, now.minusMillis(1), 3, now));
+  }
+
   private CommitLogCheckpoint createCheckpoint(DateTime now) {
     return CommitLogCheckpoint.create(now, toMap(getBucketIds(), constant(now)));
   }
@@ -280,6 +348,24 @@ public class RestoreCommitLogsActionTest {
     return allEntities;
   }
 
+  private Iterable<ImmutableObject> saveBlockCompressedDiffFile(
+      CommitLogCheckpoint checkpoint, ImmutableObject... entities) throws IOException {
+    DateTime now = checkpoint.getCheckpointTime();
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try (BlockCompressedDiffFile.Writer writer =
+        new BlockCompressedDiffFile.Writer(output, 1024)) {
+      writer.write(asList(checkpoint));
+      writer.write(asList(entities));
+    }
+    gcsService.createOrReplace(
+        new GcsFilename(GCS_BUCKET, DIFF_FILE_PREFIX + now),
+        new GcsFileOptions.Builder()
+            .addUserMetadata(LOWER_BOUND_CHECKPOINT, now.minusMinutes(1).toString())
+            .build(),
+        ByteBuffer.wrap(output.toByteArray()));
+    return Lists.<ImmutableObject>asList(checkpoint, entities);
+  }
+
   private void saveDiffFileNotToRestore(DateTime now) throws Exception {
     saveDiffFile(
         createCheckpoint(now),
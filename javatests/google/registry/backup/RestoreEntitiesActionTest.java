@@ -0,0 +1,317 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package google.registry.backup;
+
+import static com.google.appengine.tools.cloudstorage.GcsServiceFactory.createGcsService;
+import static com.google.common.base.Functions.constant;
+import static com.google.common.collect.Maps.toMap;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+import static com.google.common.util.concurrent.MoreExecutors.newDirectExecutorService;
+import static google.registry.backup.BackupUtils.GcsMetadataKeys.LOWER_BOUND_CHECKPOINT;
+import static google.registry.backup.BackupUtils.serializeEntity;
+import static google.registry.backup.ExportCommitLogDiffAction.DIFF_FILE_PREFIX;
+import static google.registry.model.ofy.CommitLogBucket.getBucketIds;
+import static google.registry.model.ofy.CommitLogBucket.getBucketKey;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static java.util.Arrays.asList;
+import static org.joda.time.DateTimeZone.UTC;
+
+import com.google.appengine.tools.cloudstorage.GcsFileOptions;
+import com.google.appengine.tools.cloudstorage.GcsFilename;
+import com.google.appengine.tools.cloudstorage.GcsService;
+import com.google.common.collect.ImmutableSet;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.ObjectifyService;
+import google.registry.model.ImmutableObject;
+import google.registry.model.common.EntityGroupRoot;
+import google.registry.model.ofy.CommitLogCheckpoint;
+import google.registry.model.ofy.CommitLogManifest;
+import google.registry.model.ofy.CommitLogMutation;
+import google.registry.testing.AppEngineRule;
+import google.registry.testing.ExceptionRule;
+import google.registry.testing.TestObject;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link RestoreEntitiesAction}. */
+@RunWith(JUnit4.class)
+public class RestoreEntitiesActionTest {
+
+  static final String GCS_BUCKET = "gcs bucket";
+
+  final DateTime now = DateTime.now(UTC);
+  final RestoreEntitiesAction action = new RestoreEntitiesAction();
+  final GcsService gcsService = createGcsService();
+
+  final Key<EntityGroupRoot> group1 = Key.create(EntityGroupRoot.class, "group1");
+  final Key<EntityGroupRoot> group2 = Key.create(EntityGroupRoot.class, "group2");
+
+  @Rule
+  public final AppEngineRule appEngine = AppEngineRule.builder()
+      .withDatastore()
+      .build();
+
+  @Rule
+  public final ExceptionRule thrown = new ExceptionRule();
+
+  @Before
+  public void init() {
+    ObjectifyService.register(TestObject.class);
+    action.gcsService = gcsService;
+    action.dryRun = false;
+    action.fromTime = now.minusMinutes(1);
+    action.keys = ImmutableSet.of();
+    action.rootKeys = ImmutableSet.of();
+    action.diffLister = new GcsDiffFileLister();
+    action.diffLister.gcsService = gcsService;
+    action.diffLister.gcsBucket = GCS_BUCKET;
+    action.diffLister.executor = newDirectExecutorService();
+    ofy().saveWithoutBackup().entities(
+        TestObject.create("x", "current", group1),
+        TestObject.create("y", "current", group1),
+        TestObject.create("z", "current", group2)).now();
+  }
+
+  /**
+   * Creates a diff file with three transactions:
+   *
+   * <ol>
+   *   <li>now - 3ms: Save x = "1", z = "1"
+   *   <li>now - 2ms: Save x = "2", y = "2"
+   *   <li>now - 1ms: Save x = "3", delete y
+   * </ol>
+   */
+  private byte[] createDiffFile(boolean blockCompressed) throws IOException {
+    Key<CommitLogManifest> manifest1Key =
+        CommitLogManifest.createKey(getBucketKey(1), now.minusMillis(3));
+    Key<CommitLogManifest> manifest2Key =
+        CommitLogManifest.createKey(getBucketKey(2), now.minusMillis(2));
+    Key<CommitLogManifest> manifest3Key =
+        CommitLogManifest.createKey(getBucketKey(3), now.minusMillis(1));
+    ImmutableObject[][] transactions = {
+        {
+            CommitLogManifest.create(getBucketKey(1), now.minusMillis(3), null),
+            CommitLogMutation.create(manifest1Key, TestObject.create("x", "1", group1)),
+            CommitLogMutation.create(manifest1Key, TestObject.create("z", "1", group2)),
+        },
+        {
+            CommitLogManifest.create(getBucketKey(2), now.minusMillis(2), null),
+            CommitLogMutation.create(manifest2Key, TestObject.create("x", "2", group1)),
+            CommitLogMutation.create(manifest2Key, TestObject.create("y", "2", group1)),
+        },
+        {
+            CommitLogManifest.create(
+                getBucketKey(3),
+                now.minusMillis(1),
+                ImmutableSet.<Key<?>>of(Key.create(TestObject.create("y", null, group1)))),
+            CommitLogMutation.create(manifest3Key, TestObject.create("x", "3", group1)),
+        },
+    };
+    CommitLogCheckpoint checkpoint =
+        CommitLogCheckpoint.create(now, toMap(getBucketIds(), constant(now)));
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    if (blockCompressed) {
+      // Small enough that every transaction is in its own block.
+      try (BlockCompressedDiffFile.Writer writer = new BlockCompressedDiffFile.Writer(output, 1)) {
+        writer.write(asList(checkpoint));
+        for (ImmutableObject[] transaction : transactions) {
+          writer.write(asList(transaction));
+        }
+      }
+    } else {
+      serializeEntity(checkpoint, output);
+      for (ImmutableObject[] transaction : transactions) {
+        for (ImmutableObject entity : transaction) {
+          serializeEntity(entity, output);
+        }
+      }
+    }
+    return output.toByteArray();
+  }
+
+  private void saveDiffFile(boolean blockCompressed) throws IOException {
+    saveDiffFile(createDiffFile(blockCompressed));
+  }
+
+  private void saveDiffFile(byte[] bytes) throws IOException {
+    gcsService.createOrReplace(
+        new GcsFilename(GCS_BUCKET, DIFF_FILE_PREFIX + now),
+        new GcsFileOptions.Builder()
+            .addUserMetadata(LOWER_BOUND_CHECKPOINT, now.minusMinutes(1).toString())
+            .build(),
+        ByteBuffer.wrap(bytes));
+  }
+
+  /** Rewrites a block-compressed diff file in version 2, which has no entity group index. */
+  private static byte[] toVersion2(byte[] file) throws IOException {
+    long indexOffset = ByteBuffer.wrap(file, file.length - 8, 8).getLong();
+    int blockIndexLength = 4 + 20 * BlockCompressedDiffFile.readIndex(file).blocks().size();
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    output.write(file, 0, (int) indexOffset + blockIndexLength);
+    output.write(file, file.length - 8, 8);
+    byte[] result = output.toByteArray();
+    result[BlockCompressedDiffFile.MAGIC.length - 1] =
+        BlockCompressedDiffFile.VERSION_WITHOUT_ENTITY_GROUP_INDEX;
+    return result;
+  }
+
+  private String getField(String id, Key<EntityGroupRoot> group) {
+    ofy().clearSessionCache();
+    TestObject object = ofy().load().entity(TestObject.create(id, null, group)).now();
+    return object == null ? null : object.getField();
+  }
+
+  private String webSafeKey(String id, Key<EntityGroupRoot> group) {
+    return Key.create(TestObject.create(id, null, group)).getString();
+  }
+
+  @Test
+  public void testRestore_key_blockCompressed_restoresOnlyThatEntity() throws Exception {
+    saveDiffFile(true);
+    action.keys = ImmutableSet.of(webSafeKey("x", group1));
+    action.targetTime = now.minusMillis(2);
+    action.run();
+    assertThat(getField("x", group1)).isEqualTo("2");
+    assertThat(getField("y", group1)).isEqualTo("current");
+    assertThat(getField("z", group2)).isEqualTo("current");
+  }
+
+  @Test
+  public void testRestore_key_legacyFormat_restoresOnlyThatEntity() throws Exception {
+    saveDiffFile(false);
+    action.keys = ImmutableSet.of(webSafeKey("x", group1));
+    action.targetTime = now.minusMillis(3);
+    action.run();
+    assertThat(getField("x", group1)).isEqualTo("1");
+    assertThat(getField("y", group1)).isEqualTo("current");
+    assertThat(getField("z", group2)).isEqualTo("current");
+  }
+
+  @Test
+  public void testRestore_rootKey_blockCompressed_restoresWholeEntityGroup() throws Exception {
+    saveDiffFile(true);
+    action.rootKeys = ImmutableSet.of(group1.getString());
+    action.targetTime = now.minusMillis(1);
+    action.run();
+    assertThat(getField("x", group1)).isEqualTo("3");
+    assertThat(getField("y", group1)).isNull();
+    assertThat(getField("z", group2)).isEqualTo("current");
+  }
+
+  @Test
+  public void testRestore_rootKey_legacyFormat_restoresWholeEntityGroup() throws Exception {
+    saveDiffFile(false);
+    action.rootKeys = ImmutableSet.of(group1.getString());
+    action.targetTime = now.minusMillis(2);
+    action.run();
+    assertThat(getField("x", group1)).isEqualTo("2");
+    assertThat(getField("y", group1)).isEqualTo("2");
+    assertThat(getField("z", group2)).isEqualTo("current");
+  }
+
+  @Test
+  public void testRestore_rootKey_blockCompressedVersion2_readsAllBlocks() throws Exception {
+    byte[] file = toVersion2(createDiffFile(true));
+    BlockCompressedDiffFile.Index index = BlockCompressedDiffFile.readIndex(file);
+    assertThat(index.hasEntityGroupIndex()).isFalse();
+    assertThat(index.getBlocksForEntityGroups(ImmutableSet.of(group2.getString())))
+        .isEqualTo(index.blocks());
+    saveDiffFile(file);
+    action.rootKeys = ImmutableSet.of(group2.getString());
+    action.targetTime = now.minusMillis(1);
+    action.run();
+    assertThat(getField("x", group1)).isEqualTo("current");
+    assertThat(getField("y", group1)).isEqualTo("current");
+    assertThat(getField("z", group2)).isEqualTo("1");
+  }
+
+  @Test
+  public void testRestore_keyWithNoRevisionSinceFromTime_leftAlone() throws Exception {
+    ofy().saveWithoutBackup().entity(TestObject.create("w", "current", group1)).now();
+    saveDiffFile(true);
+    action.keys = ImmutableSet.of(webSafeKey("w", group1), webSafeKey("x", group1));
+    action.targetTime = now.minusMillis(3);
+    action.run();
+    assertThat(getField("w", group1)).isEqualTo("current");
+    assertThat(getField("x", group1)).isEqualTo("1");
+  }
+
+  @Test
+  public void testFailure_keyCreatedAfterTarget() throws Exception {
+    saveDiffFile(true);
+    action.keys = ImmutableSet.of(webSafeKey("y", group1));
+    action.targetTime = now.minusMillis(3);
+    thrown.expect(IllegalStateException.class, webSafeKey("y", group1));
+    action.run();
+  }
+
+  @Test
+  public void testFailure_rootKey_entityCreatedAfterTarget_changesNothing() throws Exception {
+    saveDiffFile(false);
+    action.rootKeys = ImmutableSet.of(group1.getString());
+    action.targetTime = now.minusMillis(3);
+    try {
+      action.run();
+      assertWithMessage("Expected IllegalStateException to be thrown").fail();
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage(String.format(
+          "Entities changed after %s have no revision since %s, so they were either created after "
+              + "the target time or fromTime is too late: [%s]",
+          now.minusMillis(3),
+          now.minusMinutes(1),
+          webSafeKey("y", group1)));
+    }
+    assertThat(getField("x", group1)).isEqualTo("current");
+    assertThat(getField("y", group1)).isEqualTo("current");
+  }
+
+  @Test
+  public void testRestore_dryRun_changesNothing() throws Exception {
+    saveDiffFile(true);
+    action.dryRun = true;
+    action.rootKeys = ImmutableSet.of(group1.getString(), group2.getString());
+    action.targetTime = now.minusMillis(1);
+    action.run();
+    assertThat(getField("x", group1)).isEqualTo("current");
+    assertThat(getField("y", group1)).isEqualTo("current");
+    assertThat(getField("z", group2)).isEqualTo("current");
+  }
+
+  @Test
+  public void testFailure_unsupportedVersion() throws Exception {
+    byte[] file = createDiffFile(true);
+    file[BlockCompressedDiffFile.MAGIC.length - 1] = 9;
+    saveDiffFile(file);
+    action.rootKeys = ImmutableSet.of(group1.getString());
+    action.targetTime = now;
+    thrown.expect(
+        IllegalArgumentException.class, "Unsupported block-compressed diff file version 9");
+    action.run();
+  }
+
+  @Test
+  public void testFailure_noKeys() throws Exception {
+    action.targetTime = now;
+    thrown.expect(IllegalArgumentException.class, "No keys or root keys to restore");
+    action.run();
+  }
+}
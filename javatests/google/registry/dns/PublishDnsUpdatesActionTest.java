@@ -14,10 +14,15 @@
 
 package google.registry.dns;
 
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.server.Lock.executeWithLocks;
 import static google.registry.testing.DatastoreHelper.createTld;
 import static google.registry.testing.DatastoreHelper.persistActiveDomain;
 import static google.registry.testing.DatastoreHelper.persistActiveSubordinateHost;
 import static google.registry.testing.DatastoreHelper.persistResource;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -25,14 +30,19 @@ import static org.mockito.Mockito.verifyNoMoreInteractions;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import google.registry.dns.DnsConstants.TargetType;
 import google.registry.dns.DnsMetrics.Status;
 import google.registry.dns.writer.DnsWriter;
 import google.registry.model.domain.DomainResource;
 import google.registry.model.ofy.Ofy;
 import google.registry.model.registry.Registry;
+import google.registry.request.HttpException.BadRequestException;
+import google.registry.request.HttpException.ServiceUnavailableException;
 import google.registry.testing.AppEngineRule;
+import google.registry.testing.ExceptionRule;
 import google.registry.testing.FakeClock;
 import google.registry.testing.InjectRule;
+import java.util.concurrent.Callable;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
 import org.junit.Before;
@@ -54,6 +64,9 @@ public class PublishDnsUpdatesActionTest {
   @Rule
   public final InjectRule inject = new InjectRule();
 
+  @Rule
+  public final ExceptionRule thrown = new ExceptionRule();
+
   private final FakeClock clock = new FakeClock(DateTime.parse("1971-01-01TZ"));
   private final DnsWriter dnsWriter = mock(DnsWriter.class);
   private final DnsMetrics dnsMetrics = mock(DnsMetrics.class);
@@ -78,6 +91,9 @@ public class PublishDnsUpdatesActionTest {
     action.tld = tld;
     action.hosts = ImmutableSet.<String>of();
     action.domains = ImmutableSet.<String>of();
+    action.lockIndex = 0;
+    action.numPublishLocks = 1;
+    action.clock = clock;
     action.dnsWriterProxy = new DnsWriterProxy(ImmutableMap.of("mock", dnsWriter));
     action.dnsMetrics = dnsMetrics;
     return action;
@@ -89,11 +105,15 @@ public class PublishDnsUpdatesActionTest {
     action.hosts = ImmutableSet.of("ns1.example.xn--q9jyb4c");
     action.run();
 
+    verify(dnsWriter).prefetch(
+        ImmutableSet.<String>of(), ImmutableSet.of("ns1.example.xn--q9jyb4c"));
     verify(dnsWriter).publishHost("ns1.example.xn--q9jyb4c");
     verify(dnsWriter).close();
     verifyNoMoreInteractions(dnsWriter);
 
     verify(dnsMetrics).incrementPublishHostRequests("xn--q9jyb4c", Status.ACCEPTED);
+    verify(dnsMetrics)
+        .recordPublishLockWaitTime(eq("xn--q9jyb4c"), eq(0), any(Duration.class));
     verifyNoMoreInteractions(dnsMetrics);
   }
 
@@ -103,11 +123,15 @@ public class PublishDnsUpdatesActionTest {
     action.domains = ImmutableSet.of("example.xn--q9jyb4c");
     action.run();
 
+    verify(dnsWriter).prefetch(
+        ImmutableSet.of("example.xn--q9jyb4c"), ImmutableSet.<String>of());
     verify(dnsWriter).publishDomain("example.xn--q9jyb4c");
     verify(dnsWriter).close();
     verifyNoMoreInteractions(dnsWriter);
 
     verify(dnsMetrics).incrementPublishDomainRequests("xn--q9jyb4c", Status.ACCEPTED);
+    verify(dnsMetrics)
+        .recordPublishLockWaitTime(eq("xn--q9jyb4c"), eq(0), any(Duration.class));
     verifyNoMoreInteractions(dnsMetrics);
   }
 
@@ -119,6 +143,10 @@ public class PublishDnsUpdatesActionTest {
         "ns1.example.xn--q9jyb4c", "ns2.example.xn--q9jyb4c", "ns1.example2.xn--q9jyb4c");
     action.run();
 
+    verify(dnsWriter).prefetch(
+        ImmutableSet.of("example.xn--q9jyb4c", "example2.xn--q9jyb4c"),
+        ImmutableSet.of(
+            "ns1.example.xn--q9jyb4c", "ns2.example.xn--q9jyb4c", "ns1.example2.xn--q9jyb4c"));
     verify(dnsWriter).publishDomain("example.xn--q9jyb4c");
     verify(dnsWriter).publishDomain("example2.xn--q9jyb4c");
     verify(dnsWriter).publishHost("ns1.example.xn--q9jyb4c");
@@ -129,6 +157,8 @@ public class PublishDnsUpdatesActionTest {
 
     verify(dnsMetrics, times(2)).incrementPublishDomainRequests("xn--q9jyb4c", Status.ACCEPTED);
     verify(dnsMetrics, times(3)).incrementPublishHostRequests("xn--q9jyb4c", Status.ACCEPTED);
+    verify(dnsMetrics)
+        .recordPublishLockWaitTime(eq("xn--q9jyb4c"), eq(0), any(Duration.class));
     verifyNoMoreInteractions(dnsMetrics);
   }
 
@@ -144,6 +174,88 @@ public class PublishDnsUpdatesActionTest {
 
     verify(dnsMetrics, times(2)).incrementPublishDomainRequests("xn--q9jyb4c", Status.REJECTED);
     verify(dnsMetrics, times(3)).incrementPublishHostRequests("xn--q9jyb4c", Status.REJECTED);
+    verify(dnsMetrics)
+        .recordPublishLockWaitTime(eq("xn--q9jyb4c"), eq(0), any(Duration.class));
+    verifyNoMoreInteractions(dnsMetrics);
+  }
+
+  /** Runs a publish task while another task holds the lock of a shard. */
+  private void runWhileHoldingLock(final PublishDnsUpdatesAction action, String lockName) {
+    executeWithLocks(
+        new Callable<Void>() {
+          @Override
+          public Void call() {
+            action.run();
+            return null;
+          }},
+        null,
+        "xn--q9jyb4c",
+        Duration.standardSeconds(10),
+        lockName);
+  }
+
+  @Test
+  public void testShardedTld_otherShardLocked_published() throws Exception {
+    action = createAction("xn--q9jyb4c");
+    action.domains = ImmutableSet.of("example.xn--q9jyb4c");
+    action.lockIndex = 0;
+    action.numPublishLocks = 2;
+    runWhileHoldingLock(action, "DNS zone xn--q9jyb4c shard 1 of 2");
+
+    verify(dnsWriter).publishDomain("example.xn--q9jyb4c");
+    verify(dnsMetrics)
+        .recordPublishLockWaitTime(eq("xn--q9jyb4c"), eq(0), any(Duration.class));
+  }
+
+  @Test
+  public void testShardedTld_sameShardLocked_lockFailure() throws Exception {
+    action = createAction("xn--q9jyb4c");
+    action.domains = ImmutableSet.of("example.xn--q9jyb4c");
+    action.lockIndex = 1;
+    action.numPublishLocks = 2;
+    try {
+      runWhileHoldingLock(action, "DNS zone xn--q9jyb4c shard 1 of 2");
+      fail("Expected ServiceUnavailableException");
+    } catch (ServiceUnavailableException e) {
+      // Expected.
+    }
+
+    verifyNoMoreInteractions(dnsWriter);
+    verify(dnsMetrics).incrementPublishLockFailures("xn--q9jyb4c", 1);
     verifyNoMoreInteractions(dnsMetrics);
   }
+
+  @Test
+  public void testFailure_lockIndexOutOfRange() throws Exception {
+    action = createAction("xn--q9jyb4c");
+    action.lockIndex = 2;
+    action.numPublishLocks = 2;
+    thrown.expect(BadRequestException.class, "Invalid lock index 2 of 2");
+    action.run();
+  }
+
+  @Test
+  public void testGetLockName() throws Exception {
+    assertThat(PublishDnsUpdatesAction.getLockName("xn--q9jyb4c", 0, 1))
+        .isEqualTo("DNS zone xn--q9jyb4c");
+    assertThat(PublishDnsUpdatesAction.getLockName("xn--q9jyb4c", 3, 4))
+        .isEqualTo("DNS zone xn--q9jyb4c shard 3 of 4");
+  }
+
+  @Test
+  public void testGetLockIndex_hostsShardedWithSuperordinateDomain() throws Exception {
+    for (int i = 0; i < 20; i++) {
+      String domain = String.format("example%d.xn--q9jyb4c", i);
+      int lockIndex = PublishDnsUpdatesAction.getLockIndex(
+          "xn--q9jyb4c", 8, TargetType.DOMAIN, domain);
+      assertThat(lockIndex).isAtLeast(0);
+      assertThat(lockIndex).isLessThan(8);
+      assertThat(PublishDnsUpdatesAction.getLockIndex(
+          "xn--q9jyb4c", 8, TargetType.HOST, "ns1." + domain)).isEqualTo(lockIndex);
+      assertThat(PublishDnsUpdatesAction.getLockIndex(
+          "xn--q9jyb4c", 8, TargetType.HOST, "a.b.ns2." + domain)).isEqualTo(lockIndex);
+      assertThat(PublishDnsUpdatesAction.getLockIndex(
+          "xn--q9jyb4c", 1, TargetType.DOMAIN, domain)).isEqualTo(0);
+    }
+  }
 }
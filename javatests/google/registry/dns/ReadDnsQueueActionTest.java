@@ -46,6 +46,8 @@ import google.registry.util.Retrier;
 import google.registry.util.TaskEnqueuer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.joda.time.Duration;
@@ -234,4 +236,39 @@ public class ReadDnsQueueActionTest {
     assertNoTasksEnqueued(DnsConstants.DNS_PULL_QUEUE_NAME);
     assertTasksEnqueued(DNS_PUBLISH_PUSH_QUEUE_NAME, expectedTasks);
   }
+
+  @Test
+  public void testSuccess_shardedTld() throws Exception {
+    persistResource(Registry.get("com").asBuilder().setNumDnsPublishLocks(4).build());
+    Map<Integer, TaskMatcher> expectedTasks = new TreeMap<>();
+    for (int i = 0; i < 20; i++) {
+      String domainName = String.format("domain%04d.com", i);
+      dnsQueue.addDomainRefreshTask(domainName);
+      dnsQueue.queue.add(createRefreshTask("ns1." + domainName, TargetType.HOST));
+      int lockIndex =
+          PublishDnsUpdatesAction.getLockIndex("com", 4, TargetType.DOMAIN, domainName);
+      if (!expectedTasks.containsKey(lockIndex)) {
+        expectedTasks.put(lockIndex, new TaskMatcher()
+            .url(PublishDnsUpdatesAction.PATH)
+            .param(PARAM_TLD, "com")
+            .param(PublishDnsUpdatesAction.LOCK_INDEX_PARAM, Integer.toString(lockIndex))
+            .param(PublishDnsUpdatesAction.NUM_PUBLISH_LOCKS_PARAM, "4"));
+      }
+      expectedTasks.get(lockIndex)
+          .param("domains", domainName)
+          .param("hosts", "ns1." + domainName);
+    }
+    dnsQueue.addDomainRefreshTask("domain.net");
+    run(false);
+    assertNoTasksEnqueued(DnsConstants.DNS_PULL_QUEUE_NAME);
+    assertTasksEnqueued(
+        DNS_PUBLISH_PUSH_QUEUE_NAME,
+        new ImmutableList.Builder<TaskMatcher>()
+            .addAll(expectedTasks.values())
+            .add(new TaskMatcher()
+                .url(PublishDnsUpdatesAction.PATH)
+                .param(PARAM_TLD, "net")
+                .param("domains", "domain.net"))
+            .build());
+  }
 }
@@ -0,0 +1,300 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.dns.writer.dnsupdate;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import google.registry.testing.FakeClock;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.net.SocketFactory;
+import org.joda.time.Duration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.Type;
+
+/**
+ * Unit tests for {@link DnsConnectionPool}, and for connection reuse and pipelining in {@link
+ * DnsMessageTransport}, against an in-process DNS server.
+ */
+@RunWith(JUnit4.class)
+public class DnsConnectionPoolTest {
+
+  private static final String UPDATE_HOST = "127.0.0.1";
+
+  private final FakeClock clock = new FakeClock();
+  private FakeDnsServer server;
+  private DnsConnectionPool pool;
+  private DnsMessageTransport transport;
+
+  @Before
+  public void before() throws Exception {
+    server = new FakeDnsServer();
+    pool = new DnsConnectionPool(
+        SocketFactory.getDefault(),
+        server.getPort(),
+        DnsConnectionPool.DEFAULT_MAX_IDLE_PER_HOST,
+        DnsConnectionPool.DEFAULT_MAX_IDLE_TIME,
+        clock);
+    transport = new DnsMessageTransport(pool, UPDATE_HOST, Duration.standardSeconds(10));
+  }
+
+  @After
+  public void after() throws Exception {
+    pool.closeIdleConnections();
+    server.close();
+  }
+
+  @Test
+  public void testSend_reusesConnection() throws Exception {
+    Message first = newQuery("first.example.");
+    Message second = newQuery("second.example.");
+    assertThat(transport.send(first).getHeader().getID()).isEqualTo(first.getHeader().getID());
+    assertThat(transport.send(second).getHeader().getID()).isEqualTo(second.getHeader().getID());
+    assertThat(pool.getOpenedCount()).isEqualTo(1);
+    assertThat(pool.getReusedCount()).isEqualTo(1);
+    assertThat(server.getAcceptedCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testSendAll_outOfOrderResponses_matchedById() throws Exception {
+    server.setReplyBatchSize(3);
+    ImmutableList<Message> queries = ImmutableList.of(
+        newQueryWithId("a.example.", 1),
+        newQueryWithId("b.example.", 2),
+        newQueryWithId("c.example.", 3));
+    List<Integer> responseIds = new ArrayList<>();
+    for (Message response : transport.sendAll(queries)) {
+      responseIds.add(response.getHeader().getID());
+    }
+    assertThat(responseIds).containsExactly(1, 2, 3).inOrder();
+    assertThat(server.getAcceptedCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testSendAll_moreThanPipelineDepth_usesOneConnection() throws Exception {
+    List<Message> queries = new ArrayList<>();
+    for (int i = 0; i < DnsMessageTransport.MAX_PIPELINE_DEPTH * 2 + 1; i++) {
+      queries.add(newQueryWithId("name" + i + ".example.", i));
+    }
+    assertThat(transport.sendAll(queries)).hasSize(queries.size());
+    assertThat(server.getAcceptedCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testSendAll_duplicateIds_notInFlightTogether() throws Exception {
+    ImmutableList<Message> responses = transport.sendAll(ImmutableList.of(
+        newQueryWithId("a.example.", 7),
+        newQueryWithId("b.example.", 7)));
+    assertThat(responses).hasSize(2);
+    assertThat(responses.get(0).getQuestion().getName().toString()).isEqualTo("a.example.");
+    assertThat(responses.get(1).getQuestion().getName().toString()).isEqualTo("b.example.");
+  }
+
+  @Test
+  public void testSendAll_empty() throws Exception {
+    assertThat(transport.sendAll(ImmutableList.<Message>of())).isEmpty();
+    assertThat(pool.getOpenedCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testSend_serverClosedIdleConnection_reconnects() throws Exception {
+    transport.send(newQuery("first.example."));
+    server.closeConnections();
+    Message second = newQuery("second.example.");
+    assertThat(transport.send(second).getHeader().getID()).isEqualTo(second.getHeader().getID());
+    assertThat(pool.getOpenedCount()).isEqualTo(2);
+    assertThat(server.getAcceptedCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void testSendAll_pooledConnectionFailsMidWindow_notRetried() throws Exception {
+    transport.send(newQuery("first.example."));
+    server.setReplyBatchSize(3);
+    server.closeConnectionsAfterResponses(1);
+    try {
+      transport.sendAll(ImmutableList.of(
+          newQueryWithId("a.example.", 1),
+          newQueryWithId("b.example.", 2),
+          newQueryWithId("c.example.", 3)));
+      fail("Expected IOException");
+    } catch (IOException e) {
+      // Expected.
+    }
+    assertThat(pool.getReusedCount()).isEqualTo(1);
+    assertThat(server.getAcceptedCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testAcquire_idleTooLong_opensNewConnection() throws Exception {
+    transport.send(newQuery("first.example."));
+    clock.advanceBy(DnsConnectionPool.DEFAULT_MAX_IDLE_TIME);
+    transport.send(newQuery("second.example."));
+    assertThat(pool.getOpenedCount()).isEqualTo(2);
+    assertThat(pool.getReusedCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testRelease_poolFull_closesExtraConnections() throws Exception {
+    List<DnsConnectionPool.Connection> connections = new ArrayList<>();
+    for (int i = 0; i < DnsConnectionPool.DEFAULT_MAX_IDLE_PER_HOST + 1; i++) {
+      connections.add(pool.acquire(UPDATE_HOST, 1000));
+    }
+    for (DnsConnectionPool.Connection connection : connections) {
+      pool.release(connection);
+    }
+    assertThat(connections.get(DnsConnectionPool.DEFAULT_MAX_IDLE_PER_HOST).socket.isClosed())
+        .isTrue();
+    assertThat(connections.get(0).socket.isClosed()).isFalse();
+  }
+
+  private static Message newQuery(String name) throws Exception {
+    return Message.newQuery(Record.newRecord(Name.fromString(name), Type.A, DClass.IN));
+  }
+
+  private static Message newQueryWithId(String name, int id) throws Exception {
+    Message query = newQuery(name);
+    query.getHeader().setID(id);
+    return query;
+  }
+
+  /**
+   * A minimal DNS server that answers every query with a NOERROR response echoing its question.
+   *
+   * <p>Responses are sent in batches, in reverse order, to check that clients match them to
+   * queries by ID rather than by position.
+   */
+  private static final class FakeDnsServer {
+    private final ServerSocket serverSocket =
+        new ServerSocket(0, 50, InetAddress.getByName(UPDATE_HOST));
+    private final List<Socket> connections = new CopyOnWriteArrayList<>();
+    private volatile int replyBatchSize = 1;
+    private final AtomicInteger responsesUntilClose = new AtomicInteger(Integer.MAX_VALUE);
+
+    FakeDnsServer() throws IOException {
+      Thread acceptor = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            while (true) {
+              final Socket connection = serverSocket.accept();
+              connections.add(connection);
+              Thread handler = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                  serve(connection);
+                }});
+              handler.setDaemon(true);
+              handler.start();
+            }
+          } catch (IOException e) {
+            // The server socket was closed.
+          }
+        }});
+      acceptor.setDaemon(true);
+      acceptor.start();
+    }
+
+    int getPort() {
+      return serverSocket.getLocalPort();
+    }
+
+    int getAcceptedCount() {
+      return connections.size();
+    }
+
+    void setReplyBatchSize(int replyBatchSize) {
+      this.replyBatchSize = replyBatchSize;
+    }
+
+    /** Makes the server close the connection it is serving after sending this many responses. */
+    void closeConnectionsAfterResponses(int responses) {
+      responsesUntilClose.set(responses);
+    }
+
+    /** Closes all client connections, as a server does when they have been idle too long. */
+    void closeConnections() throws IOException {
+      for (Socket connection : connections) {
+        connection.close();
+      }
+    }
+
+    void close() throws IOException {
+      serverSocket.close();
+      closeConnections();
+    }
+
+    private void serve(Socket connection) {
+      try {
+        DataInputStream input = new DataInputStream(connection.getInputStream());
+        DataOutputStream output = new DataOutputStream(connection.getOutputStream());
+        List<Message> batch = new ArrayList<>();
+        while (true) {
+          byte[] queryData = new byte[input.readUnsignedShort()];
+          input.readFully(queryData);
+          batch.add(new Message(queryData));
+          if (batch.size() < replyBatchSize) {
+            continue;
+          }
+          Collections.reverse(batch);
+          for (Message query : batch) {
+            if (responsesUntilClose.getAndDecrement() <= 0) {
+              output.flush();
+              connection.close();
+              return;
+            }
+            byte[] responseData = makeResponse(query).toWire();
+            output.writeShort(responseData.length);
+            output.write(responseData);
+          }
+          output.flush();
+          batch.clear();
+        }
+      } catch (IOException e) {
+        // The client or the test closed the connection.
+      }
+    }
+
+    private static Message makeResponse(Message query) {
+      Message response = new Message(query.getHeader().getID());
+      response.getHeader().setOpcode(query.getHeader().getOpcode());
+      response.getHeader().setFlag(Flags.QR);
+      response.getHeader().setRcode(Rcode.NOERROR);
+      response.addRecord(query.getQuestion(), Section.QUESTION);
+      return response;
+    }
+  }
+}
@@ -26,7 +26,8 @@ import static google.registry.testing.DatastoreHelper.persistActiveSubordinateHo
 import static google.registry.testing.DatastoreHelper.persistDeletedDomain;
 import static google.registry.testing.DatastoreHelper.persistDeletedHost;
 import static google.registry.testing.DatastoreHelper.persistResource;
-import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -46,6 +47,7 @@ import google.registry.testing.FakeClock;
 import google.registry.testing.InjectRule;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
 import org.junit.Before;
@@ -55,6 +57,8 @@ import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.xbill.DNS.Flags;
 import org.xbill.DNS.Message;
@@ -84,7 +88,7 @@ public class DnsUpdateWriterTest {
   private DnsMessageTransport mockResolver;
 
   @Captor
-  private ArgumentCaptor<Update> updateCaptor;
+  private ArgumentCaptor<List<Message>> messagesCaptor;
 
   private final FakeClock clock = new FakeClock(DateTime.parse("1971-01-01TZ"));
 
@@ -95,7 +99,7 @@ public class DnsUpdateWriterTest {
     inject.setStaticField(Ofy.class, "clock", clock);
 
     createTld("tld");
-    when(mockResolver.send(any(Update.class))).thenReturn(messageWithResponseCode(Rcode.NOERROR));
+    when(mockResolver.sendAll(anyListOf(Message.class))).thenAnswer(respondWith(Rcode.NOERROR));
 
     writer = new DnsUpdateWriter(Duration.ZERO, mockResolver, clock);
   }
@@ -112,9 +116,9 @@ public class DnsUpdateWriterTest {
     persistResource(domain);
 
     writer.publishDomain("example.tld");
+    writer.close();
 
-    verify(mockResolver).send(updateCaptor.capture());
-    Update update = updateCaptor.getValue();
+    Update update = getOnlySentUpdate();
     assertThatUpdatedZoneIs(update, "tld.");
     assertThatUpdateDeletes(update, "example.tld.", Type.ANY);
     assertThatUpdateAdds(update, "example.tld.", Type.NS, "ns1.example.tld.", "ns2.example.tld.");
@@ -134,9 +138,9 @@ public class DnsUpdateWriterTest {
     persistResource(domain);
 
     writer.publishDomain("example.tld");
+    writer.close();
 
-    verify(mockResolver).send(updateCaptor.capture());
-    Update update = updateCaptor.getValue();
+    Update update = getOnlySentUpdate();
     assertThatUpdatedZoneIs(update, "tld.");
     assertThatUpdateDeletes(update, "example.tld.", Type.ANY);
     assertThatUpdateAdds(update, "example.tld.", Type.NS, "ns1.example.tld.");
@@ -155,9 +159,9 @@ public class DnsUpdateWriterTest {
     persistResource(domain);
 
     writer.publishDomain("example.tld");
+    writer.close();
 
-    verify(mockResolver).send(updateCaptor.capture());
-    Update update = updateCaptor.getValue();
+    Update update = getOnlySentUpdate();
     assertThatUpdatedZoneIs(update, "tld.");
     assertThatUpdateDeletes(update, "example.tld.", Type.ANY);
     assertThatTotalUpdateSetsIs(update, 1); // Just the delete set
@@ -168,9 +172,9 @@ public class DnsUpdateWriterTest {
     persistDeletedDomain("example.tld", clock.nowUtc().minusDays(1));
 
     writer.publishDomain("example.tld");
+    writer.close();
 
-    verify(mockResolver).send(updateCaptor.capture());
-    Update update = updateCaptor.getValue();
+    Update update = getOnlySentUpdate();
     assertThatUpdatedZoneIs(update, "tld.");
     assertThatUpdateDeletes(update, "example.tld.", Type.ANY);
     assertThatTotalUpdateSetsIs(update, 1); // Just the delete set
@@ -196,9 +200,9 @@ public class DnsUpdateWriterTest {
             .build());
 
     writer.publishHost("ns1.example.tld");
+    writer.close();
 
-    verify(mockResolver).send(updateCaptor.capture());
-    Update update = updateCaptor.getValue();
+    Update update = getOnlySentUpdate();
     assertThatUpdatedZoneIs(update, "tld.");
     assertThatUpdateDeletes(update, "example.tld.", Type.ANY);
     assertThatUpdateDeletes(update, "ns1.example.tld.", Type.ANY);
@@ -214,9 +218,9 @@ public class DnsUpdateWriterTest {
     persistActiveDomain("example.tld");
 
     writer.publishHost("ns1.example.tld");
+    writer.close();
 
-    verify(mockResolver).send(updateCaptor.capture());
-    Update update = updateCaptor.getValue();
+    Update update = getOnlySentUpdate();
     assertThatUpdatedZoneIs(update, "tld.");
     assertThatUpdateDeletes(update, "example.tld.", Type.ANY);
     assertThatUpdateDeletes(update, "ns1.example.tld.", Type.ANY);
@@ -233,9 +237,9 @@ public class DnsUpdateWriterTest {
             .build());
 
     writer.publishHost("ns1.example.tld");
+    writer.close();
 
-    verify(mockResolver).send(updateCaptor.capture());
-    Update update = updateCaptor.getValue();
+    Update update = getOnlySentUpdate();
     assertThatUpdatedZoneIs(update, "tld.");
     assertThatUpdateDeletes(update, "example.tld.", Type.ANY);
     assertThatUpdateDeletes(update, "ns1.example.tld.", Type.ANY);
@@ -266,9 +270,9 @@ public class DnsUpdateWriterTest {
             .build());
 
     writer.publishDomain("example.tld");
+    writer.close();
 
-    verify(mockResolver).send(updateCaptor.capture());
-    Update update = updateCaptor.getValue();
+    Update update = getOnlySentUpdate();
     assertThatUpdatedZoneIs(update, "tld.");
     assertThatUpdateDeletes(update, "example.tld.", Type.ANY);
     assertThatUpdateDeletes(update, "ns1.example.tld.", Type.ANY);
@@ -300,9 +304,9 @@ public class DnsUpdateWriterTest {
             .build());
 
     writer.publishDomain("example.tld");
+    writer.close();
 
-    verify(mockResolver).send(updateCaptor.capture());
-    Update update = updateCaptor.getValue();
+    Update update = getOnlySentUpdate();
     assertThatUpdatedZoneIs(update, "tld.");
     assertThatUpdateDeletes(update, "example.tld.", Type.ANY);
     assertThatUpdateDeletes(update, "ns1.example.tld.", Type.ANY);
@@ -313,6 +317,117 @@ public class DnsUpdateWriterTest {
     assertThatTotalUpdateSetsIs(update, 6);
   }
 
+  @Test
+  public void testPrefetch_publishesSameRecords() throws Exception {
+    HostResource externalNameserver = persistResource(newHostResource("ns1.example.com"));
+    HostResource inBailiwickNameserver =
+        persistResource(
+            newHostResource("ns1.example.tld")
+                .asBuilder()
+                .setInetAddresses(ImmutableSet.of(InetAddresses.forString("10.0.0.1")))
+                .build());
+    persistResource(
+        newDomainResource("example.tld")
+            .asBuilder()
+            .addSubordinateHost("ns1.example.tld")
+            .addNameservers(
+                ImmutableSet.of(Key.create(externalNameserver), Key.create(inBailiwickNameserver)))
+            .build());
+
+    writer.prefetch(ImmutableSet.of("example.tld"), ImmutableSet.of("ns1.example.tld"));
+    writer.publishDomain("example.tld");
+    writer.publishHost("ns1.example.tld");
+    writer.close();
+
+    Update update = getOnlySentUpdate();
+    assertThatUpdatedZoneIs(update, "tld.");
+    assertThatUpdateDeletes(update, "example.tld.", Type.ANY);
+    assertThatUpdateDeletes(update, "ns1.example.tld.", Type.ANY);
+    assertThatUpdateAdds(update, "example.tld.", Type.NS, "ns1.example.com.", "ns1.example.tld.");
+    assertThatUpdateAdds(update, "ns1.example.tld.", Type.A, "10.0.0.1");
+    assertThatTotalUpdateSetsIs(update, 4);
+  }
+
+  @Test
+  public void testPublish_sendsNothingUntilClosed() throws Exception {
+    persistActiveDomain("example.tld");
+
+    writer.publishDomain("example.tld");
+
+    verify(mockResolver, never()).sendAll(anyListOf(Message.class));
+  }
+
+  @Test
+  public void testClose_nothingPublished_sendsNothing() throws Exception {
+    writer.close();
+
+    verify(mockResolver, never()).sendAll(anyListOf(Message.class));
+  }
+
+  @Test
+  public void testPublishHostsOfSameDomain_refreshesDomainOnce() throws Exception {
+    persistDeletedHost("ns1.example.tld", clock.nowUtc().minusDays(1));
+    persistDeletedHost("ns2.example.tld", clock.nowUtc().minusDays(1));
+    persistActiveDomain("example.tld");
+
+    writer.publishHost("ns1.example.tld");
+    writer.publishHost("ns2.example.tld");
+    writer.publishDomain("example.tld");
+    writer.close();
+
+    Update update = getOnlySentUpdate();
+    assertThatUpdatedZoneIs(update, "tld.");
+    assertThatUpdateDeletes(update, "example.tld.", Type.ANY);
+    assertThatUpdateDeletes(update, "ns1.example.tld.", Type.ANY);
+    assertThatUpdateDeletes(update, "ns2.example.tld.", Type.ANY);
+    assertThatTotalUpdateSetsIs(update, 3);
+  }
+
+  @Test
+  public void testPublishSeveralDomains_sendsOneUpdate() throws Exception {
+    persistActiveDomain("example.tld");
+    persistResource(
+        persistActiveDomain("other.tld")
+            .asBuilder()
+            .setNameservers(ImmutableSet.of(Key.create(persistActiveHost("ns1.example.com"))))
+            .build());
+
+    writer.publishDomain("example.tld");
+    writer.publishDomain("other.tld");
+    writer.close();
+
+    Update update = getOnlySentUpdate();
+    assertThatUpdatedZoneIs(update, "tld.");
+    assertThatUpdateDeletes(update, "example.tld.", Type.ANY);
+    assertThatUpdateDeletes(update, "other.tld.", Type.ANY);
+    assertThatUpdateAdds(update, "other.tld.", Type.NS, "ns1.example.com.");
+    assertThatTotalUpdateSetsIs(update, 3);
+  }
+
+  @Test
+  public void testClose_updateTooLarge_splitsBetweenDomains() throws Exception {
+    persistActiveDomain("a.tld");
+    persistActiveDomain("b.tld");
+    persistActiveDomain("c.tld");
+    // Only leaves room for one domain's delete record in each message.
+    writer.maxMessageSize = 40;
+
+    writer.publishDomain("a.tld");
+    writer.publishDomain("b.tld");
+    writer.publishDomain("c.tld");
+    writer.close();
+
+    List<Message> messages = getSentMessages();
+    assertThat(messages).hasSize(3);
+    assertThatUpdateDeletes((Update) messages.get(0), "a.tld.", Type.ANY);
+    assertThatUpdateDeletes((Update) messages.get(1), "b.tld.", Type.ANY);
+    assertThatUpdateDeletes((Update) messages.get(2), "c.tld.", Type.ANY);
+    for (Message message : messages) {
+      assertThat(message.toWire().length).isAtMost(40);
+      assertThatTotalUpdateSetsIs((Update) message, 1);
+    }
+  }
+
   @Test
   public void testPublishDomainFails_whenDnsUpdateReturnsError() throws Exception {
     DomainResource domain =
@@ -321,10 +436,11 @@ public class DnsUpdateWriterTest {
             .setNameservers(ImmutableSet.of(Key.create(persistActiveHost("ns1.example.tld"))))
             .build();
     persistResource(domain);
-    when(mockResolver.send(any(Message.class))).thenReturn(messageWithResponseCode(Rcode.SERVFAIL));
+    when(mockResolver.sendAll(anyListOf(Message.class))).thenAnswer(respondWith(Rcode.SERVFAIL));
+    writer.publishDomain("example.tld");
     thrown.expect(VerifyException.class, "SERVFAIL");
 
-    writer.publishDomain("example.tld");
+    writer.close();
   }
 
   @Test
@@ -335,10 +451,22 @@ public class DnsUpdateWriterTest {
             .setInetAddresses(ImmutableSet.of(InetAddresses.forString("10.0.0.1")))
             .build();
     persistResource(host);
-    when(mockResolver.send(any(Message.class))).thenReturn(messageWithResponseCode(Rcode.SERVFAIL));
+    when(mockResolver.sendAll(anyListOf(Message.class))).thenAnswer(respondWith(Rcode.SERVFAIL));
+    writer.publishHost("ns1.example.tld");
     thrown.expect(VerifyException.class, "SERVFAIL");
 
-    writer.publishHost("ns1.example.tld");
+    writer.close();
+  }
+
+  private List<Message> getSentMessages() throws Exception {
+    verify(mockResolver).sendAll(messagesCaptor.capture());
+    return messagesCaptor.getValue();
+  }
+
+  private Update getOnlySentUpdate() throws Exception {
+    List<Message> messages = getSentMessages();
+    assertThat(messages).hasSize(1);
+    return (Update) messages.get(0);
   }
 
   private void assertThatUpdatedZoneIs(Update update, String zoneName) {
@@ -389,6 +517,19 @@ public class DnsUpdateWriterTest {
     return ImmutableList.copyOf((Iterator<T>) iterator);
   }
 
+  /** Returns an answer that responds to each message sent with the given response code. */
+  private Answer<ImmutableList<Message>> respondWith(final int responseCode) {
+    return new Answer<ImmutableList<Message>>() {
+      @Override
+      public ImmutableList<Message> answer(InvocationOnMock invocation) {
+        ImmutableList.Builder<Message> responses = new ImmutableList.Builder<>();
+        for (Object unused : (List<?>) invocation.getArguments()[0]) {
+          responses.add(messageWithResponseCode(responseCode));
+        }
+        return responses.build();
+      }};
+  }
+
   private Message messageWithResponseCode(int responseCode) {
     Message message = new Message();
     message.getHeader().setOpcode(Opcode.UPDATE);
@@ -0,0 +1,123 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.flows;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import google.registry.testing.ExceptionRule;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import org.joda.time.Duration;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link EppCommandLogWriter}. */
+@RunWith(JUnit4.class)
+public class EppCommandLogWriterTest {
+
+  @Rule
+  public final ExceptionRule thrown = new ExceptionRule();
+
+  private final List<String> written = Collections.synchronizedList(new ArrayList<String>());
+  private final EppCommandLogWriter writer = new EppCommandLogWriter(2);
+
+  @After
+  public void after() throws Exception {
+    writer.stop(Duration.standardSeconds(5));
+  }
+
+  private Runnable record(final String name) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        written.add(name);
+      }};
+  }
+
+  @Test
+  public void testWrite_notStarted_writesInline() {
+    writer.write(record("a"));
+    assertThat(written).containsExactly("a");
+    assertThat(writer.getInlineWriteCount()).isEqualTo(1);
+    assertThat(writer.getAsyncWriteCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testWrite_started_writesOnBackgroundThread() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+    writer.start(Executors.defaultThreadFactory());
+    final Thread testThread = Thread.currentThread();
+    writer.write(new Runnable() {
+      @Override
+      public void run() {
+        written.add(Thread.currentThread() == testThread ? "inline" : "background");
+        latch.countDown();
+      }});
+    assertThat(latch.await(5, SECONDS)).isTrue();
+    assertThat(written).containsExactly("background");
+    assertThat(writer.getAsyncWriteCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testWrite_queueFull_writesInline() throws Exception {
+    final CountDownLatch blocker = new CountDownLatch(1);
+    final CountDownLatch started = new CountDownLatch(1);
+    writer.start(Executors.defaultThreadFactory());
+    writer.write(new Runnable() {
+      @Override
+      public void run() {
+        started.countDown();
+        try {
+          blocker.await();
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      }});
+    assertThat(started.await(5, SECONDS)).isTrue();
+    writer.write(record("queued1"));
+    writer.write(record("queued2"));
+    writer.write(record("overflow"));
+    assertThat(written).containsExactly("overflow");
+    assertThat(writer.getInlineWriteCount()).isEqualTo(1);
+    blocker.countDown();
+    writer.stop(Duration.standardSeconds(5));
+    assertThat(written).containsExactly("overflow", "queued1", "queued2").inOrder();
+  }
+
+  @Test
+  public void testWrite_recordThrows_isContained() {
+    writer.write(new Runnable() {
+      @Override
+      public void run() {
+        throw new IllegalStateException("boom");
+      }});
+    writer.write(record("b"));
+    assertThat(written).containsExactly("b");
+  }
+
+  @Test
+  public void testFailure_startTwice() {
+    writer.start(Executors.defaultThreadFactory());
+    thrown.expect(IllegalStateException.class, "already started");
+    writer.start(Executors.defaultThreadFactory());
+  }
+}
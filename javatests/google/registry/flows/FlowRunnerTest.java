@@ -42,9 +42,12 @@ import google.registry.testing.Providers;
 import google.registry.testing.ShardableTestCase;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
 import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 import org.joda.time.DateTime;
+import org.joda.time.Duration;
 import org.json.simple.JSONValue;
 import org.junit.Before;
 import org.junit.Rule;
@@ -74,6 +77,7 @@ public class FlowRunnerTest extends ShardableTestCase {
 
     flowRunner.clientId = "TheRegistrar";
     flowRunner.clock = new FakeClock();
+    flowRunner.commandLogWriter = new EppCommandLogWriter(10);
     flowRunner.credentials = new PasswordOnlyTransportCredentials();
     flowRunner.eppInput = new EppInput();
     flowRunner.eppRequestSource = EppRequestSource.UNIT_TEST;
@@ -102,7 +106,6 @@ public class FlowRunnerTest extends ShardableTestCase {
         .containsExactly(
               "trid", "server-456",
               "clientId", "TheRegistrar",
-              "xml", "<?xml version=\"1.0\" encoding=\"UTF-8\"?><xml/>\n",
               // Base64-encoding of "<xml/>":
               "xmlBytes", "PHhtbC8+");
   }
@@ -128,7 +131,6 @@ public class FlowRunnerTest extends ShardableTestCase {
         .containsExactly(
               "trid", "server-456",
               "clientId", "",
-              "xml", "<?xml version=\"1.0\" encoding=\"UTF-8\"?><xml/>\n",
               // Base64-encoding of "<xml/>":
               "xmlBytes", "PHhtbC8+");
   }
@@ -143,10 +145,38 @@ public class FlowRunnerTest extends ShardableTestCase {
         .containsExactly(
               "trid", "server-456",
               "clientId", "TheRegistrar",
-              "xml", domainCreateXml,
               "xmlBytes", base64().encode(domainCreateXml.getBytes(UTF_8)));
   }
 
+  @Test
+  public void testRun_backgroundWriter_reportingLogStatementsStayOnRequestThread()
+      throws Exception {
+    EppCommandLogWriter writer = new EppCommandLogWriter(10);
+    writer.start(Executors.defaultThreadFactory());
+    flowRunner.commandLogWriter = writer;
+    flowRunner.run();
+    writer.stop(Duration.standardSeconds(5));
+    assertThat(writer.getAsyncWriteCount()).isEqualTo(1);
+    assertThat(findLogRecordByPrefix(handler, "EPP Command\n\t").getThreadID())
+        .isEqualTo(getTestThreadLogId());
+    assertThat(findLogRecordByPrefix(handler, "EPP-REPORTING-LOG-SIGNATURE: ").getThreadID())
+        .isEqualTo(getTestThreadLogId());
+    assertThat(findLogRecordByPrefix(handler, "EPP Command XML ").getThreadID())
+        .isNotEqualTo(getTestThreadLogId());
+  }
+
+  @Test
+  public void testRun_prettyXmlLogStatement_complexEppInput() throws Exception {
+    String domainCreateXml = loadFileWithSubstitutions(
+        getClass(), "domain_create_prettyprinted.xml", ImmutableMap.<String, String>of());
+    flowRunner.inputXmlBytes = domainCreateXml.getBytes(UTF_8);
+    flowRunner.run();
+    List<String> lines = Splitter.on("\n\t")
+        .splitToList(findLogMessageByPrefix(handler, "EPP Command XML "));
+    assertThat(lines.get(0)).isEqualTo("server-456");
+    assertThat(Joiner.on('\n').join(lines.subList(1, lines.size()))).isEqualTo(domainCreateXml);
+  }
+
   @Test
   public void testRun_legacyLoggingStatement_basic() throws Exception {
     flowRunner.run();
@@ -156,8 +186,7 @@ public class FlowRunnerTest extends ShardableTestCase {
             "TheRegistrar",
             "StatelessRequestSessionMetadata"
                 + "{clientId=TheRegistrar, failedLoginAttempts=0, serviceExtensionUris=}",
-            "<?xml version=\"1.0\" encoding=\"UTF-8\"?><xml/>",
-            "",  // Extra newline at the end of the XML.
+            "PHhtbC8+",  // Base64-encoding of "<xml/>".
             "PasswordOnlyTransportCredentials{}",
             "UNIT_TEST",
             "LIVE")
@@ -208,10 +237,8 @@ public class FlowRunnerTest extends ShardableTestCase {
     flowRunner.inputXmlBytes = domainCreateXml.getBytes(UTF_8);
     flowRunner.run();
     String logMessage = findLogMessageByPrefix(handler, "EPP Command\n\t");
-    List<String> lines = Splitter.on("\n\t").splitToList(logMessage);
-    assertThat(lines.size()).named("number of lines in log message").isAtLeast(9);
-    String xml = Joiner.on('\n').join(lines.subList(3, lines.size() - 3));
-    assertThat(xml).isEqualTo(domainCreateXml);
+    assertThat(Splitter.on("\n\t").splitToList(logMessage).get(3))
+        .isEqualTo(base64().encode(domainCreateXml.getBytes(UTF_8)));
   }
 
   @SuppressWarnings("unchecked")
@@ -219,20 +246,28 @@ public class FlowRunnerTest extends ShardableTestCase {
     return (Map<String, Object>) JSONValue.parseWithException(json);
   }
 
+  /** Returns the thread ID that log records written on the test thread are given. */
+  private static int getTestThreadLogId() {
+    return new LogRecord(Level.INFO, "").getThreadID();
+  }
+
+  /** Find the first log record stored in the handler whose message has the provided prefix. */
+  private static LogRecord findLogRecordByPrefix(TestLogHandler handler, final String prefix) {
+    return Iterables.find(
+        handler.getStoredLogRecords(),
+        new Predicate<LogRecord>() {
+          @Override
+          public boolean apply(LogRecord logRecord) {
+            return logRecord.getMessage().startsWith(prefix);
+          }
+        });
+  }
+
   /**
    * Find the first log message stored in the handler that has the provided prefix, and return
    * that message with the prefix stripped off.
    */
-  private static String findLogMessageByPrefix(TestLogHandler handler, final String prefix) {
-    return Iterables.find(
-            handler.getStoredLogRecords(),
-            new Predicate<LogRecord>() {
-              @Override
-              public boolean apply(LogRecord logRecord) {
-                return logRecord.getMessage().startsWith(prefix);
-              }
-            })
-        .getMessage()
-        .replaceFirst("^" + prefix, "");
+  private static String findLogMessageByPrefix(TestLogHandler handler, String prefix) {
+    return findLogRecordByPrefix(handler, prefix).getMessage().replaceFirst("^" + prefix, "");
   }
 }
@@ -42,6 +42,7 @@ import static google.registry.testing.DatastoreHelper.persistContactWithPendingT
 import static google.registry.testing.DatastoreHelper.persistDeletedContact;
 import static google.registry.testing.DatastoreHelper.persistDeletedHost;
 import static google.registry.testing.DatastoreHelper.persistResource;
+import static google.registry.testing.DatastoreHelper.persistResources;
 import static google.registry.testing.HostResourceSubject.assertAboutHosts;
 import static google.registry.testing.TaskQueueHelper.assertDnsTasksEnqueued;
 import static google.registry.testing.TaskQueueHelper.assertNoTasksEnqueued;
@@ -69,6 +70,7 @@ import google.registry.model.domain.DomainResource;
 import google.registry.model.eppcommon.StatusValue;
 import google.registry.model.eppcommon.Trid;
 import google.registry.model.host.HostResource;
+import google.registry.model.index.DomainReferenceIndex;
 import google.registry.model.ofy.Ofy;
 import google.registry.model.poll.PendingActionNotificationResponse;
 import google.registry.model.poll.PollMessage;
@@ -559,6 +561,47 @@ public class DeleteContactsAndHostsActionTest
     assertNoTasksEnqueued(QUEUE_ASYNC_DELETE);
   }
 
+  @Test
+  public void testSuccess_usingIndex_host_referencedByIndexedDomain_doesNotGetDeleted()
+      throws Exception {
+    action.useDomainReferenceIndex = true;
+    HostResource host = persistHostPendingDelete("ns1.example.tld");
+    indexReferences(persistUsedDomain("example.tld", persistActiveContact("abc456"), host));
+    enqueuer.enqueueAsyncDelete(host, "TheRegistrar", false);
+    runMapreduce();
+    HostResource hostAfter =
+        loadByForeignKey(HostResource.class, "ns1.example.tld", clock.nowUtc());
+    assertAboutHosts()
+        .that(hostAfter)
+        .doesNotHaveStatusValue(PENDING_DELETE)
+        .and()
+        .hasDeletionTime(END_OF_TIME);
+    HistoryEntry historyEntry = getOnlyHistoryEntryOfType(hostAfter, HOST_DELETE_FAILURE);
+    assertPollMessageFor(
+        historyEntry,
+        "TheRegistrar",
+        "Can't delete host ns1.example.tld because it is referenced by a domain.");
+    assertNoTasksEnqueued(QUEUE_ASYNC_DELETE);
+  }
+
+  @Test
+  public void testSuccess_usingIndex_contact_staleIndexEntry_getsDeleted() throws Exception {
+    action.useDomainReferenceIndex = true;
+    ContactResource contact = persistContactPendingDelete("jim919");
+    ContactResource otherContact = persistActiveContact("abc456");
+    DomainResource domain = persistResource(newDomainResource("example.tld", contact));
+    indexReferences(domain);
+    // The domain stops referencing the contact without the index being updated.
+    persistResource(newDomainResource("example.tld", domain.getRepoId(), otherContact));
+    enqueuer.enqueueAsyncDelete(contact, "TheRegistrar", false);
+    runMapreduce();
+    assertThat(loadByForeignKey(ContactResource.class, "jim919", clock.nowUtc())).isNull();
+    HistoryEntry historyEntry =
+        getOnlyHistoryEntryOfType(ofy().load().entity(contact).now(), CONTACT_DELETE);
+    assertPollMessageFor(historyEntry, "TheRegistrar", "Deleted contact jim919.");
+    assertNoTasksEnqueued(QUEUE_ASYNC_DELETE);
+  }
+
   private static ContactResource persistContactWithPii(String contactId) {
     return persistResource(
         newContactResource(contactId)
@@ -607,6 +650,10 @@ public class DeleteContactsAndHostsActionTest
         newHostResource(hostName).asBuilder().addStatusValue(PENDING_DELETE).build());
   }
 
+  private static void indexReferences(DomainResource domain) {
+    persistResources(DomainReferenceIndex.createAddedInstances(null, domain));
+  }
+
   private static DomainResource persistUsedDomain(
       String domainName, ContactResource contact, HostResource host) {
     return persistResource(
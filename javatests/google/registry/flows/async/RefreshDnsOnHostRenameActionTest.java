@@ -24,6 +24,7 @@ import static google.registry.testing.DatastoreHelper.newHostResource;
 import static google.registry.testing.DatastoreHelper.persistActiveHost;
 import static google.registry.testing.DatastoreHelper.persistDeletedHost;
 import static google.registry.testing.DatastoreHelper.persistResource;
+import static google.registry.testing.DatastoreHelper.persistResources;
 import static google.registry.testing.TaskQueueHelper.assertDnsTasksEnqueued;
 import static google.registry.testing.TaskQueueHelper.assertNoDnsTasksEnqueued;
 import static google.registry.testing.TaskQueueHelper.assertNoTasksEnqueued;
@@ -35,7 +36,9 @@ import static org.joda.time.Duration.standardSeconds;
 
 import com.google.common.collect.ImmutableSet;
 import com.googlecode.objectify.Key;
+import google.registry.model.domain.DomainBase;
 import google.registry.model.host.HostResource;
+import google.registry.model.index.DomainReferenceIndex;
 import google.registry.testing.ExceptionRule;
 import google.registry.testing.FakeClock;
 import google.registry.testing.FakeResponse;
@@ -114,6 +117,28 @@ public class RefreshDnsOnHostRenameActionTest
     assertNoTasksEnqueued(QUEUE_ASYNC_HOST_RENAME);
   }
 
+  @Test
+  public void testSuccess_usingIndex_dnsUpdateEnqueuedForIndexedDomains() throws Exception {
+    action.useDomainReferenceIndex = true;
+    HostResource host = persistActiveHost("ns1.example.tld");
+    indexReferences(persistResource(
+        newDomainApplication("notadomain.tld")
+            .asBuilder()
+            .setNameservers(ImmutableSet.of(Key.create(host)))
+            .build()));
+    indexReferences(persistResource(newDomainResource("example.tld", host)));
+    indexReferences(persistResource(newDomainResource("otherexample.tld", host)));
+    indexReferences(
+        persistResource(newDomainResource("untouched.tld", persistActiveHost("ns2.example.tld"))));
+    // Domains that the index doesn't list aren't found.
+    persistResource(newDomainResource("unindexed.tld", host));
+
+    enqueuer.enqueueAsyncDnsRefresh(host);
+    runMapreduce();
+    assertDnsTasksEnqueued("example.tld", "otherexample.tld");
+    assertNoTasksEnqueued(QUEUE_ASYNC_HOST_RENAME);
+  }
+
   @Test
   public void testSuccess_multipleHostsProcessedInBatch() throws Exception {
     HostResource host1 = persistActiveHost("ns1.example.tld");
@@ -167,4 +192,8 @@ public class RefreshDnsOnHostRenameActionTest
             .payload("hostKey=" + Key.create(host).getString())
             .etaDelta(standardHours(23), standardHours(25)));
   }
+
+  private static void indexReferences(DomainBase domain) {
+    persistResources(DomainReferenceIndex.createAddedInstances(null, domain));
+  }
 }
@@ -16,13 +16,18 @@ package google.registry.model;
 
 import static com.google.common.truth.Truth.assertThat;
 import static google.registry.model.EppResourceUtils.loadAtPointInTime;
+import static google.registry.model.EppResourceUtils.loadByForeignKeys;
 import static google.registry.testing.DatastoreHelper.createTld;
 import static google.registry.testing.DatastoreHelper.newHostResource;
+import static google.registry.testing.DatastoreHelper.persistActiveHost;
+import static google.registry.testing.DatastoreHelper.persistDeletedHost;
 import static google.registry.testing.DatastoreHelper.persistResource;
 import static google.registry.testing.DatastoreHelper.persistResourceWithCommitLog;
 import static google.registry.util.DateTimeUtils.START_OF_TIME;
 import static org.joda.time.DateTimeZone.UTC;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import google.registry.model.host.HostResource;
 import google.registry.model.ofy.Ofy;
 import google.registry.testing.AppEngineRule;
@@ -183,4 +188,25 @@ public class EppResourceUtilsTest {
           .now().getUpdateAutoTimestamp().getTimestamp())
               .isEqualTo(host.getRevisions().firstKey());
   }
+
+  @Test
+  public void testLoadByForeignKeys_omitsMissingAndDeletedResources() throws Exception {
+    HostResource host1 = persistActiveHost("ns1.example.tld");
+    HostResource host2 = persistActiveHost("ns2.example.tld");
+    persistDeletedHost("ns3.example.tld", clock.nowUtc().minusDays(1));
+    ImmutableMap<String, HostResource> hosts = loadByForeignKeys(
+        HostResource.class,
+        ImmutableList.of(
+            "ns1.example.tld", "ns2.example.tld", "ns3.example.tld", "ns4.example.tld"),
+        clock.nowUtc());
+    assertThat(hosts.keySet()).containsExactly("ns1.example.tld", "ns2.example.tld");
+    assertThat(hosts.get("ns1.example.tld").getRepoId()).isEqualTo(host1.getRepoId());
+    assertThat(hosts.get("ns2.example.tld").getRepoId()).isEqualTo(host2.getRepoId());
+  }
+
+  @Test
+  public void testLoadByForeignKeys_noForeignKeys_returnsEmpty() throws Exception {
+    assertThat(loadByForeignKeys(HostResource.class, ImmutableList.<String>of(), clock.nowUtc()))
+        .isEmpty();
+  }
 }
@@ -16,11 +16,13 @@ package google.registry.model;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.googlecode.objectify.annotation.Id;
 import google.registry.testing.AppEngineRule;
 import google.registry.testing.ExceptionRule;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.Map;
 import org.junit.Before;
 import org.junit.Rule;
@@ -83,6 +85,19 @@ public class ModelUtilsTest {
     }
   }
 
+  /** Test class for reflection methods on fields holding arrays. */
+  public static class ArrayTestClass extends ImmutableObject {
+    String name;
+    int[] values;
+
+    static ArrayTestClass create(String name, int... values) {
+      ArrayTestClass instance = new ArrayTestClass();
+      instance.name = name;
+      instance.values = values;
+      return instance;
+    }
+  }
+
   @Before
   public void resetCaches() {
     ModelUtils.resetCaches();
@@ -138,4 +153,42 @@ public class ModelUtilsTest {
     // The hashCode is now cached and is stale (but that's the expected behavior).
     assertThat(cloned.hashCode()).isNotEqualTo(original.hashCode());
   }
+
+  @Test
+  public void testFieldValuesEqual() {
+    assertThat(ModelUtils.fieldValuesEqual(
+        ArrayTestClass.create("foo", 1, 2), ArrayTestClass.create("foo", 1, 2))).isTrue();
+    assertThat(ModelUtils.fieldValuesEqual(
+        ArrayTestClass.create("foo", 1, 2), ArrayTestClass.create("foo", 1, 3))).isFalse();
+    assertThat(ModelUtils.fieldValuesEqual(
+        ArrayTestClass.create("foo", 1, 2), ArrayTestClass.create("bar", 1, 2))).isFalse();
+    assertThat(ModelUtils.fieldValuesEqual(
+        ArrayTestClass.create(null), ArrayTestClass.create(null))).isTrue();
+    assertThat(ModelUtils.fieldValuesEqual(
+        ArrayTestClass.create(null), ArrayTestClass.create("foo"))).isFalse();
+  }
+
+  @Test
+  public void testFieldValuesHashCode_matchesHashCodeOfFieldValues() {
+    for (ArrayTestClass instance : ImmutableList.of(
+        ArrayTestClass.create("foo", 1, 2),
+        ArrayTestClass.create("foo"),
+        ArrayTestClass.create(null))) {
+      assertThat(ModelUtils.fieldValuesHashCode(instance))
+          .isEqualTo(new ArrayList<>(ModelUtils.getFieldValues(instance).values()).hashCode());
+    }
+    ArrayTestClass nullArray = ArrayTestClass.create("foo");
+    nullArray.values = null;
+    assertThat(ModelUtils.fieldValuesHashCode(nullArray))
+        .isEqualTo(new ArrayList<>(ModelUtils.getFieldValues(nullArray).values()).hashCode());
+  }
+
+  @Test
+  public void testEqualsAndHashCode_arrayContentsCompared() {
+    assertThat(ArrayTestClass.create("foo", 1, 2)).isEqualTo(ArrayTestClass.create("foo", 1, 2));
+    assertThat(ArrayTestClass.create("foo", 1, 2).hashCode())
+        .isEqualTo(ArrayTestClass.create("foo", 1, 2).hashCode());
+    assertThat(ArrayTestClass.create("foo", 1, 2))
+        .isNotEqualTo(ArrayTestClass.create("foo", 2, 1));
+  }
 }
@@ -126,7 +126,8 @@ public class DomainApplicationTest extends EntityTestCase {
         "nsHosts",
         "deletionTime",
         "currentSponsorClientId",
-        "tld");
+        "tld",
+        "transferData.pendingTransferExpirationTime");
   }
 
   private DomainApplication.Builder emptyBuilder() {
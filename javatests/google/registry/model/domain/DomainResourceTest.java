@@ -182,7 +182,10 @@ public class DomainResourceTest extends EntityTestCase {
         "nsHosts",
         "currentSponsorClientId",
         "deletionTime",
-        "tld");
+        "tld",
+        "registrationExpirationTime",
+        "gracePeriods.expirationTime",
+        "transferData.pendingTransferExpirationTime");
   }
 
   @Test
@@ -106,7 +106,8 @@ public class HostResourceTest extends EntityTestCase {
         "fullyQualifiedHostName",
         "inetAddresses",
         "superordinateDomain",
-        "currentSponsorClientId");
+        "currentSponsorClientId",
+        "transferData.pendingTransferExpirationTime");
   }
 
   @Test
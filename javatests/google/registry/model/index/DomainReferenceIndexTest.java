@@ -0,0 +1,153 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.index;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.testing.DatastoreHelper.createTld;
+import static google.registry.testing.DatastoreHelper.newDomainResource;
+import static google.registry.testing.DatastoreHelper.persistActiveContact;
+import static google.registry.testing.DatastoreHelper.persistActiveHost;
+import static google.registry.testing.DatastoreHelper.persistResource;
+
+import com.google.common.collect.ImmutableSet;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.VoidWork;
+import google.registry.model.EntityTestCase;
+import google.registry.model.contact.ContactResource;
+import google.registry.model.domain.DomainBase;
+import google.registry.model.domain.DomainResource;
+import google.registry.model.host.HostResource;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Unit tests for {@link DomainReferenceIndex}. */
+public class DomainReferenceIndexTest extends EntityTestCase {
+
+  ContactResource contact;
+  HostResource host1;
+  HostResource host2;
+  DomainResource domain;
+
+  @Before
+  public void setUp() throws Exception {
+    createTld("tld");
+    contact = persistActiveContact("jd1234");
+    host1 = persistActiveHost("ns1.example.net");
+    host2 = persistActiveHost("ns2.example.net");
+    domain = persistResource(newDomainResource("example.tld", contact)
+        .asBuilder()
+        .setNameservers(ImmutableSet.of(Key.create(host1)))
+        .build());
+  }
+
+  private static void index(final DomainBase oldDomain, final DomainBase newDomain) {
+    ofy().transact(new VoidWork() {
+      @Override
+      public void vrun() {
+        if (newDomain != null) {
+          ofy().save().entities(DomainReferenceIndex.createAddedInstances(oldDomain, newDomain));
+        }
+        if (oldDomain != null) {
+          ofy().delete().keys(DomainReferenceIndex.createRemovedKeys(oldDomain, newDomain));
+        }
+      }});
+  }
+
+  @Test
+  public void testCreate_indexesAllReferences() throws Exception {
+    index(null, domain);
+    assertThat(DomainReferenceIndex.isIndexed(Key.create(domain), Key.create(contact))).isTrue();
+    assertThat(DomainReferenceIndex.isIndexed(Key.create(domain), Key.create(host1))).isTrue();
+    assertThat(DomainReferenceIndex.isIndexed(Key.create(domain), Key.create(host2))).isFalse();
+    assertThat(DomainReferenceIndex.loadReferencingDomainKeys(Key.create(host1)))
+        .containsExactly(Key.create(domain));
+  }
+
+  @Test
+  public void testCreate_indexesInDomainEntityGroup() throws Exception {
+    index(null, domain);
+    DomainReferenceIndex index = ofy().load()
+        .key(DomainReferenceIndex.createKey(Key.create(domain), Key.create(host1)))
+        .now();
+    assertThat(index.getDomain()).isEqualTo(Key.<DomainBase>create(domain));
+    assertThat(index.getReference()).isEqualTo(Key.create(host1));
+    assertThat(ofy().load().type(DomainReferenceIndex.class).ancestor(domain).count())
+        .isEqualTo(2);
+  }
+
+  @Test
+  public void testUpdate_onlyChangedReferencesAreWritten() throws Exception {
+    index(null, domain);
+    DomainResource updatedDomain = persistResource(
+        domain.asBuilder().setNameservers(ImmutableSet.of(Key.create(host2))).build());
+    assertThat(DomainReferenceIndex.createAddedInstances(domain, updatedDomain)).hasSize(1);
+    assertThat(DomainReferenceIndex.createRemovedKeys(domain, updatedDomain))
+        .containsExactly(DomainReferenceIndex.createKey(Key.create(domain), Key.create(host1)));
+    index(domain, updatedDomain);
+    assertThat(DomainReferenceIndex.isIndexed(Key.create(domain), Key.create(contact))).isTrue();
+    assertThat(DomainReferenceIndex.isIndexed(Key.create(domain), Key.create(host1))).isFalse();
+    assertThat(DomainReferenceIndex.isIndexed(Key.create(domain), Key.create(host2))).isTrue();
+  }
+
+  @Test
+  public void testUpdate_noReferenceChanges_nothingToSave() throws Exception {
+    index(null, domain);
+    DomainResource updatedDomain =
+        persistResource(domain.asBuilder().setLastEppUpdateClientId("NewRegistrar").build());
+    assertThat(DomainReferenceIndex.createAddedInstances(domain, updatedDomain)).isEmpty();
+    assertThat(DomainReferenceIndex.createRemovedKeys(domain, updatedDomain)).isEmpty();
+  }
+
+  @Test
+  public void testDelete_removesAllReferences() throws Exception {
+    index(null, domain);
+    index(domain, null);
+    assertThat(DomainReferenceIndex.isIndexed(Key.create(domain), Key.create(contact))).isFalse();
+    assertThat(DomainReferenceIndex.loadReferencingDomainKeys(Key.create(host1))).isEmpty();
+    assertThat(ofy().load().type(DomainReferenceIndex.class).count()).isEqualTo(0);
+  }
+
+  @Test
+  public void testLoadActiveReferencingDomains_multipleDomains() throws Exception {
+    DomainResource otherDomain = persistResource(newDomainResource("other.tld", contact)
+        .asBuilder()
+        .setNameservers(ImmutableSet.of(Key.create(host1)))
+        .build());
+    index(null, domain);
+    index(null, otherDomain);
+    assertThat(DomainReferenceIndex.loadActiveReferencingDomains(Key.create(host1), clock.nowUtc()))
+        .containsExactly(domain, otherDomain);
+  }
+
+  @Test
+  public void testLoadActiveReferencingDomains_skipsDeletedDomains() throws Exception {
+    index(null, domain);
+    persistResource(domain.asBuilder().setDeletionTime(clock.nowUtc().minusDays(1)).build());
+    assertThat(DomainReferenceIndex.loadReferencingDomainKeys(Key.create(host1)))
+        .containsExactly(Key.create(domain));
+    assertThat(DomainReferenceIndex.loadActiveReferencingDomains(Key.create(host1), clock.nowUtc()))
+        .isEmpty();
+  }
+
+  @Test
+  public void testLoadActiveReferencingDomains_skipsStaleEntries() throws Exception {
+    index(null, domain);
+    // Change the domain's nameservers without updating the index.
+    persistResource(domain.asBuilder().setNameservers(ImmutableSet.of(Key.create(host2))).build());
+    assertThat(DomainReferenceIndex.loadActiveReferencingDomains(Key.create(host1), clock.nowUtc()))
+        .isEmpty();
+  }
+}
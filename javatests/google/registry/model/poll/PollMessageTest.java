@@ -21,10 +21,12 @@ import static google.registry.testing.DatastoreHelper.persistActiveDomain;
 import static google.registry.testing.DatastoreHelper.persistResource;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.google.common.collect.ImmutableList;
 import google.registry.model.EntityTestCase;
 import google.registry.model.domain.Period;
 import google.registry.model.eppcommon.Trid;
 import google.registry.model.reporting.HistoryEntry;
+import google.registry.model.transfer.TransferResponse.DomainTransferResponse;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -89,4 +91,25 @@ public class PollMessageTest extends EntityTestCase {
             .build());
     verifyIndexing(pollMessage);
   }
+
+  @Test
+  public void testIndexing_transferResponse_pendingTransferExpirationTimeNotIndexed()
+      throws Exception {
+    persistResource(
+        new PollMessage.OneTime.Builder()
+            .setClientId("TheRegistrar")
+            .setEventTime(clock.nowUtc())
+            .setMsg("Test poll message")
+            .setParent(historyEntry)
+            .setResponseData(ImmutableList.of(new DomainTransferResponse.Builder()
+                .setFullyQualifiedDomainNameName("foo.foobar")
+                .setPendingTransferExpirationTime(clock.nowUtc().plusDays(5))
+                .build()))
+            .build());
+    assertThat(ofy().load()
+        .type(PollMessage.OneTime.class)
+        .filter("domainTransferResponses.pendingTransferExpirationTime", clock.nowUtc().plusDays(5))
+        .count())
+            .isEqualTo(0);
+  }
 }
@@ -0,0 +1,92 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.registry.label;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.registry.label.ReservationType.ALLOWED_IN_SUNRISE;
+import static google.registry.model.registry.label.ReservationType.FULLY_BLOCKED;
+import static google.registry.model.registry.label.ReservationType.NAME_COLLISION;
+import static google.registry.model.registry.label.ReservationType.UNRESERVED;
+import static google.registry.testing.DatastoreHelper.createTld;
+import static google.registry.testing.DatastoreHelper.persistReservedList;
+import static google.registry.testing.DatastoreHelper.persistResource;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import google.registry.model.registry.Registry;
+import google.registry.testing.AppEngineRule;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link ReservationIndex}. */
+@RunWith(JUnit4.class)
+public class ReservationIndexTest {
+
+  @Rule
+  public final AppEngineRule appEngine = AppEngineRule.builder()
+      .withDatastore()
+      .build();
+
+  @Before
+  public void before() throws Exception {
+    createTld("tld");
+  }
+
+  @Test
+  public void testCreate_mergesListsByMostSevereType() throws Exception {
+    ReservationIndex index = ReservationIndex.create(ImmutableList.of(
+        persistReservedList("list1", "lol,ALLOWED_IN_SUNRISE", "cat,FULLY_BLOCKED"),
+        persistReservedList("list2", "lol,NAME_COLLISION", "cat,ALLOWED_IN_SUNRISE")));
+    assertThat(index.getReservation("lol")).isEqualTo(NAME_COLLISION);
+    assertThat(index.getReservation("cat")).isEqualTo(FULLY_BLOCKED);
+    assertThat(index.getReservation("dog")).isEqualTo(UNRESERVED);
+    assertThat(index.getEntry("dog")).isNull();
+  }
+
+  @Test
+  public void testGetReservation_emptyLabel_isFullyBlocked() {
+    assertThat(ReservationIndex.create(ImmutableList.<ReservedList>of()).getReservation(""))
+        .isEqualTo(FULLY_BLOCKED);
+  }
+
+  @Test
+  public void testForTld_unchangedLists_reusesIndex() throws Exception {
+    persistResource(Registry.get("tld").asBuilder()
+        .setReservedLists(persistReservedList("list1", "lol,ALLOWED_IN_SUNRISE"))
+        .build());
+    ReservationIndex index = ReservationIndex.forTld("tld");
+    assertThat(index.getReservation("lol")).isEqualTo(ALLOWED_IN_SUNRISE);
+    assertThat(ReservationIndex.forTld("tld")).isSameAs(index);
+  }
+
+  @Test
+  public void testForTld_registryListsChanged_rebuildsIndex() throws Exception {
+    persistResource(Registry.get("tld").asBuilder()
+        .setReservedLists(persistReservedList("list1", "lol,ALLOWED_IN_SUNRISE"))
+        .build());
+    ReservationIndex index = ReservationIndex.forTld("tld");
+    persistResource(Registry.get("tld").asBuilder()
+        .setReservedLists(ImmutableSet.of(
+            persistReservedList("list1", "lol,ALLOWED_IN_SUNRISE"),
+            persistReservedList("list2", "lol,FULLY_BLOCKED")))
+        .build());
+    ReservationIndex rebuilt = ReservationIndex.forTld("tld");
+    assertThat(rebuilt).isNotSameAs(index);
+    assertThat(rebuilt.getReservation("lol")).isEqualTo(FULLY_BLOCKED);
+  }
+}
@@ -0,0 +1,92 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.tmch;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link ClaimsListIndex}. */
+@RunWith(JUnit4.class)
+public class ClaimsListIndexTest {
+
+  @Test
+  public void testGet_presentAndAbsentLabels() {
+    ClaimsListIndex index = ClaimsListIndex.create(ImmutableMap.of(
+        "zebra", "2013041500/2/6/9/rJ1N1",
+        "anchor", "2013041500/2/6/9/rJ1N2",
+        "mango", "2013041500/2/6/9/rJ1N3"));
+    assertThat(index.size()).isEqualTo(3);
+    assertThat(index.get("anchor")).isEqualTo("2013041500/2/6/9/rJ1N2");
+    assertThat(index.get("mango")).isEqualTo("2013041500/2/6/9/rJ1N3");
+    assertThat(index.get("zebra")).isEqualTo("2013041500/2/6/9/rJ1N1");
+    assertThat(index.get("")).isNull();
+    assertThat(index.get("anchors")).isNull();
+    assertThat(index.get("ancho")).isNull();
+    assertThat(index.get("zzz")).isNull();
+  }
+
+  @Test
+  public void testGet_emptyIndex() {
+    assertThat(ClaimsListIndex.empty().size()).isEqualTo(0);
+    assertThat(ClaimsListIndex.empty().get("anything")).isNull();
+  }
+
+  @Test
+  public void testIteration_isSortedByLabel() {
+    ClaimsListIndex index = ClaimsListIndex.create(ImmutableMap.of("c", "3", "a", "1", "b", "2"));
+    assertThat(index.getLabel(0)).isEqualTo("a");
+    assertThat(index.getKey(0)).isEqualTo("1");
+    assertThat(index.getLabel(2)).isEqualTo("c");
+    assertThat(index.toMap().keySet()).containsExactly("a", "b", "c").inOrder();
+  }
+
+  @Test
+  public void testBuilder_duplicateLabels_lastOneWins() {
+    ClaimsListIndex index = new ClaimsListIndex.Builder()
+        .put("a", "first")
+        .put("b", "only")
+        .put("a", "second")
+        .build();
+    assertThat(index.size()).isEqualTo(2);
+    assertThat(index.get("a")).isEqualTo("second");
+  }
+
+  @Test
+  public void testGet_matchesMapForManyLabels() {
+    Map<String, String> labelsToKeys = new HashMap<>();
+    for (int i = 0; i < 5000; i++) {
+      labelsToKeys.put("label" + i, "key" + i);
+    }
+    ClaimsListIndex index = ClaimsListIndex.create(labelsToKeys);
+    for (Map.Entry<String, String> entry : labelsToKeys.entrySet()) {
+      assertThat(index.get(entry.getKey())).isEqualTo(entry.getValue());
+    }
+    assertThat(index.toMap()).isEqualTo(labelsToKeys);
+  }
+
+  @Test
+  public void testEquals() {
+    assertThat(ClaimsListIndex.create(ImmutableMap.of("a", "1")))
+        .isEqualTo(ClaimsListIndex.create(ImmutableMap.of("a", "1")));
+    assertThat(ClaimsListIndex.create(ImmutableMap.of("a", "1")))
+        .isNotEqualTo(ClaimsListIndex.create(ImmutableMap.of("a", "2")));
+  }
+}
@@ -20,6 +20,8 @@ import static google.registry.util.DateTimeUtils.START_OF_TIME;
 import static org.joda.time.DateTimeZone.UTC;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.VoidWork;
 import google.registry.model.tmch.ClaimsListShard.ClaimsListRevision;
@@ -73,7 +75,7 @@ public class ClaimsListShardTest {
 
   @Test
   public void testGet_safelyLoadsEmptyClaimsList_whenNoShardsExist() throws Exception {
-    assertThat(ClaimsListShard.get().labelsToKeys).isEmpty();
+    assertThat(ClaimsListShard.get().getLabelsToKeys()).isEmpty();
     assertThat(ClaimsListShard.get().creationTime).isEqualTo(START_OF_TIME);
   }
 
@@ -88,7 +90,7 @@ public class ClaimsListShardTest {
     // Save it with sharding, and make sure that reloading it works.
     ClaimsListShard unsharded = ClaimsListShard.create(now, ImmutableMap.copyOf(labelsToKeys));
     unsharded.save();
-    assertThat(ClaimsListShard.get().labelsToKeys).isEqualTo(unsharded.labelsToKeys);
+    assertThat(ClaimsListShard.get().getLabelsToKeys()).isEqualTo(unsharded.labelsToKeys);
     List<ClaimsListShard> shards1 = ofy().load().type(ClaimsListShard.class).list();
     assertThat(shards1).hasSize(4);
     assertThat(ClaimsListShard.get().getClaimKey("1")).isEqualTo("1");
@@ -103,8 +105,8 @@ public class ClaimsListShardTest {
     unsharded = ClaimsListShard.create(now.plusDays(1), ImmutableMap.copyOf(labelsToKeys));
     unsharded.save();
     ofy().clearSessionCache();
-    assertThat(ClaimsListShard.get().labelsToKeys).hasSize(unsharded.labelsToKeys.size());
-    assertThat(ClaimsListShard.get().labelsToKeys).isEqualTo(unsharded.labelsToKeys);
+    assertThat(ClaimsListShard.get().getLabelsToKeys()).hasSize(unsharded.labelsToKeys.size());
+    assertThat(ClaimsListShard.get().getLabelsToKeys()).isEqualTo(unsharded.labelsToKeys);
     List<ClaimsListShard> shards2 = ofy().load().type(ClaimsListShard.class).list();
     assertThat(shards2).hasSize(2);
 
@@ -112,6 +114,98 @@ public class ClaimsListShardTest {
     assertThat(ClaimsListShard.getCurrentRevision()).isEqualTo(shards2.get(0).parent);
   }
 
+  /** Returns a claims list of labels "00", "01" and so on, keyed by the label and a suffix. */
+  private static ImmutableMap<String, String> createLabelsToKeys(int size, String keySuffix) {
+    ImmutableMap.Builder<String, String> labelsToKeys = new ImmutableMap.Builder<>();
+    for (int i = 0; i < size; i++) {
+      labelsToKeys.put(String.format("%02d", i), String.format("%02d%s", i, keySuffix));
+    }
+    return labelsToKeys.build();
+  }
+
+  private static ImmutableSet<Key<ClaimsListShard>> loadShardKeys() {
+    return ImmutableSet.copyOf(ofy().load().type(ClaimsListShard.class).keys());
+  }
+
+  @Test
+  public void testSaveChanges_firstSave_writesAllShards() throws Exception {
+    DateTime now = DateTime.now(UTC);
+    ClaimsListShard claimsList = ClaimsListShard.create(now, createLabelsToKeys(30, "a"));
+    assertThat(claimsList.saveChanges()).isEqualTo(3);
+    assertThat(loadShardKeys()).hasSize(3);
+    assertThat(ClaimsListShard.get().getLabelsToKeys()).isEqualTo(claimsList.labelsToKeys);
+    assertThat(ClaimsListShard.get().getCreationTime()).isEqualTo(now);
+  }
+
+  @Test
+  public void testSaveChanges_onlyRewritesChangedShards() throws Exception {
+    DateTime now = DateTime.now(UTC);
+    ClaimsListShard.create(now, createLabelsToKeys(30, "a")).saveChanges();
+    ImmutableSet<Key<ClaimsListShard>> oldShardKeys = loadShardKeys();
+
+    // Change one key, and add a label, in the range of the second shard.
+    Map<String, String> labelsToKeys = new HashMap<>(createLabelsToKeys(30, "a"));
+    labelsToKeys.put("15", "15b");
+    labelsToKeys.put("155", "155a");
+    ClaimsListShard claimsList =
+        ClaimsListShard.create(now.plusDays(1), ImmutableMap.copyOf(labelsToKeys));
+    assertThat(claimsList.saveChanges()).isEqualTo(1);
+    ofy().clearSessionCache();
+
+    ImmutableSet<Key<ClaimsListShard>> newShardKeys = loadShardKeys();
+    assertThat(newShardKeys).hasSize(3);
+    assertThat(Sets.intersection(oldShardKeys, newShardKeys)).hasSize(2);
+    assertThat(ClaimsListShard.get().getLabelsToKeys()).isEqualTo(labelsToKeys);
+    assertThat(ClaimsListShard.get().getClaimKey("155")).isEqualTo("155a");
+    assertThat(ClaimsListShard.get().getCreationTime()).isEqualTo(now.plusDays(1));
+  }
+
+  @Test
+  public void testSaveChanges_labelsRemovedFromFirstAndLastShards() throws Exception {
+    DateTime now = DateTime.now(UTC);
+    ClaimsListShard.create(now, createLabelsToKeys(30, "a")).saveChanges();
+    Map<String, String> labelsToKeys = new HashMap<>(createLabelsToKeys(30, "a"));
+    labelsToKeys.remove("00");
+    labelsToKeys.remove("29");
+    ClaimsListShard claimsList =
+        ClaimsListShard.create(now.plusDays(1), ImmutableMap.copyOf(labelsToKeys));
+    assertThat(claimsList.saveChanges()).isEqualTo(2);
+    ofy().clearSessionCache();
+    assertThat(loadShardKeys()).hasSize(3);
+    assertThat(ClaimsListShard.get().getLabelsToKeys()).isEqualTo(labelsToKeys);
+  }
+
+  @Test
+  public void testSaveChanges_noChanges_writesNothing() throws Exception {
+    DateTime now = DateTime.now(UTC);
+    ClaimsListShard.create(now, createLabelsToKeys(30, "a")).saveChanges();
+    ImmutableSet<Key<ClaimsListShard>> oldShardKeys = loadShardKeys();
+    assertThat(ClaimsListShard.create(now.plusDays(1), createLabelsToKeys(30, "a")).saveChanges())
+        .isEqualTo(0);
+    ofy().clearSessionCache();
+    assertThat(loadShardKeys()).isEqualTo(oldShardKeys);
+    assertThat(ClaimsListShard.get().getCreationTime()).isEqualTo(now.plusDays(1));
+  }
+
+  @Test
+  public void testSaveChanges_afterFullSave_rewritesEverything() throws Exception {
+    DateTime now = DateTime.now(UTC);
+    ClaimsListShard.create(now, createLabelsToKeys(30, "a")).save();
+    ImmutableSet<Key<ClaimsListShard>> oldShardKeys = loadShardKeys();
+    ClaimsListShard claimsList = ClaimsListShard.create(now, createLabelsToKeys(30, "a"));
+    assertThat(claimsList.saveChanges()).isEqualTo(3);
+    ofy().clearSessionCache();
+    assertThat(Sets.intersection(oldShardKeys, loadShardKeys())).isEmpty();
+    assertThat(ClaimsListShard.get().getLabelsToKeys()).isEqualTo(claimsList.labelsToKeys);
+
+    // A full save also replaces shards written by saveChanges.
+    claimsList = ClaimsListShard.create(now, createLabelsToKeys(15, "b"));
+    claimsList.save();
+    ofy().clearSessionCache();
+    assertThat(loadShardKeys()).hasSize(2);
+    assertThat(ClaimsListShard.get().getLabelsToKeys()).isEqualTo(claimsList.labelsToKeys);
+  }
+
   /**
    * Returns a created claims list shard with the specified parent key for testing purposes only.
    */
@@ -18,6 +18,8 @@ import static com.google.common.truth.Truth.assertThat;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
+import java.util.List;
 import org.joda.time.Instant;
 import org.junit.Rule;
 import org.junit.Test;
@@ -184,4 +186,36 @@ public class CounterTest {
             MetricPoint.create(
                 counter, ImmutableList.of("moo"), new Instant(1338), new Instant(1400), 5L));
   }
+
+  @Test
+  public void testIncrement_concurrentThreads_countsEveryIncrement() throws Exception {
+    final Counter counter =
+        new Counter(
+            "/metric",
+            "description",
+            "vdn",
+            ImmutableSet.of(LabelDescriptor.create("label1", "bar")));
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      threads.add(new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 10000; j++) {
+            counter.increment("foo");
+            counter.incrementBy(1, "bar");
+          }
+        }});
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertThat(counter.getCardinality()).isEqualTo(2);
+    for (MetricPoint<Long> point : counter.getTimestampedValues()) {
+      assertThat(point.value()).isEqualTo(80000L);
+    }
+  }
 }
@@ -14,12 +14,15 @@
 
 package google.registry.monitoring.metrics;
 
+import static com.google.common.collect.Iterables.getOnlyElement;
 import static com.google.common.truth.Truth.assertThat;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableRangeMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Range;
+import java.util.ArrayList;
+import java.util.List;
 import org.joda.time.Instant;
 import org.junit.Before;
 import org.junit.Rule;
@@ -314,4 +317,38 @@ public class EventMetricTest {
                         .build(),
                     distributionFitter)));
   }
+
+  @Test
+  public void testRecord_concurrentThreads_mergesAllSamples() throws Exception {
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      // Half of the threads record 1.0 and the other half record 9.0.
+      final double sample = (i % 2 == 0) ? 1.0 : 9.0;
+      threads.add(new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 1000; j++) {
+            metric.record(sample, "foo");
+          }
+        }});
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    Distribution distribution = getOnlyElement(metric.getTimestampedValues()).value();
+    assertThat(distribution.count()).isEqualTo(8000L);
+    assertThat(distribution.mean()).isWithin(1e-9).of(5.0);
+    // Every sample is 4.0 away from the mean.
+    assertThat(distribution.sumOfSquaredDeviation()).isWithin(1e-6).of(8000 * 16.0);
+    assertThat(distribution.intervalCounts())
+        .isEqualTo(
+            ImmutableRangeMap.<Double, Long>builder()
+                .put(Range.lessThan(5.0), 4000L)
+                .put(Range.atLeast(5.0), 4000L)
+                .build());
+  }
 }
@@ -0,0 +1,105 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package google.registry.monitoring.metrics;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableRangeMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Range;
+import com.google.common.primitives.Doubles;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link Histogram}. */
+@RunWith(JUnit4.class)
+public class HistogramTest {
+
+  /** Finds the bucket of a value the slow way, by checking every interval. */
+  private static int findBucket(DistributionFitter fitter, double value) {
+    double[] boundaries = Doubles.toArray(fitter.boundaries());
+    int bucket = 0;
+    while (bucket < boundaries.length && value >= boundaries[bucket]) {
+      bucket++;
+    }
+    return bucket;
+  }
+
+  private static void assertBucketsMatchBoundaries(DistributionFitter fitter) {
+    Histogram histogram = new Histogram(fitter);
+    for (double boundary : fitter.boundaries()) {
+      for (double value : ImmutableList.of(
+          boundary, Math.nextUp(boundary), Math.nextAfter(boundary, Double.NEGATIVE_INFINITY))) {
+        assertThat(histogram.getBucket(value)).isEqualTo(findBucket(fitter, value));
+      }
+    }
+    for (double value : ImmutableList.of(-1e12, -1.0, 0.0, 0.5, 3.0, 1e6, 1e12)) {
+      assertThat(histogram.getBucket(value)).isEqualTo(findBucket(fitter, value));
+    }
+  }
+
+  @Test
+  public void testGetBucket_linearFitter_matchesBoundaries() {
+    assertBucketsMatchBoundaries(LinearFitter.create(10, 0.1, -0.3));
+    assertBucketsMatchBoundaries(LinearFitter.create(100, 3.0, 5.0));
+  }
+
+  @Test
+  public void testGetBucket_exponentialFitter_matchesBoundaries() {
+    assertBucketsMatchBoundaries(EventMetric.DEFAULT_FITTER);
+    assertBucketsMatchBoundaries(ExponentialFitter.create(20, 1.1, 0.7));
+    assertBucketsMatchBoundaries(ExponentialFitter.create(5, 10.0, -2.0));
+  }
+
+  @Test
+  public void testGetBucket_customFitter_matchesBoundaries() {
+    assertBucketsMatchBoundaries(CustomFitter.create(ImmutableSet.of(-5.0, 0.5, 3.0, 100.0)));
+  }
+
+  @Test
+  public void testMerge_sameAsAddingAllSamples() {
+    DistributionFitter fitter = LinearFitter.create(4, 2.0, 0.0);
+    Histogram all = new Histogram(fitter);
+    Histogram first = new Histogram(fitter);
+    Histogram second = new Histogram(fitter);
+    double[] samples = {1.0, 2.5, 7.0, 3.0, 9.5, 0.5, 4.0};
+    for (int i = 0; i < samples.length; i++) {
+      all.add(samples[i], 1);
+      (i < 3 ? first : second).add(samples[i], 1);
+    }
+
+    Histogram merged = new Histogram(fitter);
+    merged.merge(first);
+    merged.merge(new Histogram(fitter));
+    merged.merge(second);
+
+    assertThat(merged.count()).isEqualTo(7L);
+    assertThat(merged.mean()).isWithin(1e-12).of(all.mean());
+    assertThat(merged.sumOfSquaredDeviation()).isWithin(1e-9).of(all.sumOfSquaredDeviation());
+    assertThat(merged.intervalCounts()).isEqualTo(all.intervalCounts());
+    assertThat(merged.intervalCounts())
+        .isEqualTo(
+            ImmutableRangeMap.<Double, Long>builder()
+                .put(Range.lessThan(0.0), 0L)
+                .put(Range.closedOpen(0.0, 2.0), 2L)
+                .put(Range.closedOpen(2.0, 4.0), 2L)
+                .put(Range.closedOpen(4.0, 6.0), 1L)
+                .put(Range.closedOpen(6.0, 8.0), 1L)
+                .put(Range.atLeast(8.0), 1L)
+                .build());
+    assertThat(merged.toImmutableDistribution().count()).isEqualTo(7L);
+  }
+}
@@ -0,0 +1,145 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.monitoring.whitebox;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import google.registry.monitoring.whitebox.BigQueryMetricsBuffer.Row;
+import google.registry.testing.ExceptionRule;
+import google.registry.testing.FakeClock;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link BigQueryMetricsBuffer}. */
+@RunWith(JUnit4.class)
+public class BigQueryMetricsBufferTest {
+
+  @Rule
+  public final ExceptionRule thrown = new ExceptionRule();
+
+  private final FakeClock clock = new FakeClock(DateTime.parse("2000-01-01TZ"));
+  private final BigQueryMetricsBuffer buffer =
+      new BigQueryMetricsBuffer(3, Duration.standardSeconds(10), 5, clock);
+
+  private static Row row(String insertId) {
+    return Row.create(insertId, ImmutableMap.of("id", insertId));
+  }
+
+  @Test
+  public void testAdd_returnsBatchWhenFull() throws Exception {
+    assertThat(buffer.add("table", row("a"))).isEmpty();
+    assertThat(buffer.add("table", row("b"))).isEmpty();
+    assertThat(buffer.add("table", row("c")))
+        .containsExactly("table", ImmutableList.of(row("a"), row("b"), row("c")));
+    assertThat(buffer.add("table", row("d"))).isEmpty();
+  }
+
+  @Test
+  public void testAdd_batchesTablesSeparately() throws Exception {
+    buffer.add("table1", row("a"));
+    buffer.add("table2", row("b"));
+    buffer.add("table1", row("c"));
+    assertThat(buffer.add("table1", row("d")))
+        .containsExactly("table1", ImmutableList.of(row("a"), row("c"), row("d")));
+  }
+
+  @Test
+  public void testAdd_returnsOldBatchesOfAllTables() throws Exception {
+    buffer.add("table1", row("a"));
+    clock.advanceBy(Duration.standardSeconds(5));
+    buffer.add("table2", row("b"));
+    clock.advanceBy(Duration.standardSeconds(5));
+    assertThat(buffer.add("table3", row("c")))
+        .containsExactly("table1", ImmutableList.of(row("a")));
+    clock.advanceBy(Duration.standardSeconds(5));
+    assertThat(buffer.add("table3", row("d")))
+        .containsExactly("table2", ImmutableList.of(row("b")));
+  }
+
+  @Test
+  public void testAdd_bufferFull_dropsNewRows() throws Exception {
+    buffer.add("table1", row("a"));
+    buffer.add("table1", row("b"));
+    buffer.add("table2", row("c"));
+    buffer.add("table2", row("d"));
+    buffer.add("table3", row("e"));
+    // The buffer is full, so this row is dropped and doesn't complete table3's batch.
+    assertThat(buffer.add("table3", row("f"))).isEmpty();
+    clock.advanceBy(Duration.standardSeconds(10));
+    assertThat(buffer.add("table1", row("g")))
+        .containsExactly(
+            "table1", ImmutableList.of(row("a"), row("b")),
+            "table2", ImmutableList.of(row("c"), row("d")),
+            "table3", ImmutableList.of(row("e")));
+  }
+
+  @Test
+  public void testRemoveReadyBatches_returnsOnlyOldBatches() throws Exception {
+    buffer.add("table1", row("a"));
+    clock.advanceBy(Duration.standardSeconds(5));
+    buffer.add("table2", row("b"));
+    assertThat(buffer.removeReadyBatches()).isEmpty();
+    clock.advanceBy(Duration.standardSeconds(5));
+    assertThat(buffer.removeReadyBatches())
+        .containsExactly("table1", ImmutableList.of(row("a")));
+    assertThat(buffer.removeReadyBatches()).isEmpty();
+  }
+
+  @Test
+  public void testRemoveAllBatches_emptiesBuffer() throws Exception {
+    buffer.add("table1", row("a"));
+    buffer.add("table2", row("b"));
+    assertThat(buffer.removeAllBatches())
+        .containsExactly(
+            "table1", ImmutableList.of(row("a")),
+            "table2", ImmutableList.of(row("b")));
+    assertThat(buffer.removeAllBatches()).isEmpty();
+    // The removed rows no longer count towards the buffer's limit.
+    for (String insertId : ImmutableList.of("c", "d", "e", "f")) {
+      buffer.add("table" + insertId, row(insertId));
+    }
+    assertThat(buffer.removeAllBatches()).hasSize(4);
+  }
+
+  @Test
+  public void testPutBack_rowsGoOutFirstInNextBatch() throws Exception {
+    buffer.add("table", row("c"));
+    buffer.putBack("table", ImmutableList.of(row("a"), row("b")));
+    assertThat(buffer.add("table", row("d")))
+        .containsExactly("table", ImmutableList.of(row("a"), row("b"), row("c"), row("d")));
+  }
+
+  @Test
+  public void testPutBack_bufferFull_keepsOnlyRowsThatFit() throws Exception {
+    buffer.add("table1", row("a"));
+    buffer.add("table1", row("b"));
+    buffer.add("table2", row("c"));
+    buffer.putBack("table2", ImmutableList.of(row("d"), row("e"), row("f")));
+    assertThat(buffer.add("table2", row("g")))
+        .containsExactly("table2", ImmutableList.of(row("d"), row("e"), row("c")));
+  }
+
+  @Test
+  public void testFailure_bufferSmallerThanBatch() throws Exception {
+    thrown.expect(IllegalArgumentException.class, "maxBufferedRows must be at least batchSize");
+    new BigQueryMetricsBuffer(10, Duration.standardSeconds(10), 5, clock);
+  }
+}
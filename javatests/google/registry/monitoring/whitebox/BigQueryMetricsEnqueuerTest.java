@@ -15,6 +15,7 @@
 package google.registry.monitoring.whitebox;
 
 import static google.registry.bigquery.BigqueryUtils.toBigqueryTimestamp;
+import static google.registry.testing.TaskQueueHelper.assertNoTasksEnqueued;
 import static google.registry.testing.TaskQueueHelper.assertTasksEnqueued;
 import static org.mockito.Mockito.when;
 
@@ -25,9 +26,11 @@ import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import google.registry.testing.AppEngineRule;
+import google.registry.testing.FakeClock;
 import google.registry.testing.InjectRule;
 import google.registry.testing.TaskQueueHelper.TaskMatcher;
 import org.joda.time.DateTime;
+import org.joda.time.Duration;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -52,17 +55,24 @@ public class BigQueryMetricsEnqueuerTest {
 
   @Mock ModulesService modulesService;
 
+  private final FakeClock clock = new FakeClock(DateTime.parse("1984-12-18TZ"));
+
   private BigQueryMetricsEnqueuer enqueuer;
 
   @Before
   public void setUp() {
     enqueuer = new BigQueryMetricsEnqueuer();
+    setBuffer(new BigQueryMetricsBuffer(1, Duration.standardSeconds(10), 1, clock));
     enqueuer.idGenerator = Suppliers.ofInstance("laffo");
-    enqueuer.modulesService = modulesService;
     when(modulesService.getVersionHostname(Matchers.anyString(), Matchers.anyString()))
         .thenReturn("1.backend.test.localhost");
   }
 
+  private void setBuffer(BigQueryMetricsBuffer buffer) {
+    enqueuer.sender =
+        new BigQueryMetricsSender(buffer, modulesService, Duration.standardSeconds(10));
+  }
+
   @Test
   public void testExport() throws Exception {
     TestMetric metric =
@@ -81,6 +91,34 @@ public class BigQueryMetricsEnqueuerTest {
             .param("insertId", "laffo"));
   }
 
+  @Test
+  public void testExport_batched_enqueuesFullBatchAsOneTask() throws Exception {
+    setBuffer(new BigQueryMetricsBuffer(2, Duration.standardSeconds(10), 10, clock));
+    enqueuer.export(TestMetric.create(clock.nowUtc(), clock.nowUtc().plusMillis(1)));
+    assertNoTasksEnqueued("bigquery-streaming-metrics");
+    enqueuer.export(TestMetric.create(clock.nowUtc(), clock.nowUtc().plusMillis(2)));
+    assertTasksEnqueued("bigquery-streaming-metrics",
+        new TaskMatcher()
+            .url("/_dr/task/metrics")
+            .header("Host", "1.backend.test.localhost")
+            .param("tableId", "test")
+            .param("rows",
+                "[{\"insertId\":\"laffo\",\"json\":"
+                    + "{\"startTime\":\"472176000.000000\",\"endTime\":\"472176000.001000\"}},"
+                    + "{\"insertId\":\"laffo\",\"json\":"
+                    + "{\"startTime\":\"472176000.000000\",\"endTime\":\"472176000.002000\"}}]"));
+  }
+
+  @Test
+  public void testExport_batched_enqueuesOldBatchOnNextExport() throws Exception {
+    setBuffer(new BigQueryMetricsBuffer(100, Duration.standardSeconds(10), 1000, clock));
+    enqueuer.export(TestMetric.create(clock.nowUtc(), clock.nowUtc().plusMillis(1)));
+    clock.advanceBy(Duration.standardSeconds(10));
+    enqueuer.export(TestMetric.create(clock.nowUtc(), clock.nowUtc().plusMillis(1)));
+    assertTasksEnqueued("bigquery-streaming-metrics",
+        new TaskMatcher().url("/_dr/task/metrics").param("tableId", "test"));
+  }
+
   /** A stub implementation of {@link BigQueryMetric}. */
   @AutoValue
   abstract static class TestMetric implements BigQueryMetric {
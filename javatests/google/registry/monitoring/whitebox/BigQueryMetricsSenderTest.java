@@ -0,0 +1,119 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.monitoring.whitebox;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.testing.TaskQueueHelper.assertNoTasksEnqueued;
+import static google.registry.testing.TaskQueueHelper.assertTasksEnqueued;
+import static org.mockito.Mockito.when;
+
+import com.google.appengine.api.modules.ModulesService;
+import com.google.common.collect.ImmutableMap;
+import google.registry.monitoring.whitebox.BigQueryMetricsBuffer.Row;
+import google.registry.testing.AppEngineRule;
+import google.registry.testing.ExceptionRule;
+import google.registry.testing.FakeClock;
+import google.registry.testing.TaskQueueHelper.TaskMatcher;
+import java.util.concurrent.Executors;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/** Unit tests for {@link BigQueryMetricsSender}. */
+@RunWith(MockitoJUnitRunner.class)
+public class BigQueryMetricsSenderTest {
+
+  @Rule
+  public final ExceptionRule thrown = new ExceptionRule();
+
+  @Rule
+  public final AppEngineRule appEngine = AppEngineRule.builder()
+      .withDatastore()
+      .withLocalModules()
+      .withTaskQueue()
+      .build();
+
+  @Mock ModulesService modulesService;
+
+  private final FakeClock clock = new FakeClock(DateTime.parse("1984-12-18TZ"));
+  private final BigQueryMetricsBuffer buffer =
+      new BigQueryMetricsBuffer(100, Duration.standardSeconds(10), 1000, clock);
+
+  private BigQueryMetricsSender sender;
+
+  @Before
+  public void setUp() {
+    when(modulesService.getVersionHostname(Matchers.anyString(), Matchers.anyString()))
+        .thenReturn("1.backend.test.localhost");
+    sender = new BigQueryMetricsSender(buffer, modulesService, Duration.standardSeconds(10));
+  }
+
+  private static Row row(String insertId) {
+    return Row.create(insertId, ImmutableMap.of("id", insertId));
+  }
+
+  @Test
+  public void testFlushReadyBatches_sendsOldBatchWithoutNewRows() throws Exception {
+    sender.send("table", row("a"));
+    sender.flushReadyBatches();
+    assertNoTasksEnqueued(BigQueryMetricsEnqueuer.QUEUE);
+    clock.advanceBy(Duration.standardSeconds(10));
+    sender.flushReadyBatches();
+    assertTasksEnqueued(BigQueryMetricsEnqueuer.QUEUE,
+        new TaskMatcher()
+            .url("/_dr/task/metrics")
+            .header("Host", "1.backend.test.localhost")
+            .param("tableId", "table")
+            .param("rows", "[{\"insertId\":\"a\",\"json\":{\"id\":\"a\"}}]"));
+    assertThat(buffer.removeAllBatches()).isEmpty();
+  }
+
+  @Test
+  public void testStop_sendsEveryBufferedRow() throws Exception {
+    sender.start(Executors.defaultThreadFactory());
+    sender.send("table1", row("a"));
+    sender.send("table2", row("b"));
+    sender.stop(Duration.standardSeconds(5));
+    assertTasksEnqueued(BigQueryMetricsEnqueuer.QUEUE,
+        new TaskMatcher().param("tableId", "table1"),
+        new TaskMatcher().param("tableId", "table2"));
+    assertThat(buffer.removeAllBatches()).isEmpty();
+  }
+
+  @Test
+  public void testStop_notStarted_stillSendsBufferedRows() throws Exception {
+    sender.send("table", row("a"));
+    sender.stop(Duration.standardSeconds(5));
+    assertTasksEnqueued(BigQueryMetricsEnqueuer.QUEUE,
+        new TaskMatcher().param("tableId", "table"));
+  }
+
+  @Test
+  public void testFailure_startedTwice() throws Exception {
+    sender.start(Executors.defaultThreadFactory());
+    try {
+      thrown.expect(IllegalStateException.class, "already started");
+      sender.start(Executors.defaultThreadFactory());
+    } finally {
+      sender.stop(Duration.standardSeconds(5));
+    }
+  }
+}
@@ -14,8 +14,10 @@
 
 package google.registry.monitoring.whitebox;
 
+import static com.google.common.truth.Truth.assertThat;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -28,14 +30,17 @@ import com.google.api.services.bigquery.Bigquery.Tabledata.InsertAll;
 import com.google.api.services.bigquery.model.TableDataInsertAllRequest;
 import com.google.api.services.bigquery.model.TableDataInsertAllResponse;
 import com.google.api.services.bigquery.model.TableDataInsertAllResponse.InsertErrors;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
 import google.registry.bigquery.BigqueryFactory;
 import google.registry.testing.AppEngineRule;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Matchers;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
@@ -94,7 +99,8 @@ public class MetricsExportActionTest {
         Matchers.any(TableDataInsertAllRequest.class))).thenReturn(insertAll);
     action = new MetricsExportAction();
     action.bigqueryFactory = bigqueryFactory;
-    action.insertId = "insert id";
+    action.insertId = Optional.of("insert id");
+    action.rows = Optional.absent();
     action.parameters = parameters;
     action.projectId = "project id";
     action.tableId = "eppMetrics";
@@ -122,4 +128,39 @@ public class MetricsExportActionTest {
     response.setInsertErrors(ImmutableList.of(new InsertErrors()));
     action.run();
   }
+
+  @Test
+  public void testSuccess_singleRow_writesParametersAsRow() throws Exception {
+    when(insertAll.execute()).thenReturn(response);
+    action.run();
+    ArgumentCaptor<TableDataInsertAllRequest> request =
+        ArgumentCaptor.forClass(TableDataInsertAllRequest.class);
+    verify(tabledata)
+        .insertAll(eq("project id"), eq("metrics"), eq("eppMetrics"), request.capture());
+    assertThat(request.getValue().getRows()).hasSize(1);
+    assertThat(request.getValue().getRows().get(0).getInsertId()).isEqualTo("insert id");
+    assertThat(request.getValue().getRows().get(0).getJson()).containsEntry("status", "success");
+  }
+
+  @Test
+  public void testSuccess_batchedRows_writesAllRowsInOneCall() throws Exception {
+    when(insertAll.execute()).thenReturn(response);
+    action.insertId = Optional.absent();
+    action.rows = Optional.of(
+        "[{\"insertId\":\"id1\",\"json\":{\"tld\":\"foo\"}},"
+            + "{\"insertId\":\"id2\",\"json\":{\"tld\":\"bar\"}}]");
+    action.run();
+    ArgumentCaptor<TableDataInsertAllRequest> request =
+        ArgumentCaptor.forClass(TableDataInsertAllRequest.class);
+    verify(tabledata)
+        .insertAll(eq("project id"), eq("metrics"), eq("eppMetrics"), request.capture());
+    verify(insertAll).execute();
+    assertThat(request.getValue().getRows()).hasSize(2);
+    assertThat(request.getValue().getRows().get(0).getInsertId()).isEqualTo("id1");
+    assertThat(request.getValue().getRows().get(0).getJson())
+        .isEqualTo(ImmutableMap.of("tld", "foo"));
+    assertThat(request.getValue().getRows().get(1).getInsertId()).isEqualTo("id2");
+    assertThat(request.getValue().getRows().get(1).getJson())
+        .isEqualTo(ImmutableMap.of("tld", "bar"));
+  }
 }
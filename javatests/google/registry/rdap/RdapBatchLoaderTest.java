@@ -0,0 +1,144 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.rdap;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.testing.DatastoreHelper.createTld;
+import static google.registry.testing.DatastoreHelper.newDomainResource;
+import static google.registry.testing.DatastoreHelper.persistActiveContact;
+import static google.registry.testing.DatastoreHelper.persistActiveHost;
+import static google.registry.testing.DatastoreHelper.persistResource;
+import static google.registry.testing.FullFieldsTestEntityHelper.makeHistoryEntry;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.googlecode.objectify.Key;
+import google.registry.model.EppResource;
+import google.registry.model.contact.ContactResource;
+import google.registry.model.domain.DomainResource;
+import google.registry.model.domain.Period;
+import google.registry.model.host.HostResource;
+import google.registry.model.reporting.HistoryEntry;
+import google.registry.testing.AppEngineRule;
+import java.util.ArrayList;
+import java.util.List;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link RdapBatchLoader}. */
+@RunWith(JUnit4.class)
+public class RdapBatchLoaderTest {
+
+  @Rule
+  public final AppEngineRule appEngine = AppEngineRule.builder()
+      .withDatastore()
+      .build();
+
+  private final DateTime now = DateTime.parse("2000-01-01T00:00:00Z");
+
+  private HostResource host1;
+  private HostResource host2;
+  private ContactResource contact;
+  private DomainResource domain;
+
+  @Before
+  public void setUp() throws Exception {
+    createTld("tld");
+    host1 = persistActiveHost("ns1.example.net");
+    host2 = persistActiveHost("ns2.example.net");
+    contact = persistActiveContact("jd1234");
+    domain = persistResource(newDomainResource("example.tld", contact)
+        .asBuilder()
+        .setRegistrant(Key.create(contact))
+        .setNameservers(ImmutableSet.of(Key.create(host1), Key.create(host2)))
+        .build());
+  }
+
+  private HistoryEntry persistHistoryEntry(EppResource resource, DateTime modificationTime) {
+    return persistResource(makeHistoryEntry(
+        resource,
+        HistoryEntry.Type.DOMAIN_CREATE,
+        Period.create(1, Period.Unit.YEARS),
+        "created",
+        modificationTime));
+  }
+
+  private static List<DateTime> getModificationTimes(List<HistoryEntry> historyEntries) {
+    List<DateTime> modificationTimes = new ArrayList<>();
+    for (HistoryEntry historyEntry : historyEntries) {
+      modificationTimes.add(historyEntry.getModificationTime());
+    }
+    return modificationTimes;
+  }
+
+  @Test
+  public void testForDomains_preloadsNameserversAndContacts() throws Exception {
+    RdapBatchLoader loader = RdapBatchLoader.forDomains(ImmutableList.of(domain));
+    // Anything preloaded is still returned after it has gone from the datastore.
+    ofy().deleteWithoutBackup().entities(host1, host2, contact).now();
+    ofy().clearSessionCache();
+    assertThat(loader.getHosts(domain.getNameservers()).values()).containsExactly(host1, host2);
+    assertThat(loader.getContacts(domain.getReferencedContacts()).values())
+        .containsExactly(contact);
+  }
+
+  @Test
+  public void testForDomains_preloadsHistoriesOfDomainsAndLinkedResources() throws Exception {
+    persistHistoryEntry(domain, now.minusDays(1));
+    persistHistoryEntry(host1, now.minusDays(2));
+    persistHistoryEntry(contact, now.minusDays(3));
+    RdapBatchLoader loader = RdapBatchLoader.forDomains(ImmutableList.of(domain));
+    ofy().deleteWithoutBackup().keys(ofy().load().type(HistoryEntry.class).keys()).now();
+    ofy().clearSessionCache();
+    assertThat(getModificationTimes(loader.getHistory(domain))).containsExactly(now.minusDays(1));
+    assertThat(getModificationTimes(loader.getHistory(host1))).containsExactly(now.minusDays(2));
+    assertThat(loader.getHistory(host2)).isEmpty();
+    assertThat(getModificationTimes(loader.getHistory(contact)))
+        .containsExactly(now.minusDays(3));
+  }
+
+  @Test
+  public void testForResources_moreThanConcurrencyLimit_loadsAllHistoriesInOrder()
+      throws Exception {
+    List<HostResource> hosts = new ArrayList<>();
+    for (int i = 0; i < RdapBatchLoader.MAX_CONCURRENT_HISTORY_QUERIES * 2 + 1; i++) {
+      HostResource host = persistActiveHost(String.format("ns%d.example.com", i));
+      persistHistoryEntry(host, now.minusDays(1));
+      persistHistoryEntry(host, now.minusDays(2));
+      hosts.add(host);
+    }
+    RdapBatchLoader loader = RdapBatchLoader.forResources(hosts);
+    for (HostResource host : hosts) {
+      assertThat(getModificationTimes(loader.getHistory(host)))
+          .containsExactly(now.minusDays(2), now.minusDays(1))
+          .inOrder();
+    }
+  }
+
+  @Test
+  public void testEmpty_loadsOnDemand() throws Exception {
+    persistHistoryEntry(domain, now.minusDays(1));
+    RdapBatchLoader loader = RdapBatchLoader.empty();
+    assertThat(loader.getHosts(domain.getNameservers()).values()).containsExactly(host1, host2);
+    assertThat(loader.getContacts(domain.getReferencedContacts()).values())
+        .containsExactly(contact);
+    assertThat(getModificationTimes(loader.getHistory(domain))).containsExactly(now.minusDays(1));
+  }
+}
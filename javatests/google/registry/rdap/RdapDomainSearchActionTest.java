@@ -47,6 +47,7 @@ import google.registry.testing.AppEngineRule;
 import google.registry.testing.FakeClock;
 import google.registry.testing.FakeResponse;
 import google.registry.testing.InjectRule;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import org.joda.time.DateTime;
@@ -87,23 +88,35 @@ public class RdapDomainSearchActionTest {
 
   enum RequestType { NONE, NAME, NS_LDH_NAME, NS_IP }
 
+  /** The query string of the last search, which truncated results link to for the next page. */
+  private String searchQuery;
+
   private Object generateActualJson(RequestType requestType, String paramValue) {
+    return generateActualJson(requestType, paramValue, Optional.<String>absent());
+  }
+
+  private Object generateActualJson(
+      RequestType requestType, String paramValue, Optional<String> cursor) {
     action.requestPath = RdapDomainSearchAction.PATH;
+    action.cursorParam = cursor;
     switch (requestType) {
       case NAME:
         action.nameParam = Optional.of(paramValue);
         action.nsLdhNameParam = Optional.absent();
         action.nsIpParam = Optional.absent();
+        searchQuery = "name=" + paramValue;
         break;
       case NS_LDH_NAME:
         action.nameParam = Optional.absent();
         action.nsLdhNameParam = Optional.of(paramValue);
         action.nsIpParam = Optional.absent();
+        searchQuery = "nsLdhName=" + paramValue;
         break;
       case NS_IP:
         action.nameParam = Optional.absent();
         action.nsLdhNameParam = Optional.absent();
         action.nsIpParam = Optional.of(InetAddresses.forString(paramValue));
+        searchQuery = "nsIp=" + paramValue;
         break;
       default:
         action.nameParam = Optional.absent();
@@ -574,9 +587,39 @@ public class RdapDomainSearchActionTest {
             .put("DOMAINHANDLE3", domainHandle3)
             .put("DOMAINNAME4", domainName4)
             .put("DOMAINHANDLE4", domainHandle4)
+            .put("SEARCHQUERY", searchQuery)
+            .put("NEXTCURSOR", RdapSearchCursor.encode(domainName4))
             .build()));
   }
 
+  /** Returns the names of the domains in a search result, in order. */
+  private static List<String> getDomainNamesInResult(Object obj) {
+    @SuppressWarnings("unchecked")
+    Map<String, Object> map = (Map<String, Object>) obj;
+    @SuppressWarnings("unchecked")
+    List<Map<String, Object>> domains = (List<Map<String, Object>>) map.get("domainSearchResults");
+    List<String> names = new ArrayList<>();
+    for (Map<String, Object> domain : domains) {
+      names.add((String) domain.get("ldhName"));
+    }
+    return names;
+  }
+
+  /** Returns the cursor from the next-page link of a search result. */
+  private static Optional<String> getNextCursor(Object obj) {
+    @SuppressWarnings("unchecked")
+    Map<String, Object> map = (Map<String, Object>) obj;
+    @SuppressWarnings("unchecked")
+    Map<String, Object> pagingMetadata = (Map<String, Object>) map.get("paging_metadata");
+    if (pagingMetadata == null) {
+      return Optional.absent();
+    }
+    @SuppressWarnings("unchecked")
+    List<Map<String, Object>> links = (List<Map<String, Object>>) pagingMetadata.get("links");
+    String href = (String) links.get(0).get("href");
+    return Optional.of(href.substring(href.indexOf("&cursor=") + "&cursor=".length()));
+  }
+
   private void checkNumberOfDomainsInResult(Object obj, int expected) {
     assertThat(obj).isInstanceOf(Map.class);
 
@@ -611,13 +654,44 @@ public class RdapDomainSearchActionTest {
   @Test
   public void testDomainMatch_manyDeletedDomains_partialResultSetDueToFetchingLimit()
       throws Exception {
-    // This is not exactly desired behavior, but expected: There are enough domains to fill a full
-    // result set, but there are so many deleted domains that we run out of patience before we work
-    // our way through all of them.
+    // There are enough domains to fill a full result set, but there are so many deleted domains
+    // that we run out of patience before we work our way through all of them. The page is
+    // truncated at the last name we looked at, and the remaining domain is on the next page.
     createManyDomainsAndHosts(4, 50, 2);
     Object obj = generateActualJson(RequestType.NAME, "domain*.lol");
     assertThat(response.getStatus()).isEqualTo(200);
-    checkNumberOfDomainsInResult(obj, 3);
+    assertThat(getDomainNamesInResult(obj))
+        .containsExactly("domain100.lol", "domain150.lol", "domain200.lol").inOrder();
+    assertThat(getNextCursor(obj)).hasValue(RdapSearchCursor.encode("domain26.lol"));
+    Object secondPage = generateActualJson(RequestType.NAME, "domain*.lol", getNextCursor(obj));
+    assertThat(response.getStatus()).isEqualTo(200);
+    assertThat(getDomainNamesInResult(secondPage)).containsExactly("domain50.lol");
+    assertThat(getNextCursor(secondPage)).isAbsent();
+  }
+
+  @Test
+  public void testDomainMatch_onlyDeletedDomainsUpToLimit_emptyPageWithCursor() throws Exception {
+    // Every domain the query gets to is deleted, so the page is empty, but it still links to the
+    // next page rather than saying that nothing was found.
+    ImmutableList.Builder<DomainResource> domainsBuilder = new ImmutableList.Builder<>();
+    for (int i = 1; i <= 120; i++) {
+      domainsBuilder.add(makeDomainResource(
+              String.format("dog%03d.lol", i), contact1, contact2, contact3, null, null, registrar)
+          .asBuilder()
+          .setDeletionTime(clock.nowUtc().minusDays(1))
+          .build());
+    }
+    domainsBuilder.add(
+        makeDomainResource("dogz.lol", contact1, contact2, contact3, null, null, registrar));
+    persistResources(domainsBuilder.build());
+    Object obj = generateActualJson(RequestType.NAME, "dog*.lol");
+    assertThat(response.getStatus()).isEqualTo(200);
+    checkNumberOfDomainsInResult(obj, 0);
+    assertThat(getNextCursor(obj)).hasValue(RdapSearchCursor.encode("dog120.lol"));
+    Object secondPage = generateActualJson(RequestType.NAME, "dog*.lol", getNextCursor(obj));
+    assertThat(response.getStatus()).isEqualTo(200);
+    assertThat(getDomainNamesInResult(secondPage)).containsExactly("dogz.lol");
+    assertThat(getNextCursor(secondPage)).isAbsent();
   }
 
   @Test
@@ -1038,4 +1112,113 @@ public class RdapDomainSearchActionTest {
             "44-LOL"));
     assertThat(response.getStatus()).isEqualTo(200);
   }
+
+  @Test
+  public void testDomainMatch_cursor_returnsNextPage() throws Exception {
+    createManyDomainsAndHosts(9, 1, 2);
+    Object firstPage = generateActualJson(RequestType.NAME, "domain*.lol");
+    assertThat(getDomainNamesInResult(firstPage))
+        .containsExactly("domain1.lol", "domain2.lol", "domain3.lol", "domain4.lol").inOrder();
+    Object secondPage =
+        generateActualJson(RequestType.NAME, "domain*.lol", getNextCursor(firstPage));
+    assertThat(response.getStatus()).isEqualTo(200);
+    assertThat(getDomainNamesInResult(secondPage))
+        .containsExactly("domain5.lol", "domain6.lol", "domain7.lol", "domain8.lol").inOrder();
+    Object thirdPage =
+        generateActualJson(RequestType.NAME, "domain*.lol", getNextCursor(secondPage));
+    assertThat(getDomainNamesInResult(thirdPage)).containsExactly("domain9.lol");
+    assertThat(getNextCursor(thirdPage)).isAbsent();
+  }
+
+  @Test
+  public void testDomainMatch_cursorPastEnd_notFound() throws Exception {
+    createManyDomainsAndHosts(4, 1, 2);
+    generateActualJson(
+        RequestType.NAME, "domain*.lol", Optional.of(RdapSearchCursor.encode("domain4.lol")));
+    assertThat(response.getStatus()).isEqualTo(404);
+  }
+
+  @Test
+  public void testDomainMatch_invalidCursor_badRequest() throws Exception {
+    generateActualJson(RequestType.NAME, "cat*.lol", Optional.of("not a cursor"));
+    assertThat(response.getStatus()).isEqualTo(400);
+  }
+
+  @Test
+  public void testNameserverMatch_cursor_returnsNextPage() throws Exception {
+    createManyDomainsAndHosts(9, 1, 2);
+    Object firstPage = generateActualJson(RequestType.NS_LDH_NAME, "ns1.domain1.lol");
+    Object secondPage = generateActualJson(
+        RequestType.NS_LDH_NAME, "ns1.domain1.lol", getNextCursor(firstPage));
+    assertThat(response.getStatus()).isEqualTo(200);
+    assertThat(getDomainNamesInResult(secondPage))
+        .containsExactly("domain5.lol", "domain6.lol", "domain7.lol", "domain8.lol").inOrder();
+  }
+
+  @Test
+  public void testNameserverMatch_manyChunks_mergedInNameOrder() throws Exception {
+    // 70 nameservers means three chunked queries, each of which finds every domain. The merged
+    // results must still come back in order of domain name, with no duplicates.
+    createManyDomainsAndHosts(6, 1, 70);
+    Object firstPage = generateActualJson(RequestType.NS_LDH_NAME, "ns*.domain1.lol");
+    assertThat(getDomainNamesInResult(firstPage))
+        .containsExactly("domain1.lol", "domain2.lol", "domain3.lol", "domain4.lol").inOrder();
+    Object secondPage = generateActualJson(
+        RequestType.NS_LDH_NAME, "ns*.domain1.lol", getNextCursor(firstPage));
+    assertThat(getDomainNamesInResult(secondPage))
+        .containsExactly("domain5.lol", "domain6.lol").inOrder();
+    assertThat(getNextCursor(secondPage)).isAbsent();
+  }
+
+  @Test
+  public void testNameserverMatch_chunkHitsLimit_truncatedAtItsLastName() throws Exception {
+    // 31 nameservers means two chunked queries, each limited to 120 domains. The first chunk finds
+    // more deleted domains than that, so the live domains of the second chunk that sort after its
+    // last one must wait for the next page, along with the live domain that it didn't get to.
+    ImmutableList.Builder<HostResource> hostsBuilder = new ImmutableList.Builder<>();
+    for (int i = 1; i <= 31; i++) {
+      hostsBuilder.add(makeAndPersistHostResource(
+          String.format("nsx%02d.cat.lol", i),
+          String.format("5.5.6.%d", i),
+          clock.nowUtc().minusYears(1)));
+    }
+    ImmutableList<HostResource> hosts = hostsBuilder.build();
+    ImmutableList.Builder<DomainResource> domainsBuilder = new ImmutableList.Builder<>();
+    for (int i = 1; i <= 121; i++) {
+      domainsBuilder.add(makeDomainResource(
+              String.format("adeleted%03d.lol", i),
+              contact1, contact2, contact3, hosts.get(0), null, registrar)
+          .asBuilder()
+          .setDeletionTime(clock.nowUtc().minusDays(1))
+          .build());
+    }
+    domainsBuilder.add(makeDomainResource(
+        "clive.lol", contact1, contact2, contact3, hosts.get(0), null, registrar));
+    for (String domainName : ImmutableList.of("aalive.lol", "blive1.lol", "blive2.lol")) {
+      domainsBuilder.add(makeDomainResource(
+          domainName, contact1, contact2, contact3, hosts.get(30), null, registrar));
+    }
+    persistResources(domainsBuilder.build());
+    Object firstPage = generateActualJson(RequestType.NS_LDH_NAME, "nsx*");
+    assertThat(getDomainNamesInResult(firstPage)).containsExactly("aalive.lol");
+    assertThat(getNextCursor(firstPage))
+        .hasValue(RdapSearchCursor.encode("adeleted120.lol"));
+    Object secondPage =
+        generateActualJson(RequestType.NS_LDH_NAME, "nsx*", getNextCursor(firstPage));
+    assertThat(getDomainNamesInResult(secondPage))
+        .containsExactly("blive1.lol", "blive2.lol", "clive.lol").inOrder();
+    assertThat(getNextCursor(secondPage)).isAbsent();
+  }
+
+  @Test
+  public void testAddressMatch_cursor_skipsDeletedDomains() throws Exception {
+    createManyDomainsAndHosts(6, 2, 2);
+    Object firstPage = generateActualJson(RequestType.NS_IP, "5.5.5.1");
+    assertThat(getDomainNamesInResult(firstPage))
+        .containsExactly("domain10.lol", "domain12.lol", "domain2.lol", "domain4.lol").inOrder();
+    Object secondPage =
+        generateActualJson(RequestType.NS_IP, "5.5.5.1", getNextCursor(firstPage));
+    assertThat(getDomainNamesInResult(secondPage))
+        .containsExactly("domain6.lol", "domain8.lol").inOrder();
+  }
 }
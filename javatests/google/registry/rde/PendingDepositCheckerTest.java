@@ -19,9 +19,11 @@ import static google.registry.model.common.Cursor.CursorType.BRDA;
 import static google.registry.model.common.Cursor.CursorType.RDE_STAGING;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.model.rde.RdeMode.FULL;
+import static google.registry.model.rde.RdeMode.INCR;
 import static google.registry.model.rde.RdeMode.THIN;
 import static google.registry.testing.DatastoreHelper.createTld;
 import static google.registry.testing.DatastoreHelper.persistResource;
+import static org.joda.time.DateTimeConstants.SUNDAY;
 import static org.joda.time.DateTimeConstants.TUESDAY;
 import static org.joda.time.Duration.standardDays;
 
@@ -30,6 +32,8 @@ import com.googlecode.objectify.VoidWork;
 import google.registry.model.common.Cursor;
 import google.registry.model.common.Cursor.CursorType;
 import google.registry.model.ofy.Ofy;
+import google.registry.model.rde.RdeMode;
+import google.registry.model.rde.RdeRevision;
 import google.registry.model.registry.Registry;
 import google.registry.testing.AppEngineRule;
 import google.registry.testing.FakeClock;
@@ -150,6 +154,79 @@ public class PendingDepositCheckerTest {
                 "lol", DateTime.parse("1999-12-30TZ"), FULL, RDE_STAGING, standardDays(1))));
   }
 
+  @Test
+  public void testMethod_incremental_afterPreviousDeposit_depositsIncr() throws Exception {
+    checker.incrementalDeposits = true;
+    checker.fullDepositDayOfWeek = SUNDAY;
+    clock.setTo(DateTime.parse("2000-01-01TZ"));  // Saturday
+    createTldWithEscrowEnabled("lol");
+    clock.advanceOneMilli();
+    setCursor(Registry.get("lol"), RDE_STAGING, DateTime.parse("2000-01-01TZ"));
+    saveRevision("lol", DateTime.parse("1999-12-31TZ"), FULL);
+    clock.advanceOneMilli();
+    assertThat(checker.getTldsAndWatermarksPendingDepositForRdeAndBrda()).isEqualTo(
+        ImmutableSetMultimap.of(
+            "lol", PendingDeposit.create(
+                "lol", DateTime.parse("2000-01-01TZ"), INCR, RDE_STAGING, standardDays(1))));
+  }
+
+  @Test
+  public void testMethod_incremental_afterPreviousIncrDeposit_depositsIncr() throws Exception {
+    checker.incrementalDeposits = true;
+    checker.fullDepositDayOfWeek = SUNDAY;
+    clock.setTo(DateTime.parse("2000-01-01TZ"));  // Saturday
+    createTldWithEscrowEnabled("lol");
+    clock.advanceOneMilli();
+    setCursor(Registry.get("lol"), RDE_STAGING, DateTime.parse("2000-01-01TZ"));
+    saveRevision("lol", DateTime.parse("1999-12-31TZ"), INCR);
+    clock.advanceOneMilli();
+    assertThat(checker.getTldsAndWatermarksPendingDepositForRdeAndBrda().get("lol"))
+        .containsExactly(PendingDeposit.create(
+            "lol", DateTime.parse("2000-01-01TZ"), INCR, RDE_STAGING, standardDays(1)));
+  }
+
+  @Test
+  public void testMethod_incremental_noPreviousDeposit_depositsFull() throws Exception {
+    checker.incrementalDeposits = true;
+    checker.fullDepositDayOfWeek = SUNDAY;
+    clock.setTo(DateTime.parse("2000-01-01TZ"));  // Saturday
+    createTldWithEscrowEnabled("lol");
+    clock.advanceOneMilli();
+    setCursor(Registry.get("lol"), RDE_STAGING, DateTime.parse("2000-01-01TZ"));
+    clock.advanceOneMilli();
+    assertThat(checker.getTldsAndWatermarksPendingDepositForRdeAndBrda().get("lol"))
+        .containsExactly(PendingDeposit.create(
+            "lol", DateTime.parse("2000-01-01TZ"), FULL, RDE_STAGING, standardDays(1)));
+  }
+
+  @Test
+  public void testMethod_incremental_onFullDepositDay_depositsFull() throws Exception {
+    checker.incrementalDeposits = true;
+    checker.fullDepositDayOfWeek = SUNDAY;
+    clock.setTo(DateTime.parse("2000-01-02TZ"));  // Sunday
+    createTldWithEscrowEnabled("lol");
+    clock.advanceOneMilli();
+    setCursor(Registry.get("lol"), RDE_STAGING, DateTime.parse("2000-01-02TZ"));
+    saveRevision("lol", DateTime.parse("2000-01-01TZ"), INCR);
+    clock.advanceOneMilli();
+    assertThat(checker.getTldsAndWatermarksPendingDepositForRdeAndBrda().get("lol"))
+        .containsExactly(PendingDeposit.create(
+            "lol", DateTime.parse("2000-01-02TZ"), FULL, RDE_STAGING, standardDays(1)));
+  }
+
+  @Test
+  public void testMethod_incrementalDisabled_depositsFull() throws Exception {
+    clock.setTo(DateTime.parse("2000-01-01TZ"));  // Saturday
+    createTldWithEscrowEnabled("lol");
+    clock.advanceOneMilli();
+    setCursor(Registry.get("lol"), RDE_STAGING, DateTime.parse("2000-01-01TZ"));
+    saveRevision("lol", DateTime.parse("1999-12-31TZ"), FULL);
+    clock.advanceOneMilli();
+    assertThat(checker.getTldsAndWatermarksPendingDepositForRdeAndBrda().get("lol"))
+        .containsExactly(PendingDeposit.create(
+            "lol", DateTime.parse("2000-01-01TZ"), FULL, RDE_STAGING, standardDays(1)));
+  }
+
   @Test
   @Ignore("TODO(b/23791350): Causes TimestampInversionException")
   public void testMethod_multipleTldsWithEscrowEnabled_depositsBoth() throws Exception {
@@ -175,6 +252,14 @@ public class PendingDepositCheckerTest {
       }});
   }
 
+  private static void saveRevision(final String tld, final DateTime date, final RdeMode mode) {
+    ofy().transact(new VoidWork() {
+      @Override
+      public void vrun() {
+        RdeRevision.saveRevision(tld, date, mode, 0);
+      }});
+  }
+
   private static void createTldWithEscrowEnabled(final String tld) {
     createTld(tld);
     persistResource(Registry.get(tld).asBuilder().setEscrowEnabled(true).build());
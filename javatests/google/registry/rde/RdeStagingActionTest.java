@@ -36,6 +36,7 @@ import static java.util.Arrays.asList;
 import com.google.appengine.tools.cloudstorage.GcsFilename;
 import com.google.appengine.tools.cloudstorage.GcsService;
 import com.google.appengine.tools.cloudstorage.GcsServiceFactory;
+import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.net.InetAddresses;
@@ -44,9 +45,15 @@ import google.registry.keyring.api.Keyring;
 import google.registry.keyring.api.PgpHelper;
 import google.registry.model.common.Cursor;
 import google.registry.model.common.Cursor.CursorType;
+import google.registry.model.contact.ContactResource;
+import google.registry.model.domain.DomainResource;
+import google.registry.model.eppcommon.StatusValue;
 import google.registry.model.host.HostResource;
 import google.registry.model.ofy.Ofy;
+import google.registry.model.rde.RdeMode;
+import google.registry.model.rde.RdeRevision;
 import google.registry.model.registry.Registry;
+import google.registry.model.transfer.TransferData;
 import google.registry.request.RequestParameters;
 import google.registry.testing.FakeClock;
 import google.registry.testing.FakeResponse;
@@ -135,6 +142,7 @@ public class RdeStagingActionTest extends MapreduceTestCase<RdeStagingAction> {
     action.pendingDepositChecker.rdeInterval = Duration.standardDays(1);
     action.response = response;
     action.transactionCooldown = Duration.ZERO;
+    action.partsPerDeposit = 1;
   }
 
   @Test
@@ -451,6 +459,208 @@ public class RdeStagingActionTest extends MapreduceTestCase<RdeStagingAction> {
         "deposit.contents.registrar.upDate");
   }
 
+  @Test
+  public void testMapReduce_multiPart_headerHasTotalCounts() throws Exception {
+    clock.setTo(DateTime.parse("1999-12-31TZ"));
+    createTldWithEscrowEnabled("lol");
+    makeDomainResource(clock, "lol");
+    action.partsPerDeposit = 3;
+
+    clock.setTo(DateTime.parse("2000-01-01TZ"));
+    action.run();
+    executeTasksUntilEmpty("mapreduce", clock);
+
+    assertThat(readManifest("lol_2000-01-01_full_S1_R0")).containsExactly(
+        "lol_2000-01-01_full_S1_R0.xml.head.ghostryde",
+        "lol_2000-01-01_full_S1_R0.xml.part-0.ghostryde",
+        "lol_2000-01-01_full_S1_R0.xml.part-1.ghostryde",
+        "lol_2000-01-01_full_S1_R0.xml.part-2.ghostryde",
+        "lol_2000-01-01_full_S1_R0.xml.tail.ghostryde").inOrder();
+    XjcRdeDeposit deposit = unmarshal(
+        XjcRdeDeposit.class, readMultiPartXml("lol_2000-01-01_full_S1_R0").getBytes(UTF_8));
+    XjcRdeHeader header = extractAndRemoveContentWithType(XjcRdeHeader.class, deposit);
+    assertThat(mapifyCounts(header))
+        .containsExactly(
+            RdeResourceType.CONTACT.getUri(),
+            3L,
+            RdeResourceType.DOMAIN.getUri(),
+            1L,
+            RdeResourceType.HOST.getUri(),
+            2L,
+            RdeResourceType.REGISTRAR.getUri(),
+            2L,
+            RdeResourceType.IDN.getUri(),
+            (long) IdnTableEnum.values().length);
+  }
+
+  @Test
+  public void testMapReduce_multiPart_producesCorrectLengthFileAndReport() throws Exception {
+    clock.setTo(DateTime.parse("1999-12-31TZ"));
+    createTldWithEscrowEnabled("lol");
+    makeDomainResource(clock, "lol");
+    action.partsPerDeposit = 3;
+
+    clock.setTo(DateTime.parse("2000-01-01TZ"));
+    action.run();
+    executeTasksUntilEmpty("mapreduce", clock);
+
+    assertThat(Integer.parseInt(new String(readGcsFile(gcsService, LENGTH_FILE), UTF_8)))
+        .isEqualTo(readMultiPartXml("lol_2000-01-01_full_S1_R0").getBytes(UTF_8).length);
+    XmlTestUtils.assertXmlEquals(
+        readResourceUtf8(getClass(), "testdata/testMapReduce_withDomain_producesReportXml.xml"),
+        readXml("lol_2000-01-01_full_S1_R0-report.xml.ghostryde"),
+        "deposit.contents.registrar.crDate",
+        "deposit.contents.registrar.upDate");
+    assertThat(
+            ofy()
+                .load()
+                .key(Cursor.createKey(RDE_STAGING, Registry.get("lol")))
+                .now()
+                .getCursorTime())
+        .isEqualTo(DateTime.parse("2000-01-02TZ"));
+    assertTasksEnqueued("rde-upload",
+        new TaskMatcher()
+            .url(RdeUploadAction.PATH)
+            .param(RequestParameters.PARAM_TLD, "lol"));
+  }
+
+  @Test
+  public void testMapReduce_multiPart_onlySplitsFullDeposit() throws Exception {
+    clock.setTo(DateTime.parse("1999-12-31TZ"));
+    createTldWithEscrowEnabled("lol");
+    makeDomainResource(clock, "lol");
+    setCursor(Registry.get("lol"), RDE_STAGING, DateTime.parse("2000-01-04TZ"));
+    setCursor(Registry.get("lol"), BRDA, DateTime.parse("2000-01-04TZ"));
+    action.partsPerDeposit = 3;
+
+    clock.setTo(DateTime.parse("2000-01-04TZ")); // Tuesday
+    action.run();
+    executeTasksUntilEmpty("mapreduce", clock);
+
+    assertThat(readMultiPartXml("lol_2000-01-04_full_S1_R0")).contains("<rdeDomain:name>");
+    assertThat(readXml("lol_2000-01-04_thin_S1_R0.xml.ghostryde")).contains("<rdeDomain:name>");
+    assertThat(gcsService.getMetadata(
+        new GcsFilename("rde-bucket", "lol_2000-01-04_thin_S1_R0.xml.parts"))).isNull();
+  }
+
+  @Test
+  public void testMapReduce_incremental_onlyContainsChangesAndDeletes() throws Exception {
+    clock.setTo(DateTime.parse("1999-12-30TZ"));
+    createTldWithEscrowEnabled("lol");
+    makeDomainResource(clock, "lol");
+    ContactResource contact =
+        makeContactResource(clock, "gone", "Gone Away", "gone@example.lol");
+    setCursor(Registry.get("lol"), RDE_STAGING, DateTime.parse("2000-01-01TZ"));
+    saveRevision("lol", DateTime.parse("1999-12-31TZ"), RdeMode.FULL);
+    action.pendingDepositChecker.incrementalDeposits = true;
+    action.pendingDepositChecker.fullDepositDayOfWeek = DateTimeConstants.SUNDAY;
+
+    // Change a few things after the previous deposit.
+    clock.setTo(DateTime.parse("1999-12-31T12:00Z"));
+    makeHostResource(clock, "ns1.new.lol", "feed::a:bee");
+    clock.advanceOneMilli();
+    persistResourceWithCommitLog(contact.asBuilder().setDeletionTime(clock.nowUtc()).build());
+
+    clock.setTo(DateTime.parse("2000-01-01TZ")); // Saturday
+    action.run();
+    executeTasksUntilEmpty("mapreduce", clock);
+
+    assertThat(readManifest("lol_2000-01-01_incr_S1_R0")).containsExactly(
+        "lol_2000-01-01_incr_S1_R0.xml.head.ghostryde",
+        "lol_2000-01-01_incr_S1_R0.xml.part-0.ghostryde",
+        "lol_2000-01-01_incr_S1_R0.xml.tail.ghostryde").inOrder();
+    String xml = readMultiPartXml("lol_2000-01-01_incr_S1_R0");
+    assertThat(xml).contains("<rdeContact:id>gone</rdeContact:id>");
+    assertThat(xml).contains("<rdeHost:name>ns1.new.lol</rdeHost:name>");
+    // The fixture domain's pending transfer and every autorenew since were never saved. The last
+    // autorenew happens at the watermark, so the domain is in the deposit too.
+    assertThat(xml).contains("<rdeDomain:name>love.lol</rdeDomain:name>");
+    XjcRdeDeposit deposit = unmarshal(XjcRdeDeposit.class, xml.getBytes(UTF_8));
+    assertThat(deposit.getType()).isEqualTo(XjcRdeDepositTypeType.INCR);
+    assertThat(deposit.getPrevId())
+        .isEqualTo(RdeUtil.timestampToId(DateTime.parse("1999-12-31TZ")));
+    XjcRdeHeader header = extractAndRemoveContentWithType(XjcRdeHeader.class, deposit);
+    assertThat(mapifyCounts(header))
+        .containsExactly(
+            RdeResourceType.CONTACT.getUri(),
+            0L,
+            RdeResourceType.DOMAIN.getUri(),
+            1L,
+            RdeResourceType.HOST.getUri(),
+            1L,
+            RdeResourceType.REGISTRAR.getUri(),
+            2L,
+            RdeResourceType.IDN.getUri(),
+            (long) IdnTableEnum.values().length);
+    assertThat(
+            ofy()
+                .load()
+                .key(Cursor.createKey(RDE_STAGING, Registry.get("lol")))
+                .now()
+                .getCursorTime())
+        .isEqualTo(DateTime.parse("2000-01-02TZ"));
+    assertThat(RdeRevision.getNextRevision("lol", DateTime.parse("2000-01-01TZ"), RdeMode.INCR))
+        .isEqualTo(1);
+  }
+
+  @Test
+  public void testMapReduce_incremental_pendingDeleteTakesEffectWithoutSave() throws Exception {
+    clock.setTo(DateTime.parse("1999-12-29TZ"));
+    createTldWithEscrowEnabled("lol");
+    DomainResource domain = makeDomainResource(clock, "lol");
+    // Start a delete that takes effect during the next incremental deposit's period. Nothing is
+    // saved when it does.
+    clock.advanceOneMilli();
+    persistResourceWithCommitLog(domain.asBuilder()
+        .addStatusValue(StatusValue.PENDING_DELETE)
+        .setDeletionTime(DateTime.parse("1999-12-31T12:00Z"))
+        .build());
+    setCursor(Registry.get("lol"), RDE_STAGING, DateTime.parse("2000-01-01TZ"));
+    saveRevision("lol", DateTime.parse("1999-12-31TZ"), RdeMode.FULL);
+    action.pendingDepositChecker.incrementalDeposits = true;
+    action.pendingDepositChecker.fullDepositDayOfWeek = DateTimeConstants.SUNDAY;
+
+    clock.setTo(DateTime.parse("2000-01-01TZ")); // Saturday
+    action.run();
+    executeTasksUntilEmpty("mapreduce", clock);
+
+    String xml = readMultiPartXml("lol_2000-01-01_incr_S1_R0");
+    assertThat(xml).contains(
+        "<rdeDomain:delete>\n  <rdeDomain:name>love.lol</rdeDomain:name>\n</rdeDomain:delete>");
+    XjcRdeDeposit deposit = unmarshal(XjcRdeDeposit.class, xml.getBytes(UTF_8));
+    XjcRdeHeader header = extractAndRemoveContentWithType(XjcRdeHeader.class, deposit);
+    assertThat(mapifyCounts(header)).containsEntry(RdeResourceType.DOMAIN.getUri(), 0L);
+  }
+
+  @Test
+  public void testMapReduce_incremental_secondAutorenewWithoutSave() throws Exception {
+    clock.setTo(DateTime.parse("1999-12-29TZ"));
+    createTldWithEscrowEnabled("lol");
+    DomainResource domain = makeDomainResource(clock, "lol");
+    // The stored expiration time is from before the first of two autorenews. Only the second
+    // happens during the next incremental deposit's period, and nothing is saved for either.
+    clock.advanceOneMilli();
+    persistResourceWithCommitLog(domain.asBuilder()
+        .setRegistrationExpirationTime(DateTime.parse("1998-12-31T12:00Z"))
+        .setTransferData(new TransferData.Builder().build())
+        .build());
+    setCursor(Registry.get("lol"), RDE_STAGING, DateTime.parse("2000-01-01TZ"));
+    saveRevision("lol", DateTime.parse("1999-12-31TZ"), RdeMode.FULL);
+    action.pendingDepositChecker.incrementalDeposits = true;
+    action.pendingDepositChecker.fullDepositDayOfWeek = DateTimeConstants.SUNDAY;
+
+    clock.setTo(DateTime.parse("2000-01-01TZ")); // Saturday
+    action.run();
+    executeTasksUntilEmpty("mapreduce", clock);
+
+    String xml = readMultiPartXml("lol_2000-01-01_incr_S1_R0");
+    assertThat(xml).contains("<rdeDomain:name>love.lol</rdeDomain:name>");
+    assertThat(xml).contains("<rdeDomain:exDate>2000-12-31T12:00:00");
+    XjcRdeDeposit deposit = unmarshal(XjcRdeDeposit.class, xml.getBytes(UTF_8));
+    XjcRdeHeader header = extractAndRemoveContentWithType(XjcRdeHeader.class, deposit);
+    assertThat(mapifyCounts(header)).containsEntry(RdeResourceType.DOMAIN.getUri(), 1L);
+  }
+
   @Test
   @Ignore("TODO(b/23791350): Causes TimestampInversionException")
   public void testMapReduce_twoDomainsDifferentTlds_isolatesDomains() throws Exception {
@@ -614,6 +824,20 @@ public class RdeStagingActionTest extends MapreduceTestCase<RdeStagingAction> {
     return new String(Ghostryde.decode(readGcsFile(gcsService, file), decryptKey).getData(), UTF_8);
   }
 
+  private List<String> readManifest(String prefix) throws IOException {
+    GcsFilename file = new GcsFilename("rde-bucket", prefix + ".xml.parts");
+    return Splitter.on('\n').splitToList(new String(readGcsFile(gcsService, file), UTF_8));
+  }
+
+  /** Decrypts and concatenates the files listed in the manifest of a multi-part deposit. */
+  private String readMultiPartXml(String prefix) throws IOException, PGPException {
+    StringBuilder xml = new StringBuilder();
+    for (String objectName : readManifest(prefix)) {
+      xml.append(readXml(objectName));
+    }
+    return xml.toString();
+  }
+
   private <T extends XjcRdeContentType>
       T extractAndRemoveContentWithType(Class<T> type, XjcRdeDeposit deposit) {
     for (JAXBElement<? extends XjcRdeContentType> content : deposit.getContents().getContents()) {
@@ -626,6 +850,15 @@ public class RdeStagingActionTest extends MapreduceTestCase<RdeStagingAction> {
     throw new AssertionError("Expected deposit to contain another " + type.getSimpleName());
   }
 
+  private void saveRevision(final String tld, final DateTime date, final RdeMode mode) {
+    clock.advanceOneMilli();
+    ofy().transact(new VoidWork() {
+      @Override
+      public void vrun() {
+        RdeRevision.saveRevision(tld, date, mode, 0);
+      }});
+  }
+
   private static void createTldWithEscrowEnabled(final String tld) {
     createTld(tld);
     persistResource(Registry.get(tld).asBuilder().setEscrowEnabled(true).build());
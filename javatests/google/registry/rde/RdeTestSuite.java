@@ -30,5 +30,6 @@ import org.junit.runners.Suite.SuiteClasses;
   RdeReportActionTest.class,
   RegistrarToXjcConverterTest.class,
   RydeGpgIntegrationTest.class,
+  RydePgpCompressionOutputStreamTest.class,
 })
 class RdeTestSuite {}
@@ -0,0 +1,121 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package google.registry.rde;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+import google.registry.testing.BouncyCastleProviderRule;
+import google.registry.testing.Providers;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import org.bouncycastle.openpgp.PGPCompressedData;
+import org.bouncycastle.openpgp.PGPObjectFactory;
+import org.bouncycastle.openpgp.bc.BcPGPObjectFactory;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link RydePgpCompressionOutputStream}. */
+@RunWith(JUnit4.class)
+public class RydePgpCompressionOutputStreamTest {
+
+  @Rule
+  public final BouncyCastleProviderRule bouncy = new BouncyCastleProviderRule();
+
+  private final RydePgpCompressionOutputStreamFactory factory =
+      new RydePgpCompressionOutputStreamFactory(Providers.of(64));
+
+  /** Data that compresses well but isn't too repetitive, so each block compresses differently. */
+  private static final byte[] DATA = makeData();
+
+  private static byte[] makeData() {
+    StringBuilder data = new StringBuilder();
+    for (int i = 0; i < 2000; i++) {
+      data.append("<rdeDomain:name>").append(Strings.repeat("x", i % 17)).append(i)
+          .append(".example</rdeDomain:name>\n");
+    }
+    return data.toString().getBytes(UTF_8);
+  }
+
+  @Test
+  public void testStream_roundTrips() throws Exception {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    writeAndClose(factory.create(output), DATA);
+    assertThat(decompress(output.toByteArray())).isEqualTo(DATA);
+  }
+
+  @Test
+  public void testBlocks_inParallel_roundTrips() throws Exception {
+    ThreadFactory threadFactory = Executors.defaultThreadFactory();
+    assertThat(decompress(compressBlocks(DATA, 1000, 3, threadFactory))).isEqualTo(DATA);
+  }
+
+  @Test
+  public void testBlocks_onCallingThread_roundTrips() throws Exception {
+    assertThat(decompress(compressBlocks(DATA, 1000, 3, null))).isEqualTo(DATA);
+  }
+
+  @Test
+  public void testBlocks_exactMultipleOfBlockSize_roundTrips() throws Exception {
+    byte[] data = new byte[4000];
+    System.arraycopy(DATA, 0, data, 0, data.length);
+    assertThat(decompress(compressBlocks(data, 1000, 2, Executors.defaultThreadFactory())))
+        .isEqualTo(data);
+  }
+
+  @Test
+  public void testBlocks_empty_roundTrips() throws Exception {
+    assertThat(decompress(compressBlocks(new byte[0], 1000, 2, null))).isEmpty();
+  }
+
+  @Test
+  public void testBlocks_doesNotCloseUpstream() throws Exception {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    writeAndClose(factory.create(output, 1000, 2, null), DATA);
+    int length = output.size();
+    output.write(1);
+    assertThat(output.size()).isEqualTo(length + 1);
+  }
+
+  private byte[] compressBlocks(
+      byte[] data, int blockSize, int threads, ThreadFactory threadFactory) throws Exception {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    writeAndClose(factory.create(output, blockSize, threads, threadFactory), data);
+    return output.toByteArray();
+  }
+
+  private static void writeAndClose(OutputStream kompressor, byte[] data) throws Exception {
+    try (OutputStream stream = kompressor) {
+      // Write in odd-sized chunks so that writes straddle block boundaries.
+      for (int i = 0; i < data.length; i += 333) {
+        stream.write(data, i, Math.min(333, data.length - i));
+      }
+    }
+  }
+
+  private static byte[] decompress(byte[] data) throws Exception {
+    PGPObjectFactory pgpFact = new BcPGPObjectFactory(new ByteArrayInputStream(data));
+    PGPCompressedData object = (PGPCompressedData) pgpFact.nextObject();
+    byte[] result = ByteStreams.toByteArray(object.getDataStream());
+    assertThat(pgpFact.nextObject()).isNull();
+    return result;
+  }
+}
@@ -0,0 +1,61 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.request;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import google.registry.testing.ExceptionRule;
+import java.util.concurrent.Semaphore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link AdmissionController}. */
+@RunWith(JUnit4.class)
+public final class AdmissionControllerTest {
+
+  @Rule
+  public final ExceptionRule thrown = new ExceptionRule();
+
+  private final AdmissionController controller =
+      new AdmissionController(ImmutableMap.of("/rdap/", 10, "/rdap/domains", 2));
+
+  @Test
+  public void testGetPermits_unlimitedAction_absent() throws Exception {
+    assertThat(controller.getPermits("/_dr/epp").isPresent()).isFalse();
+  }
+
+  @Test
+  public void testGetPermits_actionsUnderPrefix_sharePermits() throws Exception {
+    Semaphore permits = controller.getPermits("/rdap/nameservers").get();
+    assertThat(permits.availablePermits()).isEqualTo(10);
+    assertThat(controller.getPermits("/rdap/entity/").get()).isSameAs(permits);
+  }
+
+  @Test
+  public void testGetPermits_longestPrefixWins() throws Exception {
+    Semaphore permits = controller.getPermits("/rdap/domains").get();
+    assertThat(permits.availablePermits()).isEqualTo(2);
+    assertThat(controller.getPermits("/rdap/domain/").get()).isNotSameAs(permits);
+  }
+
+  @Test
+  public void testFailure_limitNotPositive() throws Exception {
+    thrown.expect(IllegalArgumentException.class, "Concurrency limit for /rdap/ must be positive");
+    new AdmissionController(ImmutableMap.of("/rdap/", 0));
+  }
+}
@@ -18,6 +18,9 @@ import static com.google.common.truth.Truth.assertThat;
 import static google.registry.request.Action.Method.GET;
 import static google.registry.request.Action.Method.POST;
 import static google.registry.security.XsrfTokenManager.generateToken;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.verifyZeroInteractions;
@@ -25,6 +28,7 @@ import static org.mockito.Mockito.when;
 
 import com.google.appengine.api.users.UserService;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.testing.NullPointerTester;
 import google.registry.request.HttpException.ServiceUnavailableException;
 import google.registry.testing.AppEngineRule;
@@ -40,7 +44,9 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
 
 /** Unit tests for {@link RequestHandler}. */
 @RunWith(MockitoJUnitRunner.class)
@@ -318,4 +324,69 @@ public final class RequestHandlerTest {
     handler.handleRequest(req, rsp, component);
     verify(usersOnlyAction).run();
   }
+
+  @Test
+  public void testAdmissionControl_overLimit_returns503() throws Exception {
+    final RequestHandler<Component> limitedHandler = RequestHandler.create(
+        Component.class,
+        ImmutableList.copyOf(Component.class.getMethods()),
+        ImmutableMap.of("/bumblebee", 1));
+    final HttpServletResponse concurrentRsp = mock(HttpServletResponse.class);
+    when(req.getMethod()).thenReturn("GET");
+    when(req.getRequestURI()).thenReturn("/bumblebee");
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Exception {
+        assertThat(RequestMetrics.getInFlightCount("/bumblebee")).isEqualTo(1);
+        // A second request arrives while the first is still running.
+        limitedHandler.handleRequest(req, concurrentRsp, component);
+        return null;
+      }}).when(bumblebeeTask).run();
+    limitedHandler.handleRequest(req, rsp, component);
+    verify(bumblebeeTask).run();
+    verify(concurrentRsp).sendError(503, "Too many concurrent requests");
+    assertThat(RequestMetrics.getInFlightCount("/bumblebee")).isEqualTo(0);
+  }
+
+  @Test
+  public void testAdmissionControl_permitsReleased() throws Exception {
+    RequestHandler<Component> limitedHandler = RequestHandler.create(
+        Component.class,
+        ImmutableList.copyOf(Component.class.getMethods()),
+        ImmutableMap.of("/bumblebee", 1, "/fail", 1));
+    when(req.getMethod()).thenReturn("GET");
+    when(req.getRequestURI()).thenReturn("/bumblebee");
+    limitedHandler.handleRequest(req, rsp, component);
+    limitedHandler.handleRequest(req, rsp, component);
+    verify(bumblebeeTask, times(2)).run();
+    // Permits are released even when the action throws.
+    when(req.getRequestURI()).thenReturn("/fail");
+    limitedHandler.handleRequest(req, rsp, component);
+    limitedHandler.handleRequest(req, rsp, component);
+    verify(rsp, times(2)).sendError(503, "Set sail for fail");
+  }
+
+  @Test
+  public void testAdmissionControl_otherActionsNotLimited() throws Exception {
+    final RequestHandler<Component> limitedHandler = RequestHandler.create(
+        Component.class,
+        ImmutableList.copyOf(Component.class.getMethods()),
+        ImmutableMap.of("/bumblebee", 1));
+    final HttpServletRequest concurrentReq = mock(HttpServletRequest.class);
+    when(concurrentReq.getMethod()).thenReturn("POST");
+    when(concurrentReq.getRequestURI()).thenReturn("/sloth");
+    when(req.getMethod()).thenReturn("GET");
+    when(req.getRequestURI()).thenReturn("/bumblebee");
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Exception {
+        limitedHandler.handleRequest(concurrentReq, rsp, component);
+        return null;
+      }}).when(bumblebeeTask).run();
+    limitedHandler.handleRequest(req, rsp, component);
+    verify(bumblebeeTask).run();
+    verify(slothTask).run();
+    verify(rsp).setContentType("text/plain; charset=utf-8");
+    verify(rsp).getWriter();
+  }
 }
@@ -0,0 +1,108 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.tmch;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import google.registry.model.tmch.ClaimsListShard;
+import google.registry.testing.ExceptionRule;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import org.joda.time.DateTime;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link ClaimsListParser}. */
+@RunWith(JUnit4.class)
+public class ClaimsListParserTest {
+
+  @Rule
+  public final ExceptionRule thrown = new ExceptionRule();
+
+  private static InputStream toStream(String csv) {
+    return new ByteArrayInputStream(csv.getBytes(US_ASCII));
+  }
+
+  @Test
+  public void testParse() throws Exception {
+    ClaimsListShard claimsList;
+    try (InputStream csv = TmchTestData.loadBytes("dnl-latest.csv").openStream()) {
+      claimsList = ClaimsListParser.parse(csv);
+    }
+    assertThat(claimsList.size()).isEqualTo(113);
+    assertThat(claimsList.getCreationTime()).isEqualTo(DateTime.parse("2013-11-24T23:15:37.4Z"));
+    assertThat(claimsList.getClaimKey("test---validate"))
+        .isEqualTo("2013112500/6/1/d/YduYflFKIFHoOYwDfN");
+    assertThat(claimsList.getClaimKey("xn--w2t96qr64aa"))
+        .isEqualTo("2013112500/9/3/4/k0ynIkx8F4W0WZiwl4");
+    assertThat(claimsList.getClaimKey("nonexistent")).isNull();
+  }
+
+  @Test
+  public void testParse_duplicateLabel_lastOneWins() throws Exception {
+    ClaimsListShard claimsList = ClaimsListParser.parse(toStream(
+        "1,2013-11-24T23:15:37.4Z\n"
+        + "DNL,lookup-key,insertion-datetime\n"
+        + "example,key1,2013-09-05T00:00:00.0Z\n"
+        + "example,key2,2013-09-05T00:00:00.0Z\n"));
+    assertThat(claimsList.size()).isEqualTo(1);
+    assertThat(claimsList.getClaimKey("example")).isEqualTo("key2");
+  }
+
+  @Test
+  public void testFailure_wrongVersion() throws Exception {
+    thrown.expect(IllegalArgumentException.class, "Line 1: Expected version 1, found 2");
+    ClaimsListParser.parse(toStream("2,2013-11-24T23:15:37.4Z\n"));
+  }
+
+  @Test
+  public void testFailure_wrongHeader() throws Exception {
+    thrown.expect(IllegalArgumentException.class, "Line 2: Expected header \"DNL\", found \"X\"");
+    ClaimsListParser.parse(toStream(
+        "1,2013-11-24T23:15:37.4Z\n"
+        + "X,lookup-key,insertion-datetime\n"));
+  }
+
+  @Test
+  public void testFailure_tooFewElements() throws Exception {
+    thrown.expect(IllegalArgumentException.class, "Line 4: Expected 3 elements, found 2");
+    ClaimsListParser.parse(toStream(
+        "1,2013-11-24T23:15:37.4Z\n"
+        + "DNL,lookup-key,insertion-datetime\n"
+        + "example,key1,2013-09-05T00:00:00.0Z\n"
+        + "other,key2\n"));
+  }
+
+  @Test
+  public void testFailure_tooManyElements() throws Exception {
+    thrown.expect(IllegalArgumentException.class, "Line 3: Expected 3 elements, found 4");
+    ClaimsListParser.parse(toStream(
+        "1,2013-11-24T23:15:37.4Z\n"
+        + "DNL,lookup-key,insertion-datetime\n"
+        + "example,key1,2013-09-05T00:00:00.0Z,extra\n"));
+  }
+
+  @Test
+  public void testFailure_missingInsertionTime() throws Exception {
+    thrown.expect(IllegalArgumentException.class, "Line 3: Expected an insertion datetime");
+    ClaimsListParser.parse(toStream(
+        "1,2013-11-24T23:15:37.4Z\n"
+        + "DNL,lookup-key,insertion-datetime\n"
+        + "example,key1,\n"));
+  }
+}
@@ -21,6 +21,7 @@ import org.junit.runners.Suite.SuiteClasses;
 /** Convenience class to run all TMCH tests inside Eclipse with one keystroke. */
 @RunWith(Suite.class)
 @SuiteClasses({
+  ClaimsListParserTest.class,
   LordnTaskTest.class,
   NordnUploadAction.class,
   NordnVerifyAction.class,
@@ -185,6 +185,18 @@ public class UpdateTldCommandTest extends CommandTestCase<UpdateTldCommand> {
     assertThat(Registry.get("xn--q9jyb4c").getEscrowEnabled()).isFalse();
   }
 
+  @Test
+  public void testSuccess_numDnsPublishLocks() throws Exception {
+    runCommandForced("--num_dns_publish_locks=4", "xn--q9jyb4c");
+    assertThat(Registry.get("xn--q9jyb4c").getNumDnsPublishLocks()).isEqualTo(4);
+  }
+
+  @Test
+  public void testFailure_numDnsPublishLocksNotPositive() throws Exception {
+    thrown.expect(IllegalArgumentException.class, "numDnsPublishLocks must be positive");
+    runCommandForced("--num_dns_publish_locks=0", "xn--q9jyb4c");
+  }
+
   @Test
   public void testSuccess_createBillingCostFlag() throws Exception {
     runCommandForced("--create_billing_cost=\"USD 42.42\"", "xn--q9jyb4c");
@@ -24,6 +24,7 @@ import static google.registry.testing.DatastoreHelper.persistActiveDomain;
 import static google.registry.testing.DatastoreHelper.persistActiveDomainApplication;
 import static google.registry.testing.DatastoreHelper.persistActiveHost;
 import static google.registry.testing.DatastoreHelper.persistResource;
+import static google.registry.testing.DatastoreHelper.persistResourceWithCommitLog;
 import static google.registry.testing.GcsTestingUtils.readGcsFile;
 import static google.registry.util.ResourceUtils.readResourceUtf8;
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -36,14 +37,21 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.googlecode.objectify.Key;
+import google.registry.gcs.GcsUtils;
+import google.registry.model.domain.DomainResource;
 import google.registry.model.domain.secdns.DelegationSignerData;
 import google.registry.model.host.HostResource;
+import google.registry.model.ofy.Ofy;
+import google.registry.request.HttpException.BadRequestException;
+import google.registry.testing.ExceptionRule;
 import google.registry.testing.FakeClock;
+import google.registry.testing.InjectRule;
 import google.registry.testing.mapreduce.MapreduceTestCase;
 import java.net.InetAddress;
 import java.util.Map;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
+import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -52,6 +60,12 @@ import org.junit.runners.JUnit4;
 @RunWith(JUnit4.class)
 public class GenerateZoneFilesActionTest extends MapreduceTestCase<GenerateZoneFilesAction> {
 
+  @Rule
+  public final ExceptionRule thrown = new ExceptionRule();
+
+  @Rule
+  public final InjectRule inject = new InjectRule();
+
   private final GcsService gcsService = createGcsService();
 
   @Test
@@ -124,4 +138,134 @@ public class GenerateZoneFilesActionTest extends MapreduceTestCase<GenerateZoneF
     // The remaining lines can be in any order.
     assertThat(generatedFileLines).containsExactlyElementsIn(goldenFileLines);
   }
+
+  @Test
+  public void testGenerate_incremental() throws Exception {
+    FakeClock clock = new FakeClock(DateTime.parse("1999-12-31T12:00Z"));
+    inject.setStaticField(Ofy.class, "clock", clock);
+    createTld("tld");
+    ImmutableSet<InetAddress> ips = ImmutableSet.of(InetAddress.getByName("127.0.0.1"));
+    HostResource renamedHost = persistResourceWithCommitLog(
+        newHostResource("ns.foo.tld").asBuilder().addInetAddresses(ips).build());
+    clock.advanceOneMilli();
+    HostResource host = persistResourceWithCommitLog(
+        newHostResource("ns.bar.tld").asBuilder().addInetAddresses(ips).build());
+    clock.advanceOneMilli();
+    persistResourceWithCommitLog(newDomainResource("unchanged.tld").asBuilder()
+        .addNameservers(ImmutableSet.of(Key.create(host)))
+        .build());
+    clock.advanceOneMilli();
+    persistResourceWithCommitLog(newDomainResource("renamed-ns.tld").asBuilder()
+        .addNameservers(ImmutableSet.of(Key.create(renamedHost)))
+        .build());
+    clock.advanceOneMilli();
+    DomainResource changedDomain =
+        persistResourceWithCommitLog(newDomainResource("changed.tld").asBuilder()
+            .addNameservers(ImmutableSet.of(Key.create(host)))
+            .build());
+    clock.advanceOneMilli();
+    // This domain is pending delete at the first export, and its deletion takes effect without
+    // any further saves.
+    persistResourceWithCommitLog(newDomainResource("to-delete.tld").asBuilder()
+        .addNameservers(ImmutableSet.of(Key.create(host)))
+        .setDeletionTime(DateTime.parse("2000-01-01T18:00Z"))
+        .build());
+
+    clock.setTo(DateTime.parse("2000-01-01T00:02Z"));
+    runAction(clock, ImmutableMap.<String, Object>of(
+        "tlds", ImmutableList.of("tld"),
+        "exportTime", DateTime.parse("2000-01-01TZ")));
+
+    clock.setTo(DateTime.parse("2000-01-01T12:00Z"));
+    persistResourceWithCommitLog(
+        renamedHost.asBuilder().setFullyQualifiedHostName("ns.baz.tld").build());
+    clock.advanceOneMilli();
+    persistResourceWithCommitLog(changedDomain.asBuilder()
+        .setDsData(ImmutableSet.of(DelegationSignerData.create(1, 2, 3, new byte[] {0, 1, 2})))
+        .build());
+    clock.advanceOneMilli();
+    persistResourceWithCommitLog(newDomainResource("new.tld").asBuilder()
+        .addNameservers(ImmutableSet.of(Key.create(host)))
+        .build());
+
+    clock.setTo(DateTime.parse("2000-01-02T00:02Z"));
+    Map<String, Object> response = runAction(clock, ImmutableMap.<String, Object>of(
+        "tlds", ImmutableList.of("tld"),
+        "exportTime", DateTime.parse("2000-01-02TZ"),
+        "previousExportTime", DateTime.parse("2000-01-01TZ")));
+    assertThat(response).containsEntry(
+        "diffFilenames",
+        ImmutableList.of("gs://zonefiles-bucket/tld-2000-01-02T00:00:00.000Z.ixfr"));
+
+    Splitter splitter = Splitter.on('\n').omitEmptyStrings();
+    assertThat(splitter.split(readGeneratedFile("tld-2000-01-02T00:00:00.000Z.zone")))
+        .containsExactly(
+            "$ORIGIN tld.",
+            "ns.bar.tld 3600 IN A 127.0.0.1",
+            "ns.baz.tld 3600 IN A 127.0.0.1",
+            "unchanged.tld 180 IN NS ns.bar.tld.",
+            "renamed-ns.tld 180 IN NS ns.baz.tld.",
+            "changed.tld 180 IN NS ns.bar.tld.",
+            "changed.tld 86400 IN DS 1 2 3 000102",
+            "new.tld 180 IN NS ns.bar.tld.");
+    assertThat(readGeneratedFile("tld-2000-01-02T00:00:00.000Z.ixfr")).isEqualTo(
+        "; Changes from 2000-01-01T00:00:00.000Z to 2000-01-02T00:00:00.000Z\n"
+            + "$ORIGIN tld.\n"
+            + "\n"
+            + "; Deleted records\n"
+            + "ns.foo.tld 3600 IN A 127.0.0.1\n"
+            + "renamed-ns.tld 180 IN NS ns.foo.tld.\n"
+            + "to-delete.tld 180 IN NS ns.bar.tld.\n"
+            + "\n"
+            + "; Added records\n"
+            + "changed.tld 86400 IN DS 1 2 3 000102\n"
+            + "new.tld 180 IN NS ns.bar.tld.\n"
+            + "ns.baz.tld 3600 IN A 127.0.0.1\n"
+            + "renamed-ns.tld 180 IN NS ns.baz.tld.\n");
+  }
+
+  @Test
+  public void testFailure_incremental_previousZoneFileMissing() throws Exception {
+    DateTime now = DateTime.now(DateTimeZone.UTC).withTimeAtStartOfDay();
+    createTld("tld");
+    thrown.expect(
+        BadRequestException.class,
+        "Previous zone file not found: gs://zonefiles-bucket/tld-" + now.minusDays(1) + ".zone");
+    runAction(new FakeClock(now.plusMinutes(2)), ImmutableMap.<String, Object>of(
+        "tlds", ImmutableList.of("tld"),
+        "exportTime", now,
+        "previousExportTime", now.minusDays(1)));
+  }
+
+  @Test
+  public void testFailure_incremental_previousExportTimeNotBeforeExportTime() throws Exception {
+    DateTime now = DateTime.now(DateTimeZone.UTC).withTimeAtStartOfDay();
+    thrown.expect(
+        BadRequestException.class,
+        "Invalid previous export time: must be before export time");
+    runAction(new FakeClock(now.plusMinutes(2)), ImmutableMap.<String, Object>of(
+        "tlds", ImmutableList.of("tld"),
+        "exportTime", now,
+        "previousExportTime", now));
+  }
+
+  private Map<String, Object> runAction(FakeClock clock, Map<String, Object> params)
+      throws Exception {
+    GenerateZoneFilesAction action = new GenerateZoneFilesAction();
+    action.mrRunner = makeDefaultRunner();
+    action.bucket = "zonefiles-bucket";
+    action.gcsBufferSize = 123;
+    action.datastoreRetention = standardDays(29);
+    action.clock = clock;
+    action.gcsUtils = new GcsUtils(gcsService, 123);
+    Map<String, Object> response = action.handleJsonRequest(params);
+    executeTasksUntilEmpty("mapreduce", clock);
+    return response;
+  }
+
+  /** Reads a generated file, with tabs replaced by spaces. */
+  private String readGeneratedFile(String filename) throws Exception {
+    return new String(readGcsFile(gcsService, new GcsFilename("zonefiles-bucket", filename)), UTF_8)
+        .replaceAll("\t", " ");
+  }
 }
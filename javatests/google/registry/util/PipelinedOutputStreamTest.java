@@ -0,0 +1,111 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package google.registry.util;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import google.registry.monitoring.metrics.Metric;
+import google.registry.monitoring.metrics.MetricPoint;
+import google.registry.testing.ExceptionRule;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link PipelinedOutputStream}. */
+@RunWith(JUnit4.class)
+public class PipelinedOutputStreamTest {
+
+  @Rule
+  public ExceptionRule thrown = new ExceptionRule();
+
+  private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+  private final ThreadFactory threadFactory = Executors.defaultThreadFactory();
+
+  @Test
+  public void testWrite_spanningManyBuffers_writesEverythingInOrder() throws Exception {
+    byte[] data = new byte[10000];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) i;
+    }
+    try (PipelinedOutputStream pipe =
+        new PipelinedOutputStream("test", "test", output, threadFactory, 7, 2)) {
+      pipe.write(data, 0, 5000);
+      pipe.write(data[5000]);
+      pipe.write(Arrays.copyOfRange(data, 5001, data.length));
+      assertThat(pipe.getBytesWritten()).isEqualTo(10000);
+    }
+    assertThat(output.toByteArray()).isEqualTo(data);
+  }
+
+  @Test
+  public void testClose_doesNotCloseDownstream() throws Exception {
+    try (OutputStream pipe =
+        new PipelinedOutputStream("test", "test", output, threadFactory, 4, 1)) {
+      pipe.write("hello".getBytes());
+    }
+    output.write(" world".getBytes());
+    assertThat(output.toString()).isEqualTo("hello world");
+  }
+
+  @Test
+  public void testClose_exportsMetricsByStage() throws Exception {
+    try (OutputStream pipe = new PipelinedOutputStream(
+        "testMetrics", "metrics test", output, threadFactory, 4, 1)) {
+      pipe.write("hello".getBytes());
+    }
+    try (OutputStream pipe = new PipelinedOutputStream(
+        "testMetrics", "metrics test", output, threadFactory, 4, 1)) {
+      pipe.write(" world".getBytes());
+    }
+    assertThat(getCount(PipelinedOutputStream.bytes, "testMetrics")).isEqualTo(11);
+  }
+
+  @Test
+  public void testClose_downstreamFailed_throws() throws Exception {
+    OutputStream broken = new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        throw new IOException("ouch");
+      }};
+    OutputStream pipe = new PipelinedOutputStream("test", "test", broken, threadFactory, 4, 1);
+    pipe.write("hello".getBytes());
+    thrown.expect(IOException.class, "test failed");
+    pipe.close();
+  }
+
+  @Test
+  public void testWrite_failsAfterClose() throws Exception {
+    OutputStream pipe = new PipelinedOutputStream("test", "test", output, threadFactory, 4, 1);
+    pipe.close();
+    thrown.expect(IllegalStateException.class, "outputstream closed");
+    pipe.write("hello".getBytes());
+  }
+
+  private static long getCount(Metric<Long> metric, String... labelValues) {
+    for (MetricPoint<Long> point : metric.getTimestampedValues()) {
+      if (point.labelValues().equals(ImmutableList.copyOf(labelValues))) {
+        return point.value();
+      }
+    }
+    return 0;
+  }
+}
@@ -0,0 +1,181 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.util;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.common.base.Supplier;
+import com.google.common.util.concurrent.Uninterruptibles;
+import google.registry.testing.ExceptionRule;
+import google.registry.testing.FakeClock;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link RefreshAheadSupplier}. */
+@RunWith(JUnit4.class)
+public class RefreshAheadSupplierTest {
+
+  @Rule
+  public final ExceptionRule thrown = new ExceptionRule();
+
+  private final FakeClock clock = new FakeClock(DateTime.parse("2016-01-01T00:00:00Z"));
+
+  /** Executor that queues tasks until the test runs them. */
+  private final Queue<Runnable> pendingReloads = new ArrayDeque<>();
+  private final Executor executor = new Executor() {
+    @Override
+    public void execute(Runnable command) {
+      pendingReloads.add(command);
+    }};
+
+  /** Random that never applies any jitter, to keep refresh times predictable. */
+  private final Random noJitter = new Random() {
+    @Override
+    public double nextDouble() {
+      return 0;
+    }};
+
+  /** Delegate that returns an incrementing value, or throws if told to fail. */
+  private static class CountingSupplier implements Supplier<Integer> {
+    int calls;
+    boolean fail;
+
+    @Override
+    public Integer get() {
+      if (fail) {
+        throw new IllegalStateException("reload failed");
+      }
+      return ++calls;
+    }
+  }
+
+  private final CountingSupplier delegate = new CountingSupplier();
+
+  private final RefreshAheadSupplier<Integer> supplier = new RefreshAheadSupplier<>(
+      "test", delegate, Duration.standardMinutes(10), clock, executor, noJitter);
+
+  private void runPendingReloads() {
+    Runnable reload;
+    while ((reload = pendingReloads.poll()) != null) {
+      reload.run();
+    }
+  }
+
+  @Test
+  public void testGet_firstCall_loadsSynchronously() {
+    assertThat(supplier.get()).isEqualTo(1);
+    assertThat(supplier.get()).isEqualTo(1);
+    assertThat(delegate.calls).isEqualTo(1);
+    assertThat(pendingReloads).isEmpty();
+  }
+
+  @Test
+  public void testGet_afterInterval_servesStaleValueWhileReloading() {
+    supplier.get();
+    clock.advanceBy(Duration.standardMinutes(10));
+    assertThat(supplier.get()).isEqualTo(1);
+    assertThat(supplier.get()).isEqualTo(1);
+    // Only one reload is scheduled, no matter how many callers see the stale value.
+    assertThat(pendingReloads).hasSize(1);
+    runPendingReloads();
+    assertThat(supplier.get()).isEqualTo(2);
+    assertThat(pendingReloads).isEmpty();
+  }
+
+  @Test
+  public void testGet_reloadOnAnotherThread_servesStaleValueUntilItFinishes() throws Exception {
+    final CountDownLatch reloadStarted = new CountDownLatch(1);
+    final CountDownLatch finishReload = new CountDownLatch(1);
+    Supplier<Integer> blockingDelegate = new Supplier<Integer>() {
+      int calls;
+
+      @Override
+      public Integer get() {
+        if (++calls > 1) {
+          reloadStarted.countDown();
+          Uninterruptibles.awaitUninterruptibly(finishReload);
+        }
+        return calls;
+      }};
+    ExecutorService reloadExecutor = Executors.newSingleThreadExecutor();
+    try {
+      RefreshAheadSupplier<Integer> backgroundSupplier = new RefreshAheadSupplier<>(
+          "test", blockingDelegate, Duration.standardMinutes(10), clock, reloadExecutor, noJitter);
+      assertThat(backgroundSupplier.get()).isEqualTo(1);
+      clock.advanceBy(Duration.standardMinutes(10));
+      assertThat(backgroundSupplier.get()).isEqualTo(1);
+      assertThat(reloadStarted.await(10, SECONDS)).isTrue();
+      // The reload is blocked on the other thread, but readers aren't.
+      assertThat(backgroundSupplier.get()).isEqualTo(1);
+      finishReload.countDown();
+      reloadExecutor.shutdown();
+      assertThat(reloadExecutor.awaitTermination(10, SECONDS)).isTrue();
+      assertThat(backgroundSupplier.get()).isEqualTo(2);
+    } finally {
+      finishReload.countDown();
+      reloadExecutor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testGet_reloadFails_keepsStaleValueAndBacksOff() {
+    supplier.get();
+    clock.advanceBy(Duration.standardMinutes(10));
+    delegate.fail = true;
+    supplier.get();
+    runPendingReloads();
+    assertThat(supplier.get()).isEqualTo(1);
+    assertThat(pendingReloads).isEmpty();
+    // The first retry happens after one second.
+    clock.advanceBy(Duration.standardSeconds(1));
+    supplier.get();
+    assertThat(pendingReloads).hasSize(1);
+    runPendingReloads();
+    // The second retry waits two seconds.
+    clock.advanceBy(Duration.standardSeconds(1));
+    supplier.get();
+    assertThat(pendingReloads).isEmpty();
+    clock.advanceBy(Duration.standardSeconds(1));
+    delegate.fail = false;
+    supplier.get();
+    runPendingReloads();
+    assertThat(supplier.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void testGet_firstLoadFails_propagates() {
+    delegate.fail = true;
+    thrown.expect(IllegalStateException.class, "reload failed");
+    supplier.get();
+  }
+
+  @Test
+  public void testFailure_zeroInterval() {
+    thrown.expect(IllegalArgumentException.class, "must be positive");
+    new RefreshAheadSupplier<>("test", delegate, Duration.ZERO, clock, executor, noJitter);
+  }
+}
@@ -0,0 +1,104 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.xml;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import google.registry.monitoring.metrics.Metric;
+import google.registry.monitoring.metrics.MetricPoint;
+import google.registry.testing.ExceptionRule;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link XmlObjectPool}. */
+@RunWith(JUnit4.class)
+public class XmlObjectPoolTest {
+
+  @Rule
+  public final ExceptionRule thrown = new ExceptionRule();
+
+  private final AtomicInteger counter = new AtomicInteger();
+
+  private final XmlObjectPool.Factory<Integer> factory = new XmlObjectPool.Factory<Integer>() {
+    @Override
+    public Integer create() {
+      return counter.incrementAndGet();
+    }
+  };
+
+  @Test
+  public void testBorrow_emptyPool_createsNewObject() throws Exception {
+    XmlObjectPool<Integer> pool = new XmlObjectPool<>("test", 2, factory);
+    assertThat(pool.borrow()).isEqualTo(1);
+    assertThat(pool.borrow()).isEqualTo(2);
+    assertThat(pool.getStats().getCreated()).isEqualTo(2);
+    assertThat(pool.getStats().getReused()).isEqualTo(0);
+  }
+
+  @Test
+  public void testBorrow_afterRelease_reusesObject() throws Exception {
+    XmlObjectPool<Integer> pool = new XmlObjectPool<>("test", 2, factory);
+    Integer object = pool.borrow();
+    pool.release(object);
+    assertThat(pool.getStats().getIdle()).isEqualTo(1);
+    assertThat(pool.borrow()).isSameAs(object);
+    assertThat(pool.getStats().getCreated()).isEqualTo(1);
+    assertThat(pool.getStats().getReused()).isEqualTo(1);
+    assertThat(pool.getStats().getIdle()).isEqualTo(0);
+  }
+
+  @Test
+  public void testRelease_fullPool_dropsObject() throws Exception {
+    XmlObjectPool<Integer> pool = new XmlObjectPool<>("test", 1, factory);
+    Integer first = pool.borrow();
+    Integer second = pool.borrow();
+    pool.release(first);
+    pool.release(second);
+    assertThat(pool.getStats().getIdle()).isEqualTo(1);
+    assertThat(pool.getStats().getDropped()).isEqualTo(1);
+  }
+
+  @Test
+  public void testMetrics_countedByPoolName() throws Exception {
+    XmlObjectPool<Integer> pool = new XmlObjectPool<>("testMetrics", 1, factory);
+    Integer first = pool.borrow();
+    Integer second = pool.borrow();
+    pool.release(first);
+    pool.release(second);
+    pool.borrow();
+    assertThat(getCount(XmlObjectPool.borrows, "testMetrics", "MISS")).isEqualTo(2);
+    assertThat(getCount(XmlObjectPool.borrows, "testMetrics", "HIT")).isEqualTo(1);
+    assertThat(getCount(XmlObjectPool.drops, "testMetrics")).isEqualTo(1);
+  }
+
+  @Test
+  public void testFailure_zeroCapacity() {
+    thrown.expect(IllegalArgumentException.class, "capacity must be positive");
+    new XmlObjectPool<>("test", 0, factory);
+  }
+
+  private static long getCount(Metric<Long> metric, String... labelValues) {
+    for (MetricPoint<Long> point : metric.getTimestampedValues()) {
+      if (point.labelValues().equals(ImmutableList.copyOf(labelValues))) {
+        return point.value();
+      }
+    }
+    return 0;
+  }
+}